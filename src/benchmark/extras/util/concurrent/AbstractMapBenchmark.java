@@ -0,0 +1,65 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Shared state of the map benchmarks: a map of the selected type that is filled with all keys before the benchmark starts. Key objects are created once, so that
+ * boxing is not measured.
+ * 
+ * @author Simon Loesing
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractMapBenchmark
+{
+    @Param({ "CHAINED", "OPEN_ADDRESSING", "HOPSCOTCH", "SPLIT_ORDERED", "CONCURRENT_HASH_MAP" })
+    MapType type;
+
+    @Param({ "1000", "1000000" })
+    int size;
+
+    @Param({ "UNIFORM", "ZIPFIAN" })
+    KeyDistribution distribution;
+
+    ConcurrentMap<Long, Long> map;
+    Long[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = new Long[size];
+        for (int i = 0; i < size; ++i) {
+            keys[i] = Long.valueOf(i);
+        }
+        map = type.newMap(size);
+        for (Long key : keys) {
+            map.put(key, key);
+        }
+    }
+}
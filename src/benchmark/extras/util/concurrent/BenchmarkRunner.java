@@ -0,0 +1,60 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count and writes the results of each run as JSON file, e.g. results-4-threads.json.
+ * 
+ * Arguments: comma separated thread counts (default 1,2,4,8), result directory (default build/benchmark) and a regular expression to select benchmarks (default
+ * all).
+ * 
+ * @author Simon Loesing
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws RunnerException {
+        String threads = (args.length > 0) ? args[0] : "1,2,4,8";
+        File dir = new File((args.length > 1) ? args[1] : "build/benchmark");
+        String include = (args.length > 2) ? args[2] : "extras\\.util\\.concurrent\\..*Benchmark";
+        dir.mkdirs();
+
+        for (String t : threads.split(",")) {
+            int n = Integer.parseInt(t.trim());
+            Options options = new OptionsBuilder()
+                .include(include)
+                .threads(n)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(dir, "results-" + n + "-threads.json").getPath())
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads of a small map while a writer keeps updating the shared mutable fields of the map. The map fits into the CPU caches, so the read throughput mostly depends on
+ * whether the writes invalidate the cache lines that every lookup reads. With "COUNTER" writes the writer inserts and removes a key, which updates the size and
+ * tombstone counters. With "EVICTION" writes the writer inserts keys into a full bounded map, every insert advances the clock hand. Compare the throughput of the
+ * readers before and after a change of the field layout.
+ * 
+ * @author Simon Loesing
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FalseSharingBenchmark
+{
+    @Param({ "COUNTER", "EVICTION" })
+    String writes;
+
+    @Param({ "1000" })
+    int size;
+
+    @Param({ "UNIFORM" })
+    KeyDistribution distribution;
+
+    LockFreeHashMap<Long, Long> map;
+    Long[] keys;
+    boolean removes;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        // The readers look up the first half of the keys, the writer writes the second half
+        keys = new Long[size * 2];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = Long.valueOf(i);
+        }
+        int capacity = LockFreeHashMap.capacityFor(keys.length, LockFreeHashMap.DEFAULT_LOAD_FACTOR);
+        removes = "COUNTER".equals(writes);
+        if (!removes)
+            map = new LockFreeHashMap<Long, Long>(capacity, LockFreeHashMap.DEFAULT_LOAD_FACTOR, size + (size >> 2), null);
+        else
+            map = new LockFreeHashMap<Long, Long>(capacity, LockFreeHashMap.DEFAULT_LOAD_FACTOR, true);
+        for (int i = 0; i < size; ++i) {
+            map.put(keys[i], keys[i]);
+        }
+    }
+
+    /**
+     * Position of the writer
+     */
+    @State(Scope.Thread)
+    public static class Writer
+    {
+        int pos;
+    }
+
+    @Benchmark
+    @Group("sharing")
+    @GroupThreads(1)
+    public Long write(Writer w) {
+        w.pos = (w.pos + 1) % (size << 1);
+        Long key = keys[size + (w.pos >> 1)];
+        if (removes && (w.pos & 1) != 0)
+            return map.remove(key);
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    @Group("sharing")
+    @GroupThreads(3)
+    public Long read(KeySequence seq) {
+        return map.get(keys[seq.next()]);
+    }
+}
@@ -0,0 +1,91 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups of a large map that mostly miss, with and without the fingerprint summary of the buckets. The map does not resize, "entriesPerBucket" sets the average
+ * chain length. "hitPercent" is the share of lookups for present keys, all other lookups are for absent keys that hash to occupied buckets just as well. The map is
+ * much larger than the CPU caches, so the throughput mostly depends on the number of cache lines a lookup reads.
+ * 
+ * @author Simon Loesing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FingerprintBenchmark
+{
+    @Param({ "false", "true" })
+    boolean fingerprints;
+
+    @Param({ "1", "4" })
+    int entriesPerBucket;
+
+    @Param({ "0", "10", "50" })
+    int hitPercent;
+
+    @Param({ "4000000" })
+    int size;
+
+    @Param({ "UNIFORM" })
+    KeyDistribution distribution;
+
+    LockFreeHashMap<Long, Long> map;
+    Long[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // The first half of the keys is present, the second half absent
+        keys = new Long[size * 2];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = Long.valueOf(i);
+        }
+        map = new LockFreeHashMap<Long, Long>(Integer.highestOneBit(size / entriesPerBucket), 1.0f, false, false, fingerprints);
+        for (int i = 0; i < size; ++i) {
+            map.put(keys[i], keys[i]);
+        }
+    }
+
+    @Benchmark
+    public Long get(KeySequence seq) {
+        int i = seq.next();
+        return map.get(keys[(seq.percentile() < hitPercent) ? i : size + i]);
+    }
+}
@@ -0,0 +1,96 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+/**
+ * Distributions of the keys accessed by a benchmark. Key sequences are generated before a benchmark runs, so that the generator does not distort the measurement.
+ * 
+ * @author Simon Loesing
+ */
+public enum KeyDistribution
+{
+    /** Every key is accessed with the same probability */
+    UNIFORM {
+        @Override
+        public int[] sequence(int numKeys, int length, long seed) {
+            Random rand = new Random(seed);
+            int[] seq = new int[length];
+            for (int i = 0; i < length; ++i) {
+                seq[i] = rand.nextInt(numKeys);
+            }
+            return seq;
+        }
+    },
+
+    /** Few hot keys are accessed most of the time (zipfian distribution, constant 0.99). Hot keys are scattered over the key space */
+    ZIPFIAN {
+        @Override
+        public int[] sequence(int numKeys, int length, long seed) {
+            Random rand = new Random(seed);
+            double theta = ZIPFIAN_CONSTANT;
+            double zetan = zeta(numKeys, theta);
+            double alpha = 1.0 / (1.0 - theta);
+            double eta = (1 - Math.pow(2.0 / numKeys, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+
+            int[] seq = new int[length];
+            for (int i = 0; i < length; ++i) {
+                // Algorithm of Gray et al., "Quickly Generating Billion-Record Synthetic Databases"
+                double u = rand.nextDouble();
+                double uz = u * zetan;
+                long rank;
+                if (uz < 1.0) {
+                    rank = 0;
+                } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+                    rank = 1;
+                } else {
+                    rank = (long) (numKeys * Math.pow(eta * u - eta + 1, alpha));
+                }
+                // Scramble the rank, otherwise all hot keys are neighbours
+                seq[i] = (int) ((rank * 0x9E3779B97F4A7C15L >>> 1) % numKeys);
+            }
+            return seq;
+        }
+    };
+
+    static final double ZIPFIAN_CONSTANT = 0.99;
+
+    /**
+     * Generates a sequence of key indexes
+     * 
+     * @param numKeys number of distinct keys, indexes are in [0, numKeys)
+     * @param length of the sequence
+     * @param seed of the random generator
+     * @return int[] key indexes
+     */
+    public abstract int[] sequence(int numKeys, int length, long seed);
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; ++i) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
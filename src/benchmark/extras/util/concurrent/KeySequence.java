@@ -0,0 +1,67 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Per-thread sequence of key indexes and operation choices, generated from the "size" and "distribution" parameters of the benchmark
+ * 
+ * @author Simon Loesing
+ */
+@State(Scope.Thread)
+public class KeySequence
+{
+    static final int LENGTH = 1 << 16;
+
+    int[] keys;
+    int[] percentiles;
+    int pos;
+
+    @Setup
+    public void setup(BenchmarkParams params, ThreadParams thread) {
+        int size = Integer.parseInt(params.getParam("size"));
+        KeyDistribution distribution = KeyDistribution.valueOf(params.getParam("distribution"));
+        keys = distribution.sequence(size, LENGTH, thread.getThreadIndex());
+        percentiles = KeyDistribution.UNIFORM.sequence(100, LENGTH, ~thread.getThreadIndex());
+    }
+
+    /**
+     * @return int index of the next key
+     */
+    final int next() {
+        pos = (pos + 1) & (LENGTH - 1);
+        return keys[pos];
+    }
+
+    /**
+     * @return int random number in [0, 100) for the current key
+     */
+    final int percentile() {
+        return percentiles[pos];
+    }
+}
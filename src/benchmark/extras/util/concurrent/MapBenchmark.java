@@ -0,0 +1,77 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks of the single map operations. All keys are present in the map, so the map size stays constant.
+ * 
+ * @author Simon Loesing
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapBenchmark extends AbstractMapBenchmark
+{
+    @Benchmark
+    public Long get(KeySequence seq) {
+        return map.get(keys[seq.next()]);
+    }
+
+    @Benchmark
+    public Long put(KeySequence seq) {
+        Long key = keys[seq.next()];
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public Long putIfAbsent(KeySequence seq) {
+        Long key = keys[seq.next()];
+        return map.putIfAbsent(key, key);
+    }
+
+    /** Removes a key and inserts it again */
+    @Benchmark
+    public Long remove(KeySequence seq) {
+        Long key = keys[seq.next()];
+        map.remove(key);
+        return map.putIfAbsent(key, key);
+    }
+
+    @Benchmark
+    public boolean replace(KeySequence seq) {
+        Long key = keys[seq.next()];
+        return map.replace(key, key, key);
+    }
+}
@@ -0,0 +1,54 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Map implementations compared by the benchmarks
+ * 
+ * @author Simon Loesing
+ */
+public enum MapType
+{
+    CHAINED(MapEngine.CHAINED), OPEN_ADDRESSING(MapEngine.OPEN_ADDRESSING), HOPSCOTCH(MapEngine.HOPSCOTCH), SPLIT_ORDERED(MapEngine.SPLIT_ORDERED), CONCURRENT_HASH_MAP(null);
+
+    private final MapEngine engine;
+
+    private MapType(MapEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Creates a new, resizable map. The JDK map is created with the same load factor as the lock-free maps
+     * 
+     * @param initialCapacity
+     * @return ConcurrentMap new map
+     */
+    public <K, V> ConcurrentMap<K, V> newMap(int initialCapacity) {
+        if (engine == null)
+            return new ConcurrentHashMap<K, V>(initialCapacity, LockFreeHashMap.DEFAULT_LOAD_FACTOR);
+        return engine.newMap(initialCapacity, LockFreeHashMap.DEFAULT_LOAD_FACTOR, true);
+    }
+}
@@ -0,0 +1,107 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads while the map resizes. A writer inserts keys into a map that starts with the minimal capacity, so the map resizes several times. After "size" keys the
+ * writer starts over with a new map. The readers look up random keys of the current map.
+ * 
+ * @author Simon Loesing
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResizeBenchmark
+{
+    static final int INITIAL_CAPACITY = 16;
+
+    @Param({ "CHAINED", "OPEN_ADDRESSING", "HOPSCOTCH", "SPLIT_ORDERED", "CONCURRENT_HASH_MAP" })
+    MapType type;
+
+    @Param({ "100000" })
+    int size;
+
+    @Param({ "UNIFORM" })
+    KeyDistribution distribution;
+
+    volatile ConcurrentMap<Long, Long> map;
+    Long[] keys;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        keys = new Long[size];
+        for (int i = 0; i < size; ++i) {
+            keys[i] = Long.valueOf(i);
+        }
+        map = type.newMap(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Position of the writer
+     */
+    @State(Scope.Thread)
+    public static class Writer
+    {
+        int pos;
+    }
+
+    @Benchmark
+    @Group("resize")
+    @GroupThreads(1)
+    public Long insert(Writer w) {
+        if (w.pos == size) {
+            map = type.newMap(INITIAL_CAPACITY);
+            w.pos = 0;
+        }
+        Long key = keys[w.pos++];
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    @Group("resize")
+    @GroupThreads(3)
+    public Long get(KeySequence seq) {
+        return map.get(keys[seq.next()]);
+    }
+}
@@ -0,0 +1,959 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent hash-map implementation based on hopscotch hashing.
+ * 
+ * Every key is stored within a fixed neighbourhood of {@value #HOP_RANGE} slots that follow its bucket. Each bucket keeps a bitmap of the slots in its neighbourhood that hold its keys, so a lookup touches at
+ * most {@value #HOP_RANGE} adjacent slots, no matter how full the map is. An insert that finds a free slot outside the neighbourhood moves keys of other buckets towards their own buckets until the free slot is
+ * close enough.
+ * 
+ * Reads do not use any locks. They are optimistic: the buckets are grouped in segments, and every segment has a timestamp that is incremented whenever a key of one of its buckets is removed or moved. A read
+ * that misses a key, or that raced with a move, validates the timestamp and retries if it changed. Writes modify several slots at once and are therefore serialized per segment by a CAS based spin lock.
+ * Segments are always locked in ascending order. A resize locks all segments and rehashes the keys into a table of twice the size.
+ * 
+ * By default the hash-map is initialized with a capacity of 128 and a resize factor of 0.65. A map that is not resizable still grows once an insert cannot find a free slot close enough to the bucket of its key.
+ * 
+ * This object is thread-safe and can be accessed by multiple threads concurrently.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <K> Key object
+ * @param <V> Value object
+ */
+public class HopscotchHashMap<K, V> implements ConcurrentMap<K, V>
+{
+    static final int MINIMAL_CAPACITY = LockFreeHashMap.MINIMAL_CAPACITY;
+    static final float MINIMAL_LOAD_FACTOR = LockFreeHashMap.MINIMAL_LOAD_FACTOR;
+    static final int DEFAULT_INITIAL_CAPACITY = LockFreeHashMap.DEFAULT_INITIAL_CAPACITY;
+    static final float DEFAULT_LOAD_FACTOR = LockFreeHashMap.DEFAULT_LOAD_FACTOR;
+
+    /** Size of the neighbourhood of a bucket, the number of bits of the hop bitmap */
+    static final int HOP_RANGE = 32;
+    /** Maximal distance of a free slot from the bucket of an inserted key */
+    static final int ADD_RANGE = 256;
+    /** A segment groups 2^SEGMENT_SHIFT buckets */
+    static final int SEGMENT_SHIFT = 5;
+    /** Lock and timestamp of a segment are 16 ints apart from the next segment, so every segment uses its own cache line */
+    static final int SEGMENT_STRIDE = 16;
+    /** Number of failed lock attempts before a writer yields */
+    static final int SPINS_BEFORE_YIELD = 64;
+
+    int initialCapacity;
+    float loadFactor;
+    boolean isResizable;
+    volatile int resizeThreshold;
+    volatile Table data;
+    final StripedCounter counter = new StripedCounter();
+
+    private transient Set<K> keySet;
+    private transient Set<Entry<K, V>> entrySet;
+    private transient Collection<V> values;
+
+    /**
+     * Creates a new hash-map with default capacity and resize factor
+     */
+    public HopscotchHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, true);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param isResizable false to resize only if a key cannot be placed in the neighbourhood of its bucket
+     */
+    public HopscotchHashMap(int initialCapacity, boolean isResizable) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, isResizable);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable false to resize only if a key cannot be placed in the neighbourhood of its bucket
+     */
+    public HopscotchHashMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        // Find next power-of-two of the initial capacity
+        this.initialCapacity = MINIMAL_CAPACITY;
+        while (this.initialCapacity < initialCapacity) {
+            this.initialCapacity <<= 1;
+        }
+        if (loadFactor >= MINIMAL_LOAD_FACTOR && loadFactor <= 1.0f) {
+            this.loadFactor = loadFactor;
+        } else {
+            this.loadFactor = MINIMAL_LOAD_FACTOR;
+        }
+        this.resizeThreshold = (int) (this.initialCapacity * this.loadFactor);
+        this.isResizable = isResizable;
+        this.data = new Table(this.initialCapacity);
+    }
+
+    /**
+     * Clears the entire map and resets the capacity to the initial value
+     */
+    @Override
+    public void clear() {
+        while (true) {
+            Table t = data;
+            lockAll(t);
+            try {
+                if (data != t)
+                    continue;
+                resizeThreshold = (int) (this.initialCapacity * this.loadFactor);
+                data = new Table(this.initialCapacity);
+                counter.add(-counter.sum());
+                return;
+            } finally {
+                unlock(t, 0, t.segments - 1);
+            }
+        }
+    }
+
+    /**
+     * Verifies if a key is already present in the map
+     * 
+     * @param k key
+     * @return true if key is contained in the map, otherwise false
+     */
+    @Override
+    public boolean containsKey(Object k) {
+        return get(k) != null;
+    }
+
+    /**
+     * Verifies if a value is already present in the map
+     * 
+     * @param v value
+     * @return true if the value is present, otherwise false
+     */
+    @Override
+    public boolean containsValue(Object v) {
+        Iterator<V> it = new ValueIterator();
+        while (it.hasNext()) {
+            V value = it.next();
+            if (value == v || v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the key-set of the map. The key set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all keys
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null) ? ks : (keySet = new KeySet());
+    }
+
+    /**
+     * Retrieves all the values of the map. The collection points to the current content of the map. Changes in the map are immediately visible. As well, all operations executed on the collection are directly applied to the map.
+     * 
+     * @return Collection with all values
+     */
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return (vs != null) ? vs : (values = new Values());
+    }
+
+    /**
+     * Retrieves all key/value pairs of the map. The entry set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all entries
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * Retrieves a value from the map. Only the slots of the bucket's neighbourhood that are marked in its hop bitmap are read. If a key of the bucket was removed or moved while searching, the search is
+     * repeated.
+     * 
+     * @param key
+     * @return V value if key exists, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public final V get(Object key) {
+        int hash = LockFreeHashMap.hash(key.hashCode());
+        Table t = data;
+        Object[] kvs = t.kvs;
+        int bucket = hash & (t.length - 1);
+        int tsIndex = t.timestampIndex(bucket);
+
+        while (true) {
+            int ts = (int) INT.getVolatile(t.segmentStates, tsIndex);
+            int hop = t.hopInfo(bucket);
+            while (hop != 0) {
+                int idx = bucket + Integer.numberOfTrailingZeros(hop);
+                Object k = keyAt(kvs, idx);
+                if (k == key || (k != null && t.hashes[idx] == hash && key.equals(k))) {
+                    Object v = valueAt(kvs, idx);
+                    if (v != null && (int) INT.getVolatile(t.segmentStates, tsIndex) == ts)
+                        return (V) v;
+                    break;
+                }
+                hop &= hop - 1;
+            }
+            if (hop == 0 && (int) INT.getVolatile(t.segmentStates, tsIndex) == ts)
+                return null;
+        }
+    }
+
+    /**
+     * Verifies if the map is empty (does not contain any keys)
+     * 
+     * @return true if map is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Inserts a key/value pair in the map. If the key is already present, the value is overwritten
+     * 
+     * @param key
+     * @param value
+     * @return V old value if key was already present in the map, null otherwise
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return put(key, value, false, false, null);
+    }
+
+    /**
+     * Inserts a key/value pair in the map only if the key does not exist yet.
+     * 
+     * @param key
+     * @param value
+     * @return V current value if the key is already present, null otherwise
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return put(key, value, true, false, null);
+    }
+
+    /**
+     * Inserts all the entries of an existing map. This operation is not atomic. All entries are inserted sequentially
+     * 
+     * @param map to insert
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Private generic put method used for all insert operations. The segment of the bucket is locked first, the search for a free slot locks every further segment it enters.
+     * 
+     * @param key
+     * @param value
+     * @param onlyIfAbsent boolean
+     * @param onlyReplace boolean
+     * @param oldValue only used for replace
+     * @return V previous value, null if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    private final V put(K key, V value, boolean onlyIfAbsent, boolean onlyReplace, V oldValue) {
+        int hash = LockFreeHashMap.hash(key.hashCode());
+
+        while (true) {
+            Table t = data;
+            Object[] kvs = t.kvs;
+            int bucket = hash & (t.length - 1);
+            int firstSegment = t.segment(bucket);
+            int lastSegment = firstSegment;
+            boolean inserted = false;
+            lock(t, firstSegment);
+            try {
+                if (data != t)
+                    continue;
+
+                int idx = find(t, bucket, key, hash);
+                if (idx >= 0) {
+                    V v = (V) valueAt(kvs, idx);
+                    if (onlyIfAbsent || (oldValue != null && !oldValue.equals(v)))
+                        return v;
+                    SLOT.setVolatile(kvs, valueIndex(idx), value);
+                    return v;
+                }
+                if (onlyReplace)
+                    return null;
+
+                int limit = Math.min(bucket + ADD_RANGE, t.slots);
+                int free = bucket;
+                for (; free < limit; ++free) {
+                    int segment = t.segment(free);
+                    if (segment > lastSegment) {
+                        lock(t, segment);
+                        lastSegment = segment;
+                    }
+                    if (keyAt(kvs, free) == null)
+                        break;
+                }
+                if (free < limit) {
+                    while (free >= 0 && free - bucket >= HOP_RANGE) {
+                        free = moveCloser(t, free);
+                    }
+                    if (free >= 0) {
+                        store(t, bucket, free, hash, key, value);
+                        inserted = true;
+                    }
+                }
+            } finally {
+                unlock(t, firstSegment, lastSegment);
+            }
+
+            if (inserted) {
+                counter.add(1);
+                if (isResizable && counter.sum() > resizeThreshold)
+                    resize(t);
+                return null;
+            }
+            // No free slot close enough to the bucket
+            resize(t);
+        }
+    }
+
+    /**
+     * Removes a key/value pair from the map
+     * 
+     * @param k key to remove
+     * @return V old value associated to the key, null if key is not in the map
+     */
+    @Override
+    public V remove(Object k) {
+        if (k == null)
+            return null;
+
+        return remove(k, LockFreeHashMap.hash(k.hashCode()), null);
+    }
+
+    /**
+     * Removes a key/value pair from the map if it matches the given parameters
+     * 
+     * @param k key
+     * @param v value
+     * @return true if the key/value pair was removed
+     */
+    @Override
+    public boolean remove(Object k, Object v) {
+        if (k == null || v == null)
+            return false;
+
+        return remove(k, LockFreeHashMap.hash(k.hashCode()), v) != null;
+    }
+
+    /**
+     * Private generic removes method used for all remove operations. The timestamp of the segment is incremented before the slot is cleared, so that readers searching the key concurrently retry.
+     * 
+     * @param key to remove
+     * @param hash of the key
+     * @param value if not null only execute remove if exact key/value match is found
+     * @return V old value associated to the key
+     */
+    @SuppressWarnings("unchecked")
+    private final V remove(Object key, int hash, Object value) {
+        while (true) {
+            Table t = data;
+            Object[] kvs = t.kvs;
+            int bucket = hash & (t.length - 1);
+            int segment = t.segment(bucket);
+            lock(t, segment);
+            try {
+                if (data != t)
+                    continue;
+
+                int idx = find(t, bucket, key, hash);
+                if (idx < 0)
+                    return null;
+                V v = (V) valueAt(kvs, idx);
+                if (value != null && v != value && !value.equals(v))
+                    return null;
+                t.incrementTimestamp(bucket);
+                t.setHopInfo(bucket, t.hopInfo(bucket) & ~(1 << (idx - bucket)));
+                // The value is cleared first. An insert that takes over the slot only writes it once the key is gone
+                SLOT.setVolatile(kvs, valueIndex(idx), null);
+                SLOT.setVolatile(kvs, keyIndex(idx), null);
+                counter.add(-1);
+                return v;
+            } finally {
+                unlock(t, segment, segment);
+            }
+        }
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * 
+     * @param key
+     * @param value replacement
+     * @return V old value if key was already present, null otherwise
+     */
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return put(key, value, false, true, null);
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present and the current value is equal to passed oldValue parameter.
+     * 
+     * @param key
+     * @param oldValue
+     * @param newValue
+     * @return true if the value was replaced
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            return false;
+
+        return oldValue.equals(put(key, newValue, false, true, oldValue));
+    }
+
+    /**
+     * Retrieves the size of the map
+     * 
+     * @return int current number of entries in the map, Integer.MAX_VALUE if the map contains more entries
+     */
+    @Override
+    public int size() {
+        long n = counter.sum();
+        return (n < 0L) ? 0 : (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Retrieves the number of mappings. Use this method instead of {@link #size()} as a map may contain more mappings than can be represented as an int. The value is an estimate, inserts and removes that run
+     * concurrently may or may not be reflected.
+     * 
+     * @return long number of entries in the map
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * Specifies the number of free spots before the map starts a resize procedure
+     * 
+     * @return int number of insert left before the map resizes
+     */
+    public int nextResize() {
+        long res = resizeThreshold - counter.sum();
+        return (res >= 0) ? (int) res : 0;
+    }
+
+    /**
+     * Internal method to find a key in the neighbourhood of its bucket. The segment of the bucket must be locked.
+     * 
+     * @return int slot of the key, -1 if the key is not present
+     */
+    private static final int find(Table t, int bucket, Object key, int hash) {
+        Object[] kvs = t.kvs;
+        int hop = t.hopInfo(bucket);
+        while (hop != 0) {
+            int idx = bucket + Integer.numberOfTrailingZeros(hop);
+            Object k = keyAt(kvs, idx);
+            if (k == key || (t.hashes[idx] == hash && key.equals(k)))
+                return idx;
+            hop &= hop - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Internal method to write a key into a free slot of the neighbourhood of its bucket. The value is written before the key, readers that find the key therefore always find its value.
+     */
+    private static final void store(Table t, int bucket, int idx, int hash, Object key, Object value) {
+        t.hashes[idx] = hash;
+        SLOT.setVolatile(t.kvs, valueIndex(idx), value);
+        SLOT.setVolatile(t.kvs, keyIndex(idx), key);
+        t.setHopInfo(bucket, t.hopInfo(bucket) | (1 << (idx - bucket)));
+    }
+
+    /**
+     * Internal method to move the free slot closer to the bucket of an insert. The key closest to the bucket of the insert whose own neighbourhood still covers the free slot is moved into the free slot. All
+     * segments between the bucket of the insert and the free slot must be locked.
+     * 
+     * @param t table
+     * @param free index of the free slot
+     * @return int index of the new free slot, -1 if no key can be moved
+     */
+    private static final int moveCloser(Table t, int free) {
+        Object[] kvs = t.kvs;
+        for (int bucket = free - (HOP_RANGE - 1); bucket < free && bucket < t.length; ++bucket) {
+            int hop = t.hopInfo(bucket);
+            if (hop == 0)
+                continue;
+            int idx = bucket + Integer.numberOfTrailingZeros(hop);
+            if (idx >= free)
+                continue;
+
+            // Copy the key first, readers find it in one of both slots until the timestamp is incremented
+            t.hashes[free] = t.hashes[idx];
+            SLOT.setVolatile(kvs, valueIndex(free), valueAt(kvs, idx));
+            SLOT.setVolatile(kvs, keyIndex(free), keyAt(kvs, idx));
+            hop |= 1 << (free - bucket);
+            t.setHopInfo(bucket, hop);
+            t.incrementTimestamp(bucket);
+            t.setHopInfo(bucket, hop & ~(1 << (idx - bucket)));
+            SLOT.setVolatile(kvs, valueIndex(idx), null);
+            SLOT.setVolatile(kvs, keyIndex(idx), null);
+            return idx;
+        }
+        return -1;
+    }
+
+    /**
+     * Internal method that doubles the table. All segments are locked while the keys are rehashed, readers continue to use the old table until the new one is published.
+     * 
+     * @param t table to resize
+     */
+    private final void resize(Table t) {
+        lockAll(t);
+        try {
+            if (data != t)
+                return;
+            int length = t.length;
+            Table next;
+            do {
+                length <<= 1;
+                next = rehash(t, length);
+            } while (next == null);
+            resizeThreshold = (int) (length * loadFactor);
+            data = next;
+        } finally {
+            unlock(t, 0, t.segments - 1);
+        }
+    }
+
+    /**
+     * Copies all keys of a table into a new table
+     * 
+     * @param t table to copy
+     * @param length of the new table
+     * @return Table new table, null if a key could not be placed
+     */
+    private static final Table rehash(Table t, int length) {
+        Table next = new Table(length);
+        Object[] kvs = t.kvs;
+        for (int i = 0; i < t.slots; ++i) {
+            Object k = keyAt(kvs, i);
+            if (k == null)
+                continue;
+            int hash = t.hashes[i];
+            int bucket = hash & (length - 1);
+            int limit = Math.min(bucket + ADD_RANGE, next.slots);
+            int free = bucket;
+            while (free < limit && keyAt(next.kvs, free) != null) {
+                ++free;
+            }
+            if (free == limit)
+                return null;
+            while (free >= 0 && free - bucket >= HOP_RANGE) {
+                free = moveCloser(next, free);
+            }
+            if (free < 0)
+                return null;
+            store(next, bucket, free, hash, k, valueAt(kvs, i));
+        }
+        return next;
+    }
+
+    /**
+     * Verifies if a resize is running
+     * 
+     * @return true if resize operation is currently happening
+     */
+    final boolean isResizing() {
+        Table t = data;
+        return (int) INT.getVolatile(t.segmentStates, t.lockIndex(0)) != 0;
+    }
+
+    private static final void lock(Table t, int segment) {
+        int lock = t.lockIndex(segment);
+        int spins = 0;
+        while (!INT.compareAndSet(t.segmentStates, lock, 0, 1)) {
+            if (++spins >= SPINS_BEFORE_YIELD) {
+                spins = 0;
+                Thread.yield();
+            }
+        }
+    }
+
+    private static final void lockAll(Table t) {
+        for (int segment = 0; segment < t.segments; ++segment) {
+            lock(t, segment);
+        }
+    }
+
+    private static final void unlock(Table t, int firstSegment, int lastSegment) {
+        for (int segment = lastSegment; segment >= firstSegment; --segment) {
+            INT.setVolatile(t.segmentStates, t.lockIndex(segment), 0);
+        }
+    }
+
+    static final Object keyAt(Object[] kvs, int idx) {
+        return SLOT.getVolatile(kvs, keyIndex(idx));
+    }
+
+    static final Object valueAt(Object[] kvs, int idx) {
+        return SLOT.getVolatile(kvs, valueIndex(idx));
+    }
+
+    private static final int keyIndex(int idx) {
+        return idx << 1;
+    }
+
+    private static final int valueIndex(int idx) {
+        return (idx << 1) + 1;
+    }
+
+    /**
+     * Slot array of the map. Key and value of a slot are stored next to each other, key at index 2*i and value at 2*i+1. The table has HOP_RANGE - 1 slots more than buckets, so the neighbourhood of the last
+     * buckets does not wrap around. Segments therefore cover consecutive slots and are locked in ascending order.
+     * 
+     * @author Simon Loesing
+     */
+    static final class Table
+    {
+        final Object[] kvs;
+        final int[] hashes;
+        final int[] hopInfo;
+        /** Lock and timestamp of every segment */
+        final int[] segmentStates;
+        final int length;
+        final int slots;
+        final int segments;
+
+        Table(int length) {
+            this.length = length;
+            this.slots = length + HOP_RANGE - 1;
+            this.kvs = new Object[slots << 1];
+            this.hashes = new int[slots];
+            this.hopInfo = new int[length];
+            this.segments = ((length - 1) >>> SEGMENT_SHIFT) + 1;
+            this.segmentStates = new int[segments * SEGMENT_STRIDE];
+        }
+
+        /**
+         * Segment of a slot. Slots behind the last bucket belong to the last segment
+         */
+        final int segment(int idx) {
+            return Math.min(idx, length - 1) >>> SEGMENT_SHIFT;
+        }
+
+        final int lockIndex(int segment) {
+            return segment * SEGMENT_STRIDE;
+        }
+
+        final int timestampIndex(int bucket) {
+            return segment(bucket) * SEGMENT_STRIDE + 1;
+        }
+
+        final int hopInfo(int bucket) {
+            return (int) INT.getVolatile(hopInfo, bucket);
+        }
+
+        final void setHopInfo(int bucket, int hop) {
+            INT.setVolatile(hopInfo, bucket, hop);
+        }
+
+        /**
+         * Increments the timestamp of the segment of a bucket. The segment must be locked.
+         */
+        final void incrementTimestamp(int bucket) {
+            int ts = timestampIndex(bucket);
+            INT.setVolatile(segmentStates, ts, (int) INT.getVolatile(segmentStates, ts) + 1);
+        }
+    }
+
+    /**
+     * Abstract object to iterate over the map. The iterator walks the buckets of the table that is current when it is created. The keys of a bucket are read at once and validated against the timestamp of
+     * its segment, so keys that are moved within their neighbourhood are returned exactly once.
+     * 
+     * @author Simon Loesing
+     */
+    abstract class HashIterator
+    {
+        final Table table;
+        final Object[] keys = new Object[HOP_RANGE];
+        final Object[] vals = new Object[HOP_RANGE];
+        int bucket;
+        int count;
+        int pos;
+        Object lastReturned;
+
+        HashIterator() {
+            table = data;
+            advanceToNext();
+        }
+
+        final void advanceToNext() {
+            Table t = table;
+            Object[] kvs = t.kvs;
+            while (++pos >= count) {
+                pos = -1;
+                count = 0;
+                if (bucket >= t.length)
+                    return;
+                int tsIndex = t.timestampIndex(bucket);
+                while (true) {
+                    int ts = (int) INT.getVolatile(t.segmentStates, tsIndex);
+                    int hop = t.hopInfo(bucket);
+                    int n = 0;
+                    while (hop != 0) {
+                        int idx = bucket + Integer.numberOfTrailingZeros(hop);
+                        Object k = keyAt(kvs, idx);
+                        Object v = valueAt(kvs, idx);
+                        if (k != null && v != null) {
+                            keys[n] = k;
+                            vals[n++] = v;
+                        }
+                        hop &= hop - 1;
+                    }
+                    if ((int) INT.getVolatile(t.segmentStates, tsIndex) == ts) {
+                        count = n;
+                        break;
+                    }
+                }
+                ++bucket;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final Entry<K, V> nextEntry() {
+            if (pos < 0)
+                throw new NoSuchElementException();
+            Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<K, V>((K) keys[pos], (V) vals[pos]);
+            lastReturned = keys[pos];
+            advanceToNext();
+            return e;
+        }
+
+        public final boolean hasNext() {
+            return pos >= 0;
+        }
+
+        public final boolean hasMoreElements() {
+            return pos >= 0;
+        }
+
+        public final void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            HopscotchHashMap.this.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * Iterator for keys
+     * 
+     * @author Simon Loesing
+     */
+    final class KeyIterator extends HashIterator implements Iterator<K>
+    {
+        public final K next() {
+            return super.nextEntry().getKey();
+        }
+    }
+
+    /**
+     * Iterator for values
+     * 
+     * @author Simon Loesing
+     */
+    final class ValueIterator extends HashIterator implements Iterator<V>
+    {
+        public final V next() {
+            return super.nextEntry().getValue();
+        }
+    }
+
+    /**
+     * Iterator for entry objects
+     * 
+     * @author Simon Loesing
+     */
+    final class EntryIterator extends HashIterator implements Iterator<Entry<K, V>>
+    {
+        public Entry<K, V> next() {
+            return super.nextEntry();
+        }
+    }
+    /**
+     * Set of all keys for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class KeySet extends AbstractSet<K>
+    {
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return HopscotchHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return HopscotchHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return HopscotchHashMap.this.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return HopscotchHashMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            HopscotchHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Collection of all values for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class Values extends AbstractCollection<V>
+    {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return HopscotchHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return HopscotchHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return HopscotchHashMap.this.containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            HopscotchHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Set of all entries for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class EntrySet extends AbstractSet<Entry<K, V>>
+    {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            V v = HopscotchHashMap.this.get(e.getKey());
+            return v != null && v.equals(e.getValue());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            return HopscotchHashMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public int size() {
+            return HopscotchHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return HopscotchHashMap.this.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            HopscotchHashMap.this.clear();
+        }
+    }
+
+    // VarHandle mechanics
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final VarHandle INT = MethodHandles.arrayElementVarHandle(int[].class);
+}
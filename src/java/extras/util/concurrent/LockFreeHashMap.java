@@ -22,15 +22,40 @@ package extras.util.concurrent;
  * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.AbstractCollection;
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToDoubleBiFunction;
+import java.util.function.ToLongBiFunction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * A lock free concurrent hash-map implementation with dynamic resizing.
@@ -50,18 +75,65 @@ import java.util.concurrent.ConcurrentMap;
 public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
 {
     static final int MINIMAL_CAPACITY = 16;
+    static final int MAXIMAL_CAPACITY = 1 << 30;
     static final float MINIMAL_LOAD_FACTOR = 0.5f;
     static final int DEFAULT_INITIAL_CAPACITY = 128;
     static final float DEFAULT_LOAD_FACTOR = 0.65f;
+    /** The shrink factor is at most a quarter of the load factor, so a map that was just halved never grows again right away */
+    static final float MAXIMAL_SHRINK_RATIO = 0.25f;
+
+    /** Number of entries below which putAll inserts sequentially */
+    static final int MIN_BULK_LOAD_SIZE = 1 << 14;
+
+    /** Number of buckets a writer claims at once when it evicts entries of a bounded map, and number of claims per write */
+    static final int EVICTION_STRIDE = 16;
+    static final int MAX_EVICTION_STRIDES = 8;
+
+    /** Number of buckets a thread claims at once when helping with a resize */
+    static final int MIN_TRANSFER_STRIDE = 16;
+    /** Hash value of forwarding markers. Regular hash values are always positive */
+    static final int FORWARDING_HASH = -1;
+    /** Hash value of the markers appended to deleted entries before they are unlinked */
+    static final int MARKER_HASH = -2;
+    /**
+     * Entry states. An entry that is moved by a resize is marked with MOVED plus the number of the resize. REPLACED marks an entry a resize dropped in favor of a more recent entry of the same key, SUPERSEDED
+     * an entry that an update replaced by a new entry
+     */
+    static final int LIVE = 0;
+    static final int DELETED = 1;
+    static final int REPLACED = 2;
+    static final int SUPERSEDED = 3;
+    static final int MOVED = 4;
+    /** Flag in the state word of an entry of a bounded map, set if the entry was read or written since the clock hand last passed it. Entry states never reach it */
+    static final int ACCESSED = 1 << 30;
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
 
     int initialCapacity;
     float loadFactor;
     boolean isResizable;
+    boolean updateInPlace;
+    float shrinkFactor;
+    Executor resizeExecutor;
+    long maximumWeight;
+    Weigher<? super K, ? super V> weigher;
+    StripedCounter weight;
+    StripedCounter evictions;
+    ClockHand clockHand;
+    long expireAfter;
+    boolean refreshOnAccess;
+    TimerWheel<K, V> wheel;
+    MapMetrics metrics;
+    ObjectName metricsName;
+    int resizeCount;
     volatile int resizeThreshold;
-    volatile int resizeLock;
+    volatile int shrinkThreshold;
     volatile HashEntry<K, V>[] data;
-    volatile HashEntry<K, V>[] data_new;
-    volatile int size;
+    volatile ForwardingEntry<K, V> forwarding;
+    volatile Fingerprints fingerprints;
+    final StripedCounter counter = new StripedCounter();
+    final StripedCounter tombstones = new StripedCounter();
+    final ResizeControl control = new ResizeControl();
 
     private transient Set<K> keySet;
     private transient Set<Entry<K, V>> entrySet;
@@ -104,21 +176,150 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
             this.loadFactor = MINIMAL_LOAD_FACTOR;
         }
         this.resizeThreshold = (int) (this.initialCapacity * this.loadFactor);
-        this.resizeLock = 0;
         this.isResizable = isResizable;
         this.data = (HashEntry<K, V>[]) new HashEntry[this.initialCapacity];
-        this.data_new = null;
-        this.size = 0;
+        this.forwarding = null;
+    }
+
+    /**
+     * Create a new hash-map that updates the values of existing keys in place. put and replace swap the value of the entry with a CAS instead of inserting a new entry and deleting the old one, so updates do
+     * not allocate and chains do not grow with the number of updates. A resize freezes the values of the entries it copies, updates of a frozen value are redirected to the new array.
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable false to deactivate resizing
+     * @param updateInPlace true to update values in place
+     */
+    public LockFreeHashMap(int initialCapacity, float loadFactor, boolean isResizable, boolean updateInPlace) {
+        this(initialCapacity, loadFactor, isResizable);
+        this.updateInPlace = updateInPlace;
+    }
+
+    /**
+     * Create a new hash-map that keeps a fingerprint summary of every bucket. The summary is a 32 bit word per bucket in an array next to the data array, every key sets one bit of it that is chosen by its
+     * hash. A lookup of an absent key reads the summary first and returns right away if the bit of the key is not set, without reading the bucket head or any entry of the chain. This pays off for large
+     * maps that mostly look up absent keys, where every entry that is visited is a cache miss. The summary takes as much memory as the data array, and a lookup of a present key reads one more cache line.
+     * Bits are never cleared until the next resize rebuilds the summary, so maps with many removes filter less.
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable false to deactivate resizing
+     * @param updateInPlace true to update values in place
+     * @param fingerprints true to keep a fingerprint summary of every bucket
+     */
+    public LockFreeHashMap(int initialCapacity, float loadFactor, boolean isResizable, boolean updateInPlace, boolean fingerprints) {
+        this(initialCapacity, loadFactor, isResizable, updateInPlace);
+        if (fingerprints)
+            this.fingerprints = new Fingerprints(this.data);
+    }
+
+    /**
+     * Create a new resizable hash-map that also shrinks. Once the size of the map falls below the shrink factor of its capacity, the capacity is halved by a resize that runs concurrently with readers and
+     * writers like the grow path. The map never shrinks below its initial capacity.
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param shrinkFactor shrink factor - value between 0 and a quarter of the load factor, 0 to deactivate shrinking
+     * @param updateInPlace true to update values in place
+     */
+    public LockFreeHashMap(int initialCapacity, float loadFactor, float shrinkFactor, boolean updateInPlace) {
+        this(initialCapacity, loadFactor, true, updateInPlace);
+        if (shrinkFactor > 0.0f) {
+            this.shrinkFactor = Math.min(shrinkFactor, this.loadFactor * MAXIMAL_SHRINK_RATIO);
+        }
+    }
+
+    /**
+     * Create a new resizable hash-map that migrates buckets lazily. During a resize, put and remove only migrate the bucket they access, all other buckets are migrated by a sweep task that is submitted to the
+     * executor. Writers are therefore not stalled by a resize as long as the executor keeps up.
+     * 
+     * The executor should start the task soon, on a thread of its own: a task that runs in the submitting thread migrates all buckets in the writer like a map without executor. Once started, the task runs
+     * until every bucket is migrated, the next resize can only start after that. If the executor rejects the task, the thread that started the resize migrates the remaining buckets. If it accepts the task
+     * but has not started it after as many writes as the old array has buckets, e.g. because it is saturated or was shut down with the task still queued, writers migrate the remaining buckets themselves.
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param resizeExecutor executor running the sweep tasks, see above
+     */
+    public LockFreeHashMap(int initialCapacity, float loadFactor, Executor resizeExecutor) {
+        this(initialCapacity, loadFactor, true);
+        if (resizeExecutor == null)
+            throw new NullPointerException();
+        this.resizeExecutor = resizeExecutor;
+    }
+
+    /**
+     * Create a new bounded hash-map for use as a cache. Once the weight of all entries exceeds the maximum weight, the writing thread evicts entries until the map is within its budget again. Eviction
+     * follows the CLOCK policy: a clock hand sweeps the buckets, an entry that was read or written since the last sweep gets a second chance, any other entry is removed. Every write examines a bounded
+     * number of buckets, so the map may exceed its budget briefly under heavy concurrent writes.
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param maximumWeight maximum weight of all entries
+     * @param weigher computes the weight of an entry, it must return the same weight for the same key and value. If null, every entry weighs 1 and the maximum weight is the maximum number of entries.
+     */
+    public LockFreeHashMap(int initialCapacity, float loadFactor, long maximumWeight, Weigher<? super K, ? super V> weigher) {
+        this(initialCapacity, loadFactor, true);
+        if (maximumWeight <= 0L)
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        if (weigher != null)
+            this.weight = new StripedCounter();
+        this.evictions = new StripedCounter();
+        this.clockHand = new ClockHand();
+    }
+
+    /**
+     * Create a new resizable hash-map whose entries expire. An expired entry is treated as deleted right away: reads do not return it, writes insert the key again. Expired entries are removed by a timer
+     * wheel that writing threads advance, the work is proportional to the number of expired entries. Until an expired entry is removed it still counts towards the size of the map.
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param expireAfter time after which an entry expires, must be positive
+     * @param unit of expireAfter
+     * @param refreshOnAccess true if the time counts from the last read or write of an entry, false if it counts from the last write
+     */
+    public LockFreeHashMap(int initialCapacity, float loadFactor, long expireAfter, TimeUnit unit, boolean refreshOnAccess) {
+        this(initialCapacity, loadFactor, true);
+        if (expireAfter <= 0L)
+            throw new IllegalArgumentException("Expiry time must be positive");
+        this.expireAfter = unit.toNanos(expireAfter);
+        this.refreshOnAccess = refreshOnAccess;
+        this.wheel = new TimerWheel<K, V>(System.nanoTime());
+    }
+
+    /**
+     * Create a new resizable hash-map with the entries of an existing map. The capacity is chosen so that the entries fit without a resize, large maps are loaded in parallel.
+     * 
+     * @param map to copy
+     * @see #bulkLoad(Iterable, int)
+     */
+    public LockFreeHashMap(Map<? extends K, ? extends V> map) {
+        this(capacityFor(map.size(), DEFAULT_LOAD_FACTOR), DEFAULT_LOAD_FACTOR, true);
+        putAll(map);
     }
 
     /**
-     * Clears the entire map and resets the capacity to the initial value
+     * Clears the entire map and resets the capacity to the initial value. A resize that is running concurrently is abandoned.
      */
     @SuppressWarnings("unchecked")
     @Override
     public void clear() {
-        data = (HashEntry<K, V>[]) new HashEntry[this.initialCapacity];
-        decSize(UNSAFE.getIntVolatile(this, SIZE_OFFSET));
+        HashEntry<K, V>[] tab = (HashEntry<K, V>[]) new HashEntry[this.initialCapacity];
+        resizeThreshold = (int) (this.initialCapacity * this.loadFactor);
+        shrinkThreshold = 0;
+        if (fingerprints != null)
+            fingerprints = new Fingerprints(tab);
+        data = tab;
+        forwarding = null;
+        control.unlockResize();
+        addCount(-sumCount(), -1);
+        tombstones.add(-tombstones.sum());
+        if (weight != null)
+            weight.add(-weight.sum());
+        if (wheel != null)
+            wheel.clear();
     }
 
     /**
@@ -138,19 +339,14 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
      * @param v value
      * @return true if the value is present, otherwise false
      */
-    @SuppressWarnings("unchecked")
     @Override
     public boolean containsValue(Object v) {
-        V value = (V) v;
-        for (int i = 0; i < data.length; ++i) {
-            // Get bucket
-            HashEntry<K, V> e = (HashEntry<K, V>) UNSAFE.getObjectVolatile(data, V_BASE + (V_SIZE * i));
-            // Iterate until element is found or not
-            while (e != null) {
-                if (!e.isDeleted() && (e.value == value || value.equals(e.value))) {
-                    return true;
-                }
-                e = e.getNext();
+        // The iterator follows forwarding markers, so buckets that are being resized are visited exactly once
+        Iterator<V> it = new ValueIterator();
+        while (it.hasNext()) {
+            V value = it.next();
+            if (value == v || v.equals(value)) {
+                return true;
             }
         }
         return false;
@@ -196,43 +392,157 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
      * @param key
      * @return V value if key exists, otherwise null
      */
-    @SuppressWarnings("unchecked")
     @Override
     public final V get(Object key) {
-        // Calculate hash
-        int hash = hash(key.hashCode());
-        // If we are resizing, first check new array
-        boolean resizing = isResizing();
-        HashEntry<K, V>[] dataArr = (resizing) ? data_new : data;
+        return get(key, hash(key.hashCode()), data);
+    }
+
+    /**
+     * Retrieves the values of a batch of keys. The keys are hashed first and looked up in the order of their buckets, so the bucket array is read once per batch and sequentially instead of at random.
+     * 
+     * @param keys to look up
+     * @return Map with the keys that are present and their values
+     */
+    @SuppressWarnings("unchecked")
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        K[] keyArr = (K[]) keys.toArray();
+        V[] values = (V[]) new Object[keyArr.length];
+        getAll(keyArr, values);
+        Map<K, V> result = new HashMap<K, V>();
+        for (int i = 0; i < keyArr.length; ++i) {
+            if (values[i] != null)
+                result.put(keyArr[i], values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the values of a batch of keys into an array. The keys are hashed first and looked up in the order of their buckets, so the bucket array is read once per batch and sequentially instead of at
+     * random. Null keys are not looked up.
+     * 
+     * @param keys to look up
+     * @param out array that receives the value of the key at the same position, null if the key is absent
+     * @return int number of keys that are present
+     */
+    public int getAll(K[] keys, V[] out) {
+        if (out.length < keys.length)
+            throw new IllegalArgumentException("Output array too short");
+        HashEntry<K, V>[] dataArr = data;
+        int[] hashes = new int[keys.length];
+        int found = 0;
+        for (long probe : bucketOrder(keys, hashes, dataArr.length)) {
+            int i = (int) probe;
+            V v = get(keys[i], hashes[i], dataArr);
+            out[i] = v;
+            if (v != null)
+                ++found;
+        }
+        return found;
+    }
+
+    /**
+     * Inserts a batch of key/value pairs. Like getAll, the pairs are inserted in the order of their buckets. If a key occurs more than once, the last pair wins. Pairs with a null key or value are skipped.
+     * This operation is not atomic.
+     * 
+     * @param keys to insert
+     * @param values to insert, the value of a key is at the same position
+     */
+    public void putAll(K[] keys, V[] values) {
+        if (values.length < keys.length)
+            throw new IllegalArgumentException("Value array too short");
+        ensureCapacity(sumCount() + keys.length);
+        for (long probe : bucketOrder(keys, new int[keys.length], data.length)) {
+            int i = (int) probe;
+            if (values[i] != null)
+                put(keys[i], values[i], false, false, null);
+        }
+    }
+
+    /**
+     * Internal method that sorts a batch of keys by bucket. Keys of the same bucket keep their order.
+     * 
+     * @param keys batch
+     * @param hashes array that receives the hash of every key
+     * @param length of the data array
+     * @return long[] bucket index in the upper and position of the key in the lower half, null keys are left out
+     */
+    private static long[] bucketOrder(Object[] keys, int[] hashes, int length) {
+        long[] order = new long[keys.length];
+        int n = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == null)
+                continue;
+            int hash = hashes[i] = hash(keys[i].hashCode());
+            order[n++] = ((long) (hash & (length - 1)) << 32) | i;
+        }
+        if (n < order.length)
+            order = Arrays.copyOf(order, n);
+        Arrays.sort(order);
+        return order;
+    }
 
-        for (int i = 0; i < 3; ++i) {
+    /**
+     * Private generic get method used for all lookups. An update prepends the new entry and unlinks the old one, a traversal that started before may miss both. A miss is therefore only trusted if the
+     * bucket head did not change, otherwise the bucket is traversed again. A head never returns to an entry it held before, see unlinkDeleted, so the check cannot be fooled. Lookups are lock-free: a retry
+     * means that a writer completed an update of the bucket.
+     * 
+     * @param key
+     * @param hash of the key
+     * @param dataArr data array to start with
+     * @return V value if key exists, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    private final V get(Object key, int hash, HashEntry<K, V>[] dataArr) {
+        MapMetrics m = metrics;
+        if (m != null)
+            m.reads.add(1);
+        Fingerprints fp = fingerprints;
+        while (true) {
             // Get bucket
-            HashEntry<K, V> e = (HashEntry<K, V>) UNSAFE.getObjectVolatile(dataArr, V_BASE + (V_SIZE * (hash % dataArr.length)));
+            int bucket = bucketIndex(hash, dataArr.length);
+            if (fp != null && fp.table == dataArr && !fp.mayContain(bucket, hash) && fingerprints == fp) {
+                // No entry of the key was inserted before the summary was read. The summary is only trusted if it still belongs to the current array, writers stop updating it once a resize started
+                return null;
+            }
+            HashEntry<K, V> head = entryAt(dataArr, bucket);
+            HashEntry<K, V> e = head;
+            if (e != null && e.hash == FORWARDING_HASH) {
+                // The bucket is being resized. Until it is completely migrated the frozen chain is still valid, afterwards go straight to the new array
+                ForwardingEntry<K, V> f = (ForwardingEntry<K, V>) e;
+                e = entryAt(f.frozen, bucket);
+                if (e == f) {
+                    if (m != null)
+                        m.forwards.add(1);
+                    dataArr = f.nextTable;
+                    continue;
+                }
+            }
             // Iterate until element is found or not
-            if (e != null) {
+            while (e != null) {
+                if (m != null && e.isDeleted())
+                    m.tombstonesSkipped.add(1);
                 if (!e.isDeleted() && (e.key == key || (e.hash == hash && key.equals(e.key)))) {
-                    return e.value;
-                }
-
-                e = e.getNext();
-                while (e != null) {
-                    if (!e.isDeleted() && (e.key == key || (e.hash == hash && key.equals(e.key)))) {
-                        return e.value;
+                    V v = e.liveValue();
+                    if (v != null) {
+                        if (e instanceof ExpiringEntry) {
+                            // An expired entry is deleted for readers, even before the timer wheel removes it
+                            long now = System.nanoTime();
+                            ExpiringEntry<K, V> x = (ExpiringEntry<K, V>) e;
+                            if (x.expiresAt - now <= 0L)
+                                return null;
+                            if (refreshOnAccess)
+                                x.refresh(now + expireAfter);
+                        }
+                        markAccessed(e);
+                        return v;
                     }
-                    e = e.getNext();
                 }
+                e = e.getNext();
             }
-
-            if (!resizing) {
+            // An update prepends a new entry before it deletes the old one. If the bucket head changed, the key could have been updated while iterating
+            if (entryAt(dataArr, bucket) == head)
                 return null;
-            } else if (i == 0) {
-                dataArr = data;
-            } else if (i == 1) {
-                dataArr = (data_new != null) ? data_new : data;
-                resizing = false;
-            }
         }
-        return null;
     }
 
     /**
@@ -276,19 +586,90 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
     }
 
     /**
-     * Inserts all the entries of an existing map. This operation is not atomic. All entries are inserted sequentially
+     * Inserts all the entries of an existing map. This operation is not atomic. The map is first grown to hold all entries, so inserting does not trigger a resize. Large maps are loaded in parallel by the
+     * common ForkJoinPool, smaller ones sequentially.
      * 
      * @param map to insert
+     * @see #bulkLoad(Iterable, int)
      */
     @Override
     public void putAll(Map<? extends K, ? extends V> map) {
+        int n = map.size();
+        if (n >= MIN_BULK_LOAD_SIZE) {
+            bulkLoad(map.entrySet(), ForkJoinPool.getCommonPoolParallelism());
+            return;
+        }
+        ensureCapacity(sumCount() + n);
         for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
             put(entry.getKey(), entry.getValue());
         }
     }
 
     /**
-     * Private generic put method used for all insert operations
+     * Inserts a large number of key/value pairs. The map is first grown to hold all of them with a single resize. The pairs are then partitioned by the range of buckets they hash to and the partitions are
+     * inserted in parallel by the common ForkJoinPool, so no two threads ever insert into the same bucket. If a key occurs more than once, the last pair wins as with sequential puts. Pairs with a null key
+     * or value are skipped. This operation is not atomic, other threads may read and write the map concurrently.
+     * 
+     * @param entries pairs to insert
+     * @param parallelism number of partitions that are inserted concurrently, 1 to insert in the calling thread
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad(Iterable<? extends Entry<? extends K, ? extends V>> entries, int parallelism) {
+        // Copy the pairs, the entries of some maps are reused by their iterator
+        int n = 0;
+        Object[] keys = new Object[(entries instanceof Collection) ? Math.max(((Collection<?>) entries).size(), 16) : 16];
+        Object[] vals = new Object[keys.length];
+        for (Entry<? extends K, ? extends V> entry : entries) {
+            K key = entry.getKey();
+            V value = entry.getValue();
+            if (key == null || value == null)
+                continue;
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, n << 1);
+                vals = Arrays.copyOf(vals, n << 1);
+            }
+            keys[n] = key;
+            vals[n++] = value;
+        }
+        ensureCapacity(sumCount() + n);
+
+        HashEntry<K, V>[] dataArr = data;
+        int parts = 1;
+        while (parts < parallelism && parts < dataArr.length && (parts << 1) <= n) {
+            parts <<= 1;
+        }
+        if (parts == 1) {
+            for (int i = 0; i < n; ++i) {
+                put((K) keys[i], (V) vals[i], false, false, null);
+            }
+            return;
+        }
+
+        // Partition by the upper bits of the bucket index. The sort is stable, later pairs of a key are still inserted last
+        int shift = Integer.numberOfTrailingZeros(dataArr.length) - Integer.numberOfTrailingZeros(parts);
+        int mask = dataArr.length - 1;
+        int[] part = new int[n];
+        int[] bounds = new int[parts + 1];
+        for (int i = 0; i < n; ++i) {
+            ++bounds[(part[i] = (hash(keys[i].hashCode()) & mask) >>> shift) + 1];
+        }
+        for (int p = 0; p < parts; ++p) {
+            bounds[p + 1] += bounds[p];
+        }
+        int[] next = Arrays.copyOf(bounds, parts);
+        Object[] sortedKeys = new Object[n];
+        Object[] sortedVals = new Object[n];
+        for (int i = 0; i < n; ++i) {
+            int j = next[part[i]]++;
+            sortedKeys[j] = keys[i];
+            sortedVals[j] = vals[i];
+        }
+        new LoadTask<K, V>(this, sortedKeys, sortedVals, bounds, 0, parts).invoke();
+    }
+
+    /**
+     * Private generic put method used for all insert operations. New entries are always prepended to the bucket, so the bucket head is the only location a writer ever swaps in. A bucket that is frozen by a resize
+     * therefore cannot be modified anymore.
      * 
      * @param key
      * @param value
@@ -299,94 +680,127 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
      */
     @SuppressWarnings("unchecked")
     private final V put(K key, V value, boolean onlyIfAbsent, boolean onlyReplace, V oldValue) {
-        // First check if we need to resize
-        if (isResizable)
-            checkResize();
-
-        // If we are resizing, execute the put on the new array
-        HashEntry<K, V>[] dataArr = (isResizing()) ? data_new : data;
+        // Help with a running resize. In lazy mode writers only help if the sweep task is overdue
+        ForwardingEntry<K, V> f = forwarding;
+        if (f != null && (resizeExecutor == null || f.isSweepOverdue()))
+            transfer(f);
+        if (wheel != null)
+            wheel.advanceIfDue(this);
+        if (metrics != null)
+            metrics.writes.add(1);
 
         // Calculate hash
         int hash = hash(key.hashCode());
-        long offset = V_BASE + (V_SIZE * (hash % dataArr.length));
-
-        // Iterate until element is found or not
-        HashEntry<K, V> prevEntry, currentEntry;
-        HashEntry<K, V> oldEntry = null;
-        HashEntry<K, V> newEntry = new HashEntry<K, V>(hash, key, value);
+        HashEntry<K, V>[] dataArr = data;
+        HashEntry<K, V> newEntry = null;
+
+        retry: while (true) {
+            int bucket = bucketIndex(hash, dataArr.length);
+            HashEntry<K, V> head = entryAt(dataArr, bucket);
+            if (head != null && head.hash == FORWARDING_HASH) {
+                forwarded();
+                dataArr = forward((ForwardingEntry<K, V>) head, hash);
+                continue;
+            }
+            if (resizeExecutor != null && migrateLazily(dataArr, hash))
+                continue;
 
-        while (true) {
-            // Get current bucket entry
-            currentEntry = (HashEntry<K, V>) UNSAFE.getObjectVolatile(dataArr, offset);
-            // Check if we can set new value. (Repeat if CAS fails)
-            if (currentEntry == null) {
-                if (!onlyReplace) {
-                    if (!UNSAFE.compareAndSwapObject(dataArr, offset, currentEntry, newEntry)) {
-                        continue;
+            // Iterate until element is found or not
+            HashEntry<K, V> oldEntry = null;
+            HashEntry<K, V> currentEntry = head;
+            int chainLength = 0;
+            boolean hasDeleted = false;
+            while (currentEntry != null) {
+                int state = currentEntry.getState();
+                if (state == DELETED || state == REPLACED || state == SUPERSEDED || currentEntry.value == null) {
+                    hasDeleted = true;
+                } else {
+                    ++chainLength;
+                    if (currentEntry.key == key || (currentEntry.hash == hash && key.equals(currentEntry.key))) {
+                        if (currentEntry.value instanceof PendingValue) {
+                            // An update of the key is in progress, complete it first
+                            resolve(currentEntry);
+                            continue retry;
+                        }
+                        if (state >= MOVED && isFrozen(dataArr, bucket)) {
+                            // The bucket is being resized, the next lookup of the bucket head finds the forwarding marker
+                            continue retry;
+                        }
+                        if (isExpired(currentEntry)) {
+                            // An expired entry counts as absent, it is removed before the key is written again
+                            remove(key, hash, null, currentEntry);
+                            continue retry;
+                        }
+                        oldEntry = currentEntry;
+                        break;
                     }
-                    incSize(1);
                 }
-                return null;
+                currentEntry = currentEntry.getNext();
             }
-            // Check if bucket entry is deleted
-            if (currentEntry.isDeleted()) {
-                HashEntry<K, V> nextEntry = currentEntry.getNext();
-                if (nextEntry == null) {
-                    if (!UNSAFE.compareAndSwapObject(dataArr, offset, currentEntry, newEntry)) {
-                        continue;
-                    }
-                    incSize(1);
-                    return null;
+
+            if (oldEntry != null && updateInPlace) {
+                V v = oldEntry.value;
+                if (v == null) {
+                    // Removed concurrently, the key is absent
+                    oldEntry = null;
+                } else if (v instanceof FrozenValue) {
+                    // Copied by a resize, the next lookup of the bucket head finds the forwarding marker
+                    continue;
+                } else if (onlyIfAbsent || (oldValue != null && !oldValue.equals(v))) {
+                    return v;
+                } else if (refresh(oldEntry) && oldEntry.casValue(v, value)) {
+                    markAccessed(oldEntry);
+                    addWeight(key, v, value);
+                    return v;
                 } else {
-                    if (!UNSAFE.compareAndSwapObject(dataArr, offset, currentEntry, nextEntry))
-                        continue;
-                    currentEntry = nextEntry;
+                    casFailed();
+                    continue;
                 }
             }
 
-            // Check if the bucket entry is a match
-            if (!currentEntry.isDeleted() && (currentEntry.key == key || (currentEntry.hash == hash && key.equals(currentEntry.key)))) {
-                oldEntry = currentEntry;
-                if (onlyIfAbsent || (oldValue != null && !oldValue.equals(oldEntry.value)))
-                    return oldEntry.value;
-            }
-
-            break;
-        }
-
-        // Bucket already in use, lets check the chain
-        while (true) {
-            if (currentEntry.getNext() == null) {
-                if (!onlyReplace || (onlyReplace && oldEntry != null)) {
-                    if (currentEntry.replaceNext(null, newEntry)) {
-                        if (oldEntry == null)
-                            incSize(1);
-                        break;
-                    }
-                    continue; // CAS failed, try again
-                } else {
-                    break;
+            if (oldEntry != null) {
+                V v = oldEntry.value;
+                if (onlyIfAbsent || (oldValue != null && !oldValue.equals(v)))
+                    return v;
+                // The new entry is pending until the old entry is marked as superseded, which fails if the key was removed first. Readers see the old value until then
+                HashEntry<K, V> replacement = newEntry(hash, key, (V) new PendingValue(oldEntry, value), head);
+                if (!casEntryAt(dataArr, bucket, head, replacement)) {
+                    casFailed();
+                    continue;
                 }
-            } else {
-                prevEntry = currentEntry;
-                currentEntry = currentEntry.getNext();
-                if (currentEntry.isDeleted()) {
-                    HashEntry<K, V> nextEntry = currentEntry.getNext();
-                    if (nextEntry != null)
-                        prevEntry.replaceNext(currentEntry, nextEntry);
-                } else if (currentEntry.key == key || (currentEntry.hash == hash && key.equals(currentEntry.key))) {
-                    oldEntry = currentEntry;
-                    if (onlyIfAbsent || (oldValue != null && !oldValue.equals(oldEntry.value)))
-                        return oldEntry.value;
+                scheduleExpiry(replacement);
+                if (resolve(replacement)) {
+                    unlinkDeleted(dataArr, bucket);
+                    addWeight(key, v, value);
+                    return v;
                 }
+                // Removed concurrently, the key is absent now
+                continue;
+            } else if (onlyReplace) {
+                // The key could have been updated while iterating, see remove
+                if (entryAt(dataArr, bucket) != head)
+                    continue;
+                return null;
             }
-        }
 
-        if (oldEntry != null) {
-            oldEntry.setDeleted(0, 1); // If CAS fails entry is already marked as deleted
-            return oldEntry.value;
+            // Prepend the new entry. If the head changed in the meantime the chain is checked again
+            if (newEntry == null) {
+                newEntry = newEntry(hash, key, value, head);
+            } else {
+                newEntry.initNext(head);
+            }
+            addFingerprint(dataArr, bucket, hash);
+            if (!casEntryAt(dataArr, bucket, head, newEntry)) {
+                casFailed();
+                continue;
+            }
+            scheduleExpiry(newEntry);
+            addCount(1, chainLength);
+            if (hasDeleted)
+                unlinkDeleted(dataArr, bucket);
+            addWeight(key, null, value);
+            return null;
         }
-        return null;
     }
 
     /**
@@ -395,15 +809,13 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
      * @param k key to remove
      * @return V old value associated to the key, null if key is not in the map
      */
-    @SuppressWarnings("unchecked")
     @Override
     public V remove(Object k) {
         if (k == null)
             return null;
 
-        K key = (K) k;
-        int hash = hash(key.hashCode());
-        return remove(key, hash, null, false);
+        int hash = hash(k.hashCode());
+        return remove(k, hash, null, null);
     }
 
     /**
@@ -413,17 +825,14 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
      * @param v value
      * @return V old value associated to the key, null if no equivalent key/value pair is found in the map
      */
-    @SuppressWarnings("unchecked")
     @Override
     public boolean remove(Object k, Object v) {
         if (k == null || v == null)
             return false;
 
-        K key = (K) k;
-        V value = (V) v;
-        int hash = hash(key.hashCode());
+        int hash = hash(k.hashCode());
 
-        if (remove(key, hash, value, false) != null)
+        if (remove(k, hash, v, null) != null)
             return true;
         return false;
     }
@@ -434,364 +843,2633 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
      * @param key to remove
      * @param hash to avoid recomputation
      * @param value if not null only execute remove if exact key/value match is found
-     * @param verify is set if we want to check if a remove has been correctly executed during a resize
-     * @return V old value associated to the key
+     * @param expected if not null only remove this entry and only if it is expired
+     * @return V old value associated to the key, null if the removed entry was expired
      */
     @SuppressWarnings("unchecked")
-    private final V remove(K key, int hash, V value, boolean verify) {
-        // In case a resize is currently happening, try to delete entry on the old array. Only use new array to verify a remove
-        HashEntry<K, V>[] dataArr = (isResizing() && verify) ? data_new : data;
-        long offset = V_BASE + (V_SIZE * (hash % dataArr.length));
-        HashEntry<K, V> entry = (HashEntry<K, V>) UNSAFE.getObjectVolatile(dataArr, offset);
+    private final V remove(Object key, int hash, Object value, HashEntry<K, V> expected) {
+        // Help with a running resize. In lazy mode writers only help if the sweep task is overdue
+        ForwardingEntry<K, V> f = forwarding;
+        if (f != null && (resizeExecutor == null || f.isSweepOverdue()))
+            transfer(f);
+        if (wheel != null && expected == null)
+            wheel.advanceIfDue(this);
+        if (metrics != null)
+            metrics.writes.add(1);
+
+        HashEntry<K, V>[] dataArr = data;
+
+        retry: while (true) {
+            int bucket = bucketIndex(hash, dataArr.length);
+            HashEntry<K, V> head = entryAt(dataArr, bucket);
+            HashEntry<K, V> entry = head;
+            if (entry != null && entry.hash == FORWARDING_HASH) {
+                forwarded();
+                dataArr = forward((ForwardingEntry<K, V>) entry, hash);
+                continue;
+            }
+            if (resizeExecutor != null && migrateLazily(dataArr, hash))
+                continue;
 
-        // Iterate until element is found or not
-        while (true) {
-            // If value is found, try to set the deleted flag and return the old value if successful
-            if (entry == null) {
-                break;
-            } else if (!entry.isDeleted() && (entry.key == key || (entry.hash == hash && key.equals(entry.key))) && (value == null || entry.value == value || value.equals(entry.value))) {
-                if (entry.setDeleted(0, 1)) {
-                    if (entry.isIsResized()) {
-                        // The entry could have been moved to a new resized map. Verify delete
-                        V returnVal = remove(key, hash, value, true);
-                        if (returnVal != null) {
-                            return returnVal;
+            // Iterate until element is found or not
+            while (entry != null) {
+                int state = entry.getState();
+                if (state != DELETED && state != REPLACED && state != SUPERSEDED && (expected != null ? entry == expected : (entry.key == key || (entry.hash == hash && key.equals(entry.key))))) {
+                    if (entry.value instanceof PendingValue) {
+                        // An update of the key is in progress, complete it first
+                        resolve(entry);
+                        continue retry;
+                    }
+                    boolean expired = isExpired(entry);
+                    if (expected != null && !expired)
+                        return null; // Refreshed since it was found expired
+                    if (updateInPlace) {
+                        // The value is the linearization point, a removed entry keeps a null value
+                        Object v = entry.value;
+                        if (v == null)
+                            return null;
+                        if (v instanceof FrozenValue)
+                            continue retry;
+                        if (value != null && v != value && !value.equals(v))
+                            return null;
+                        if (!entry.casValue(v, null)) {
+                            casFailed();
+                            continue retry;
                         }
+                        retireInPlace(dataArr, bucket, entry);
+                        addWeight(entry.key, v, null);
+                        return (expired && expected == null) ? null : (V) v;
+                    }
+                    if (value != null && entry.value != value && !value.equals(entry.value))
+                        return null;
+                    if (state >= MOVED && isFrozen(dataArr, bucket)) {
+                        // The bucket is being resized, the next lookup of the bucket head finds the forwarding marker
+                        continue retry;
+                    }
+                    // If the deleted flag can be set, unlink the entry and return the old value. Otherwise the entry changed its state, check again.
+                    if (entry.casState(state, DELETED)) {
+                        addCount(-1, (shrinkFactor > 0.0f) ? 2 : -1);
+                        tombstones.add(1);
+                        unlinkDeleted(dataArr, bucket);
+                        addWeight(entry.key, entry.value, null);
+                        return (expired && expected == null) ? null : entry.value;
                     }
-                    decSize(1);
-                    return entry.value;
+                    casFailed();
+                    continue retry;
                 }
-                break;
+                entry = entry.getNext();
             }
-            entry = entry.getNext();
+            // An update prepends the new entry before it supersedes the old one, which may be unlinked before it is reached. If the bucket head changed, the key could have been updated while iterating
+            if (expected == null && entryAt(dataArr, bucket) != head)
+                continue;
+            return null;
         }
-
-        return null;
     }
 
     /**
-     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * Internal method to complete the remove of an entry whose value was swapped to null in place
      * 
-     * @param key
-     * @param value replacement
-     * @return V old value if key was already present, null otherwise
+     * @param dataArr array the entry was found in
+     * @param bucket index
+     * @param entry removed entry
      */
-    @Override
-    public V replace(K key, V value) {
-        if (key == null || value == null)
-            return null;
-
-        return put(key, value, false, true, null);
+    private final void retireInPlace(HashEntry<K, V>[] dataArr, int bucket, HashEntry<K, V> entry) {
+        addCount(-1, (shrinkFactor > 0.0f) ? 2 : -1);
+        tombstones.add(1);
+        int state;
+        while ((state = entry.getState()) != DELETED && state != REPLACED && state != SUPERSEDED && !entry.casState(state, DELETED)) {
+        }
+        unlinkDeleted(dataArr, bucket);
     }
 
     /**
-     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present and the current value is equal to passed oldValue parameter.
+     * Retrieves the value of a key, or computes and inserts it if the key is absent. The mapping function is never applied if the key is present, and at most once per call: if another thread inserts the key
+     * before the computed value, the computed value is dropped and the inserted value is returned.
      * 
      * @param key
-     * @param oldValue
-     * @param newValue replacement
-     * @return boolean true if replace was successful
+     * @param mappingFunction returns the value to insert, null to insert nothing
+     * @return V current or computed value, null if the function returned null
      */
     @Override
-    public boolean replace(K key, V oldValue, V newValue) {
-        if (key == null || oldValue == null || newValue == null)
-            return false;
-
-        return oldValue.equals(put(key, newValue, false, true, oldValue));
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (key == null || mappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, v -> mappingFunction.apply(key), true, false);
     }
 
     /**
-     * Retrieves the size of the map
+     * Computes a new value for a key that is present. If the value changes concurrently, the remapping function is applied again to the new value.
      * 
-     * @return int current number of entries in the map
+     * @param key
+     * @param remappingFunction returns the new value, null to remove the key
+     * @return V new value, null if the key is absent
      */
     @Override
-    public int size() {
-        return UNSAFE.getIntVolatile(this, SIZE_OFFSET);
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, v -> remappingFunction.apply(key, v), false, true);
     }
 
     /**
-     * Specifies the number of free spots before the map starts a resize procedure
+     * Computes a new value for a key from its current value, or from null if the key is absent. If the value changes concurrently, the remapping function is applied again to the new value.
      * 
-     * @return int number of insert left before the map resizes
+     * @param key
+     * @param remappingFunction returns the new value, null to remove the key
+     * @return V new value, null if the key is absent
      */
-    public int nextResize() {
-        int res = resizeThreshold - size();
-        return (res >= 0) ? res : 0;
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, v -> remappingFunction.apply(key, v), false, false);
     }
 
     /**
-     * Internal hash function Spread bits to regularize both segment and index locations using Wang/Jenkins hash.
+     * Inserts a value if the key is absent, otherwise combines the current value and the value with the remapping function. If the value changes concurrently, the remapping function is applied again to the
+     * new value.
      * 
-     * @param h
-     * @return int hash value
+     * @param key
+     * @param value to insert or combine
+     * @param remappingFunction returns the combined value, null to remove the key
+     * @return V new value, null if the key is absent
      */
-    private static int hash(int h) {
-
-        h += (h << 15) ^ 0xffffcd7d;
-        h ^= (h >>> 10);
-        h += (h << 3);
-        h ^= (h >>> 6);
-        h += (h << 2) + (h << 14);
-        h = h ^ (h >>> 16);
-        // Make it positive
-        return h & 0x7fffffff;
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (key == null || value == null || remappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, v -> (v == null) ? value : remappingFunction.apply(v, value), false, false);
     }
 
     /**
-     * Internal method to atomically increase the size of the map
+     * Private generic compute method used for all compute and merge operations. The chain is traversed once. A present key is updated like put updates it, a new entry is only allocated if the key is
+     * absent or updates are not in place. The value computed for an absent key is kept while the insert is retried, the function is only applied again if the key is inserted concurrently. An update that is not
+     * in place inserts the new entry with a pending value and takes effect when the old entry is marked as superseded, see resolve. The insert fails if the bucket head changed since the traversal and the old
+     * entry can only be superseded once, so a remapping is atomic against concurrent puts, removes and remappings of the same key in both modes. Readers see the old value until the update took effect.
      * 
-     * @param inc number of inserted elements
-     * @return int new size of the map
+     * @param key
+     * @param update applied to the current value, or to null if the key is absent. Returns the new value or null to remove the key
+     * @param onlyIfAbsent true to return the current value of a present key without applying the function
+     * @param onlyIfPresent true to leave absent keys absent
+     * @return V new value, the current value if onlyIfAbsent is set and the key is present, null if the key is absent afterwards
      */
-    private int incSize(int inc) {
-        int s = UNSAFE.getIntVolatile(this, SIZE_OFFSET);
-        while (!UNSAFE.compareAndSwapInt(this, SIZE_OFFSET, s, s + inc)) {
-            s = UNSAFE.getIntVolatile(this, SIZE_OFFSET);
-        }
-        return ++s;
-    }
+    @SuppressWarnings("unchecked")
+    private final V compute(K key, Function<? super V, ? extends V> update, boolean onlyIfAbsent, boolean onlyIfPresent) {
+        // Help with a running resize. In lazy mode writers only help if the sweep task is overdue
+        ForwardingEntry<K, V> f = forwarding;
+        if (f != null && (resizeExecutor == null || f.isSweepOverdue()))
+            transfer(f);
+        if (wheel != null)
+            wheel.advanceIfDue(this);
+        if (metrics != null)
+            metrics.writes.add(1);
 
-    /**
-     * Internal method to atomically decrease the size of the map
-     * 
-     * @param inc number of removed elements
-     * @return int new size of the map
-     */
-    private int decSize(int dec) {
-        int s = UNSAFE.getIntVolatile(this, SIZE_OFFSET);
-        while (!UNSAFE.compareAndSwapInt(this, SIZE_OFFSET, s, s - dec)) {
-            s = UNSAFE.getIntVolatile(this, SIZE_OFFSET);
-        }
-        return --s;
-    }
+        int hash = hash(key.hashCode());
+        HashEntry<K, V>[] dataArr = data;
+        HashEntry<K, V> newEntry = null;
+        V computed = null;
+        boolean isComputed = false;
+
+        retry: while (true) {
+            int bucket = bucketIndex(hash, dataArr.length);
+            HashEntry<K, V> head = entryAt(dataArr, bucket);
+            if (head != null && head.hash == FORWARDING_HASH) {
+                forwarded();
+                dataArr = forward((ForwardingEntry<K, V>) head, hash);
+                continue;
+            }
+            if (resizeExecutor != null && migrateLazily(dataArr, hash))
+                continue;
 
-    /**
-     * Internal method that executes a resize operation if required
-     */
-    @SuppressWarnings("unchecked")
-    private final void checkResize() {
-        if (resizeThreshold <= UNSAFE.getIntVolatile(this, SIZE_OFFSET)) {
-            // Get atomic lock that guarantees one resize running at a time
-            if (UNSAFE.getIntVolatile(this, RESIZE_LOCK_OFFSET) == 0) {
-                if (UNSAFE.compareAndSwapInt(this, RESIZE_LOCK_OFFSET, 0, 1)) {
-                    // Check size again, just for safety in case resizing fast awesomely fast
-                    if (resizeThreshold > UNSAFE.getIntVolatile(this, SIZE_OFFSET))
-                        return;
-                    // Start resizing
-                    int new_size = data.length * 2;
-                    this.resizeThreshold = (int) (new_size * this.loadFactor);
-                    data_new = (HashEntry<K, V>[]) new HashEntry[new_size];
-
-                    // Copy data of data into date_new in a consistent way
-                    Iterator<HashEntry<K, V>> it = new HashEntryIterator();
-
-                    while (it.hasNext()) {
-                        HashEntry<K, V> e = it.next();
-                        e.setIsResized();
-
-                        // Put in new array
-                        long offset = V_BASE + (V_SIZE * (e.hash % data_new.length));
-                        HashEntry<K, V> currentEntry;
-                        HashEntry<K, V> newEntry = new HashEntry<K, V>(e.hash, e.key, e.value);
-
-                        while (true) {
-                            // Get current bucket entry
-                            currentEntry = (HashEntry<K, V>) UNSAFE.getObjectVolatile(data_new, offset);
-                            // Check if we can set new value. (Repeat if CAS fails)
-                            if (currentEntry == null || (currentEntry.isDeleted() && currentEntry.getNext() == null)) {
-                                if (UNSAFE.compareAndSwapObject(data_new, offset, currentEntry, newEntry)) {
-                                    break;
-                                }
-                                continue; // CAS failed, try again
-                            }
-                            
-                            // Bucket already in use, lets check the chain
-                            while (true) {
-                                if (currentEntry.getNext() == null) {
-                                    if (currentEntry.replaceNext(null, newEntry)) {
-                                        break;
-                                    }
-                                    continue; // CAS failed, try again
-                                }
-                                currentEntry = currentEntry.getNext();
-                            }
-                            
-                            //The entry should be inserted
-                            break;
+            // Iterate until element is found or not
+            HashEntry<K, V> oldEntry = null;
+            HashEntry<K, V> currentEntry = head;
+            int oldState = LIVE;
+            int chainLength = 0;
+            boolean hasDeleted = false;
+            while (currentEntry != null) {
+                int state = currentEntry.getState();
+                if (state == DELETED || state == REPLACED || state == SUPERSEDED || currentEntry.value == null) {
+                    hasDeleted = true;
+                } else {
+                    ++chainLength;
+                    if (currentEntry.key == key || (currentEntry.hash == hash && key.equals(currentEntry.key))) {
+                        if (currentEntry.value instanceof PendingValue) {
+                            // An update of the key is in progress, complete it first
+                            resolve(currentEntry);
+                            continue retry;
                         }
-
-                        e.setDeleted(0, 1);
+                        if (state >= MOVED && isFrozen(dataArr, bucket)) {
+                            // The bucket is being resized, the next lookup of the bucket head finds the forwarding marker
+                            continue retry;
+                        }
+                        if (isExpired(currentEntry)) {
+                            // An expired entry counts as absent, it is removed before the key is written again
+                            remove(key, hash, null, currentEntry);
+                            continue retry;
+                        }
+                        oldEntry = currentEntry;
+                        oldState = state;
+                        break;
                     }
-
-                    // Update data array
-                    data = data_new;
-
-                    UNSAFE.putIntVolatile(this, RESIZE_LOCK_OFFSET, 0);
                 }
+                currentEntry = currentEntry.getNext();
             }
-        }
-    }
-
-    /**
-     * Internal function to check if the map is currently being resized
-     * 
-     * @return true if resize operation is currently happening
-     */
-    private final boolean isResizing() {
-        return data_new != null && UNSAFE.getIntVolatile(this, RESIZE_LOCK_OFFSET) == 1;
-    }
+
+            Object v = (oldEntry != null) ? oldEntry.value : null;
+            if (v instanceof FrozenValue) {
+                // Copied by a resize, the next lookup of the bucket head finds the forwarding marker
+                continue;
+            } else if (v != null) {
+                if (onlyIfAbsent)
+                    return (V) v;
+                V value = update.apply((V) v);
+                if (updateInPlace) {
+                    if (!refresh(oldEntry) || !oldEntry.casValue(v, value)) {
+                        casFailed();
+                        continue;
+                    }
+                    if (value == null)
+                        retireInPlace(dataArr, bucket, oldEntry);
+                    else
+                        markAccessed(oldEntry);
+                    addWeight(key, v, value);
+                    return value;
+                }
+                if (value == null) {
+                    if (!oldEntry.casState(oldState, DELETED)) {
+                        casFailed();
+                        continue;
+                    }
+                    addCount(-1, (shrinkFactor > 0.0f) ? 2 : -1);
+                    tombstones.add(1);
+                    unlinkDeleted(dataArr, bucket);
+                    addWeight(key, v, null);
+                    return null;
+                }
+                // The new entry is pending until the old entry is marked as superseded, which fails if the key was removed first
+                HashEntry<K, V> replacement = newEntry(hash, key, (V) new PendingValue(oldEntry, value), head);
+                if (!casEntryAt(dataArr, bucket, head, replacement)) {
+                    casFailed();
+                    continue;
+                }
+                scheduleExpiry(replacement);
+                if (resolve(replacement)) {
+                    unlinkDeleted(dataArr, bucket);
+                    addWeight(key, v, value);
+                    return value;
+                }
+                continue;
+            }
+
+            // The key is absent. If the result is that it stays absent, it could have been updated while iterating, see remove
+            if (onlyIfPresent) {
+                if (entryAt(dataArr, bucket) != head)
+                    continue;
+                return null;
+            }
+            if (!isComputed) {
+                computed = update.apply(null);
+                isComputed = true;
+            }
+            if (computed == null) {
+                if (entryAt(dataArr, bucket) != head)
+                    continue;
+                return null;
+            }
+            if (newEntry == null) {
+                newEntry = newEntry(hash, key, computed, head);
+            } else {
+                newEntry.initNext(head);
+            }
+            addFingerprint(dataArr, bucket, hash);
+            if (!casEntryAt(dataArr, bucket, head, newEntry)) {
+                casFailed();
+                continue;
+            }
+            scheduleExpiry(newEntry);
+            addCount(1, chainLength);
+            if (hasDeleted)
+                unlinkDeleted(dataArr, bucket);
+            addWeight(key, null, computed);
+            return computed;
+        }
+    }
+
+    /**
+     * Internal method to complete an update that inserted a new entry with a pending value. Updates that are not in place, put, replace and the remapping methods, take effect when the old entry is marked
+     * as superseded, which is their linearization point. If the old entry was removed first, the new entry is deleted without ever being visible: a replace must not outlive the key and a computed value
+     * must not outlive the value it was computed from. Any thread that finds the pending entry completes it.
+     * 
+     * @param e entry with a pending value
+     * @return boolean true if the update took effect, false if the new entry was deleted and the update has to be retried
+     */
+    private final boolean resolve(HashEntry<K, V> e) {
+        while (true) {
+            Object v = e.value;
+            if (!(v instanceof PendingValue))
+                return true;
+            PendingValue p = (PendingValue) v;
+            int state = p.superseded.getState();
+            if (state == SUPERSEDED) {
+                e.casValue(p, p.value);
+            } else if (state == DELETED || state == REPLACED) {
+                while ((state = e.getState()) != DELETED && state != REPLACED && state != SUPERSEDED) {
+                    if (e.casState(state, DELETED)) {
+                        tombstones.add(1);
+                        break;
+                    }
+                }
+                return false;
+            } else if (p.superseded.casState(state, SUPERSEDED)) {
+                tombstones.add(1);
+            }
+        }
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * 
+     * @param key
+     * @param value replacement
+     * @return V old value if key was already present, null otherwise
+     */
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return put(key, value, false, true, null);
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present and the current value is equal to passed oldValue parameter.
+     * 
+     * @param key
+     * @param oldValue
+     * @param newValue replacement
+     * @return boolean true if replace was successful
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            return false;
+
+        return oldValue.equals(put(key, newValue, false, true, oldValue));
+    }
+
+    /**
+     * Retrieves the size of the map
+     * 
+     * @return int current number of entries in the map, Integer.MAX_VALUE if the map contains more entries
+     */
+    @Override
+    public int size() {
+        long n = sumCount();
+        return (n < 0L) ? 0 : (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Retrieves the number of mappings. Use this method instead of {@link #size()} as a map may contain more mappings than can be represented as an int. The value is an estimate, inserts and removes that run
+     * concurrently may or may not be reflected.
+     * 
+     * @return long number of entries in the map
+     */
+    public long mappingCount() {
+        long n = sumCount();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * Specifies the number of free spots before the map starts a resize procedure
+     * 
+     * @return int number of insert left before the map resizes
+     */
+    public int nextResize() {
+        long res = resizeThreshold - sumCount();
+        return (res >= 0) ? (int) res : 0;
+    }
+
+    /**
+     * Retrieves the share of deleted entries that are still linked in a bucket. Removes and updates unlink the entries they delete, an entry only stays linked if its bucket is frozen by a resize
+     * before it is unlinked. The value is an estimate, operations that run concurrently may or may not be reflected.
+     * 
+     * @return double number of linked deleted entries divided by the number of all linked entries, between 0 and 1
+     */
+    public double tombstoneRatio() {
+        long t = tombstones.sum();
+        if (t <= 0L)
+            return 0.0;
+        long n = sumCount();
+        return (double) t / (t + ((n < 0L) ? 0L : n));
+    }
+
+    /**
+     * Retrieves the weight of all entries of a bounded map. The value is an estimate, operations that run concurrently may or may not be reflected.
+     * 
+     * @return long sum of the weights of all entries, the number of entries if the map has no weigher
+     */
+    public long weightedSize() {
+        return (weight != null) ? weight.sum() : sumCount();
+    }
+
+    /**
+     * Retrieves the number of entries a bounded map evicted to stay within its maximum weight
+     * 
+     * @return long number of evicted entries, 0 if the map is not bounded
+     */
+    public long evictionCount() {
+        return (evictions != null) ? evictions.sum() : 0L;
+    }
+
+    /**
+     * Removes the expired entries of an expiring map. Writes remove expired entries as well, call this method if the map is rarely written. The work is proportional to the number of expired entries.
+     * 
+     * @return int number of entries removed, 0 if the map does not expire entries or another thread is removing expired entries
+     */
+    public int expire() {
+        TimerWheel<K, V> w = wheel;
+        return (w != null) ? w.advance(this, System.nanoTime()) : 0;
+    }
+
+    /**
+     * Enables counters for reads, writes, CAS retries, forwarded lookups, skipped deleted entries and resizes, and registers them as a {@link LockFreeHashMapMXBean} with the platform MBean server. The
+     * counters are striped and cost a few nanoseconds per operation, a map without metrics only checks a field. Enable the metrics before the map is shared, other threads may start counting later. The
+     * MBean server holds the MBean and the MBean holds the map, so the map is not garbage collected before {@link #disableMetrics()} is called.
+     * 
+     * @param name of the map, the MBean is registered as extras.util.concurrent:type=LockFreeHashMap,name=&lt;name&gt;
+     * @return ObjectName of the registered MBean
+     * @throws IllegalArgumentException if the name is invalid or already registered
+     * @throws IllegalStateException if the metrics are already enabled
+     */
+    public ObjectName enableMetrics(String name) {
+        if (metrics != null)
+            throw new IllegalStateException("Metrics already enabled");
+        MapMetrics m = new MapMetrics(this);
+        try {
+            ObjectName objectName = new ObjectName("extras.util.concurrent:type=LockFreeHashMap,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(m, objectName);
+            metricsName = objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot register metrics of map " + name, e);
+        }
+        metrics = m;
+        return metricsName;
+    }
+
+    /**
+     * Unregisters the MBean of the map and stops counting
+     */
+    public void disableMetrics() {
+        ObjectName objectName = metricsName;
+        if (objectName == null)
+            return;
+        metrics = null;
+        metricsName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // Already unregistered
+        }
+    }
+
+    /**
+     * Retrieves the metrics of the map
+     * 
+     * @return LockFreeHashMapMXBean metrics, null if they are not enabled
+     */
+    public LockFreeHashMapMXBean metrics() {
+        return metrics;
+    }
+
+    /**
+     * Scans all buckets and takes a snapshot of the structure of the map: the chain length histogram, the number of deleted entries that are still linked, the capacity and an estimate of the heap the map
+     * uses. While a resize is running, the buckets that are not migrated yet are scanned in the old array and the buckets they are migrated to are skipped in the new array, so every entry is counted in one
+     * bucket. The scan takes time in the capacity of the map and does not block writers.
+     * 
+     * @return MapStats snapshot
+     */
+    public MapStats stats() {
+        HashEntry<K, V>[] dataArr = data;
+        ForwardingEntry<K, V> f = forwarding;
+        if (f != null && f.table != dataArr)
+            f = null;
+        MapStats stats = new MapStats(dataArr.length, resizeThreshold, (f != null) ? f.nextTable.length : 0, sumCount());
+        scanBuckets(dataArr, null, stats);
+        stats.estimatedBytes += HeapLayout.arraySize(dataArr.length);
+        if (f != null) {
+            scanBuckets(f.nextTable, f, stats);
+            stats.estimatedBytes += HeapLayout.arraySize(f.nextTable.length) + HeapLayout.arraySize(f.frozen.length);
+        }
+        Fingerprints fp = fingerprints;
+        if (fp != null)
+            stats.estimatedBytes += (HeapLayout.HEADER_SIZE + 4L + 4L * fp.tags.length + 7L) & ~7L;
+        return stats;
+    }
+
+    /**
+     * Internal method to add the buckets of a data array to a snapshot. Buckets that are already migrated by a resize are skipped, their entries are found in the new array. Buckets of the new array are
+     * skipped until the bucket of the old array they are migrated from is complete. Markers of unlinked entries are counted separately, they are no entries but still take heap.
+     * 
+     * @param dataArr data array
+     * @param resize running resize if dataArr is its new array, null otherwise
+     * @param stats snapshot
+     */
+    private static <K, V> void scanBuckets(HashEntry<K, V>[] dataArr, ForwardingEntry<K, V> resize, MapStats stats) {
+        for (int i = 0; i < dataArr.length; ++i) {
+            // If the map shrinks, the upper one of the two merged buckets is completed last
+            if (resize != null && entryAt(resize.frozen, (dataArr.length < resize.table.length) ? i + dataArr.length : i & (resize.table.length - 1)) != resize)
+                continue;
+            HashEntry<K, V> e = entryAt(dataArr, i);
+            if (e != null && e.hash == FORWARDING_HASH) {
+                ForwardingEntry<K, V> f = (ForwardingEntry<K, V>) e;
+                e = entryAt(f.frozen, i);
+                if (e == f)
+                    continue;
+            }
+            int live = 0;
+            for (; e != null; e = e.getNext()) {
+                stats.estimatedBytes += (e instanceof ExpiringEntry) ? HeapLayout.EXPIRING_ENTRY_SIZE : HeapLayout.ENTRY_SIZE;
+                if (e.hash == MARKER_HASH)
+                    ++stats.markers;
+                else if (e.isDeleted() || isExpired(e))
+                    ++stats.deletedEntries;
+                else
+                    ++live;
+            }
+            stats.addBucket(live);
+        }
+    }
+
+    /**
+     * Heap layout used by stats(). It is held in its own class, so the VM options are only looked up once stats() is called and not when the map class is initialized. Compressed references and class
+     * pointers are assumed unless the VM reports otherwise.
+     */
+    static final class HeapLayout {
+        static final long REFERENCE_SIZE = vmOption("UseCompressedOops") ? 4L : 8L;
+        static final long HEADER_SIZE = vmOption("UseCompressedClassPointers") ? 12L : 16L;
+        static final long ENTRY_SIZE = shallowSize(HashEntry.class);
+        static final long EXPIRING_ENTRY_SIZE = shallowSize(ExpiringEntry.class);
+
+        /**
+         * Internal method to compute the heap size of a data array
+         * 
+         * @param length of the array
+         * @return long bytes
+         */
+        static long arraySize(int length) {
+            long base = (HEADER_SIZE + 4L + REFERENCE_SIZE - 1L) & ~(REFERENCE_SIZE - 1L);
+            return (base + (REFERENCE_SIZE * length) + 7L) & ~7L;
+        }
+
+        /**
+         * Internal method to estimate the heap size of an object from the sizes of its fields. HotSpot packs fields without gaps, apart from the alignment of the object.
+         * 
+         * @param c class of the object
+         * @return long bytes
+         */
+        static long shallowSize(Class<?> c) {
+            long size = HEADER_SIZE;
+            for (; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()))
+                        continue;
+                    Class<?> t = field.getType();
+                    size += (t == long.class || t == double.class) ? 8L : (t == int.class || t == float.class) ? 4L : (t == short.class || t == char.class) ? 2L : (t == byte.class || t == boolean.class) ? 1L : REFERENCE_SIZE;
+                }
+            }
+            return (size + 7L) & ~7L;
+        }
+
+        /**
+         * Internal method to read a boolean option of the VM
+         * 
+         * @param name of the option
+         * @return boolean value of the option, true if the VM does not report it
+         */
+        private static boolean vmOption(String name) {
+            try {
+                return !"false".equals(ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class).getVMOption(name).getValue());
+            } catch (RuntimeException | LinkageError e) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Unlinks the deleted entries of all buckets
+     * 
+     * @return int number of entries unlinked
+     */
+    public int sweep() {
+        return sweep(data.length);
+    }
+
+    /**
+     * Unlinks the deleted entries of a number of buckets. Every call continues with the bucket after the last bucket swept by the previous call, so the cleanup of a large map can be spread over many short
+     * calls, e.g. by a scheduled background task. Buckets that are frozen by a resize are skipped.
+     * 
+     * @param maxBuckets number of buckets to sweep
+     * @return int number of entries unlinked
+     */
+    public int sweep(int maxBuckets) {
+        HashEntry<K, V>[] dataArr = data;
+        int n = dataArr.length;
+        int count = (maxBuckets < n) ? maxBuckets : n;
+        if (count <= 0)
+            return 0;
+        // Claim the buckets, concurrent sweeps work on different buckets
+        int start = control.claimSweep(count);
+        int unlinked = 0;
+        for (int i = 0; i < count; ++i) {
+            unlinked += unlinkDeleted(dataArr, bucketIndex(start + i, n));
+        }
+        return unlinked;
+    }
+
+    /**
+     * Grows the capacity of the map so it holds a number of entries without exceeding the load factor. The capacity is reached with a single resize instead of one doubling per exceeded threshold, every
+     * entry is moved once. If another resize is running, the calling thread helps with it first. Maps that are not resizable are not grown.
+     * 
+     * @param size number of entries the map should hold
+     */
+    public void ensureCapacity(long size) {
+        if (!isResizable)
+            return;
+        int length = capacityFor(size, loadFactor);
+        while (true) {
+            ForwardingEntry<K, V> f = forwarding;
+            if (f != null) {
+                transfer(f);
+                if (forwarding == f)
+                    Thread.yield(); // Stripes claimed by other threads are still being migrated
+                continue;
+            }
+            HashEntry<K, V>[] dataArr = data;
+            if (dataArr.length >= length)
+                return;
+            if (lockResize()) {
+                if (data == dataArr && forwarding == null)
+                    startResize(dataArr, length);
+                else
+                    control.unlockResize();
+            }
+        }
+    }
+
+    /**
+     * Halves the capacity of the map until it is the smallest capacity that holds the current number of entries without exceeding the load factor, but at least the minimal capacity of 16. Every halving is a
+     * regular resize, readers and writers are not blocked. If another resize is running, the calling thread helps with it first. Maps that are not resizable are not trimmed.
+     */
+    public void trimToSize() {
+        if (!isResizable)
+            return;
+        while (true) {
+            ForwardingEntry<K, V> f = forwarding;
+            if (f != null) {
+                transfer(f);
+                if (forwarding == f)
+                    Thread.yield(); // Stripes claimed by other threads are still being migrated
+                continue;
+            }
+            HashEntry<K, V>[] dataArr = data;
+            int length = dataArr.length >>> 1;
+            if (length < MINIMAL_CAPACITY || sumCount() > (int) (length * loadFactor))
+                return;
+            if (lockResize()) {
+                if (data == dataArr && forwarding == null)
+                    startResize(dataArr, length);
+                else
+                    control.unlockResize();
+            }
+        }
+    }
+
+    /**
+     * Unlinks the deleted entries of all buckets and trims the capacity of the map to the number of entries
+     * 
+     * @see #sweep()
+     * @see #trimToSize()
+     */
+    public void compact() {
+        sweep();
+        trimToSize();
+    }
+
+    /**
+     * Performs an action for each key/value pair. Once the map holds at least parallelismThreshold entries, the bucket array is split in ranges that are traversed in parallel by the common ForkJoinPool.
+     * Like the iterators, the traversal follows a running resize and passes every pair once. Pairs inserted or removed concurrently may or may not be passed.
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel, Long.MAX_VALUE to traverse in the calling thread
+     * @param action
+     */
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        HashEntry<K, V>[] dataArr = data;
+        new ForEachTask<K, V>(dataArr, 0, dataArr.length, batchFor(parallelismThreshold), action).invoke();
+    }
+
+    /**
+     * Performs an action for each key
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel, Long.MAX_VALUE to traverse in the calling thread
+     * @param action
+     * @see #forEach(long, BiConsumer)
+     */
+    public void forEachKey(long parallelismThreshold, Consumer<? super K> action) {
+        if (action == null)
+            throw new NullPointerException();
+        forEach(parallelismThreshold, (k, v) -> action.accept(k));
+    }
+
+    /**
+     * Performs an action for each value
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel, Long.MAX_VALUE to traverse in the calling thread
+     * @param action
+     * @see #forEach(long, BiConsumer)
+     */
+    public void forEachValue(long parallelismThreshold, Consumer<? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        forEach(parallelismThreshold, (k, v) -> action.accept(v));
+    }
+
+    /**
+     * Searches the map for a key/value pair the search function returns a non-null result for. Once a result is found, all parallel traversals stop.
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel, Long.MAX_VALUE to traverse in the calling thread
+     * @param searchFunction returns null for pairs that do not match
+     * @return U result of the search function for any matching pair, null if no pair matches
+     */
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        if (searchFunction == null)
+            throw new NullPointerException();
+        HashEntry<K, V>[] dataArr = data;
+        return new SearchTask<K, V, U>(dataArr, 0, dataArr.length, batchFor(parallelismThreshold), searchFunction, new AtomicReference<U>()).invoke();
+    }
+
+    /**
+     * Accumulates the transformed key/value pairs with a reducer. The reducer must be associative, the order in which the ranges of buckets are combined is not defined.
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel, Long.MAX_VALUE to traverse in the calling thread
+     * @param transformer returns null for pairs that are skipped
+     * @param reducer
+     * @return U accumulated result, null if all pairs were skipped
+     */
+    public <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer, BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        HashEntry<K, V>[] dataArr = data;
+        return new ReduceTask<K, V, U>(dataArr, 0, dataArr.length, batchFor(parallelismThreshold), transformer, reducer).invoke();
+    }
+
+    /**
+     * Accumulates the transformed key/value pairs with a reducer, e.g. reduceToLong(1, (k, v) -> v.size(), 0, Long::sum)
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel, Long.MAX_VALUE to traverse in the calling thread
+     * @param transformer
+     * @param basis identity element of the reducer
+     * @param reducer associative reducer
+     * @return long accumulated result
+     */
+    public long reduceToLong(long parallelismThreshold, ToLongBiFunction<? super K, ? super V> transformer, long basis, LongBinaryOperator reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        HashEntry<K, V>[] dataArr = data;
+        return new ReduceToLongTask<K, V>(dataArr, 0, dataArr.length, batchFor(parallelismThreshold), transformer, basis, reducer).invoke();
+    }
+
+    /**
+     * Accumulates the transformed key/value pairs with a reducer
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel, Long.MAX_VALUE to traverse in the calling thread
+     * @param transformer
+     * @param basis identity element of the reducer
+     * @param reducer associative reducer
+     * @return double accumulated result
+     */
+    public double reduceToDouble(long parallelismThreshold, ToDoubleBiFunction<? super K, ? super V> transformer, double basis, DoubleBinaryOperator reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        HashEntry<K, V>[] dataArr = data;
+        return new ReduceToDoubleTask<K, V>(dataArr, 0, dataArr.length, batchFor(parallelismThreshold), transformer, basis, reducer).invoke();
+    }
+
+    /**
+     * Internal method to compute the number of times a bulk operation splits its range of buckets. Every split halves the batch, the map is split in about four ranges per thread of the common pool.
+     * 
+     * @param parallelismThreshold number of entries needed to traverse in parallel
+     * @return int batch, 0 to traverse in the calling thread
+     */
+    final int batchFor(long parallelismThreshold) {
+        long n;
+        if (parallelismThreshold == Long.MAX_VALUE || (n = sumCount()) <= 1L || n < parallelismThreshold)
+            return 0;
+        int sp = ForkJoinPool.getCommonPoolParallelism() << 2;
+        return (parallelismThreshold <= 0L || (n /= parallelismThreshold) >= sp) ? sp : (int) n;
+    }
+
+    /**
+     * Computes the smallest capacity that holds a number of entries without exceeding the load factor
+     * 
+     * @param size number of entries
+     * @param loadFactor
+     * @return int power-of-two capacity, at most the maximal capacity
+     */
+    static final int capacityFor(long size, float loadFactor) {
+        int length = MINIMAL_CAPACITY;
+        while (length < MAXIMAL_CAPACITY && (long) (length * loadFactor) < size) {
+            length <<= 1;
+        }
+        return length;
+    }
+
+    /**
+     * Internal hash function Spread bits to regularize both segment and index locations using Wang/Jenkins hash.
+     * 
+     * @param h
+     * @return int hash value
+     */
+    static final int hash(int h) {
+
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        h = h ^ (h >>> 16);
+        // Make it positive
+        return h & 0x7fffffff;
+    }
+
+    /**
+     * Internal method to compute the index of a bucket. Array lengths are always a power of two.
+     * 
+     * @param hash
+     * @param length of the data array
+     * @return int index of the bucket
+     */
+    static final int bucketIndex(int hash, int length) {
+        return hash & (length - 1);
+    }
+
+    /**
+     * Internal method to read a bucket head. Entries are published by a CAS of the bucket head or of a next pointer, an acquiring read is sufficient to see them completely initialized.
+     */
+    @SuppressWarnings("unchecked")
+    static final <K, V> HashEntry<K, V> entryAt(HashEntry<K, V>[] dataArr, int bucket) {
+        return (HashEntry<K, V>) BUCKET.getAcquire(dataArr, bucket);
+    }
+
+    static final <K, V> boolean casEntryAt(HashEntry<K, V>[] dataArr, int bucket, HashEntry<K, V> expect, HashEntry<K, V> update) {
+        return BUCKET.compareAndSet(dataArr, bucket, expect, update);
+    }
+
+    /**
+     * Internal method to unlink all deleted entries of a bucket. As in Harris' linked list, an entry is unlinked in two steps: A marker is appended to the deleted entry first, which freezes its next pointer.
+     * The predecessor is then swapped to the entry behind the marker. Swapping the predecessor can therefore never drop an entry that was unlinked concurrently. Deleted entries at the head of the bucket are
+     * replaced by a new marker in front of the first live entry, so a bucket head never returns to an entry it held before and writers can validate a chain by the CAS of its head. Bucket heads are never
+     * reset to null, if the last entry of a bucket is unlinked the marker stays in the bucket until the next insert.
+     * 
+     * @param dataArr array
+     * @param bucket index
+     * @return int number of entries unlinked by this thread
+     */
+    private final int unlinkDeleted(HashEntry<K, V>[] dataArr, int bucket) {
+        int unlinked = 0;
+        retry: while (true) {
+            HashEntry<K, V> head = entryAt(dataArr, bucket);
+            if (head != null && head.hash == FORWARDING_HASH)
+                break; // Frozen buckets are cleaned up by the resize
+            // Skip the deleted entries at the head of the bucket
+            HashEntry<K, V> e = head;
+            int dropped = 0;
+            while (e != null && e.isDeleted()) {
+                HashEntry<K, V> next = e.getNext();
+                if (e.hash == MARKER_HASH) {
+                    e = next;
+                } else if (next == null || next.hash != MARKER_HASH) {
+                    e.replaceNext(next, new HashEntry<K, V>(next));
+                } else {
+                    ++dropped;
+                    e = next.getNext();
+                }
+            }
+            if (dropped > 0) {
+                if (!casEntryAt(dataArr, bucket, head, new HashEntry<K, V>(e)))
+                    continue retry;
+                unlinked += dropped;
+            }
+            if (e == null)
+                break;
+            HashEntry<K, V> pred = e;
+            e = e.getNext();
+            while (e != null) {
+                HashEntry<K, V> next = e.getNext();
+                if (e.hash == MARKER_HASH) {
+                    // Marker that stayed at the head of the bucket until the next insert
+                    if (!pred.replaceNext(e, next))
+                        continue retry;
+                    e = next;
+                } else if (!e.isDeleted()) {
+                    pred = e;
+                    e = next;
+                } else if (next == null || next.hash != MARKER_HASH) {
+                    e.replaceNext(next, new HashEntry<K, V>(next));
+                } else {
+                    HashEntry<K, V> succ = next.getNext();
+                    if (!pred.replaceNext(e, succ))
+                        continue retry;
+                    ++unlinked;
+                    e = succ;
+                }
+            }
+            break;
+        }
+        if (unlinked > 0)
+            tombstones.add(-unlinked);
+        return unlinked;
+    }
+
+    /**
+     * Internal method to sum up the striped size counter
+     * 
+     * @return long current number of entries in the map
+     */
+    final long sumCount() {
+        return counter.sum();
+    }
+
+    /**
+     * Internal method to atomically change the size of the map and to start a resize once the resize threshold is exceeded
+     * 
+     * @param x number of inserted (positive) or removed (negative) elements
+     * @param check if negative, the resize threshold is not checked. When the update hit a contended counter cell, the threshold is only checked if check is larger than 1, i.e. the insert found a chain of
+     *            at least two entries. Removes check the shrink threshold instead.
+     */
+    private final void addCount(long x, int check) {
+        StripedCounter c = counter;
+        StripedCounter.CounterCell[] cs;
+        long b, s;
+        if ((cs = c.counterCells) != null || !c.casBase(b = c.baseCount, s = b + x)) {
+            if (!c.addToCell(x, cs) || check <= 1)
+                return;
+            s = c.sum();
+        }
+        if (check < 0)
+            return;
+        if (x > 0 && isResizable && s > resizeThreshold)
+            checkResize();
+        else if (x < 0 && s < shrinkThreshold)
+            checkShrink();
+    }
+
+    /**
+     * Internal method to account for the weight of a bounded map. Once a write makes the map exceed its maximum weight, the writing thread evicts entries.
+     * 
+     * @param key
+     * @param oldValue value that is replaced or removed, null if the key was absent
+     * @param newValue value that is inserted, null if the key is removed
+     */
+    @SuppressWarnings("unchecked")
+    private final void addWeight(K key, Object oldValue, Object newValue) {
+        if (maximumWeight == 0L)
+            return;
+        Weigher<? super K, ? super V> w = weigher;
+        if (w != null) {
+            long delta = ((newValue != null) ? w.weigh(key, (V) newValue) : 0) - ((oldValue != null) ? w.weigh(key, (V) oldValue) : 0);
+            if (delta != 0L)
+                weight.add(delta);
+        }
+        if (newValue != null && weightedSize() > maximumWeight)
+            evict();
+    }
+
+    /**
+     * Internal method that evicts entries of a bounded map until it is within its maximum weight again. The clock hand is advanced by a CAS, so concurrent writers evict from different buckets. An entry that
+     * was accessed since the hand last passed it gets a second chance, its access bit is cleared. Buckets that are frozen by a resize are skipped. At most a fixed number of buckets is examined, the next
+     * write continues where this one stopped.
+     */
+    private final void evict() {
+        for (int strides = 0; strides < MAX_EVICTION_STRIDES && weightedSize() > maximumWeight; ++strides) {
+            HashEntry<K, V>[] dataArr = data;
+            int n = dataArr.length;
+            int start = clockHand.advance(EVICTION_STRIDE);
+            for (int i = 0; i < EVICTION_STRIDE; ++i) {
+                HashEntry<K, V> e = entryAt(dataArr, bucketIndex(start + i, n));
+                if (e != null && e.hash == FORWARDING_HASH)
+                    continue;
+                for (; e != null; e = e.getNext()) {
+                    if (e.isDeleted())
+                        continue;
+                    if (e.isAccessed()) {
+                        e.setAccessed(false);
+                        continue;
+                    }
+                    // Only evicted if the value is unchanged, an entry updated concurrently counts as accessed
+                    V v = e.liveValue();
+                    if (v != null && remove(e.key, e.hash, v, null) != null) {
+                        evictions.add(1);
+                        if (weightedSize() <= maximumWeight)
+                            return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method to create an entry. Entries of bounded maps start with the access bit set, expiring maps create entries that carry an expiry time. They are scheduled in the timer wheel once they are
+     * linked, see scheduleExpiry.
+     * 
+     * @return HashEntry new entry
+     */
+    private final HashEntry<K, V> newEntry(int hash, K key, V value, HashEntry<K, V> next) {
+        if (wheel != null) {
+            return new ExpiringEntry<K, V>(hash, key, value, next, System.nanoTime() + expireAfter);
+        }
+        HashEntry<K, V> e = new HashEntry<K, V>(hash, key, value, next);
+        if (maximumWeight != 0L)
+            e.initState(ACCESSED);
+        return e;
+    }
+
+    /**
+     * Internal method to copy an entry to the new array of a resize. A copy expires at the same time as the original, it is scheduled in the timer wheel by the thread whose copies are linked.
+     * 
+     * @param e entry to copy
+     * @param value of the copy
+     * @param next entry of the copy
+     * @return HashEntry copy
+     */
+    private final HashEntry<K, V> copyEntry(HashEntry<K, V> e, V value, HashEntry<K, V> next) {
+        if (e instanceof ExpiringEntry) {
+            return new ExpiringEntry<K, V>(e.hash, e.key, value, next, ((ExpiringEntry<K, V>) e).expiresAt);
+        }
+        return newEntry(e.hash, e.key, value, next);
+    }
+
+    /**
+     * Internal method to schedule a linked entry of an expiring map in the timer wheel. An entry that was scheduled before it is linked could be found expired while it is not in the map yet, the wheel
+     * would drop it and the entry would never be removed.
+     * 
+     * @param e linked entry
+     */
+    private final void scheduleExpiry(HashEntry<K, V> e) {
+        if (wheel != null)
+            wheel.schedule((ExpiringEntry<K, V>) e);
+    }
+
+    /**
+     * Internal method to schedule the copies of a resize once they are linked to the new array. The entries of the reused run are scheduled already.
+     * 
+     * @param chain linked chain
+     * @param lastRun first reused entry, null if all entries of the chain are copies
+     */
+    private final void scheduleCopies(HashEntry<K, V> chain, HashEntry<K, V> lastRun) {
+        if (wheel == null)
+            return;
+        for (HashEntry<K, V> e = chain; e != null && e != lastRun; e = e.getNext()) {
+            // Markers of concurrent unlinks are skipped
+            if (e instanceof ExpiringEntry)
+                wheel.schedule((ExpiringEntry<K, V>) e);
+        }
+    }
+
+    /**
+     * Internal method to check if an entry of an expiring map has expired
+     * 
+     * @param e entry
+     * @return true if the entry has expired
+     */
+    static <K, V> boolean isExpired(HashEntry<K, V> e) {
+        return e instanceof ExpiringEntry && ((ExpiringEntry<K, V>) e).expiresAt - System.nanoTime() <= 0L;
+    }
+
+    /**
+     * Internal method to restart the expiry time of an entry that is updated in place. The time is restarted before the value is swapped, so the timer wheel never removes a value that was just written.
+     * 
+     * @param e entry
+     * @return always true
+     */
+    private final boolean refresh(HashEntry<K, V> e) {
+        if (e instanceof ExpiringEntry)
+            ((ExpiringEntry<K, V>) e).refresh(System.nanoTime() + expireAfter);
+        return true;
+    }
+
+    /**
+     * Removes an entry the timer wheel found expired. Used by {@link TimerWheel}.
+     * 
+     * @param e expired entry
+     * @return true if the entry was removed, false if it was removed, replaced or refreshed in the meantime
+     */
+    final boolean expireEntry(ExpiringEntry<K, V> e) {
+        return remove(e.key, e.hash, null, e) != null;
+    }
+
+    /**
+     * Internal method to set the access bit of an entry of a bounded map. The bit is only written if it is not set yet, so reads of a hot entry do not keep invalidating its cache line.
+     * 
+     * @param e entry that was read or written
+     */
+    private final void markAccessed(HashEntry<K, V> e) {
+        if (maximumWeight != 0L && !e.isAccessed())
+            e.setAccessed(true);
+    }
+
+    /**
+     * Internal method to add the fingerprint of a key to the summary of its bucket before an entry of the key is inserted. Only the summary of the current array is updated, readers do not trust the
+     * summary of an array that was replaced by a resize or a clear.
+     * 
+     * @param dataArr array the entry is inserted in
+     * @param bucket index
+     * @param hash of the key
+     */
+    private final void addFingerprint(HashEntry<K, V>[] dataArr, int bucket, int hash) {
+        Fingerprints fp = fingerprints;
+        if (fp != null && fp.table == dataArr)
+            fp.add(bucket, hash);
+    }
+
+    /**
+     * Internal method to add the fingerprints of a migrated chain to the summary of its bucket in the new array, before the chain is published
+     * 
+     * @param nextTable new array
+     * @param bucket index in the new array
+     * @param chain migrated chain
+     */
+    private final void addFingerprints(HashEntry<K, V>[] nextTable, int bucket, HashEntry<K, V> chain) {
+        Fingerprints fp = fingerprints;
+        if (fp == null || fp.table != nextTable)
+            return;
+        for (HashEntry<K, V> e = chain; e != null; e = e.getNext()) {
+            fp.add(bucket, e.hash);
+        }
+    }
+
+    /**
+     * Internal method to count a write that failed a CAS and retries
+     */
+    private final void casFailed() {
+        MapMetrics m = metrics;
+        if (m != null)
+            m.casFailures.add(1);
+    }
+
+    /**
+     * Internal method to count a write that follows a migrated bucket to the new array
+     */
+    private final void forwarded() {
+        MapMetrics m = metrics;
+        if (m != null)
+            m.forwards.add(1);
+    }
+
+    /**
+     * Internal method to get the atomic lock that guarantees one resize running at a time
+     * 
+     * @return true if the lock was acquired
+     */
+    private final boolean lockResize() {
+        return forwarding == null && control.tryLockResize();
+    }
+
+    /**
+     * Internal method that starts a resize operation and lets the calling thread help with it
+     */
+    private final void checkResize() {
+        if (lockResize()) {
+            // Check size again, a resize could have completed in the meantime
+            if (resizeThreshold >= sumCount()) {
+                control.unlockResize();
+                return;
+            }
+            HashEntry<K, V>[] dataArr = data;
+            startResize(dataArr, dataArr.length * 2);
+        }
+    }
+
+    /**
+     * Internal method that starts a resize operation halving the capacity and lets the calling thread help with it
+     */
+    private final void checkShrink() {
+        if (lockResize()) {
+            // Check size again, a resize could have completed in the meantime
+            if (shrinkThreshold <= sumCount()) {
+                control.unlockResize();
+                return;
+            }
+            HashEntry<K, V>[] dataArr = data;
+            startResize(dataArr, dataArr.length >>> 1);
+        }
+    }
+
+    /**
+     * Internal method that publishes a new resize operation. The caller must hold the resize lock.
+     * 
+     * @param dataArr current data array
+     * @param length of the new data array
+     */
+    @SuppressWarnings("unchecked")
+    private final void startResize(HashEntry<K, V>[] dataArr, int length) {
+        ForwardingEntry<K, V> f = new ForwardingEntry<K, V>(dataArr, (HashEntry<K, V>[]) new HashEntry[length], MOVED + resizeCount++);
+        // The summary of the new array is complete before the first bucket is migrated. The summary of the old array goes stale from now on
+        if (fingerprints != null)
+            fingerprints = new Fingerprints(f.nextTable);
+        forwarding = f;
+        if (metrics != null)
+            metrics.resizeStarted();
+        if (resizeExecutor != null) {
+            try {
+                resizeExecutor.execute(new ResizeSweeper(f));
+                return;
+            } catch (RejectedExecutionException e) {
+                // Migrate the remaining buckets in this thread
+            }
+        }
+        transfer(f);
+    }
+
+    /**
+     * Internal method to compute the shrink threshold of a data array. Maps never shrink below their initial capacity.
+     * 
+     * @param length of the data array
+     * @return int number of entries below which the map shrinks, 0 if it does not shrink
+     */
+    private final int shrinkThreshold(int length) {
+        return (length > initialCapacity) ? (int) (length * shrinkFactor) : 0;
+    }
+
+    /**
+     * Internal method to migrate buckets to the new array of a running resize. The data array is split in stripes of buckets and every calling thread claims and migrates stripes until no unclaimed stripe is left.
+     * The thread that completes the last stripe publishes the new array. If the map shrinks, a stripe covers the pairs of buckets that are merged into one bucket of the new array.
+     * 
+     * @param f forwarding marker of the resize
+     */
+    private final void transfer(ForwardingEntry<K, V> f) {
+        int n = f.buckets;
+        while (true) {
+            int ti = f.transferIndex;
+            if (ti <= 0)
+                return;
+            int bound = (ti > f.stride) ? ti - f.stride : 0;
+            if (!f.casTransferIndex(ti, bound))
+                continue;
+            for (int i = ti - 1; i >= bound; --i) {
+                migrateBucket(f, i);
+            }
+            if (f.addTransferred(ti - bound) == n) {
+                // Update data array. The CAS fails if the map was cleared while resizing
+                if (DATA.compareAndSet(this, f.table, f.nextTable)) {
+                    this.resizeThreshold = (int) (f.nextTable.length * this.loadFactor);
+                    this.shrinkThreshold = shrinkThreshold(f.nextTable.length);
+                    forwarding = null;
+                    MapMetrics m = metrics;
+                    if (m != null)
+                        m.resizeCompleted();
+                    control.unlockResize();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Internal method used in lazy resize mode to migrate a bucket of a running resize before it is modified
+     * 
+     * @param dataArr array that is accessed
+     * @param hash of the key
+     * @return true if the bucket was migrated
+     */
+    private final boolean migrateLazily(HashEntry<K, V>[] dataArr, int hash) {
+        ForwardingEntry<K, V> f = forwarding;
+        if (f == null || f.table != dataArr)
+            return false;
+        migrateBucket(f, hash & (dataArr.length - 1));
+        return true;
+    }
+
+    /**
+     * Internal method to check whether a bucket is frozen by a resize. Entries of a frozen bucket that are marked as moved belong to the new array. In any other bucket a moved mark is a leftover of an
+     * earlier resize that reused the entry, the entry is live.
+     * 
+     * @param dataArr array
+     * @param bucket index
+     * @return true if the bucket holds a forwarding marker
+     */
+    private static <K, V> boolean isFrozen(HashEntry<K, V>[] dataArr, int bucket) {
+        HashEntry<K, V> head = entryAt(dataArr, bucket);
+        return head != null && head.hash == FORWARDING_HASH;
+    }
+
+    /**
+     * Internal method that makes sure a bucket is completely migrated before the new array is accessed
+     * 
+     * @param f forwarding marker found in the bucket
+     * @param hash of the key
+     * @return new data array
+     */
+    private final HashEntry<K, V>[] forward(ForwardingEntry<K, V> f, int hash) {
+        int index = hash & (f.table.length - 1);
+        if (entryAt(f.frozen, index) != f)
+            migrateBucket(f, index);
+        return f.nextTable;
+    }
+
+    /**
+     * Internal method to migrate a single bucket. Any number of threads can migrate the same bucket concurrently, all steps are idempotent:
+     * 
+     * 1. The bucket head is recorded in the frozen array and the bucket is swapped to the forwarding marker. No entry can be inserted anymore.
+     * 2. All live entries are marked as moved by this resize. Removes of moved entries are redirected to the new array.
+     * 3. Older entries of a key that was updated while the bucket was frozen are deleted.
+     * 4. The chain is split into the two target buckets of the new array. The last run of entries that share a target bucket is reused as is, only the entries in front of it are copied. The old chain
+     * stays intact for concurrent readers.
+     * 5. The frozen array slot is set to the forwarding marker. From now on readers and writers use the new array.
+     * 
+     * If the map shrinks, the bucket is migrated together with the other bucket that is merged into the same bucket of the new array.
+     * 
+     * @param f forwarding marker of the resize
+     * @param index of the bucket
+     */
+    private final void migrateBucket(ForwardingEntry<K, V> f, int index) {
+        HashEntry<K, V>[] dataArr = f.table;
+        if (f.nextTable.length < dataArr.length) {
+            mergeBuckets(f, index & (f.nextTable.length - 1));
+            return;
+        }
+        HashEntry<K, V>[] frozen = f.frozen;
+
+        HashEntry<K, V> head = freezeBucket(f, index);
+        if (head == f)
+            return; // Already migrated
+        if (head == null) {
+            casEntryAt(frozen, index, null, f);
+            return;
+        }
+        int moved = f.movedState;
+        markMoved(head, moved);
+
+        int n = dataArr.length;
+        if (f.nextTable.length > (n << 1)) {
+            spreadBucket(f, head, moved);
+            if (casEntryAt(frozen, index, head, f))
+                addTombstones(head, null);
+            return;
+        }
+        HashEntry<K, V> lastRun = null;
+        HashEntry<K, V> lo = null, hi = null;
+        if (updateInPlace) {
+            // Values are frozen before they are copied, so no update in place can get lost. Entries are never reused, a reused entry would still hold a frozen value
+            for (HashEntry<K, V> e = head; e != null; e = e.getNext()) {
+                if (e.getState() != moved)
+                    continue;
+                V v = e.freezeValue();
+                if (v == null)
+                    continue;
+                if ((e.hash & n) == 0)
+                    lo = copyEntry(e, v, lo);
+                else
+                    hi = copyEntry(e, v, hi);
+            }
+        }
+        int runBit = -1;
+        for (HashEntry<K, V> e = head; e != null && !updateInPlace; e = e.getNext()) {
+            if (e.getState() == moved && (e.hash & n) != runBit) {
+                runBit = e.hash & n;
+                lastRun = e;
+            }
+        }
+        if (lastRun != null) {
+            if (runBit == 0)
+                lo = lastRun;
+            else
+                hi = lastRun;
+            for (HashEntry<K, V> e = head; e != lastRun; e = e.getNext()) {
+                if (e.getState() != moved)
+                    continue;
+                if ((e.hash & n) == 0)
+                    lo = copyEntry(e, e.value, lo);
+                else
+                    hi = copyEntry(e, e.value, hi);
+            }
+        }
+        // Bucket heads of the new array are never reset to null, so the CAS only succeeds for the first thread
+        if (lo != null) {
+            addFingerprints(f.nextTable, index, lo);
+            if (casEntryAt(f.nextTable, index, null, lo))
+                scheduleCopies(lo, lastRun);
+        }
+        if (hi != null) {
+            addFingerprints(f.nextTable, index + n, hi);
+            if (casEntryAt(f.nextTable, index + n, null, hi))
+                scheduleCopies(hi, lastRun);
+        }
+
+        if (casEntryAt(frozen, index, head, f))
+            addTombstones(head, lastRun);
+    }
+
+    /**
+     * Internal method to migrate the two buckets of a shrinking resize that are merged into one bucket of the new array. The steps are the same as for a single bucket. The lower bucket is completed first and
+     * its chain is reused from the first moved entry on, the moved entries of the upper bucket are copied in front of it. Until the upper bucket is completed, its frozen chain stays valid for readers.
+     * 
+     * @param f forwarding marker of the resize
+     * @param index of the bucket in the new array
+     */
+    private final void mergeBuckets(ForwardingEntry<K, V> f, int index) {
+        HashEntry<K, V>[] frozen = f.frozen;
+        int hiIndex = index + f.nextTable.length;
+
+        HashEntry<K, V> lo = freezeBucket(f, index);
+        HashEntry<K, V> hi = freezeBucket(f, hiIndex);
+        if (hi == f)
+            return; // Already migrated
+        if (lo != f) {
+            int moved = f.movedState;
+            markMoved(lo, moved);
+            markMoved(hi, moved);
+
+            HashEntry<K, V> lastRun = null;
+            HashEntry<K, V> merged = null;
+            if (updateInPlace) {
+                // Values are frozen before they are copied, entries are never reused
+                for (HashEntry<K, V> e = lo; e != null; e = e.getNext()) {
+                    V v;
+                    if (e.getState() == moved && (v = e.freezeValue()) != null)
+                        merged = copyEntry(e, v, merged);
+                }
+            } else {
+                for (lastRun = lo; lastRun != null && lastRun.getState() != moved; lastRun = lastRun.getNext()) {
+                }
+                merged = lastRun;
+            }
+            for (HashEntry<K, V> e = hi; e != null; e = e.getNext()) {
+                V v;
+                if (e.getState() == moved && (v = updateInPlace ? e.freezeValue() : e.value) != null)
+                    merged = copyEntry(e, v, merged);
+            }
+            if (merged != null) {
+                addFingerprints(f.nextTable, index, merged);
+                if (casEntryAt(f.nextTable, index, null, merged))
+                    scheduleCopies(merged, lastRun);
+            }
+            if (casEntryAt(frozen, index, lo, f))
+                addTombstones(lo, lastRun);
+        }
+        if (casEntryAt(frozen, hiIndex, hi, f))
+            addTombstones(hi, null);
+    }
+
+    /**
+     * Internal method to freeze a bucket. The bucket head is recorded in the frozen array and the bucket is swapped to the forwarding marker.
+     * 
+     * @param f forwarding marker of the resize
+     * @param bucket index
+     * @return HashEntry frozen bucket head, the forwarding marker if the bucket is already migrated
+     */
+    private static <K, V> HashEntry<K, V> freezeBucket(ForwardingEntry<K, V> f, int bucket) {
+        HashEntry<K, V>[] dataArr = f.table;
+        HashEntry<K, V>[] frozen = f.frozen;
+        while (true) {
+            HashEntry<K, V> head = entryAt(frozen, bucket);
+            if (head == f)
+                return f; // Already migrated
+            HashEntry<K, V> e = entryAt(dataArr, bucket);
+            if (e == f)
+                break; // Already frozen
+            if (head != e && !casEntryAt(frozen, bucket, head, e))
+                continue;
+            if (casEntryAt(dataArr, bucket, e, f))
+                break;
+        }
+        return entryAt(frozen, bucket);
+    }
+
+    /**
+     * Internal method to mark the live entries of a frozen chain as moved and to delete older entries of keys that were updated while the bucket was frozen. Pending updates are completed first.
+     * 
+     * @param head frozen bucket head
+     * @param moved state of the resize
+     */
+    private final void markMoved(HashEntry<K, V> head, int moved) {
+        if (head == null)
+            return;
+        for (HashEntry<K, V> e = head; e != null; e = e.getNext()) {
+            if (e.value instanceof PendingValue)
+                resolve(e);
+        }
+        // Marks of earlier resizes are upgraded, marks of later resizes are never overwritten
+        for (HashEntry<K, V> e = head; e != null; e = e.getNext()) {
+            int state = e.getState();
+            while (state != DELETED && state != REPLACED && state != SUPERSEDED && state < moved && !e.casState(state, moved)) {
+                state = e.getState();
+            }
+        }
+
+        // The first entry of a key is the most recent one. A helper can mark e as replaced and e can be unlinked before the scan reaches it, the scan then runs off the chain
+        for (HashEntry<K, V> e = head.getNext(); e != null; e = e.getNext()) {
+            if (e.getState() != moved)
+                continue;
+            for (HashEntry<K, V> p = head; p != e && p != null; p = p.getNext()) {
+                if (p.getState() == moved && (p.key == e.key || (p.hash == e.hash && p.key.equals(e.key)))) {
+                    e.casState(moved, REPLACED);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method to migrate a frozen chain to an array that is more than twice as large, e.g. after ensureCapacity. The entries are spread over as many target buckets as they have distinct targets,
+     * chains are short so the targets are found by rescanning the chain. Every entry is copied.
+     * 
+     * @param f forwarding marker of the resize
+     * @param head frozen bucket head
+     * @param moved state of the entries moved by this resize
+     */
+    private final void spreadBucket(ForwardingEntry<K, V> f, HashEntry<K, V> head, int moved) {
+        HashEntry<K, V>[] nextTable = f.nextTable;
+        int mask = nextTable.length - 1;
+        next: for (HashEntry<K, V> e = head; e != null; e = e.getNext()) {
+            if (e.getState() != moved)
+                continue;
+            int target = e.hash & mask;
+            for (HashEntry<K, V> p = head; p != e; p = p.getNext()) {
+                if (p.getState() == moved && (p.hash & mask) == target)
+                    continue next; // Target already built
+            }
+            HashEntry<K, V> chain = null;
+            for (HashEntry<K, V> p = e; p != null; p = p.getNext()) {
+                if (p.getState() != moved || (p.hash & mask) != target)
+                    continue;
+                V v = updateInPlace ? p.freezeValue() : p.value;
+                if (v != null)
+                    chain = copyEntry(p, v, chain);
+            }
+            // Bucket heads of the new array are never reset to null, so the CAS only succeeds for the first thread
+            if (chain != null) {
+                addFingerprints(nextTable, target, chain);
+                if (casEntryAt(nextTable, target, null, chain))
+                    scheduleCopies(chain, null);
+            }
+        }
+    }
+
+    /**
+     * Internal method to account for the deleted entries of a migrated chain. Deleted entries in front of the reused run are dropped with the old array, replaced entries in the reused run are carried over.
+     * Only the thread that completes the bucket calls this method.
+     * 
+     * @param head frozen bucket head
+     * @param lastRun first entry that is reused by the new array, null if all entries were copied
+     */
+    private final void addTombstones(HashEntry<K, V> head, HashEntry<K, V> lastRun) {
+        int tombstoneDelta = 0;
+        boolean carried = false;
+        for (HashEntry<K, V> e = head; e != null; e = e.getNext()) {
+            carried |= (e == lastRun);
+            int state = e.getState();
+            if (!carried && (state == DELETED || state == SUPERSEDED || e.value == null) && e.hash != MARKER_HASH)
+                --tombstoneDelta;
+            else if (carried && state == REPLACED)
+                ++tombstoneDelta;
+        }
+        if (tombstoneDelta != 0)
+            tombstones.add(tombstoneDelta);
+    }
+
+    /**
+     * Internal function to check if the map is currently being resized
+     * 
+     * @return true if resize operation is currently happening
+     */
+    final boolean isResizing() {
+        return forwarding != null;
+    }
+
+    /**
+     * Entry object of the hash map. Contains the key/value pair as well as metadata necessary for efficient and correct processing.
+     * 
+     * All flags share the state word: the deleted, replaced and moved states and the access bit of bounded maps. With compressed references an entry takes 32 bytes, the hash, three references and the
+     * state word fill the object after its 12 byte header without padding. Entries of 1.0.0 took 40 bytes with a separate deleted int and resized boolean. Dropping one more int field would still be padded to 32
+     * bytes, a smaller entry would need to give up both the cached hash and the state word.
+     * 
+     * @author Simon Loesing
+     * 
+     * @param <K> key
+     * @param <V> value
+     */
+    static class HashEntry<K, V> implements Entry<K, V>
+    {
+        final int hash;
+        final K key;
+        volatile V value;
+        volatile HashEntry<K, V> next;
+        volatile int state;
+
+        HashEntry(int hash, K key, V value, HashEntry<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            // The entry is published by a CAS, plain writes are sufficient
+            VALUE.set(this, value);
+            NEXT.set(this, next);
+        }
+
+        /**
+         * Creates a marker that is appended to a deleted entry
+         */
+        HashEntry(HashEntry<K, V> next) {
+            this(MARKER_HASH, null, null, next);
+            this.state = DELETED;
+        }
+
+        @Override
+        public K getKey() {
+            if (isDeleted())
+                throw new IllegalStateException();
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            V v = liveValue();
+            if (v == null || isDeleted())
+                throw new IllegalStateException();
+            return v;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("unchecked")
+        final HashEntry<K, V> getNext() {
+            return (HashEntry<K, V>) NEXT.getAcquire(this);
+        }
+
+        final void initNext(HashEntry<K, V> newNext) {
+            NEXT.set(this, newNext);
+        }
+
+        final boolean replaceNext(HashEntry<K, V> oldNext, HashEntry<K, V> newNext) {
+            return NEXT.compareAndSet(this, oldNext, newNext);
+        }
+
+        /**
+         * @return int state without the access bit
+         */
+        final int getState() {
+            return (int) STATE.getAcquire(this) & ~ACCESSED;
+        }
+
+        /**
+         * Sets the state word of an entry that is not published yet
+         */
+        final void initState(int state) {
+            STATE.set(this, state);
+        }
+
+        final boolean casValue(Object oldValue, Object newValue) {
+            return VALUE.compareAndSet(this, oldValue, newValue);
+        }
+
+        /**
+         * @return V current value, the original value if it is frozen by a resize, null if the entry was removed in place. The value of a pending update only counts once the old entry is superseded.
+         */
+        @SuppressWarnings("unchecked")
+        final V liveValue() {
+            Object v = value;
+            if (v instanceof PendingValue) {
+                PendingValue p = (PendingValue) v;
+                int state = p.superseded.getState();
+                if (state == SUPERSEDED)
+                    return (V) p.value;
+                return (state == DELETED || state == REPLACED) ? null : (V) p.superseded.liveValue();
+            }
+            return (v instanceof FrozenValue) ? (V) ((FrozenValue) v).value : (V) v;
+        }
+
+        /**
+         * Freezes the value of an entry that is updated in place, further updates of the entry fail
+         * 
+         * @return V frozen value, null if the entry was removed
+         */
+        @SuppressWarnings("unchecked")
+        final V freezeValue() {
+            while (true) {
+                Object v = value;
+                if (v == null)
+                    return null;
+                if (v instanceof FrozenValue)
+                    return (V) ((FrozenValue) v).value;
+                if (casValue(v, new FrozenValue(v)))
+                    return (V) v;
+            }
+        }
+
+        /**
+         * Changes the state, the access bit is kept. A concurrent change of the access bit does not fail the state change.
+         */
+        final boolean casState(int oldState, int newState) {
+            while (true) {
+                int s = (int) STATE.getAcquire(this);
+                if ((s & ~ACCESSED) != oldState)
+                    return false;
+                if (STATE.compareAndSet(this, s, newState | (s & ACCESSED)))
+                    return true;
+            }
+        }
+
+        final boolean isAccessed() {
+            return ((int) STATE.getAcquire(this) & ACCESSED) != 0;
+        }
+
+        /**
+         * Sets or clears the access bit of the CLOCK eviction policy
+         */
+        final void setAccessed(boolean accessed) {
+            int s;
+            while ((((s = (int) STATE.getAcquire(this)) & ACCESSED) != 0) != accessed && !STATE.weakCompareAndSet(this, s, s ^ ACCESSED)) {
+            }
+        }
+
+        /**
+         * Moved entries are still valid for readers until the resize of the bucket completes, entries reused by a resize keep their moved mark. Entries updated in place are deleted once their value is
+         * null.
+         */
+        final boolean isDeleted() {
+            int state = (int) STATE.getAcquire(this) & ~ACCESSED;
+            return state == DELETED || state == REPLACED || state == SUPERSEDED || VALUE.getAcquire(this) == null;
+        }
+
+        private static final VarHandle VALUE;
+        private static final VarHandle NEXT;
+        private static final VarHandle STATE;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                VALUE = l.findVarHandle(HashEntry.class, "value", Object.class);
+                NEXT = l.findVarHandle(HashEntry.class, "next", HashEntry.class);
+                STATE = l.findVarHandle(HashEntry.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Position of the clock hand of a bounded map. Every evicting writer advances the hand, it is padded like the counter cells so these writes do not invalidate the cache line of the map fields that
+     * every lookup reads.
+     * 
+     * @author Simon Loesing
+     */
+    static final class ClockHand
+    {
+        volatile long p0, p1, p2, p3, p4, p5, p6;
+        volatile long index;
+        volatile long q0, q1, q2, q3, q4, q5, q6;
+
+        /**
+         * Claims a number of buckets
+         * 
+         * @param count number of buckets
+         * @return int index of the first claimed bucket
+         */
+        final int advance(int count) {
+            return (int) (long) INDEX.getAndAdd(this, (long) count);
+        }
+
+        private static final VarHandle INDEX;
+        static {
+            try {
+                INDEX = MethodHandles.lookup().findVarHandle(ClockHand.class, "index", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Resize lock and position of the expiry sweeps. Both are written by writers, the lock whenever a resize starts or ends and the sweep position by every sweep, so they are padded like the clock hand to
+     * keep these writes off the cache line of the data array reference that every lookup reads. The words are longs, the VM groups fields by size and would move int fields next to each other.
+     * 
+     * @author Simon Loesing
+     */
+    static final class ResizeControl
+    {
+        volatile long p0, p1, p2, p3, p4, p5, p6;
+        volatile long resizeLock;
+        volatile long sweepIndex;
+        volatile long q0, q1, q2, q3, q4, q5, q6;
+
+        /**
+         * Acquires the resize lock if it is free
+         * 
+         * @return true if the lock was acquired
+         */
+        final boolean tryLockResize() {
+            return (long) RESIZE_LOCK.getAcquire(this) == 0L && RESIZE_LOCK.compareAndSet(this, 0L, 1L);
+        }
+
+        /**
+         * Releases the resize lock
+         */
+        final void unlockResize() {
+            RESIZE_LOCK.setRelease(this, 0L);
+        }
+
+        /**
+         * Claims a number of buckets for a sweep
+         * 
+         * @param count number of buckets
+         * @return int index of the first claimed bucket
+         */
+        final int claimSweep(int count) {
+            return (int) (long) SWEEP_INDEX.getAndAdd(this, (long) count);
+        }
+
+        private static final VarHandle RESIZE_LOCK;
+        private static final VarHandle SWEEP_INDEX;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                RESIZE_LOCK = l.findVarHandle(ResizeControl.class, "resizeLock", long.class);
+                SWEEP_INDEX = l.findVarHandle(ResizeControl.class, "sweepIndex", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Fingerprint summary of the buckets of a data array. Every key sets one of the 32 bits of the word of its bucket. The bit is taken from a multiplicative hash of the key hash, so keys of the same bucket,
+     * which share the lower bits, still set different bits. A bit is set before an entry of the key is inserted and never cleared, so a clear bit proves that the key was absent when the word was read.
+     * 
+     * @author Simon Loesing
+     */
+    static final class Fingerprints
+    {
+        final HashEntry<?, ?>[] table;
+        final int[] tags;
+
+        Fingerprints(HashEntry<?, ?>[] table) {
+            this.table = table;
+            this.tags = new int[table.length];
+        }
+
+        /**
+         * Computes the bit of a key in the word of its bucket
+         * 
+         * @param hash of the key
+         * @return int word with one bit set
+         */
+        static int fingerprint(int hash) {
+            return 1 << ((hash * 0x9e3779b9) >>> 27);
+        }
+
+        /**
+         * Checks whether a bucket may contain a key
+         * 
+         * @param bucket index
+         * @param hash of the key
+         * @return false if no entry of the key was inserted
+         */
+        final boolean mayContain(int bucket, int hash) {
+            return ((int) TAG.getVolatile(tags, bucket) & fingerprint(hash)) != 0;
+        }
+
+        /**
+         * Sets the bit of a key. The bit is only written if it is not set yet, so inserts into a bucket that holds the key already do not invalidate the cache line.
+         * 
+         * @param bucket index
+         * @param hash of the key
+         */
+        final void add(int bucket, int hash) {
+            int bit = fingerprint(hash);
+            if (((int) TAG.getVolatile(tags, bucket) & bit) == 0)
+                TAG.getAndBitwiseOr(tags, bucket, bit);
+        }
+
+        private static final VarHandle TAG = MethodHandles.arrayElementVarHandle(int[].class);
+    }
+
+    /**
+     * Entry of an expiring map. Carries the time of {@link System#nanoTime()} at which it expires. Refreshing entries on access only writes the time if it moves on by more than a millisecond, so reads of a
+     * hot entry do not keep invalidating its cache line.
+     * 
+     * @author Simon Loesing
+     * 
+     * @param <K> key
+     * @param <V> value
+     */
+    static final class ExpiringEntry<K, V> extends HashEntry<K, V>
+    {
+        /** Minimal step of a refresh in nanoseconds */
+        static final long REFRESH_STEP = 1000000L;
+
+        volatile long expiresAt;
+
+        ExpiringEntry(int hash, K key, V value, HashEntry<K, V> next, long expiresAt) {
+            super(hash, key, value, next);
+            this.expiresAt = expiresAt;
+        }
+
+        final void refresh(long time) {
+            if (time - expiresAt > REFRESH_STEP)
+                expiresAt = time;
+        }
+    }
+
+    /**
+     * Value of an entry that is updated in place and copied by a resize. Updates of a frozen value fail and are applied to the copy in the new array.
+     * 
+     * @author Simon Loesing
+     */
+    static final class FrozenValue
+    {
+        final Object value;
+
+        FrozenValue(Object value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Value of an entry that was inserted by an update and has not superseded the old entry of its key yet. Readers still see the old value.
+     */
+    static final class PendingValue
+    {
+        final HashEntry<?, ?> superseded;
+        final Object value;
+
+        PendingValue(HashEntry<?, ?> superseded, Object value) {
+            this.superseded = superseded;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Marker that is placed in the buckets of a data array that is being resized. Holds the state of the resize: the new array, the frozen bucket heads and the progress of the migration.
+     * 
+     * @author Simon Loesing
+     * 
+     * @param <K> key
+     * @param <V> value
+     */
+    static final class ForwardingEntry<K, V> extends HashEntry<K, V>
+    {
+        final HashEntry<K, V>[] table;
+        final HashEntry<K, V>[] nextTable;
+        final HashEntry<K, V>[] frozen;
+        final int stride;
+        final int buckets;
+        final int movedState;
+        volatile int transferIndex;
+        volatile int transferred;
+        volatile int lazyWrites;
+
+        @SuppressWarnings("unchecked")
+        ForwardingEntry(HashEntry<K, V>[] table, HashEntry<K, V>[] nextTable, int movedState) {
+            super(FORWARDING_HASH, null, null, null);
+            this.state = DELETED;
+            this.table = table;
+            this.nextTable = nextTable;
+            this.movedState = movedState;
+            this.frozen = (HashEntry<K, V>[]) new HashEntry[table.length];
+            // Number of buckets that are migrated one by one. A shrinking resize migrates the pairs of buckets that share a bucket of the new array together
+            this.buckets = Math.min(table.length, nextTable.length);
+            int stride = (buckets >>> 3) / NCPU;
+            this.stride = (stride < MIN_TRANSFER_STRIDE) ? MIN_TRANSFER_STRIDE : stride;
+            this.transferIndex = buckets;
+        }
+
+        final boolean casTransferIndex(int oldIndex, int newIndex) {
+            return TRANSFER_INDEX.compareAndSet(this, oldIndex, newIndex);
+        }
+
+        final int addTransferred(int count) {
+            return (int) TRANSFERRED.getAndAdd(this, count) + count;
+        }
+
+        /**
+         * Counts a write during a lazy resize and checks whether the sweep task is overdue. Writes are only counted until the first stripe is claimed, a sweep task that runs costs nothing.
+         * 
+         * @return true if no stripe was claimed within as many writes as there are buckets to migrate
+         */
+        final boolean isSweepOverdue() {
+            return transferIndex == buckets && (int) LAZY_WRITES.getAndAdd(this, 1) >= buckets;
+        }
+
+        private static final VarHandle TRANSFER_INDEX;
+        private static final VarHandle TRANSFERRED;
+        private static final VarHandle LAZY_WRITES;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                TRANSFER_INDEX = l.findVarHandle(ForwardingEntry.class, "transferIndex", int.class);
+                TRANSFERRED = l.findVarHandle(ForwardingEntry.class, "transferred", int.class);
+                LAZY_WRITES = l.findVarHandle(ForwardingEntry.class, "lazyWrites", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Task that migrates all remaining buckets of a lazy resize
+     * 
+     * @author Simon Loesing
+     */
+    final class ResizeSweeper implements Runnable
+    {
+        final ForwardingEntry<K, V> f;
+
+        ResizeSweeper(ForwardingEntry<K, V> f) {
+            this.f = f;
+        }
+
+        @Override
+        public void run() {
+            transfer(f);
+        }
+    }
+
+    /**
+     * Traverses the live entries of a range of buckets. Buckets that have been migrated by a running resize are followed into the new array, where the two target buckets are visited before the traversal
+     * continues in the original array. If the map shrinks, the target bucket also holds the entries of the other bucket that was merged into it, only the entries that hash to the migrated bucket are
+     * returned. Every entry is therefore returned once, even if a resize is running.
+     * 
+     * @author Simon Loesing
+     * 
+     * @param <K> key
+     * @param <V> value
+     */
+    static class Traverser<K, V>
+    {
+        final HashEntry<K, V>[] baseArr;
+        HashEntry<K, V>[] dataArr;
+        int index;
+        int baseIndex;
+        int baseLimit;
+        final int baseSize;
+        int mergedLength;
+        int mergedIndex;
+        int filterLength;
+        int filterIndex;
+        TableStack<K, V> stack;
+        TableStack<K, V> spare;
+        HashEntry<K, V> nextEntry;
+        V nextValue;
+
+        Traverser(HashEntry<K, V>[] dataArr) {
+            this(dataArr, 0, dataArr.length);
+        }
+
+        /**
+         * @param dataArr array to traverse
+         * @param index first bucket of the range
+         * @param limit bucket after the range
+         */
+        Traverser(HashEntry<K, V>[] dataArr, int index, int limit) {
+            this.baseArr = this.dataArr = dataArr;
+            this.baseSize = dataArr.length;
+            this.index = this.baseIndex = index;
+            this.baseLimit = limit;
+        }
+
+        /**
+         * Moves to the next live entry. Its value is read once, an entry updated in place may change it.
+         * 
+         * @return HashEntry next entry, null once the range is traversed
+         */
+        @SuppressWarnings("unchecked")
+        final HashEntry<K, V> advanceToNext() {
+            HashEntry<K, V> e = nextEntry;
+            if (e != null)
+                e = e.getNext();
+            while (true) {
+                while (e != null && (e.isDeleted() || isExpired(e) || (filterLength != 0 && (e.hash & (filterLength - 1)) != filterIndex) || (nextValue = e.liveValue()) == null)) {
+                    e = e.getNext();
+                }
+                if (e != null) {
+                    return nextEntry = e;
+                }
+                HashEntry<K, V>[] t = dataArr;
+                int i = index;
+                int n = t.length;
+                if (baseIndex >= baseLimit || i >= n || i < 0) {
+                    return nextEntry = null;
+                }
+                e = entryAt(t, i);
+                if (e != null && e.hash == FORWARDING_HASH) {
+                    ForwardingEntry<K, V> f = (ForwardingEntry<K, V>) e;
+                    e = entryAt(f.frozen, i);
+                    if (e == f) {
+                        e = null;
+                        HashEntry<K, V>[] nt = f.nextTable;
+                        if (nt.length > n) {
+                            // Bucket is migrated, visit its target buckets in the new array first
+                            dataArr = nt;
+                            pushState(t, i, n);
+                            continue;
+                        }
+                        // Bucket is merged, only the entries that hash to this bucket and to all outer merged buckets are returned. If no entry can match both, the bucket is skipped
+                        int m = mergedLength;
+                        if (m == 0 || ((n >= m) ? (i & (m - 1)) == mergedIndex : (mergedIndex & (n - 1)) == i)) {
+                            dataArr = nt;
+                            pushState(t, i, n);
+                            if (n >= m) {
+                                mergedLength = n;
+                                mergedIndex = i;
+                            }
+                            index = i & (nt.length - 1);
+                            continue;
+                        }
+                    }
+                }
+                // The chain is filtered by the merged bucket it was reached from
+                filterLength = mergedLength;
+                filterIndex = mergedIndex;
+                if (stack != null)
+                    recoverState(n);
+                else if ((index = i + baseSize) >= n)
+                    index = ++baseIndex;
+            }
+        }
+
+        /**
+         * Saves the position in the current array before descending into the new array
+         */
+        private void pushState(HashEntry<K, V>[] t, int i, int n) {
+            TableStack<K, V> s = spare;
+            if (s != null)
+                spare = s.next;
+            else
+                s = new TableStack<K, V>();
+            s.dataArr = t;
+            s.length = n;
+            s.index = i;
+            s.mergedLength = mergedLength;
+            s.mergedIndex = mergedIndex;
+            s.next = stack;
+            stack = s;
+        }
+
+        /**
+         * Moves to the next target bucket in a new array, or back to the saved position once all target buckets were visited
+         */
+        private void recoverState(int n) {
+            TableStack<K, V> s;
+            int len;
+            while ((s = stack) != null && (index += (len = s.length)) >= n) {
+                n = len;
+                index = s.index;
+                dataArr = s.dataArr;
+                mergedLength = s.mergedLength;
+                mergedIndex = s.mergedIndex;
+                s.dataArr = null;
+                TableStack<K, V> next = s.next;
+                s.next = spare;
+                stack = next;
+                spare = s;
+            }
+            if (s == null && (index += baseSize) >= n)
+                index = ++baseIndex;
+        }
+    }
 
     /**
-     * Internal function to check if the map has been resized
+     * Task of a bulk load. Splits its range of partitions in halves and inserts the pairs of the remaining partition.
      * 
-     * @param dataRef reference to the data array to check against
-     * @return true if resize operation has happened
+     * @author Simon Loesing
+     * 
+     * @param <K> key
+     * @param <V> value
      */
-    private final boolean hasResized(HashEntry<K, V>[] dataRef) {
-        return (dataRef.length != data.length);
+    @SuppressWarnings("serial")
+    static final class LoadTask<K, V> extends RecursiveAction
+    {
+        final LockFreeHashMap<K, V> map;
+        final Object[] keys;
+        final Object[] vals;
+        final int[] bounds;
+        final int lo;
+        final int hi;
+
+        LoadTask(LockFreeHashMap<K, V> map, Object[] keys, Object[] vals, int[] bounds, int lo, int hi) {
+            this.map = map;
+            this.keys = keys;
+            this.vals = vals;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void compute() {
+            int mid = (lo + hi) >>> 1;
+            if (mid == lo) {
+                for (int i = bounds[lo]; i < bounds[hi]; ++i) {
+                    map.put((K) keys[i], (V) vals[i], false, false, null);
+                }
+                return;
+            }
+            invokeAll(new LoadTask<K, V>(map, keys, vals, bounds, lo, mid), new LoadTask<K, V>(map, keys, vals, bounds, mid, hi));
+        }
     }
 
     /**
-     * Entry object of the hash map. Contains the key/value pair as well as metadata necessary for efficient and correct processing.
+     * Task of a bulk operation. Splits its range of buckets in halves until the batch is used up and traverses the remaining range.
      * 
      * @author Simon Loesing
      * 
      * @param <K> key
      * @param <V> value
+     * @param <R> result
      */
-    static final class HashEntry<K, V> implements Entry<K, V>
+    @SuppressWarnings("serial")
+    abstract static class BulkTask<K, V, R> extends RecursiveTask<R>
     {
-        final int hash;
-        final K key;
-        final V value;
-        volatile HashEntry<K, V> next;
-        volatile int isDeleted;
-        volatile boolean isResized;
+        final HashEntry<K, V>[] dataArr;
+        final int lo;
+        final int hi;
+        final int batch;
+
+        BulkTask(HashEntry<K, V>[] dataArr, int lo, int hi, int batch) {
+            this.dataArr = dataArr;
+            this.lo = lo;
+            this.hi = hi;
+            this.batch = batch;
+        }
 
-        HashEntry(int hash, K key, V value) {
-            this.hash = hash;
-            this.key = key;
-            this.value = value;
-            UNSAFE.putIntVolatile(this, deletedOffset, 0);
-            UNSAFE.putBooleanVolatile(this, isResizedOffset, false);
+        @Override
+        protected final R compute() {
+            int mid = (lo + hi) >>> 1;
+            if (batch <= 0 || mid == lo)
+                return traverse(new Traverser<K, V>(dataArr, lo, hi));
+            BulkTask<K, V, R> right = subTask(mid, hi, batch >>> 1);
+            right.fork();
+            R left = subTask(lo, mid, batch >>> 1).compute();
+            return combine(left, right.join());
+        }
+
+        /**
+         * @return BulkTask task for a part of the range
+         */
+        abstract BulkTask<K, V, R> subTask(int lo, int hi, int batch);
+
+        /**
+         * @return R result of the entries returned by the traverser
+         */
+        abstract R traverse(Traverser<K, V> it);
+
+        /**
+         * @return R combined result of two ranges
+         */
+        abstract R combine(R left, R right);
+    }
+
+    /**
+     * @author Simon Loesing
+     */
+    @SuppressWarnings("serial")
+    static final class ForEachTask<K, V> extends BulkTask<K, V, Void>
+    {
+        final BiConsumer<? super K, ? super V> action;
+
+        ForEachTask(HashEntry<K, V>[] dataArr, int lo, int hi, int batch, BiConsumer<? super K, ? super V> action) {
+            super(dataArr, lo, hi, batch);
+            this.action = action;
         }
 
         @Override
-        public K getKey() {
-            if (isDeleted())
-                throw new IllegalStateException();
-            return key;
+        BulkTask<K, V, Void> subTask(int lo, int hi, int batch) {
+            return new ForEachTask<K, V>(dataArr, lo, hi, batch, action);
         }
 
         @Override
-        public V getValue() {
-            if (isDeleted())
-                throw new IllegalStateException();
-            return value;
+        Void traverse(Traverser<K, V> it) {
+            for (HashEntry<K, V> e; (e = it.advanceToNext()) != null;) {
+                action.accept(e.key, it.nextValue);
+            }
+            return null;
         }
 
         @Override
-        public V setValue(V value) {
-            throw new UnsupportedOperationException();
+        Void combine(Void left, Void right) {
+            return null;
         }
+    }
 
-        @SuppressWarnings("unchecked")
-        final HashEntry<K, V> getNext() {
-            return (HashEntry<K, V>) UNSAFE.getObjectVolatile(this, nextOffset);
+    /**
+     * @author Simon Loesing
+     */
+    @SuppressWarnings("serial")
+    static final class SearchTask<K, V, U> extends BulkTask<K, V, U>
+    {
+        final BiFunction<? super K, ? super V, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+
+        SearchTask(HashEntry<K, V>[] dataArr, int lo, int hi, int batch, BiFunction<? super K, ? super V, ? extends U> searchFunction, AtomicReference<U> result) {
+            super(dataArr, lo, hi, batch);
+            this.searchFunction = searchFunction;
+            this.result = result;
         }
 
-        final void setNext(HashEntry<K, V> newNext) {
-            UNSAFE.putObjectVolatile(this, nextOffset, newNext);
+        @Override
+        BulkTask<K, V, U> subTask(int lo, int hi, int batch) {
+            return new SearchTask<K, V, U>(dataArr, lo, hi, batch, searchFunction, result);
         }
 
-        final boolean replaceNext(HashEntry<K, V> oldNext, HashEntry<K, V> newNext) {
-            return UNSAFE.compareAndSwapObject(this, nextOffset, oldNext, newNext);
+        @Override
+        U traverse(Traverser<K, V> it) {
+            U u;
+            for (HashEntry<K, V> e; (u = result.get()) == null && (e = it.advanceToNext()) != null;) {
+                if ((u = searchFunction.apply(e.key, it.nextValue)) != null) {
+                    result.compareAndSet(null, u);
+                    break;
+                }
+            }
+            return result.get();
         }
 
-        final boolean setDeleted(int oldDel, int newDel) {
-            return UNSAFE.compareAndSwapInt(this, deletedOffset, oldDel, newDel);
+        @Override
+        U combine(U left, U right) {
+            return result.get();
         }
+    }
 
-        final boolean isDeleted() {
-            int isDeleted = UNSAFE.getIntVolatile(this, deletedOffset);
-            if (isDeleted != 0)
-                return true;
-            return false;
+    /**
+     * @author Simon Loesing
+     */
+    @SuppressWarnings("serial")
+    static final class ReduceTask<K, V, U> extends BulkTask<K, V, U>
+    {
+        final BiFunction<? super K, ? super V, ? extends U> transformer;
+        final BiFunction<? super U, ? super U, ? extends U> reducer;
+
+        ReduceTask(HashEntry<K, V>[] dataArr, int lo, int hi, int batch, BiFunction<? super K, ? super V, ? extends U> transformer, BiFunction<? super U, ? super U, ? extends U> reducer) {
+            super(dataArr, lo, hi, batch);
+            this.transformer = transformer;
+            this.reducer = reducer;
         }
 
-        final void setIsResized() {
-            UNSAFE.putBooleanVolatile(this, isResizedOffset, true);
+        @Override
+        BulkTask<K, V, U> subTask(int lo, int hi, int batch) {
+            return new ReduceTask<K, V, U>(dataArr, lo, hi, batch, transformer, reducer);
         }
 
-        final boolean isIsResized() {
-            return UNSAFE.getBooleanVolatile(this, isResizedOffset);
+        @Override
+        U traverse(Traverser<K, V> it) {
+            U r = null;
+            for (HashEntry<K, V> e; (e = it.advanceToNext()) != null;) {
+                r = combine(r, transformer.apply(e.key, it.nextValue));
+            }
+            return r;
         }
 
-        private static final long nextOffset;
-        private static final long deletedOffset;
-        private static final long isResizedOffset;
-        static {
-            try {
-                @SuppressWarnings("rawtypes")
-                Class k = HashEntry.class;
-                nextOffset = UNSAFE.objectFieldOffset(k.getDeclaredField("next"));
-                deletedOffset = UNSAFE.objectFieldOffset(k.getDeclaredField("isDeleted"));
-                isResizedOffset = UNSAFE.objectFieldOffset(k.getDeclaredField("isResized"));
-            } catch (Exception e) {
-                throw new Error(e);
+        @Override
+        U combine(U left, U right) {
+            return (left == null) ? right : (right == null) ? left : reducer.apply(left, right);
+        }
+    }
+
+    /**
+     * @author Simon Loesing
+     */
+    @SuppressWarnings("serial")
+    static final class ReduceToLongTask<K, V> extends BulkTask<K, V, Long>
+    {
+        final ToLongBiFunction<? super K, ? super V> transformer;
+        final long basis;
+        final LongBinaryOperator reducer;
+
+        ReduceToLongTask(HashEntry<K, V>[] dataArr, int lo, int hi, int batch, ToLongBiFunction<? super K, ? super V> transformer, long basis, LongBinaryOperator reducer) {
+            super(dataArr, lo, hi, batch);
+            this.transformer = transformer;
+            this.basis = basis;
+            this.reducer = reducer;
+        }
+
+        @Override
+        BulkTask<K, V, Long> subTask(int lo, int hi, int batch) {
+            return new ReduceToLongTask<K, V>(dataArr, lo, hi, batch, transformer, basis, reducer);
+        }
+
+        @Override
+        Long traverse(Traverser<K, V> it) {
+            long r = basis;
+            for (HashEntry<K, V> e; (e = it.advanceToNext()) != null;) {
+                r = reducer.applyAsLong(r, transformer.applyAsLong(e.key, it.nextValue));
             }
+            return r;
+        }
+
+        @Override
+        Long combine(Long left, Long right) {
+            return reducer.applyAsLong(left, right);
         }
     }
 
     /**
-     * Abstract object to iterate over the map
+     * @author Simon Loesing
+     */
+    @SuppressWarnings("serial")
+    static final class ReduceToDoubleTask<K, V> extends BulkTask<K, V, Double>
+    {
+        final ToDoubleBiFunction<? super K, ? super V> transformer;
+        final double basis;
+        final DoubleBinaryOperator reducer;
+
+        ReduceToDoubleTask(HashEntry<K, V>[] dataArr, int lo, int hi, int batch, ToDoubleBiFunction<? super K, ? super V> transformer, double basis, DoubleBinaryOperator reducer) {
+            super(dataArr, lo, hi, batch);
+            this.transformer = transformer;
+            this.basis = basis;
+            this.reducer = reducer;
+        }
+
+        @Override
+        BulkTask<K, V, Double> subTask(int lo, int hi, int batch) {
+            return new ReduceToDoubleTask<K, V>(dataArr, lo, hi, batch, transformer, basis, reducer);
+        }
+
+        @Override
+        Double traverse(Traverser<K, V> it) {
+            double r = basis;
+            for (HashEntry<K, V> e; (e = it.advanceToNext()) != null;) {
+                r = reducer.applyAsDouble(r, transformer.applyAsDouble(e.key, it.nextValue));
+            }
+            return r;
+        }
+
+        @Override
+        Double combine(Double left, Double right) {
+            return reducer.applyAsDouble(left, right);
+        }
+    }
+
+    /**
+     * Abstract spliterator over a range of buckets. Splitting halves the range, the estimated size is based on the size of the map when the spliterator was created.
      * 
      * @author Simon Loesing
+     * 
+     * @param <K> key
+     * @param <V> value
+     * @param <T> element
      */
-    abstract class HashIterator
+    abstract static class HashSpliterator<K, V, T> extends Traverser<K, V> implements Spliterator<T>
     {
-        int mapIndex;
-        HashEntry<K, V> nextEntry;
-        HashEntry<K, V> lastReturned;
+        long est;
 
-        HashIterator() {
-            mapIndex = -1;
-            nextEntry = null;
-            advanceToNext();
+        HashSpliterator(HashEntry<K, V>[] dataArr, int index, int limit, long est) {
+            super(dataArr, index, limit);
+            this.est = est;
         }
 
-        @SuppressWarnings("unchecked")
-        final void advanceToNext() {
-            if (nextEntry == null || nextEntry.getNext() == null) {
-                while (true) {
-                    ++mapIndex;
-                    if (mapIndex == data.length) {
-                        nextEntry = null;
-                        return;
-                    }
-                    HashEntry<K, V> e = (HashEntry<K, V>) UNSAFE.getObjectVolatile(data, V_BASE + (V_SIZE * mapIndex));
-                    if (e == null)
-                        continue;
+        /**
+         * @return HashSpliterator spliterator of the same type for a range of buckets
+         */
+        abstract HashSpliterator<K, V, T> newSpliterator(int index, int limit, long est);
 
-                    while (e.isDeleted()) {
-                        if ((e = e.getNext()) == null)
-                            break;
-                    }
-                    if (e == null)
-                        continue;
-                    nextEntry = e;
-                    break;
-                }
-            } else {
-                nextEntry = nextEntry.getNext();
+        /**
+         * @return T element of the entry the traverser moved to
+         */
+        abstract T element(HashEntry<K, V> e);
+
+        @Override
+        public final Spliterator<T> trySplit() {
+            int i = baseIndex, f = baseLimit, h = (i + f) >>> 1;
+            if (h <= i)
+                return null;
+            baseLimit = h;
+            return newSpliterator(h, f, est >>>= 1);
+        }
+
+        @Override
+        public final boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            HashEntry<K, V> e = advanceToNext();
+            if (e == null)
+                return false;
+            action.accept(element(e));
+            return true;
+        }
+
+        @Override
+        public final void forEachRemaining(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            for (HashEntry<K, V> e; (e = advanceToNext()) != null;) {
+                action.accept(element(e));
             }
         }
 
+        @Override
+        public final long estimateSize() {
+            return est;
+        }
+    }
+
+    /**
+     * @author Simon Loesing
+     */
+    static final class KeySpliterator<K, V> extends HashSpliterator<K, V, K>
+    {
+        KeySpliterator(HashEntry<K, V>[] dataArr, int index, int limit, long est) {
+            super(dataArr, index, limit, est);
+        }
+
+        @Override
+        HashSpliterator<K, V, K> newSpliterator(int index, int limit, long est) {
+            return new KeySpliterator<K, V>(baseArr, index, limit, est);
+        }
+
+        @Override
+        K element(HashEntry<K, V> e) {
+            return e.key;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.CONCURRENT | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * @author Simon Loesing
+     */
+    static final class ValueSpliterator<K, V> extends HashSpliterator<K, V, V>
+    {
+        ValueSpliterator(HashEntry<K, V>[] dataArr, int index, int limit, long est) {
+            super(dataArr, index, limit, est);
+        }
+
+        @Override
+        HashSpliterator<K, V, V> newSpliterator(int index, int limit, long est) {
+            return new ValueSpliterator<K, V>(baseArr, index, limit, est);
+        }
+
+        @Override
+        V element(HashEntry<K, V> e) {
+            return nextValue;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.CONCURRENT | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * @author Simon Loesing
+     */
+    static final class EntrySpliterator<K, V> extends HashSpliterator<K, V, Entry<K, V>>
+    {
+        EntrySpliterator(HashEntry<K, V>[] dataArr, int index, int limit, long est) {
+            super(dataArr, index, limit, est);
+        }
+
+        @Override
+        HashSpliterator<K, V, Entry<K, V>> newSpliterator(int index, int limit, long est) {
+            return new EntrySpliterator<K, V>(baseArr, index, limit, est);
+        }
+
+        @Override
+        Entry<K, V> element(HashEntry<K, V> e) {
+            return e;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.CONCURRENT | Spliterator.NONNULL;
+        }
+    }
+
+    /**
+     * Abstract object to iterate over the map
+     * 
+     * @author Simon Loesing
+     */
+    abstract class HashIterator extends Traverser<K, V>
+    {
+        HashEntry<K, V> lastReturned;
+        V lastValue;
+
+        HashIterator() {
+            super(data);
+            advanceToNext();
+        }
+
         final HashEntry<K, V> nextEntry() {
             if (nextEntry == null)
                 throw new NoSuchElementException();
             lastReturned = nextEntry;
+            lastValue = nextValue;
             advanceToNext();
             return lastReturned;
         }
@@ -812,6 +3490,21 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
         }
     }
 
+    /**
+     * Saved iterator position in a data array
+     * 
+     * @author Simon Loesing
+     */
+    static final class TableStack<K, V>
+    {
+        int length;
+        int index;
+        int mergedLength;
+        int mergedIndex;
+        HashEntry<K, V>[] dataArr;
+        TableStack<K, V> next;
+    }
+
     /**
      * Iterator for keys
      * 
@@ -832,7 +3525,8 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
     final class ValueIterator extends HashIterator implements Iterator<V>
     {
         public final V next() {
-            return super.nextEntry().value;
+            super.nextEntry();
+            return lastValue;
         }
     }
 
@@ -848,18 +3542,6 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
         }
     }
 
-    /**
-     * Internal iterator for hash entry objects. Used for resizing.
-     * 
-     * @author Simon Loesing
-     */
-    final private class HashEntryIterator extends HashIterator implements Iterator<HashEntry<K, V>>
-    {
-        public HashEntry<K, V> next() {
-            return super.nextEntry();
-        }
-    }
-
     /**
      * Set of all keys for this map.
      * 
@@ -872,6 +3554,12 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
             return new KeyIterator();
         }
 
+        @Override
+        public Spliterator<K> spliterator() {
+            HashEntry<K, V>[] dataArr = data;
+            return new KeySpliterator<K, V>(dataArr, 0, dataArr.length, mappingCount());
+        }
+
         @Override
         public int size() {
             return LockFreeHashMap.this.size();
@@ -911,6 +3599,12 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
             return new ValueIterator();
         }
 
+        @Override
+        public Spliterator<V> spliterator() {
+            HashEntry<K, V>[] dataArr = data;
+            return new ValueSpliterator<K, V>(dataArr, 0, dataArr.length, mappingCount());
+        }
+
         @Override
         public int size() {
             return LockFreeHashMap.this.size();
@@ -944,6 +3638,12 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
             return new EntryIterator();
         }
 
+        @Override
+        public Spliterator<Entry<K, V>> spliterator() {
+            HashEntry<K, V>[] dataArr = data;
+            return new EntrySpliterator<K, V>(dataArr, 0, dataArr.length, mappingCount());
+        }
+
         @Override
         @SuppressWarnings("unchecked")
         public boolean contains(Object o) {
@@ -979,27 +3679,16 @@ public class LockFreeHashMap<K, V> implements ConcurrentMap<K, V>
         }
     }
 
-    // Unsafe mechanics
-    private static final sun.misc.Unsafe UNSAFE;
-    private static final long SIZE_OFFSET;
-    private static final long RESIZE_LOCK_OFFSET;
-    private static final long V_BASE;
-    private static final long V_SIZE;
+    // VarHandle mechanics
+    private static final VarHandle DATA;
+    private static final VarHandle BUCKET;
 
     static {
         try {
-            Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
-            f.setAccessible(true);
-            UNSAFE = (sun.misc.Unsafe) f.get(null);
-            @SuppressWarnings("rawtypes")
-            Class m = LockFreeHashMap.class;
-            SIZE_OFFSET = UNSAFE.objectFieldOffset(m.getDeclaredField("size"));
-            RESIZE_LOCK_OFFSET = UNSAFE.objectFieldOffset(m.getDeclaredField("resizeLock"));
-            @SuppressWarnings("rawtypes")
-            Class e = HashEntry[].class;
-            V_BASE = UNSAFE.arrayBaseOffset(e);
-            V_SIZE = UNSAFE.arrayIndexScale(e);
-        } catch (Exception e) {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            DATA = l.findVarHandle(LockFreeHashMap.class, "data", HashEntry[].class);
+            BUCKET = MethodHandles.arrayElementVarHandle(HashEntry[].class);
+        } catch (ReflectiveOperationException e) {
             throw new Error(e);
         }
     }
@@ -0,0 +1,92 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Management interface of the metrics of a {@link LockFreeHashMap}. The metrics are published once they are enabled with {@link LockFreeHashMap#enableMetrics(String)}, all counts start at that point.
+ * 
+ * @author Simon Loesing
+ */
+public interface LockFreeHashMapMXBean
+{
+    /**
+     * @return long number of mappings
+     */
+    long getSize();
+
+    /**
+     * @return int number of buckets of the current data array
+     */
+    int getCapacity();
+
+    /**
+     * @return long number of lookups of a key
+     */
+    long getReads();
+
+    /**
+     * @return long number of inserts, updates and removes
+     */
+    long getWrites();
+
+    /**
+     * @return double reads and writes per second between the two latest samples of the operation count. The first call at least a second after the latest sample takes the next one, other callers see
+     *         the same rate. Until the first sample is taken, the rate since the metrics were enabled
+     */
+    double getOperationsPerSecond();
+
+    /**
+     * @return long number of writes that failed a CAS on a bucket head, a value or an entry state and had to retry
+     */
+    long getCasFailures();
+
+    /**
+     * @return long number of lookups and writes that found a bucket migrated by a running resize and followed it to the new array
+     */
+    long getForwardedLookups();
+
+    /**
+     * @return long number of deleted entries that lookups passed before they were unlinked
+     */
+    long getTombstonesSkipped();
+
+    /**
+     * @return double average number of deleted entries a lookup passed
+     */
+    double getTombstonesSkippedPerRead();
+
+    /**
+     * @return long number of completed resizes
+     */
+    long getResizeCount();
+
+    /**
+     * @return long total time of all completed resizes in nanoseconds, from the start of a resize to the switch to the new array
+     */
+    long getResizeTimeNanos();
+
+    /**
+     * @return long time of the last completed resize in nanoseconds
+     */
+    long getLastResizeTimeNanos();
+}
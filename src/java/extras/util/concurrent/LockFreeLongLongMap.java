@@ -0,0 +1,212 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A lock-free concurrent hash-map with primitive long keys and long values. Keys and values are never boxed, a mapping is stored in a single entry object of 40 bytes on a 64-bit JVM with compressed
+ * references (a {@link LockFreeHashMap} of Long keys and values needs 80 bytes per mapping for the entry and the two boxes).
+ * 
+ * The map uses the same lock-free chaining and cooperative resize as {@link LockFreeHashMap}. Since a primitive value cannot be null, the methods that return a value return
+ * {@link #NO_VALUE} if the key is not present. Use {@link #containsKey(long)} or {@link #getOrDefault(long, long)} to tell a missing key from a mapping to {@link #NO_VALUE}.
+ * 
+ * This object is thread-safe and can be accessed by multiple threads concurrently.
+ * 
+ * @author Simon Loesing
+ */
+public class LockFreeLongLongMap extends PrimitiveHashMap
+{
+    /** Value returned for keys that are not present */
+    public static final long NO_VALUE = 0L;
+
+    /**
+     * Creates a new hash-map with default capacity and resize factor
+     */
+    public LockFreeLongLongMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, true);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param isResizable false to deactivate resizing
+     */
+    public LockFreeLongLongMap(int initialCapacity, boolean isResizable) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, isResizable);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable false to deactivate resizing
+     */
+    public LockFreeLongLongMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        super(initialCapacity, loadFactor, isResizable);
+    }
+
+    /**
+     * Verifies if a key is already present in the map
+     * 
+     * @param key
+     * @return true if key is contained in the map, otherwise false
+     */
+    public boolean containsKey(long key) {
+        return getEntry(key, hash(key)) != null;
+    }
+
+    /**
+     * Retrieves a value from the map
+     * 
+     * @param key
+     * @return long value if key exists, otherwise NO_VALUE
+     */
+    public long get(long key) {
+        return getOrDefault(key, NO_VALUE);
+    }
+
+    /**
+     * Retrieves a value from the map
+     * 
+     * @param key
+     * @param defaultValue
+     * @return long value if key exists, otherwise the default value
+     */
+    public long getOrDefault(long key, long defaultValue) {
+        LongLongEntry e = (LongLongEntry) getEntry(key, hash(key));
+        return (e != null) ? e.value : defaultValue;
+    }
+
+    /**
+     * Inserts a key/value pair in the map. If the key is already present, the value is overwritten
+     * 
+     * @param key
+     * @param value
+     * @return long old value if key was already present in the map, NO_VALUE otherwise
+     */
+    public long put(long key, long value) {
+        return valueOf(put(key, new LongLongEntry(hash(key), key, value), false, false, null));
+    }
+
+    /**
+     * Inserts a key/value pair in the map only if the key does not exist yet.
+     * 
+     * @param key
+     * @param value
+     * @return long current value if the key is already present, NO_VALUE otherwise
+     */
+    public long putIfAbsent(long key, long value) {
+        return valueOf(put(key, new LongLongEntry(hash(key), key, value), true, false, null));
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * 
+     * @param key
+     * @param value replacement
+     * @return long old value if key was already present, NO_VALUE otherwise
+     */
+    public long replace(long key, long value) {
+        return valueOf(put(key, new LongLongEntry(hash(key), key, value), false, true, null));
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is present and the current value is equal to passed oldValue parameter.
+     * 
+     * @param key
+     * @param oldValue
+     * @param newValue replacement
+     * @return boolean true if replace was successful
+     */
+    public boolean replace(long key, long oldValue, long newValue) {
+        int hash = hash(key);
+        PrimitiveEntry old = put(key, new LongLongEntry(hash, key, newValue), false, true, new LongLongEntry(hash, key, oldValue));
+        return old != null && ((LongLongEntry) old).value == oldValue;
+    }
+
+    /**
+     * Removes a key/value pair from the map
+     * 
+     * @param key to remove
+     * @return long old value associated to the key, NO_VALUE if key is not in the map
+     */
+    public long remove(long key) {
+        return valueOf(remove(key, hash(key), null));
+    }
+
+    /**
+     * Removes a key/value pair from the map if it matches the given parameters
+     * 
+     * @param key
+     * @param value
+     * @return true if the key/value pair was removed
+     */
+    public boolean remove(long key, long value) {
+        int hash = hash(key);
+        return remove(key, hash, new LongLongEntry(hash, key, value)) != null;
+    }
+
+    private static long valueOf(PrimitiveEntry e) {
+        return (e != null) ? ((LongLongEntry) e).value : NO_VALUE;
+    }
+
+    /**
+     * Entry of the map, holds the primitive key and value
+     * 
+     * @author Simon Loesing
+     */
+    static final class LongLongEntry extends PrimitiveEntry
+    {
+        final long key;
+        final long value;
+
+        LongLongEntry(int hash, long key, long value) {
+            super(hash);
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        boolean hasKey(long key) {
+            return this.key == key;
+        }
+
+        @Override
+        boolean sameKey(PrimitiveEntry e) {
+            return key == ((LongLongEntry) e).key;
+        }
+
+        @Override
+        boolean sameValue(PrimitiveEntry e) {
+            return value == ((LongLongEntry) e).value;
+        }
+
+        @Override
+        PrimitiveEntry copy(PrimitiveEntry next) {
+            PrimitiveEntry e = new LongLongEntry(hash, key, value);
+            e.initNext(next);
+            return e;
+        }
+    }
+}
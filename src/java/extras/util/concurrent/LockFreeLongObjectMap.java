@@ -0,0 +1,216 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A lock-free concurrent hash-map with primitive long keys and object values. Keys are never boxed, a mapping is stored in a single entry object of 40 bytes on a 64-bit JVM with compressed references,
+ * in addition to the value (a {@link LockFreeHashMap} of Long keys needs 56 bytes per mapping for the entry and the key box).
+ * 
+ * The map uses the same lock-free chaining and cooperative resize as {@link LockFreeHashMap}. As in the other maps, null values are not supported.
+ * 
+ * This object is thread-safe and can be accessed by multiple threads concurrently.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <V> Value object
+ */
+public class LockFreeLongObjectMap<V> extends PrimitiveHashMap
+{
+    /**
+     * Creates a new hash-map with default capacity and resize factor
+     */
+    public LockFreeLongObjectMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, true);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param isResizable false to deactivate resizing
+     */
+    public LockFreeLongObjectMap(int initialCapacity, boolean isResizable) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, isResizable);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable false to deactivate resizing
+     */
+    public LockFreeLongObjectMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        super(initialCapacity, loadFactor, isResizable);
+    }
+
+    /**
+     * Verifies if a key is already present in the map
+     * 
+     * @param key
+     * @return true if key is contained in the map, otherwise false
+     */
+    public boolean containsKey(long key) {
+        return getEntry(key, hash(key)) != null;
+    }
+
+    /**
+     * Retrieves a value from the map
+     * 
+     * @param key
+     * @return V value if key exists, otherwise null
+     */
+    public V get(long key) {
+        return valueOf(getEntry(key, hash(key)));
+    }
+
+    /**
+     * Inserts a key/value pair in the map. If the key is already present, the value is overwritten
+     * 
+     * @param key
+     * @param value
+     * @return V old value if key was already present in the map, null otherwise
+     */
+    public V put(long key, V value) {
+        if (value == null)
+            return null;
+
+        return valueOf(put(key, new LongObjectEntry<V>(hash(key), key, value), false, false, null));
+    }
+
+    /**
+     * Inserts a key/value pair in the map only if the key does not exist yet.
+     * 
+     * @param key
+     * @param value
+     * @return V current value if the key is already present, null otherwise
+     */
+    public V putIfAbsent(long key, V value) {
+        if (value == null)
+            return null;
+
+        return valueOf(put(key, new LongObjectEntry<V>(hash(key), key, value), true, false, null));
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * 
+     * @param key
+     * @param value replacement
+     * @return V old value if key was already present, null otherwise
+     */
+    public V replace(long key, V value) {
+        if (value == null)
+            return null;
+
+        return valueOf(put(key, new LongObjectEntry<V>(hash(key), key, value), false, true, null));
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is present and the current value is equal to passed oldValue parameter.
+     * 
+     * @param key
+     * @param oldValue
+     * @param newValue replacement
+     * @return boolean true if replace was successful
+     */
+    public boolean replace(long key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null)
+            return false;
+
+        int hash = hash(key);
+        return oldValue.equals(valueOf(put(key, new LongObjectEntry<V>(hash, key, newValue), false, true, new LongObjectEntry<V>(hash, key, oldValue))));
+    }
+
+    /**
+     * Removes a key/value pair from the map
+     * 
+     * @param key to remove
+     * @return V old value associated to the key, null if key is not in the map
+     */
+    public V remove(long key) {
+        return valueOf(remove(key, hash(key), null));
+    }
+
+    /**
+     * Removes a key/value pair from the map if it matches the given parameters
+     * 
+     * @param key
+     * @param value
+     * @return true if the key/value pair was removed
+     */
+    public boolean remove(long key, Object value) {
+        if (value == null)
+            return false;
+
+        int hash = hash(key);
+        return remove(key, hash, new LongObjectEntry<Object>(hash, key, value)) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V valueOf(PrimitiveEntry e) {
+        return (e != null) ? ((LongObjectEntry<V>) e).value : null;
+    }
+
+    /**
+     * Entry of the map, holds the primitive key and the value
+     * 
+     * @author Simon Loesing
+     * 
+     * @param <V> value
+     */
+    static final class LongObjectEntry<V> extends PrimitiveEntry
+    {
+        final long key;
+        final V value;
+
+        LongObjectEntry(int hash, long key, V value) {
+            super(hash);
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        boolean hasKey(long key) {
+            return this.key == key;
+        }
+
+        @Override
+        boolean sameKey(PrimitiveEntry e) {
+            return key == ((LongObjectEntry<?>) e).key;
+        }
+
+        @Override
+        boolean sameValue(PrimitiveEntry e) {
+            Object v = ((LongObjectEntry<?>) e).value;
+            return value == v || value.equals(v);
+        }
+
+        @Override
+        PrimitiveEntry copy(PrimitiveEntry next) {
+            PrimitiveEntry e = new LongObjectEntry<V>(hash, key, value);
+            e.initNext(next);
+            return e;
+        }
+    }
+}
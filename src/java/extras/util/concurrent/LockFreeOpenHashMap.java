@@ -0,0 +1,987 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A lock free concurrent hash-map implementation based on open addressing.
+ * 
+ * Keys and values are stored next to each other in one flat array and collisions are resolved by linear probing. A lookup therefore reads adjacent array slots instead of following a chain of entry objects,
+ * which makes it considerably more cache friendly than {@link LockFreeHashMap} for read-heavy workloads.
+ * 
+ * Every slot is a small state machine that is only changed by CAS operations. A key slot is claimed once and never changes afterwards. The value slot moves between a value, a tombstone for removed keys and a
+ * primed (boxed) value while the slot is copied by a resize. A resize copies live slots into a new array and drops tombstones, the work is shared by all threads that access the map while it is running.
+ * 
+ * As in the chained map, capacity and load factor can be specified in the constructor. A map that is not resizable keeps its capacity as long as its mappings fit into it. Slots of removed keys are reclaimed by
+ * copying the table at the same size. Once the mappings take up three quarters of the resize threshold, the map grows anyway, an open addressed table cannot store more mappings than it has slots.
+ * 
+ * This object is thread-safe and can be accessed by multiple threads concurrently.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <K> Key object
+ * @param <V> Value object
+ */
+public class LockFreeOpenHashMap<K, V> implements ConcurrentMap<K, V>
+{
+    static final int MINIMAL_CAPACITY = LockFreeHashMap.MINIMAL_CAPACITY;
+    static final float MINIMAL_LOAD_FACTOR = LockFreeHashMap.MINIMAL_LOAD_FACTOR;
+    static final int DEFAULT_INITIAL_CAPACITY = LockFreeHashMap.DEFAULT_INITIAL_CAPACITY;
+    static final float DEFAULT_LOAD_FACTOR = LockFreeHashMap.DEFAULT_LOAD_FACTOR;
+
+    /** Minimal number of slots probed before an insert gives up and resizes the table. The limit grows with a quarter of the table length */
+    static final int REPROBE_LIMIT = 10;
+    /** Number of slots a thread copies at once when helping with a resize */
+    static final int COPY_CHUNK = 1024;
+
+    /** Value of removed keys and of empty key slots that were closed by a resize */
+    static final Object TOMBSTONE = new Object();
+    /** Value of slots that are completely copied to the new table */
+    static final Prime TOMBPRIME = new Prime(TOMBSTONE);
+    /** Expected value of a put that overwrites any value */
+    static final Object NO_MATCH_OLD = new Object();
+    /** Expected value of a put that overwrites any live value */
+    static final Object MATCH_ANY = new Object();
+
+    int initialCapacity;
+    float loadFactor;
+    boolean isResizable;
+    volatile Table data;
+    final StripedCounter counter = new StripedCounter();
+
+    private transient Set<K> keySet;
+    private transient Set<Entry<K, V>> entrySet;
+    private transient Collection<V> values;
+
+    /**
+     * Creates a new hash-map with default capacity and resize factor
+     */
+    public LockFreeOpenHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, true);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param isResizable false to keep the capacity as long as the mappings fit into the map
+     */
+    public LockFreeOpenHashMap(int initialCapacity, boolean isResizable) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, isResizable);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable false to keep the capacity as long as the mappings fit into the map
+     */
+    public LockFreeOpenHashMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        // Find next power-of-two of the initial capacity
+        this.initialCapacity = MINIMAL_CAPACITY;
+        while (this.initialCapacity < initialCapacity) {
+            this.initialCapacity <<= 1;
+        }
+        if (loadFactor >= MINIMAL_LOAD_FACTOR && loadFactor <= 1.0f) {
+            this.loadFactor = loadFactor;
+        } else {
+            this.loadFactor = MINIMAL_LOAD_FACTOR;
+        }
+        this.isResizable = isResizable;
+        this.data = new Table(this.initialCapacity, this.loadFactor);
+    }
+
+    /**
+     * Clears the entire map and resets the capacity to the initial value. A resize that is running concurrently is abandoned.
+     */
+    @Override
+    public void clear() {
+        data = new Table(this.initialCapacity, this.loadFactor);
+        counter.add(-counter.sum());
+    }
+
+    /**
+     * Verifies if a key is already present in the map
+     * 
+     * @param k key
+     * @return true if key is contained in the map, otherwise false
+     */
+    @Override
+    public boolean containsKey(Object k) {
+        return get(k) != null;
+    }
+
+    /**
+     * Verifies if a value is already present in the map
+     * 
+     * @param v value
+     * @return true if the value is present, otherwise false
+     */
+    @Override
+    public boolean containsValue(Object v) {
+        Iterator<V> it = new ValueIterator();
+        while (it.hasNext()) {
+            V value = it.next();
+            if (value == v || v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the key-set of the map. The key set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all keys
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null) ? ks : (keySet = new KeySet());
+    }
+
+    /**
+     * Retrieves all the values of the map. The collection points to the current content of the map. Changes in the map are immediately visible. As well, all operations executed on the collection are directly applied to the map.
+     * 
+     * @return Collection with all values
+     */
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return (vs != null) ? vs : (values = new Values());
+    }
+
+    /**
+     * Retrieves all key/value pairs of the map. The entry set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all entries
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * Retrieves a value from the map
+     * 
+     * @param key
+     * @return V value if key exists, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public final V get(Object key) {
+        int hash = LockFreeHashMap.hash(key.hashCode());
+        return (V) get(data, key, hash);
+    }
+
+    /**
+     * Internal lookup. Probes the table until the key or an empty key slot is found. Slots that are being copied by a resize are copied first and the lookup continues in the new table.
+     * 
+     * @param t table to start in
+     * @param key
+     * @param hash of the key
+     * @return Object value, null if the key is not mapped
+     */
+    private final Object get(Table t, Object key, int hash) {
+        while (true) {
+            Object[] kvs = t.kvs;
+            int mask = t.length - 1;
+            int idx = hash & mask;
+            int reprobes = 0;
+            Table next;
+            while (true) {
+                Object k = keyAt(kvs, idx);
+                Object v = valueAt(kvs, idx);
+                if (k == null)
+                    return null;
+                // Read the next table after the key, a copy closes empty key slots before anything is inserted into the next table
+                next = t.next;
+                if (keyEquals(k, key, t.hashes, idx, hash)) {
+                    if (!(v instanceof Prime))
+                        return (v == TOMBSTONE) ? null : v;
+                    next = copySlotAndCheck(t, idx, true);
+                    break;
+                }
+                if (++reprobes >= reprobeLimit(t.length) || k == TOMBSTONE) {
+                    if (next == null)
+                        return null;
+                    next = helpCopy(next);
+                    break;
+                }
+                idx = (idx + 1) & mask;
+            }
+            t = next;
+        }
+    }
+
+    /**
+     * Verifies if the map is empty (does not contain any keys)
+     * 
+     * @return true if map is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Inserts a key/value pair in the map. If the key is already present, the value is overwritten
+     * 
+     * @param key
+     * @param value
+     * @return V old value if key was already present in the map, null otherwise
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return result(putIfMatch(key, value, NO_MATCH_OLD));
+    }
+
+    /**
+     * Inserts a key/value pair in the map only if the key does not exist yet.
+     * 
+     * @param key
+     * @param value
+     * @return V current value if the key is already present, null otherwise
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return result(putIfMatch(key, value, TOMBSTONE));
+    }
+
+    /**
+     * Inserts all the entries of an existing map. This operation is not atomic. All entries are inserted sequentially
+     * 
+     * @param map to insert
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Removes a key/value pair from the map
+     * 
+     * @param k key to remove
+     * @return V old value associated to the key, null if key is not in the map
+     */
+    @Override
+    public V remove(Object k) {
+        if (k == null)
+            return null;
+
+        return result(putIfMatch(k, TOMBSTONE, NO_MATCH_OLD));
+    }
+
+    /**
+     * Removes a key/value pair from the map if it matches the given parameters
+     * 
+     * @param k key
+     * @param v value
+     * @return true if the key/value pair was removed
+     */
+    @Override
+    public boolean remove(Object k, Object v) {
+        if (k == null || v == null)
+            return false;
+
+        return v.equals(putIfMatch(k, TOMBSTONE, v));
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * 
+     * @param key
+     * @param value replacement
+     * @return V old value if key was already present, null otherwise
+     */
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return result(putIfMatch(key, value, MATCH_ANY));
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present and the current value is equal to passed oldValue parameter.
+     * 
+     * @param key
+     * @param oldValue
+     * @param newValue
+     * @return true if the value was replaced
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            return false;
+
+        return oldValue.equals(putIfMatch(key, newValue, oldValue));
+    }
+
+    /**
+     * Retrieves the size of the map
+     * 
+     * @return int current number of entries in the map, Integer.MAX_VALUE if the map contains more entries
+     */
+    @Override
+    public int size() {
+        long n = counter.sum();
+        return (n < 0L) ? 0 : (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Retrieves the number of mappings. Use this method instead of {@link #size()} as a map may contain more mappings than can be represented as an int. The value is an estimate, inserts and removes that run
+     * concurrently may or may not be reflected.
+     * 
+     * @return long number of entries in the map
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * Specifies the number of free key slots before the map starts a resize procedure. Slots of removed keys are only reclaimed by a resize.
+     * 
+     * @return int number of inserts of new keys left before the map resizes
+     */
+    public int nextResize() {
+        Table t = data;
+        long res = t.resizeThreshold - t.slots.sum();
+        return (res >= 0) ? (int) res : 0;
+    }
+
+    /**
+     * Converts the result of an internal put into the value returned to the caller
+     */
+    @SuppressWarnings("unchecked")
+    private static final <V> V result(Object res) {
+        return (res == null || res == TOMBSTONE) ? null : (V) res;
+    }
+
+    private final Object putIfMatch(Object key, Object putValue, Object expValue) {
+        int hash = LockFreeHashMap.hash(key.hashCode());
+        return putIfMatch(data, key, hash, putValue, expValue);
+    }
+
+    /**
+     * Private generic put method used for all insert, replace and remove operations. The key slot is claimed first, afterwards the value slot is swapped if it matches the expected value.
+     * 
+     * @param t table to start in
+     * @param key
+     * @param hash of the key
+     * @param putValue new value, TOMBSTONE to remove the key
+     * @param expValue NO_MATCH_OLD to overwrite any value, MATCH_ANY to overwrite live values only, TOMBSTONE to insert absent keys only, null to insert the copy of a resized slot, otherwise the value that
+     *            must be present
+     * @return Object previous value, null or TOMBSTONE if the key was not mapped
+     */
+    private final Object putIfMatch(Table t, Object key, int hash, Object putValue, Object expValue) {
+        retry: while (true) {
+            Object[] kvs = t.kvs;
+            int mask = t.length - 1;
+            int idx = hash & mask;
+            int reprobes = 0;
+            Object k, v;
+            Table next = null;
+
+            // Find or claim the key slot
+            while (true) {
+                v = valueAt(kvs, idx);
+                k = keyAt(kvs, idx);
+                if (k == null) {
+                    // Removes and replaces of absent keys do not need a slot
+                    if (putValue == TOMBSTONE || (expValue != NO_MATCH_OLD && expValue != TOMBSTONE && expValue != null))
+                        return null;
+                    if (casKey(kvs, idx, null, key)) {
+                        t.slots.add(1);
+                        t.hashes[idx] = hash;
+                        break;
+                    }
+                    k = keyAt(kvs, idx);
+                }
+                next = t.next;
+                if (keyEquals(k, key, t.hashes, idx, hash))
+                    break;
+                if (++reprobes >= reprobeLimit(t.length) || k == TOMBSTONE) {
+                    // The probe sequence is full, or the slot was closed by a running resize. The key belongs into the next table
+                    next = resize(t, true);
+                    if (expValue != null)
+                        helpCopy(next);
+                    t = next;
+                    continue retry;
+                }
+                idx = (idx + 1) & mask;
+            }
+
+            if (putValue == v)
+                return v;
+            if (next == null && ((v == null && expValue != null && t.slots.sum() > t.resizeThreshold) || v instanceof Prime))
+                next = resize(t, false);
+            if (next != null) {
+                t = copySlotAndCheck(t, idx, expValue != null);
+                continue;
+            }
+
+            // Swap the value slot
+            while (true) {
+                if (expValue != NO_MATCH_OLD && v != expValue && (expValue != MATCH_ANY || v == TOMBSTONE || v == null) && !(v == null && expValue == TOMBSTONE)
+                        && (expValue == null || !expValue.equals(v)))
+                    return v;
+                if (casValue(kvs, idx, v, putValue)) {
+                    if (expValue != null) {
+                        if ((v == null || v == TOMBSTONE) && putValue != TOMBSTONE)
+                            counter.add(1);
+                        else if (!(v == null || v == TOMBSTONE) && putValue == TOMBSTONE)
+                            counter.add(-1);
+                    }
+                    return (v == null && expValue != null) ? TOMBSTONE : v;
+                }
+                v = valueAt(kvs, idx);
+                if (v instanceof Prime) {
+                    t = copySlotAndCheck(t, idx, expValue != null);
+                    continue retry;
+                }
+            }
+        }
+    }
+
+    /**
+     * Internal method that creates the next table of a resize. The table is only doubled if enough of its slots are taken by live mappings, otherwise the resize only reclaims the slots of removed keys. A copy
+     * at the same size must free at least half of the slots below the resize threshold of a resizable map, or a quarter of them otherwise, so that copies do not follow each other.
+     * 
+     * A resize that is started by a probe sequence that exceeds the reprobe limit always doubles the table, unless most of the claimed slots belong to removed keys.
+     * 
+     * @param t table to resize
+     * @param reprobed true if the resize is started because a probe sequence is full
+     * @return Table the next table
+     */
+    private final Table resize(Table t, boolean reprobed) {
+        Table next = t.next;
+        if (next != null)
+            return next;
+        int length = t.length;
+        long size = counter.sum();
+        int threshold = t.resizeThreshold;
+        if ((reprobed && t.slots.sum() <= (size << 1)) || size >= (isResizable ? (threshold >> 1) : threshold - (threshold >> 2)))
+            length <<= 1;
+        next = new Table(length, loadFactor);
+        if (t.casNext(null, next))
+            return next;
+        return t.next;
+    }
+
+    /**
+     * Helps with the resize of the current top level table
+     * 
+     * @param helper table that is returned
+     * @return Table the passed table
+     */
+    private final Table helpCopy(Table helper) {
+        Table top = data;
+        if (top.next != null)
+            helpCopy(top, false);
+        return helper;
+    }
+
+    /**
+     * Internal method to copy slots of a table to its next table. Every call claims a chunk of slots and copies it. Once all chunks have been claimed, the remaining slots are copied until the table is complete.
+     * 
+     * @param t table that is resized
+     * @param copyAll true to return only after the copy is complete
+     */
+    private final void helpCopy(Table t, boolean copyAll) {
+        Table next = t.next;
+        int length = t.length;
+        int chunk = Math.min(length, COPY_CHUNK);
+        boolean panic = false;
+        int copyIndex = -1;
+        while (t.copyDone < length) {
+            if (!panic) {
+                copyIndex = t.copyIndex;
+                while (copyIndex < (length << 1) && !t.casCopyIndex(copyIndex, copyIndex + chunk)) {
+                    copyIndex = t.copyIndex;
+                }
+                // All chunks have been claimed twice, copy everything left
+                if (copyIndex >= (length << 1))
+                    panic = true;
+            }
+            int workDone = 0;
+            for (int i = 0; i < chunk; ++i) {
+                if (copySlot(t, (copyIndex + i) & (length - 1), next))
+                    ++workDone;
+            }
+            if (workDone > 0)
+                copyCheckAndPromote(t, workDone);
+            copyIndex += chunk;
+            if (!copyAll && !panic)
+                return;
+        }
+        // The copy may have been completed while the table was not the top level table
+        copyCheckAndPromote(t, 0);
+    }
+
+    /**
+     * Copies one slot and continues with the next table
+     * 
+     * @param t table that is resized
+     * @param idx slot to copy
+     * @param shouldHelp true to help with the top level resize
+     * @return Table the next table
+     */
+    private final Table copySlotAndCheck(Table t, int idx, boolean shouldHelp) {
+        Table next = t.next;
+        if (copySlot(t, idx, next))
+            copyCheckAndPromote(t, 1);
+        return shouldHelp ? helpCopy(next) : next;
+    }
+
+    /**
+     * Adds copied slots to the progress of a resize. The thread that completes the copy publishes the next table.
+     * 
+     * @param t table that is resized
+     * @param workDone number of slots copied
+     */
+    private final void copyCheckAndPromote(Table t, int workDone) {
+        int length = t.length;
+        int copyDone = t.copyDone;
+        if (workDone > 0) {
+            while (!t.casCopyDone(copyDone, copyDone + workDone)) {
+                copyDone = t.copyDone;
+            }
+        }
+        if (copyDone + workDone == length && data == t)
+            DATA.compareAndSet(this, t, t.next);
+    }
+
+    /**
+     * Copies a slot to the next table. The key slot is closed if it is empty, then the value is boxed in a prime so that it cannot change anymore. The value is only inserted into the next table if no value is
+     * present there, a value in the next table is always more recent.
+     * 
+     * @param t table that is resized
+     * @param idx slot to copy
+     * @param next table the slot is copied to
+     * @return true if this call completed the copy of the slot
+     */
+    private final boolean copySlot(Table t, int idx, Table next) {
+        Object[] kvs = t.kvs;
+        Object k;
+        while ((k = keyAt(kvs, idx)) == null) {
+            casKey(kvs, idx, null, TOMBSTONE);
+        }
+
+        Object v = valueAt(kvs, idx);
+        while (!(v instanceof Prime)) {
+            Prime box = (v == null || v == TOMBSTONE) ? TOMBPRIME : new Prime(v);
+            if (casValue(kvs, idx, v, box)) {
+                // Dead slots are not copied
+                if (box == TOMBPRIME)
+                    return true;
+                v = box;
+                break;
+            }
+            v = valueAt(kvs, idx);
+        }
+        if (v == TOMBPRIME)
+            return false;
+
+        Object value = ((Prime) v).value;
+        boolean copied = putIfMatch(next, k, LockFreeHashMap.hash(k.hashCode()), value, null) == null;
+        while (v != TOMBPRIME && !casValue(kvs, idx, v, TOMBPRIME)) {
+            v = valueAt(kvs, idx);
+        }
+        return copied;
+    }
+
+    /**
+     * Verifies if a resize is running
+     * 
+     * @return true if resize operation is currently happening
+     */
+    final boolean isResizing() {
+        return data.next != null;
+    }
+
+    private static final int reprobeLimit(int length) {
+        return REPROBE_LIMIT + (length >> 2);
+    }
+
+    private static final boolean keyEquals(Object k, Object key, int[] hashes, int idx, int hash) {
+        if (k == key)
+            return true;
+        if (k == TOMBSTONE)
+            return false;
+        // The hash is written after the key slot is claimed, zero means it is not known yet
+        int h = hashes[idx];
+        return (h == 0 || h == hash) && key.equals(k);
+    }
+
+    static final Object keyAt(Object[] kvs, int idx) {
+        return SLOT.getVolatile(kvs, idx << 1);
+    }
+
+    static final Object valueAt(Object[] kvs, int idx) {
+        return SLOT.getVolatile(kvs, (idx << 1) + 1);
+    }
+
+    private static final boolean casKey(Object[] kvs, int idx, Object expect, Object update) {
+        return SLOT.compareAndSet(kvs, idx << 1, expect, update);
+    }
+
+    private static final boolean casValue(Object[] kvs, int idx, Object expect, Object update) {
+        return SLOT.compareAndSet(kvs, (idx << 1) + 1, expect, update);
+    }
+
+    /**
+     * Slot array of the map. Key and value of a slot are stored next to each other, key at index 2*i and value at 2*i+1. The hashes of the keys are kept in a separate array to avoid calls to equals.
+     * 
+     * @author Simon Loesing
+     */
+    static final class Table
+    {
+        final Object[] kvs;
+        final int[] hashes;
+        final int length;
+        final int resizeThreshold;
+        /** Number of claimed key slots, including the slots of removed keys */
+        final StripedCounter slots = new StripedCounter();
+        volatile Table next;
+        volatile int copyIndex;
+        volatile int copyDone;
+
+        Table(int length, float loadFactor) {
+            this.kvs = new Object[length << 1];
+            this.hashes = new int[length];
+            this.length = length;
+            this.resizeThreshold = (int) (length * loadFactor);
+        }
+
+        final boolean casNext(Table expect, Table update) {
+            return NEXT.compareAndSet(this, expect, update);
+        }
+
+        final boolean casCopyIndex(int expect, int update) {
+            return COPY_INDEX.compareAndSet(this, expect, update);
+        }
+
+        final boolean casCopyDone(int expect, int update) {
+            return COPY_DONE.compareAndSet(this, expect, update);
+        }
+
+        private static final VarHandle NEXT;
+        private static final VarHandle COPY_INDEX;
+        private static final VarHandle COPY_DONE;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                NEXT = l.findVarHandle(Table.class, "next", Table.class);
+                COPY_INDEX = l.findVarHandle(Table.class, "copyIndex", int.class);
+                COPY_DONE = l.findVarHandle(Table.class, "copyDone", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Boxed value of a slot that is being copied by a resize
+     * 
+     * @author Simon Loesing
+     */
+    static final class Prime
+    {
+        final Object value;
+
+        Prime(Object value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Abstract object to iterate over the map. A running resize is completed first, the iterator then walks the slots of the resulting table. Slots that are copied by a later resize are looked up in the map.
+     * 
+     * @author Simon Loesing
+     */
+    abstract class HashIterator
+    {
+        final Table table;
+        int index;
+        Object nextKey;
+        Object nextValue;
+        Object lastReturned;
+
+        HashIterator() {
+            Table t;
+            while ((t = data).next != null) {
+                helpCopy(t, true);
+            }
+            table = t;
+            advanceToNext();
+        }
+
+        final void advanceToNext() {
+            Object[] kvs = table.kvs;
+            while (index < table.length) {
+                Object k = keyAt(kvs, index);
+                Object v = valueAt(kvs, index);
+                ++index;
+                if (k == null || k == TOMBSTONE)
+                    continue;
+                if (v instanceof Prime)
+                    v = get(table, k, LockFreeHashMap.hash(k.hashCode()));
+                if (v != null && v != TOMBSTONE) {
+                    nextKey = k;
+                    nextValue = v;
+                    return;
+                }
+            }
+            nextKey = null;
+            nextValue = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        final Entry<K, V> nextEntry() {
+            if (nextKey == null)
+                throw new NoSuchElementException();
+            Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<K, V>((K) nextKey, (V) nextValue);
+            lastReturned = nextKey;
+            advanceToNext();
+            return e;
+        }
+
+        public final boolean hasNext() {
+            return nextKey != null;
+        }
+
+        public final boolean hasMoreElements() {
+            return nextKey != null;
+        }
+
+        public final void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            LockFreeOpenHashMap.this.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * Iterator for keys
+     * 
+     * @author Simon Loesing
+     */
+    final class KeyIterator extends HashIterator implements Iterator<K>
+    {
+        @SuppressWarnings("unchecked")
+        public final K next() {
+            if (nextKey == null)
+                throw new NoSuchElementException();
+            K k = (K) nextKey;
+            lastReturned = k;
+            advanceToNext();
+            return k;
+        }
+    }
+
+    /**
+     * Iterator for values
+     * 
+     * @author Simon Loesing
+     */
+    final class ValueIterator extends HashIterator implements Iterator<V>
+    {
+        @SuppressWarnings("unchecked")
+        public final V next() {
+            if (nextKey == null)
+                throw new NoSuchElementException();
+            V v = (V) nextValue;
+            lastReturned = nextKey;
+            advanceToNext();
+            return v;
+        }
+    }
+
+    /**
+     * Iterator for entry objects
+     * 
+     * @author Simon Loesing
+     */
+    final class EntryIterator extends HashIterator implements Iterator<Entry<K, V>>
+    {
+        public Entry<K, V> next() {
+            return super.nextEntry();
+        }
+    }
+
+    /**
+     * Set of all keys for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class KeySet extends AbstractSet<K>
+    {
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return LockFreeOpenHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return LockFreeOpenHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return LockFreeOpenHashMap.this.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return LockFreeOpenHashMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            LockFreeOpenHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Collection of all values for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class Values extends AbstractCollection<V>
+    {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return LockFreeOpenHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return LockFreeOpenHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return LockFreeOpenHashMap.this.containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            LockFreeOpenHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Set of all entries for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class EntrySet extends AbstractSet<Entry<K, V>>
+    {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            V v = LockFreeOpenHashMap.this.get(e.getKey());
+            return v != null && v.equals(e.getValue());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            return LockFreeOpenHashMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public int size() {
+            return LockFreeOpenHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return LockFreeOpenHashMap.this.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            LockFreeOpenHashMap.this.clear();
+        }
+    }
+
+    // VarHandle mechanics
+    private static final VarHandle DATA;
+    private static final VarHandle SLOT;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            DATA = l.findVarHandle(LockFreeOpenHashMap.class, "data", Table.class);
+            SLOT = MethodHandles.arrayElementVarHandle(Object[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Factory for the concurrent hash-map implementations of this package. All engines implement the same {@link ConcurrentMap} interface, an application or a benchmark can therefore switch between them
+ * without further changes.
+ * 
+ * @author Simon Loesing
+ */
+public enum MapEngine
+{
+    /** {@link LockFreeHashMap}, separate chaining with lock-free buckets */
+    CHAINED {
+        @Override
+        public <K, V> ConcurrentMap<K, V> newMap(int initialCapacity, float loadFactor, boolean isResizable) {
+            return new LockFreeHashMap<K, V>(initialCapacity, loadFactor, isResizable);
+        }
+    },
+    /** {@link LockFreeOpenHashMap}, lock-free open addressing with linear probing */
+    OPEN_ADDRESSING {
+        @Override
+        public <K, V> ConcurrentMap<K, V> newMap(int initialCapacity, float loadFactor, boolean isResizable) {
+            return new LockFreeOpenHashMap<K, V>(initialCapacity, loadFactor, isResizable);
+        }
+    },
+    /** {@link HopscotchHashMap}, hopscotch hashing with optimistic reads and bounded lookups */
+    HOPSCOTCH {
+        @Override
+        public <K, V> ConcurrentMap<K, V> newMap(int initialCapacity, float loadFactor, boolean isResizable) {
+            return new HopscotchHashMap<K, V>(initialCapacity, loadFactor, isResizable);
+        }
+    },
+    /** {@link SplitOrderedHashMap}, a single lock-free sorted list that grows without moving entries */
+    SPLIT_ORDERED {
+        @Override
+        public <K, V> ConcurrentMap<K, V> newMap(int initialCapacity, float loadFactor, boolean isResizable) {
+            return new SplitOrderedHashMap<K, V>(initialCapacity, loadFactor, isResizable);
+        }
+    };
+
+    /**
+     * Creates a new map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable
+     * @return ConcurrentMap new empty map
+     */
+    public abstract <K, V> ConcurrentMap<K, V> newMap(int initialCapacity, float loadFactor, boolean isResizable);
+
+    /**
+     * Creates a new map with default capacity and resize factor
+     * 
+     * @return ConcurrentMap new empty map
+     */
+    public <K, V> ConcurrentMap<K, V> newMap() {
+        return newMap(LockFreeHashMap.DEFAULT_INITIAL_CAPACITY, LockFreeHashMap.DEFAULT_LOAD_FACTOR, true);
+    }
+}
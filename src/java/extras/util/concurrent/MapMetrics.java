@@ -0,0 +1,165 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Contention and resize metrics of a {@link LockFreeHashMap}. Counters are striped, so threads that record an event do not compete for the same cache line. Resize times are only written by the thread
+ * that starts or completes a resize, at most one resize runs at a time. The operation rate is taken from samples of the monotonic operation count, reading it does not reset anything.
+ * 
+ * @author Simon Loesing
+ */
+final class MapMetrics implements LockFreeHashMapMXBean
+{
+    /** Minimal time between two samples of the operation count */
+    static final long SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(1L);
+
+    final LockFreeHashMap<?, ?> map;
+    final StripedCounter reads = new StripedCounter();
+    final StripedCounter writes = new StripedCounter();
+    final StripedCounter casFailures = new StripedCounter();
+    final StripedCounter forwards = new StripedCounter();
+    final StripedCounter tombstonesSkipped = new StripedCounter();
+    volatile long resizeCount;
+    volatile long resizeTimeNanos;
+    volatile long lastResizeTimeNanos;
+    volatile long resizeStart;
+    volatile boolean timingResize;
+    final AtomicReference<Sample> sample = new AtomicReference<Sample>(new Sample(System.nanoTime(), 0L, Double.NaN));
+
+    MapMetrics(LockFreeHashMap<?, ?> map) {
+        this.map = map;
+    }
+
+    /**
+     * Records the start of a resize
+     */
+    final void resizeStarted() {
+        resizeStart = System.nanoTime();
+        timingResize = true;
+    }
+
+    /**
+     * Records the completion of a resize. A resize that started before the metrics were enabled is not recorded, its start time is unknown.
+     */
+    final void resizeCompleted() {
+        if (!timingResize)
+            return;
+        timingResize = false;
+        long time = System.nanoTime() - resizeStart;
+        lastResizeTimeNanos = time;
+        resizeTimeNanos += time;
+        ++resizeCount;
+    }
+
+    @Override
+    public long getSize() {
+        return map.mappingCount();
+    }
+
+    @Override
+    public int getCapacity() {
+        return map.data.length;
+    }
+
+    @Override
+    public long getReads() {
+        return reads.sum();
+    }
+
+    @Override
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    @Override
+    public double getOperationsPerSecond() {
+        long now = System.nanoTime();
+        Sample s = sample.get();
+        long elapsed = now - s.nanos;
+        if (elapsed < SAMPLE_INTERVAL && !Double.isNaN(s.rate))
+            return s.rate;
+        long operations = reads.sum() + writes.sum();
+        double rate = (elapsed > 0L) ? (operations - s.operations) * 1e9 / elapsed : 0.0;
+        // Only one caller per interval takes the next sample, the others return the rate of the sample that won
+        if (elapsed >= SAMPLE_INTERVAL && !sample.compareAndSet(s, new Sample(now, operations, rate)))
+            return sample.get().rate;
+        return rate;
+    }
+
+    @Override
+    public long getCasFailures() {
+        return casFailures.sum();
+    }
+
+    @Override
+    public long getForwardedLookups() {
+        return forwards.sum();
+    }
+
+    @Override
+    public long getTombstonesSkipped() {
+        return tombstonesSkipped.sum();
+    }
+
+    @Override
+    public double getTombstonesSkippedPerRead() {
+        long r = reads.sum();
+        return (r > 0L) ? (double) tombstonesSkipped.sum() / r : 0.0;
+    }
+
+    @Override
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
+    @Override
+    public long getResizeTimeNanos() {
+        return resizeTimeNanos;
+    }
+
+    @Override
+    public long getLastResizeTimeNanos() {
+        return lastResizeTimeNanos;
+    }
+
+    /**
+     * Operation count at a point in time and the rate since the sample before
+     * 
+     * @author Simon Loesing
+     */
+    static final class Sample
+    {
+        final long nanos;
+        final long operations;
+        final double rate;
+
+        Sample(long nanos, long operations, double rate) {
+            this.nanos = nanos;
+            this.operations = operations;
+            this.rate = rate;
+        }
+    }
+}
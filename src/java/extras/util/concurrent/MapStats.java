@@ -0,0 +1,171 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the structure of a {@link LockFreeHashMap}: how the entries spread over the buckets, how many deleted entries are still linked and how much heap the map itself uses. The snapshot is taken
+ * by a scan that runs concurrently with writers, so its counts are approximate if the map is modified meanwhile. While a resize is running, every bucket is counted in the array that holds its entries:
+ * buckets that are not migrated yet in the old array, all others in the new array. The histogram then covers between capacity and nextCapacity buckets, and entries of a bucket that is migrated during
+ * the scan may be counted twice.
+ * 
+ * @author Simon Loesing
+ */
+public final class MapStats
+{
+    final int capacity;
+    final int resizeThreshold;
+    final int nextCapacity;
+    final long size;
+    long liveEntries;
+    long deletedEntries;
+    long markers;
+    int emptyBuckets;
+    int maxChainLength;
+    long[] chainLengths = new long[8];
+    long estimatedBytes;
+
+    MapStats(int capacity, int resizeThreshold, int nextCapacity, long size) {
+        this.capacity = capacity;
+        this.resizeThreshold = resizeThreshold;
+        this.nextCapacity = nextCapacity;
+        this.size = size;
+    }
+
+    /**
+     * Adds a scanned bucket
+     * 
+     * @param live number of live entries of the bucket
+     */
+    final void addBucket(int live) {
+        if (live >= chainLengths.length)
+            chainLengths = Arrays.copyOf(chainLengths, Math.max(live + 1, chainLengths.length << 1));
+        ++chainLengths[live];
+        if (live == 0)
+            ++emptyBuckets;
+        if (live > maxChainLength)
+            maxChainLength = live;
+        liveEntries += live;
+    }
+
+    /**
+     * @return int number of buckets of the current data array
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return int number of entries at which the map is resized
+     */
+    public int getResizeThreshold() {
+        return resizeThreshold;
+    }
+
+    /**
+     * @return int number of buckets of the array a running resize migrates to, 0 if no resize is running
+     */
+    public int getNextCapacity() {
+        return nextCapacity;
+    }
+
+    /**
+     * @return long number of mappings according to the size counter
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return long number of live entries found by the scan
+     */
+    public long getLiveEntries() {
+        return liveEntries;
+    }
+
+    /**
+     * @return long number of deleted or expired entries that are still linked into a chain
+     */
+    public long getDeletedEntries() {
+        return deletedEntries;
+    }
+
+    /**
+     * @return long number of markers of unlinked entries that are still linked. A marker stays at the head of a bucket until the next insert into the bucket, it is not a mapping and not counted by
+     *         {@link #getDeletedEntries()}.
+     */
+    public long getMarkers() {
+        return markers;
+    }
+
+    /**
+     * @return int number of buckets without live entries
+     */
+    public int getEmptyBuckets() {
+        return emptyBuckets;
+    }
+
+    /**
+     * @return int largest number of live entries in a bucket
+     */
+    public int getMaxChainLength() {
+        return maxChainLength;
+    }
+
+    /**
+     * @return double average number of live entries in the buckets that are not empty
+     */
+    public double getAverageChainLength() {
+        long buckets = 0;
+        for (int i = 1; i < chainLengths.length; ++i) {
+            buckets += chainLengths[i];
+        }
+        return (buckets > 0L) ? (double) liveEntries / buckets : 0.0;
+    }
+
+    /**
+     * Chain length histogram. Element i is the number of buckets with i live entries.
+     * 
+     * @return long[] histogram up to the maximal chain length
+     */
+    public long[] getChainLengthHistogram() {
+        return Arrays.copyOf(chainLengths, maxChainLength + 1);
+    }
+
+    /**
+     * Estimated heap retained by the map itself: the data arrays and the entries, including deleted entries and markers that are still linked. Keys and values are not included.
+     * 
+     * @return long estimated bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MapStats [capacity=" + capacity + ", resizeThreshold=" + resizeThreshold + ", nextCapacity=" + nextCapacity + ", size=" + size + ", liveEntries=" + liveEntries + ", deletedEntries="
+                + deletedEntries + ", markers=" + markers + ", emptyBuckets=" + emptyBuckets + ", maxChainLength=" + maxChainLength + ", averageChainLength=" + getAverageChainLength() + ", chainLengthHistogram="
+                + Arrays.toString(getChainLengthHistogram()) + ", estimatedBytes=" + estimatedBytes + "]";
+    }
+}
@@ -0,0 +1,863 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A lock-free concurrent hash-map that stores its buckets and entries in native memory outside of the java heap. Keys and values are converted to bytes by a {@link Serializer}, the garbage collector
+ * never sees the mappings, however many there are.
+ * 
+ * The map uses the same chaining as {@link LockFreeHashMap}: entries are prepended to a bucket with a CAS of the bucket head, and an update prepends a new entry of the key before the superseded entry is
+ * deleted. All CAS operations work directly on native addresses. An entry is deleted by setting the lowest bit of its next pointer, which also prevents that an entry is linked behind it. Deleted entries
+ * are unlinked by the next thread that walks the bucket and are reused once no concurrent reader can access them anymore (see {@link OffHeapMemory}).
+ * 
+ * Layout of an entry: next pointer (8 bytes), hash (4), key length (4), value length (4), key bytes, value bytes.
+ * 
+ * The number of buckets is fixed at construction, so the bucket array is never copied. The map does not reject inserts beyond its capacity, the chains just grow longer.
+ * 
+ * Native memory is only released by {@link #close()}. The map must not be used anymore once it is closed, and close must not be called while other threads still access the map.
+ * 
+ * This object is thread-safe and can be accessed by multiple threads concurrently.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <K> Key object
+ * @param <V> Value object
+ */
+public class OffHeapHashMap<K, V> implements ConcurrentMap<K, V>, Closeable
+{
+    static final int MINIMAL_CAPACITY = LockFreeHashMap.MINIMAL_CAPACITY;
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** Entry layout */
+    static final int NEXT = 0;
+    static final int HASH = 8;
+    static final int KEY_LENGTH = 12;
+    static final int VALUE_LENGTH = 16;
+    static final int DATA = 20;
+    /** Lowest bit of the next pointer, marks deleted entries */
+    static final long DELETED = 1L;
+
+    final Serializer<K> keySerializer;
+    final Serializer<V> valueSerializer;
+    final int length;
+    final long buckets;
+    final OffHeapMemory memory = new OffHeapMemory();
+    final StripedCounter counter = new StripedCounter();
+
+    private transient Set<K> keySet;
+    private transient Set<Entry<K, V>> entrySet;
+    private transient Collection<V> values;
+
+    /**
+     * Creates a new hash-map with the default number of buckets
+     * 
+     * @param keySerializer
+     * @param valueSerializer
+     */
+    public OffHeapHashMap(Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(DEFAULT_CAPACITY, keySerializer, valueSerializer);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param capacity number of buckets, rounded up to the next power of two
+     * @param keySerializer
+     * @param valueSerializer
+     */
+    public OffHeapHashMap(int capacity, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        if (keySerializer == null || valueSerializer == null)
+            throw new NullPointerException();
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        // Find next power-of-two of the capacity
+        int length = MINIMAL_CAPACITY;
+        while (length < capacity) {
+            length <<= 1;
+        }
+        this.length = length;
+        this.buckets = UNSAFE.allocateMemory((long) length << 3);
+        UNSAFE.setMemory(buckets, (long) length << 3, (byte) 0);
+    }
+
+    /**
+     * Releases all native memory of the map
+     */
+    @Override
+    public void close() {
+        if (memory.closed)
+            return;
+        memory.close();
+        UNSAFE.freeMemory(buckets);
+    }
+
+    /**
+     * Verifies if the native memory of the map was released
+     * 
+     * @return true if the map is closed
+     */
+    public boolean isClosed() {
+        return memory.closed;
+    }
+
+    /**
+     * Removes all entries of the map. Concurrent inserts may or may not be removed.
+     */
+    @Override
+    public void clear() {
+        OffHeapMemory.Record r = memory.enter();
+        try {
+            for (int i = 0; i < length; ++i) {
+                long bucket = buckets + ((long) i << 3);
+                for (long e = UNSAFE.getLongVolatile(null, bucket); e != 0; e = UNSAFE.getLongVolatile(null, e + NEXT) & ~DELETED) {
+                    if (markDeleted(e))
+                        counter.add(-1);
+                }
+                unlinkDeleted(r, bucket);
+            }
+        } finally {
+            memory.exit(r);
+        }
+    }
+
+    /**
+     * Verifies if a key is already present in the map
+     * 
+     * @param k key
+     * @return true if key is contained in the map, otherwise false
+     */
+    @Override
+    public boolean containsKey(Object k) {
+        return getBytes(k) != null;
+    }
+
+    /**
+     * Verifies if a value is already present in the map
+     * 
+     * @param v value
+     * @return true if the value is present, otherwise false
+     */
+    @Override
+    public boolean containsValue(Object v) {
+        Iterator<V> it = new ValueIterator();
+        while (it.hasNext()) {
+            V value = it.next();
+            if (value == v || v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the key-set of the map. The key set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all keys
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null) ? ks : (keySet = new KeySet());
+    }
+
+    /**
+     * Retrieves all the values of the map. The collection points to the current content of the map. Changes in the map are immediately visible. As well, all operations executed on the collection are directly applied to the map.
+     * 
+     * @return Collection with all values
+     */
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return (vs != null) ? vs : (values = new Values());
+    }
+
+    /**
+     * Retrieves all key/value pairs of the map. The entry set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all entries
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * Retrieves a value from the map. The key is serialized and compared to the keys in native memory, only the value that is found is deserialized.
+     * 
+     * @param key
+     * @return V value if key exists, otherwise null
+     */
+    @Override
+    public final V get(Object key) {
+        byte[] v = getBytes(key);
+        return (v != null) ? valueSerializer.deserialize(v) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private final byte[] getBytes(Object key) {
+        byte[] k = keySerializer.serialize((K) key);
+        int hash = hash(k);
+        long bucket = bucketAddress(hash);
+
+        OffHeapMemory.Record r = memory.enter();
+        try {
+            while (true) {
+                long head = UNSAFE.getLongVolatile(null, bucket);
+                long e = head;
+                while (e != 0) {
+                    long next = UNSAFE.getLongVolatile(null, e + NEXT);
+                    if ((next & DELETED) == 0 && UNSAFE.getInt(e + HASH) == hash && keyEquals(e, k))
+                        return valueBytes(e);
+                    e = next & ~DELETED;
+                }
+                // An update prepends a new entry before it deletes the old one. If the bucket head changed, the key could have been updated while iterating
+                if (UNSAFE.getLongVolatile(null, bucket) == head)
+                    return null;
+            }
+        } finally {
+            memory.exit(r);
+        }
+    }
+
+    /**
+     * Verifies if the map is empty (does not contain any keys)
+     * 
+     * @return true if map is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Inserts a key/value pair in the map. If the key is already present, the value is overwritten
+     * 
+     * @param key
+     * @param value
+     * @return V old value if key was already present in the map, null otherwise
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return deserialize(put(key, value, false, false, null));
+    }
+
+    /**
+     * Inserts a key/value pair in the map only if the key does not exist yet.
+     * 
+     * @param key
+     * @param value
+     * @return V current value if the key is already present, null otherwise
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return deserialize(put(key, value, true, false, null));
+    }
+
+    /**
+     * Inserts all the entries of an existing map. This operation is not atomic. All entries are inserted sequentially
+     * 
+     * @param map to insert
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Private generic put method used for all insert operations
+     * 
+     * @param key
+     * @param value
+     * @param onlyIfAbsent boolean
+     * @param onlyReplace boolean
+     * @param oldValue if not null only replace an entry with this value
+     * @return byte[] serialized previous value, null if the key was not present
+     */
+    private final byte[] put(K key, V value, boolean onlyIfAbsent, boolean onlyReplace, V oldValue) {
+        byte[] k = keySerializer.serialize(key);
+        byte[] v = valueSerializer.serialize(value);
+        byte[] expected = (oldValue != null) ? valueSerializer.serialize(oldValue) : null;
+        int hash = hash(k);
+        long bucket = bucketAddress(hash);
+        long newEntry = 0;
+
+        OffHeapMemory.Record r = memory.enter();
+        try {
+            while (true) {
+                // The head is read before the chain is searched, a new entry of the key that is prepended in the meantime lets the CAS fail
+                long head = UNSAFE.getLongVolatile(null, bucket);
+                long oldEntry = find(r, bucket, hash, k);
+                if (oldEntry != 0) {
+                    if (onlyIfAbsent || (expected != null && !valueEquals(oldEntry, expected)))
+                        return valueBytes(oldEntry);
+                } else if (onlyReplace) {
+                    return null;
+                }
+
+                if (newEntry == 0)
+                    newEntry = allocateEntry(r, hash, k, v);
+                UNSAFE.putLong(newEntry + NEXT, head);
+                if (!UNSAFE.compareAndSwapLong(null, bucket, head, newEntry))
+                    continue;
+                long inserted = newEntry;
+                newEntry = 0;
+
+                if (oldEntry == 0) {
+                    counter.add(1);
+                    return null;
+                }
+                if (markDeleted(oldEntry)) {
+                    byte[] res = valueBytes(oldEntry);
+                    unlinkDeleted(r, bucket);
+                    return res;
+                }
+                // The key was removed concurrently, the new entry is a fresh mapping
+                if (!onlyReplace || !markDeleted(inserted))
+                    counter.add(1);
+                else
+                    unlinkDeleted(r, bucket);
+                return null;
+            }
+        } finally {
+            if (newEntry != 0)
+                memory.free(r, newEntry, DATA + k.length + v.length);
+            memory.exit(r);
+        }
+    }
+
+    /**
+     * Removes a key/value pair from the map
+     * 
+     * @param k key to remove
+     * @return V old value associated to the key, null if key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public V remove(Object k) {
+        if (k == null)
+            return null;
+
+        return deserialize(remove(keySerializer.serialize((K) k), null));
+    }
+
+    /**
+     * Removes a key/value pair from the map if it matches the given parameters
+     * 
+     * @param k key
+     * @param v value
+     * @return true if the key/value pair was removed
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object k, Object v) {
+        if (k == null || v == null)
+            return false;
+
+        return remove(keySerializer.serialize((K) k), valueSerializer.serialize((V) v)) != null;
+    }
+
+    /**
+     * Private generic removes method used for all remove operations
+     * 
+     * @param k serialized key
+     * @param expected if not null only execute remove if the serialized value matches
+     * @return byte[] serialized value of the removed entry, null if nothing was removed
+     */
+    private final byte[] remove(byte[] k, byte[] expected) {
+        int hash = hash(k);
+        long bucket = bucketAddress(hash);
+
+        OffHeapMemory.Record r = memory.enter();
+        try {
+            while (true) {
+                long e = find(r, bucket, hash, k);
+                if (e == 0)
+                    return null;
+                if (expected != null && !valueEquals(e, expected))
+                    return null;
+                if (markDeleted(e)) {
+                    counter.add(-1);
+                    byte[] res = valueBytes(e);
+                    unlinkDeleted(r, bucket);
+                    return res;
+                }
+            }
+        } finally {
+            memory.exit(r);
+        }
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * 
+     * @param key
+     * @param value replacement
+     * @return V old value if key was already present, null otherwise
+     */
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return deserialize(put(key, value, false, true, null));
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present and the current value is equal to passed oldValue parameter.
+     * 
+     * @param key
+     * @param oldValue
+     * @param newValue
+     * @return true if the value was replaced
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            return false;
+
+        return Arrays.equals(valueSerializer.serialize(oldValue), put(key, newValue, false, true, oldValue));
+    }
+
+    /**
+     * Retrieves the size of the map
+     * 
+     * @return int current number of entries in the map, Integer.MAX_VALUE if the map contains more entries
+     */
+    @Override
+    public int size() {
+        long n = counter.sum();
+        return (n < 0L) ? 0 : (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Retrieves the number of mappings. Use this method instead of {@link #size()} as a map may contain more mappings than can be represented as an int. The value is an estimate, inserts and removes that run
+     * concurrently may or may not be reflected.
+     * 
+     * @return long number of entries in the map
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * Retrieves the amount of native memory used by the map, the bucket array and all slabs
+     * 
+     * @return long number of bytes
+     */
+    public long nativeMemory() {
+        return ((long) length << 3) + memory.allocatedBytes();
+    }
+
+    /**
+     * Internal method to find the live entry of a key. Deleted entries are unlinked on the way and retired.
+     * 
+     * @return long address of the entry, 0 if the key is not present
+     */
+    private final long find(OffHeapMemory.Record r, long bucket, int hash, byte[] k) {
+        retry: while (true) {
+            long prev = bucket;
+            long e = UNSAFE.getLongVolatile(null, prev);
+            while (e != 0) {
+                long next = UNSAFE.getLongVolatile(null, e + NEXT);
+                if ((next & DELETED) != 0) {
+                    // The CAS fails if the predecessor was deleted in the meantime
+                    if (!UNSAFE.compareAndSwapLong(null, prev, e, next & ~DELETED))
+                        continue retry;
+                    memory.retire(r, e, entrySize(e));
+                    e = next & ~DELETED;
+                    continue;
+                }
+                if (UNSAFE.getInt(e + HASH) == hash && keyEquals(e, k))
+                    return e;
+                prev = e + NEXT;
+                e = next;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Internal method to unlink all deleted entries of a bucket
+     */
+    private final void unlinkDeleted(OffHeapMemory.Record r, long bucket) {
+        retry: while (true) {
+            long prev = bucket;
+            long e = UNSAFE.getLongVolatile(null, prev);
+            while (e != 0) {
+                long next = UNSAFE.getLongVolatile(null, e + NEXT);
+                if ((next & DELETED) != 0) {
+                    if (!UNSAFE.compareAndSwapLong(null, prev, e, next & ~DELETED))
+                        continue retry;
+                    memory.retire(r, e, entrySize(e));
+                    e = next & ~DELETED;
+                    continue;
+                }
+                prev = e + NEXT;
+                e = next;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Marks an entry as deleted
+     * 
+     * @return true if this call deleted the entry, false if it was already deleted
+     */
+    private static final boolean markDeleted(long e) {
+        while (true) {
+            long next = UNSAFE.getLongVolatile(null, e + NEXT);
+            if ((next & DELETED) != 0)
+                return false;
+            if (UNSAFE.compareAndSwapLong(null, e + NEXT, next, next | DELETED))
+                return true;
+        }
+    }
+
+    private final long allocateEntry(OffHeapMemory.Record r, int hash, byte[] k, byte[] v) {
+        long e = memory.allocate(r, DATA + k.length + v.length);
+        UNSAFE.putInt(e + HASH, hash);
+        UNSAFE.putInt(e + KEY_LENGTH, k.length);
+        UNSAFE.putInt(e + VALUE_LENGTH, v.length);
+        UNSAFE.copyMemory(k, B_BASE, null, e + DATA, k.length);
+        UNSAFE.copyMemory(v, B_BASE, null, e + DATA + k.length, v.length);
+        return e;
+    }
+
+    private static final int entrySize(long e) {
+        return DATA + UNSAFE.getInt(e + KEY_LENGTH) + UNSAFE.getInt(e + VALUE_LENGTH);
+    }
+
+    private static final byte[] keyBytes(long e) {
+        byte[] k = new byte[UNSAFE.getInt(e + KEY_LENGTH)];
+        UNSAFE.copyMemory(null, e + DATA, k, B_BASE, k.length);
+        return k;
+    }
+
+    private static final byte[] valueBytes(long e) {
+        byte[] v = new byte[UNSAFE.getInt(e + VALUE_LENGTH)];
+        UNSAFE.copyMemory(null, e + DATA + UNSAFE.getInt(e + KEY_LENGTH), v, B_BASE, v.length);
+        return v;
+    }
+
+    private static final boolean keyEquals(long e, byte[] k) {
+        return UNSAFE.getInt(e + KEY_LENGTH) == k.length && bytesEqual(e + DATA, k);
+    }
+
+    private static final boolean valueEquals(long e, byte[] v) {
+        return UNSAFE.getInt(e + VALUE_LENGTH) == v.length && bytesEqual(e + DATA + UNSAFE.getInt(e + KEY_LENGTH), v);
+    }
+
+    /**
+     * Compares native memory to a byte array, 8 bytes at a time
+     */
+    private static final boolean bytesEqual(long address, byte[] b) {
+        int n = b.length;
+        int i = 0;
+        for (; i + 8 <= n; i += 8) {
+            if (UNSAFE.getLong(address + i) != UNSAFE.getLong(b, B_BASE + i))
+                return false;
+        }
+        for (; i < n; ++i) {
+            if (UNSAFE.getByte(address + i) != b[i])
+                return false;
+        }
+        return true;
+    }
+
+    private final V deserialize(byte[] v) {
+        return (v != null) ? valueSerializer.deserialize(v) : null;
+    }
+
+    private final long bucketAddress(int hash) {
+        return buckets + ((long) (hash & (length - 1)) << 3);
+    }
+
+    /**
+     * Hash of a serialized key
+     */
+    static final int hash(byte[] k) {
+        return LockFreeHashMap.hash(Arrays.hashCode(k));
+    }
+
+    /**
+     * Abstract object to iterate over the map. The live entries of a bucket are copied to the heap at once, keys and values are deserialized when they are returned.
+     * 
+     * @author Simon Loesing
+     */
+    abstract class HashIterator
+    {
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        final List<byte[]> vals = new ArrayList<byte[]>();
+        int bucket;
+        int pos;
+        K lastReturned;
+
+        HashIterator() {
+            advance();
+        }
+
+        final void advance() {
+            while (pos >= keys.size() && bucket < length) {
+                keys.clear();
+                vals.clear();
+                pos = 0;
+                OffHeapMemory.Record r = memory.enter();
+                try {
+                    long e = UNSAFE.getLongVolatile(null, buckets + ((long) bucket << 3));
+                    while (e != 0) {
+                        long next = UNSAFE.getLongVolatile(null, e + NEXT);
+                        if ((next & DELETED) == 0) {
+                            keys.add(keyBytes(e));
+                            vals.add(valueBytes(e));
+                        }
+                        e = next & ~DELETED;
+                    }
+                } finally {
+                    memory.exit(r);
+                }
+                ++bucket;
+            }
+        }
+
+        final Entry<K, V> nextEntry() {
+            if (pos >= keys.size())
+                throw new NoSuchElementException();
+            K k = keySerializer.deserialize(keys.get(pos));
+            V v = valueSerializer.deserialize(vals.get(pos));
+            ++pos;
+            lastReturned = k;
+            advance();
+            return new AbstractMap.SimpleImmutableEntry<K, V>(k, v);
+        }
+
+        public final boolean hasNext() {
+            return pos < keys.size();
+        }
+
+        public final boolean hasMoreElements() {
+            return pos < keys.size();
+        }
+
+        public final void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            OffHeapHashMap.this.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * Iterator for keys
+     * 
+     * @author Simon Loesing
+     */
+    final class KeyIterator extends HashIterator implements Iterator<K>
+    {
+        public final K next() {
+            return super.nextEntry().getKey();
+        }
+    }
+
+    /**
+     * Iterator for values
+     * 
+     * @author Simon Loesing
+     */
+    final class ValueIterator extends HashIterator implements Iterator<V>
+    {
+        public final V next() {
+            return super.nextEntry().getValue();
+        }
+    }
+
+    /**
+     * Iterator for entry objects
+     * 
+     * @author Simon Loesing
+     */
+    final class EntryIterator extends HashIterator implements Iterator<Entry<K, V>>
+    {
+        public Entry<K, V> next() {
+            return super.nextEntry();
+        }
+    }
+
+    /**
+     * Set of all keys for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class KeySet extends AbstractSet<K>
+    {
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return OffHeapHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return OffHeapHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return OffHeapHashMap.this.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return OffHeapHashMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            OffHeapHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Collection of all values for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class Values extends AbstractCollection<V>
+    {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return OffHeapHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return OffHeapHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return OffHeapHashMap.this.containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            OffHeapHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Set of all entries for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class EntrySet extends AbstractSet<Entry<K, V>>
+    {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            V v = OffHeapHashMap.this.get(e.getKey());
+            return v != null && v.equals(e.getValue());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            return OffHeapHashMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public int size() {
+            return OffHeapHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return OffHeapHashMap.this.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            OffHeapHashMap.this.clear();
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe UNSAFE;
+    private static final long B_BASE;
+
+    static {
+        try {
+            Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (sun.misc.Unsafe) f.get(null);
+            B_BASE = UNSAFE.arrayBaseOffset(byte[].class);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
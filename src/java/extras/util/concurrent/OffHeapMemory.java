@@ -0,0 +1,273 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Native memory of an {@link OffHeapHashMap}. Memory is allocated in slabs of {@value #SLAB_SIZE} bytes, every thread carves its blocks from its own slab and keeps its own free lists per size class, so
+ * allocating never needs a CAS. Blocks larger than {@value #MAX_SMALL_SIZE} bytes are allocated individually.
+ * 
+ * Lock-free readers may still access a block after it was unlinked from the map, so unlinked blocks are reclaimed with epoch based reclamation. Every operation on the map runs between {@link #enter()} and
+ * {@link #exit(Record)}, which may be nested, and publishes the global epoch it started in. A retired block is stamped with the global epoch and is only reused once the global epoch has advanced by two. The global epoch
+ * advances only if every thread that is inside an operation has seen the current epoch, so no thread can still hold a reference to the block.
+ * 
+ * All memory is released by {@link #close()}.
+ * 
+ * @author Simon Loesing
+ */
+final class OffHeapMemory
+{
+    /** Size of a slab */
+    static final int SLAB_SIZE = 1 << 20;
+    /** Blocks up to this size are allocated from slabs */
+    static final int MAX_SMALL_SIZE = 4096;
+    /** Block sizes are multiples of the alignment */
+    static final int ALIGNMENT = 16;
+    /** Number of retired blocks a thread collects before it tries to reclaim them */
+    static final int RECLAIM_THRESHOLD = 64;
+
+    volatile long globalEpoch = 1;
+    volatile Record records;
+    volatile boolean closed;
+    final ConcurrentLinkedQueue<Long> slabs = new ConcurrentLinkedQueue<Long>();
+    final Set<Long> largeBlocks = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final ThreadLocal<Record> localRecord = new ThreadLocal<Record>() {
+        @Override
+        protected Record initialValue() {
+            Record r = new Record();
+            Record head;
+            do {
+                head = records;
+                r.next = head;
+            } while (!UNSAFE.compareAndSwapObject(OffHeapMemory.this, RECORDS_OFFSET, head, r));
+            return r;
+        }
+    };
+
+    /**
+     * Starts an operation. Blocks that are reachable during the operation are not reused before {@link #exit(Record)} is called.
+     * 
+     * @return Record of the calling thread
+     */
+    final Record enter() {
+        if (closed)
+            throw new IllegalStateException("Map is closed");
+        Record r = localRecord.get();
+        if (r.depth++ == 0)
+            r.epoch = globalEpoch;
+        return r;
+    }
+
+    /**
+     * Ends an operation
+     * 
+     * @param r record of the calling thread
+     */
+    final void exit(Record r) {
+        if (--r.depth == 0)
+            r.epoch = 0;
+    }
+
+    /**
+     * Allocates a block of native memory
+     * 
+     * @param r record of the calling thread
+     * @param size in bytes
+     * @return long address of the block
+     */
+    final long allocate(Record r, int size) {
+        if (size > MAX_SMALL_SIZE) {
+            long address = UNSAFE.allocateMemory(size);
+            largeBlocks.add(address);
+            return address;
+        }
+        int sizeClass = (size + ALIGNMENT - 1) / ALIGNMENT;
+        long address = r.freeLists[sizeClass];
+        if (address != 0) {
+            r.freeLists[sizeClass] = UNSAFE.getLong(address);
+            return address;
+        }
+        int blockSize = sizeClass * ALIGNMENT;
+        if (r.slabPosition + blockSize > r.slabEnd) {
+            long slab = UNSAFE.allocateMemory(SLAB_SIZE);
+            slabs.add(slab);
+            // The tail of the previous slab is smaller than a block and remains unused
+            r.slabPosition = (slab + ALIGNMENT - 1) & ~(long) (ALIGNMENT - 1);
+            r.slabEnd = slab + SLAB_SIZE;
+        }
+        address = r.slabPosition;
+        r.slabPosition += blockSize;
+        return address;
+    }
+
+    /**
+     * Releases a block that was never visible to other threads
+     * 
+     * @param r record of the calling thread
+     * @param address of the block
+     * @param size in bytes
+     */
+    final void free(Record r, long address, int size) {
+        if (size > MAX_SMALL_SIZE) {
+            largeBlocks.remove(address);
+            UNSAFE.freeMemory(address);
+            return;
+        }
+        int sizeClass = (size + ALIGNMENT - 1) / ALIGNMENT;
+        UNSAFE.putLong(address, r.freeLists[sizeClass]);
+        r.freeLists[sizeClass] = address;
+    }
+
+    /**
+     * Releases a block that was unlinked from the map. The block is reused once no concurrent operation can access it anymore.
+     * 
+     * @param r record of the calling thread
+     * @param address of the block
+     * @param size in bytes
+     */
+    final void retire(Record r, long address, int size) {
+        int n = r.retiredCount;
+        if (n == r.retiredAddresses.length) {
+            r.grow();
+        }
+        r.retiredAddresses[n] = address;
+        r.retiredSizes[n] = size;
+        r.retiredEpochs[n] = globalEpoch;
+        r.retiredCount = n + 1;
+        if (n + 1 >= RECLAIM_THRESHOLD)
+            reclaim(r);
+    }
+
+    /**
+     * Advances the global epoch if possible and releases all retired blocks of the calling thread that are no longer accessible
+     */
+    private final void reclaim(Record r) {
+        long epoch = globalEpoch;
+        boolean advance = true;
+        for (Record o = records; o != null; o = o.next) {
+            long e = o.epoch;
+            if (e != 0 && e != epoch) {
+                advance = false;
+                break;
+            }
+        }
+        if (advance && UNSAFE.compareAndSwapLong(this, GLOBAL_EPOCH_OFFSET, epoch, epoch + 1))
+            ++epoch;
+
+        int kept = 0;
+        for (int i = 0; i < r.retiredCount; ++i) {
+            if (r.retiredEpochs[i] + 2 <= epoch) {
+                free(r, r.retiredAddresses[i], r.retiredSizes[i]);
+            } else {
+                r.retiredAddresses[kept] = r.retiredAddresses[i];
+                r.retiredSizes[kept] = r.retiredSizes[i];
+                r.retiredEpochs[kept] = r.retiredEpochs[i];
+                ++kept;
+            }
+        }
+        r.retiredCount = kept;
+    }
+
+    /**
+     * Releases all native memory. No other thread may access the memory anymore.
+     */
+    final void close() {
+        closed = true;
+        for (Long slab; (slab = slabs.poll()) != null;) {
+            UNSAFE.freeMemory(slab);
+        }
+        for (Iterator<Long> it = largeBlocks.iterator(); it.hasNext();) {
+            UNSAFE.freeMemory(it.next());
+            it.remove();
+        }
+    }
+
+    /**
+     * Retrieves the amount of native memory allocated from the operating system
+     * 
+     * @return long number of bytes
+     */
+    final long allocatedBytes() {
+        return (long) slabs.size() * SLAB_SIZE;
+    }
+
+    /**
+     * State of a thread: the epoch of its current operation, its slab, its free lists and its retired blocks. Only the epoch is accessed by other threads.
+     * 
+     * @author Simon Loesing
+     */
+    static final class Record
+    {
+        /** Global epoch the current operation started in, 0 if the thread is not inside an operation */
+        volatile long epoch;
+        /** Number of nested operations */
+        int depth;
+        Record next;
+        long slabPosition;
+        long slabEnd;
+        final long[] freeLists = new long[MAX_SMALL_SIZE / ALIGNMENT + 1];
+        long[] retiredAddresses = new long[RECLAIM_THRESHOLD];
+        int[] retiredSizes = new int[RECLAIM_THRESHOLD];
+        long[] retiredEpochs = new long[RECLAIM_THRESHOLD];
+        int retiredCount;
+
+        final void grow() {
+            int n = retiredAddresses.length << 1;
+            long[] addresses = new long[n];
+            int[] sizes = new int[n];
+            long[] epochs = new long[n];
+            System.arraycopy(retiredAddresses, 0, addresses, 0, retiredCount);
+            System.arraycopy(retiredSizes, 0, sizes, 0, retiredCount);
+            System.arraycopy(retiredEpochs, 0, epochs, 0, retiredCount);
+            retiredAddresses = addresses;
+            retiredSizes = sizes;
+            retiredEpochs = epochs;
+        }
+    }
+
+    // Unsafe mechanics
+    static final sun.misc.Unsafe UNSAFE;
+    private static final long GLOBAL_EPOCH_OFFSET;
+    private static final long RECORDS_OFFSET;
+
+    static {
+        try {
+            Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (sun.misc.Unsafe) f.get(null);
+            @SuppressWarnings("rawtypes")
+            Class m = OffHeapMemory.class;
+            GLOBAL_EPOCH_OFFSET = UNSAFE.objectFieldOffset(m.getDeclaredField("globalEpoch"));
+            RECORDS_OFFSET = UNSAFE.objectFieldOffset(m.getDeclaredField("records"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,664 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Common engine of the lock-free hash-maps with primitive keys. It implements the same chaining as {@link LockFreeHashMap}: new entries are prepended to the bucket with a CAS of the bucket head, an update
+ * prepends a new entry of the key and then marks the superseded entry as deleted, and a resize migrates the buckets cooperatively behind forwarding markers.
+ * 
+ * The engine does not know the types of keys and values. Keys are passed as long values, int keys are widened. Entries are implemented by the concrete maps, they compare their key and value and copy
+ * themselves during a resize. A map with primitive keys and values therefore never boxes a key or a value.
+ * 
+ * @author Simon Loesing
+ */
+abstract class PrimitiveHashMap
+{
+    static final int MINIMAL_CAPACITY = LockFreeHashMap.MINIMAL_CAPACITY;
+    static final float MINIMAL_LOAD_FACTOR = LockFreeHashMap.MINIMAL_LOAD_FACTOR;
+    static final int DEFAULT_INITIAL_CAPACITY = LockFreeHashMap.DEFAULT_INITIAL_CAPACITY;
+    static final float DEFAULT_LOAD_FACTOR = LockFreeHashMap.DEFAULT_LOAD_FACTOR;
+
+    static final int MIN_TRANSFER_STRIDE = LockFreeHashMap.MIN_TRANSFER_STRIDE;
+    static final int FORWARDING_HASH = LockFreeHashMap.FORWARDING_HASH;
+    static final int LIVE = LockFreeHashMap.LIVE;
+    static final int DELETED = LockFreeHashMap.DELETED;
+    static final int REPLACED = LockFreeHashMap.REPLACED;
+    static final int MOVED = LockFreeHashMap.MOVED;
+
+    int initialCapacity;
+    float loadFactor;
+    boolean isResizable;
+    int resizeCount;
+    volatile int resizeThreshold;
+    volatile int resizeLock;
+    volatile PrimitiveEntry[] data;
+    volatile ForwardingEntry forwarding;
+    final StripedCounter counter = new StripedCounter();
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable false to deactivate resizing
+     */
+    PrimitiveHashMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        // Find next power-of-two of the initial capacity
+        this.initialCapacity = MINIMAL_CAPACITY;
+        while (this.initialCapacity < initialCapacity) {
+            this.initialCapacity <<= 1;
+        }
+        if (loadFactor >= MINIMAL_LOAD_FACTOR && loadFactor <= 1.0f) {
+            this.loadFactor = loadFactor;
+        } else {
+            this.loadFactor = MINIMAL_LOAD_FACTOR;
+        }
+        this.resizeThreshold = (int) (this.initialCapacity * this.loadFactor);
+        this.resizeLock = 0;
+        this.isResizable = isResizable;
+        this.data = new PrimitiveEntry[this.initialCapacity];
+        this.forwarding = null;
+    }
+
+    /**
+     * Clears the entire map and resets the capacity to the initial value. A resize that is running concurrently is abandoned.
+     */
+    public void clear() {
+        PrimitiveEntry[] tab = new PrimitiveEntry[this.initialCapacity];
+        resizeThreshold = (int) (this.initialCapacity * this.loadFactor);
+        data = tab;
+        forwarding = null;
+        RESIZE_LOCK.setRelease(this, 0);
+        addCount(-counter.sum(), -1);
+    }
+
+    /**
+     * Verifies if the map is empty (does not contain any keys)
+     * 
+     * @return true if map is empty
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Retrieves the size of the map
+     * 
+     * @return int current number of entries in the map, Integer.MAX_VALUE if the map contains more entries
+     */
+    public int size() {
+        long n = counter.sum();
+        return (n < 0L) ? 0 : (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Retrieves the number of mappings. Use this method instead of {@link #size()} as a map may contain more mappings than can be represented as an int. The value is an estimate, inserts and removes that run
+     * concurrently may or may not be reflected.
+     * 
+     * @return long number of entries in the map
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * Specifies the number of free spots before the map starts a resize procedure
+     * 
+     * @return int number of insert left before the map resizes
+     */
+    public int nextResize() {
+        long res = resizeThreshold - counter.sum();
+        return (res >= 0) ? (int) res : 0;
+    }
+
+    /**
+     * Hash of a long key, the bits of the key are folded as in {@link Long#hashCode()} and then spread by {@link LockFreeHashMap#hash(int)}
+     */
+    static final int hash(long key) {
+        return LockFreeHashMap.hash((int) (key ^ (key >>> 32)));
+    }
+
+    /**
+     * Retrieves the entry of a key
+     * 
+     * @param key
+     * @param hash of the key
+     * @return PrimitiveEntry live entry of the key, null if the key is not present
+     */
+    final PrimitiveEntry getEntry(long key, int hash) {
+        PrimitiveEntry[] dataArr = data;
+
+        while (true) {
+            int bucket = bucketIndex(hash, dataArr.length);
+            PrimitiveEntry head = entryAt(dataArr, bucket);
+            PrimitiveEntry e = head;
+            if (e != null && e.hash == FORWARDING_HASH) {
+                // The bucket is being resized. Until it is completely migrated the frozen chain is still valid, afterwards go straight to the new array
+                ForwardingEntry f = (ForwardingEntry) e;
+                e = entryAt(f.frozen, bucket);
+                if (e == f) {
+                    dataArr = f.nextTable;
+                    continue;
+                }
+            }
+            while (e != null) {
+                if (e.hash == hash && e.hasKey(key) && !e.isDeleted()) {
+                    return e;
+                }
+                e = e.getNext();
+            }
+            // An update prepends a new entry before it deletes the old one. If the bucket head changed, the key could have been updated while iterating
+            if (entryAt(dataArr, bucket) == head)
+                return null;
+        }
+    }
+
+    /**
+     * Generic put method used for all insert operations, see LockFreeHashMap
+     * 
+     * @param key
+     * @param newEntry entry to insert, holds key and value
+     * @param onlyIfAbsent boolean
+     * @param onlyReplace boolean
+     * @param expected if not null, only replace an entry with the same value
+     * @return PrimitiveEntry entry that was replaced or that prevented the insert, null if the key was not present
+     */
+    final PrimitiveEntry put(long key, PrimitiveEntry newEntry, boolean onlyIfAbsent, boolean onlyReplace, PrimitiveEntry expected) {
+        // Help with a running resize
+        ForwardingEntry f = forwarding;
+        if (f != null)
+            transfer(f);
+
+        int hash = newEntry.hash;
+        PrimitiveEntry[] dataArr = data;
+
+        retry: while (true) {
+            int bucket = bucketIndex(hash, dataArr.length);
+            PrimitiveEntry head = entryAt(dataArr, bucket);
+            if (head != null && head.hash == FORWARDING_HASH) {
+                dataArr = forward((ForwardingEntry) head, hash);
+                continue;
+            }
+
+            // Iterate until element is found or not. Deleted entries are unlinked on the way
+            PrimitiveEntry oldEntry = null;
+            PrimitiveEntry prevEntry = null;
+            PrimitiveEntry currentEntry = head;
+            int chainLength = 0;
+            while (currentEntry != null) {
+                ++chainLength;
+                PrimitiveEntry nextEntry = currentEntry.getNext();
+                int state = currentEntry.getState();
+                if (state == DELETED || state == REPLACED) {
+                    if (nextEntry != null) {
+                        if (prevEntry == null) {
+                            if (casEntryAt(dataArr, bucket, currentEntry, nextEntry)) {
+                                head = nextEntry;
+                                currentEntry = nextEntry;
+                                continue;
+                            }
+                        } else if (prevEntry.replaceNext(currentEntry, nextEntry)) {
+                            currentEntry = nextEntry;
+                            continue;
+                        }
+                    }
+                } else if (currentEntry.hash == hash && currentEntry.hasKey(key)) {
+                    if (state >= MOVED && isFrozen(dataArr, bucket)) {
+                        // The bucket is being resized, the next lookup of the bucket head finds the forwarding marker
+                        continue retry;
+                    }
+                    oldEntry = currentEntry;
+                    break;
+                }
+                prevEntry = currentEntry;
+                currentEntry = nextEntry;
+            }
+
+            if (oldEntry != null) {
+                if (onlyIfAbsent || (expected != null && !oldEntry.sameValue(expected)))
+                    return oldEntry;
+            } else if (onlyReplace) {
+                return null;
+            }
+
+            // Prepend the new entry. If the head changed in the meantime the chain is checked again
+            newEntry.initNext(head);
+            if (!casEntryAt(dataArr, bucket, head, newEntry)) {
+                continue;
+            }
+
+            if (oldEntry == null) {
+                addCount(1, chainLength);
+                return null;
+            }
+            return retire(dataArr, bucket, oldEntry, newEntry, onlyReplace);
+        }
+    }
+
+    /**
+     * Marks an entry that was just superseded by a new entry of the same key as deleted
+     * 
+     * @return PrimitiveEntry superseded entry, null if the key was removed concurrently
+     */
+    private final PrimitiveEntry retire(PrimitiveEntry[] dataArr, int bucket, PrimitiveEntry oldEntry, PrimitiveEntry newEntry, boolean onlyReplace) {
+        while (true) {
+            int state = oldEntry.getState();
+            if (state == REPLACED) {
+                // A resize already dropped the old entry in favor of the new one
+                return oldEntry;
+            } else if (state == DELETED) {
+                // The key was removed concurrently, the new entry is a fresh mapping
+                if (!onlyReplace || !newEntry.casState(LIVE, DELETED))
+                    addCount(1, -1);
+                return null;
+            } else if (state >= MOVED && isFrozen(dataArr, bucket)) {
+                // The bucket was frozen after the new entry was inserted, complete its migration so readers no longer see the old entry
+                forward((ForwardingEntry) entryAt(dataArr, bucket), newEntry.hash);
+                return oldEntry;
+            } else if (oldEntry.casState(state, DELETED)) {
+                return oldEntry;
+            }
+        }
+    }
+
+    /**
+     * Generic remove method used for all remove operations
+     * 
+     * @param key to remove
+     * @param hash of the key
+     * @param expected if not null only execute remove if the entry has the same value
+     * @return PrimitiveEntry removed entry, null if the key was not removed
+     */
+    final PrimitiveEntry remove(long key, int hash, PrimitiveEntry expected) {
+        // Help with a running resize
+        ForwardingEntry f = forwarding;
+        if (f != null)
+            transfer(f);
+
+        PrimitiveEntry[] dataArr = data;
+
+        retry: while (true) {
+            int bucket = bucketIndex(hash, dataArr.length);
+            PrimitiveEntry entry = entryAt(dataArr, bucket);
+            if (entry != null && entry.hash == FORWARDING_HASH) {
+                dataArr = forward((ForwardingEntry) entry, hash);
+                continue;
+            }
+
+            while (entry != null) {
+                int state = entry.getState();
+                if (state != DELETED && state != REPLACED && entry.hash == hash && entry.hasKey(key)) {
+                    if (expected != null && !entry.sameValue(expected))
+                        return null;
+                    if (state >= MOVED && isFrozen(dataArr, bucket)) {
+                        // The bucket is being resized, the next lookup of the bucket head finds the forwarding marker
+                        continue retry;
+                    }
+                    // If the deleted flag can be set, return the old entry. Otherwise the entry changed its state, check again.
+                    if (entry.casState(state, DELETED)) {
+                        addCount(-1, -1);
+                        return entry;
+                    }
+                    continue retry;
+                }
+                entry = entry.getNext();
+            }
+            return null;
+        }
+    }
+
+    static final int bucketIndex(int hash, int length) {
+        return hash & (length - 1);
+    }
+
+    static final PrimitiveEntry entryAt(PrimitiveEntry[] dataArr, int bucket) {
+        return (PrimitiveEntry) BUCKET.getAcquire(dataArr, bucket);
+    }
+
+    static final boolean casEntryAt(PrimitiveEntry[] dataArr, int bucket, PrimitiveEntry expect, PrimitiveEntry update) {
+        return BUCKET.compareAndSet(dataArr, bucket, expect, update);
+    }
+
+    /**
+     * Internal method to atomically change the size of the map and to start a resize once the resize threshold is exceeded, see LockFreeHashMap
+     */
+    private final void addCount(long x, int check) {
+        StripedCounter c = counter;
+        StripedCounter.CounterCell[] cs;
+        long b, s;
+        if ((cs = c.counterCells) != null || !c.casBase(b = c.baseCount, s = b + x)) {
+            if (!c.addToCell(x, cs) || check <= 1)
+                return;
+            s = c.sum();
+        }
+        if (check >= 0 && isResizable && s > resizeThreshold)
+            checkResize();
+    }
+
+    /**
+     * Internal method that starts a resize operation and lets the calling thread help with it
+     */
+    private final void checkResize() {
+        // Get atomic lock that guarantees one resize running at a time
+        if (forwarding == null && (int) RESIZE_LOCK.getAcquire(this) == 0) {
+            if (RESIZE_LOCK.compareAndSet(this, 0, 1)) {
+                // Check size again, a resize could have completed in the meantime
+                if (resizeThreshold >= counter.sum()) {
+                    RESIZE_LOCK.setRelease(this, 0);
+                    return;
+                }
+                PrimitiveEntry[] dataArr = data;
+                ForwardingEntry f = new ForwardingEntry(dataArr, new PrimitiveEntry[dataArr.length * 2], MOVED + resizeCount++);
+                forwarding = f;
+                transfer(f);
+            }
+        }
+    }
+
+    /**
+     * Internal method to migrate buckets to the new array of a running resize. Every calling thread claims and migrates stripes of buckets until no unclaimed stripe is left.
+     */
+    private final void transfer(ForwardingEntry f) {
+        int n = f.table.length;
+        while (true) {
+            int ti = f.transferIndex;
+            if (ti <= 0)
+                return;
+            int bound = (ti > f.stride) ? ti - f.stride : 0;
+            if (!f.casTransferIndex(ti, bound))
+                continue;
+            for (int i = ti - 1; i >= bound; --i) {
+                migrateBucket(f, i);
+            }
+            if (f.addTransferred(ti - bound) == n) {
+                // Update data array. The CAS fails if the map was cleared while resizing
+                if (DATA.compareAndSet(this, f.table, f.nextTable)) {
+                    this.resizeThreshold = (int) (f.nextTable.length * this.loadFactor);
+                    forwarding = null;
+                    RESIZE_LOCK.setRelease(this, 0);
+                }
+                return;
+            }
+        }
+    }
+
+    private static boolean isFrozen(PrimitiveEntry[] dataArr, int bucket) {
+        PrimitiveEntry head = entryAt(dataArr, bucket);
+        return head != null && head.hash == FORWARDING_HASH;
+    }
+
+    /**
+     * Internal method that makes sure a bucket is completely migrated before the new array is accessed
+     */
+    private final PrimitiveEntry[] forward(ForwardingEntry f, int hash) {
+        int index = hash & (f.table.length - 1);
+        if (entryAt(f.frozen, index) != f)
+            migrateBucket(f, index);
+        return f.nextTable;
+    }
+
+    /**
+     * Internal method to migrate a single bucket. The steps are the same as in LockFreeHashMap: freeze the bucket, mark the live entries as moved, drop older entries of updated keys, split the chain into
+     * the two target buckets reusing the last run, and release the bucket to the new array.
+     */
+    private final void migrateBucket(ForwardingEntry f, int index) {
+        PrimitiveEntry[] dataArr = f.table;
+        PrimitiveEntry[] frozen = f.frozen;
+
+        PrimitiveEntry head;
+        while (true) {
+            head = entryAt(frozen, index);
+            if (head == f)
+                return; // Already migrated
+            PrimitiveEntry e = entryAt(dataArr, index);
+            if (e == f)
+                break; // Already frozen
+            if (head != e && !casEntryAt(frozen, index, head, e))
+                continue;
+            if (casEntryAt(dataArr, index, e, f))
+                break;
+        }
+        head = entryAt(frozen, index);
+        if (head == f)
+            return;
+        if (head == null) {
+            casEntryAt(frozen, index, null, f);
+            return;
+        }
+
+        // Marks of earlier resizes are upgraded, marks of later resizes are never overwritten
+        int moved = f.movedState;
+        for (PrimitiveEntry e = head; e != null; e = e.getNext()) {
+            int state = e.getState();
+            while (state != DELETED && state != REPLACED && state < moved && !e.casState(state, moved)) {
+                state = e.getState();
+            }
+        }
+
+        // The first entry of a key is the most recent one
+        for (PrimitiveEntry e = head.getNext(); e != null; e = e.getNext()) {
+            if (e.getState() != moved)
+                continue;
+            for (PrimitiveEntry p = head; p != e; p = p.getNext()) {
+                if (p.getState() == moved && p.hash == e.hash && p.sameKey(e)) {
+                    e.casState(moved, REPLACED);
+                    break;
+                }
+            }
+        }
+
+        int n = dataArr.length;
+        PrimitiveEntry lastRun = null;
+        int runBit = -1;
+        for (PrimitiveEntry e = head; e != null; e = e.getNext()) {
+            if (e.getState() == moved && (e.hash & n) != runBit) {
+                runBit = e.hash & n;
+                lastRun = e;
+            }
+        }
+        PrimitiveEntry lo = null, hi = null;
+        if (lastRun != null) {
+            if (runBit == 0)
+                lo = lastRun;
+            else
+                hi = lastRun;
+            for (PrimitiveEntry e = head; e != lastRun; e = e.getNext()) {
+                if (e.getState() != moved)
+                    continue;
+                if ((e.hash & n) == 0)
+                    lo = e.copy(lo);
+                else
+                    hi = e.copy(hi);
+            }
+        }
+        // Bucket heads of the new array are never reset to null, so the CAS only succeeds for the first thread
+        if (lo != null)
+            casEntryAt(f.nextTable, index, null, lo);
+        if (hi != null)
+            casEntryAt(f.nextTable, index + n, null, hi);
+
+        casEntryAt(frozen, index, head, f);
+    }
+
+    /**
+     * Entry of a map with primitive keys. The concrete maps store key and value in subclasses, so an entry is a single object without any boxed field.
+     * 
+     * @author Simon Loesing
+     */
+    abstract static class PrimitiveEntry
+    {
+        final int hash;
+        volatile PrimitiveEntry next;
+        volatile int state;
+
+        PrimitiveEntry(int hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * Compares the key of the entry
+         */
+        abstract boolean hasKey(long key);
+
+        /**
+         * Compares the keys of two entries of the same map
+         */
+        abstract boolean sameKey(PrimitiveEntry e);
+
+        /**
+         * Compares the values of two entries of the same map
+         */
+        abstract boolean sameValue(PrimitiveEntry e);
+
+        /**
+         * Creates a live copy of the entry, used by a resize
+         */
+        abstract PrimitiveEntry copy(PrimitiveEntry next);
+
+        final PrimitiveEntry getNext() {
+            return (PrimitiveEntry) NEXT.getAcquire(this);
+        }
+
+        final void initNext(PrimitiveEntry newNext) {
+            // The entry is published by a CAS, a plain write is sufficient
+            NEXT.set(this, newNext);
+        }
+
+        final boolean replaceNext(PrimitiveEntry oldNext, PrimitiveEntry newNext) {
+            return NEXT.compareAndSet(this, oldNext, newNext);
+        }
+
+        final int getState() {
+            return (int) STATE.getAcquire(this);
+        }
+
+        final boolean casState(int oldState, int newState) {
+            return STATE.compareAndSet(this, oldState, newState);
+        }
+
+        final boolean isDeleted() {
+            int state = (int) STATE.getAcquire(this);
+            return state == DELETED || state == REPLACED;
+        }
+
+        private static final VarHandle NEXT;
+        private static final VarHandle STATE;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                NEXT = l.findVarHandle(PrimitiveEntry.class, "next", PrimitiveEntry.class);
+                STATE = l.findVarHandle(PrimitiveEntry.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Marker that is placed in the buckets of a data array that is being resized, see LockFreeHashMap
+     * 
+     * @author Simon Loesing
+     */
+    static final class ForwardingEntry extends PrimitiveEntry
+    {
+        final PrimitiveEntry[] table;
+        final PrimitiveEntry[] nextTable;
+        final PrimitiveEntry[] frozen;
+        final int stride;
+        final int movedState;
+        volatile int transferIndex;
+        volatile int transferred;
+
+        ForwardingEntry(PrimitiveEntry[] table, PrimitiveEntry[] nextTable, int movedState) {
+            super(FORWARDING_HASH);
+            this.state = DELETED;
+            this.table = table;
+            this.nextTable = nextTable;
+            this.movedState = movedState;
+            this.frozen = new PrimitiveEntry[table.length];
+            int stride = (table.length >>> 3) / LockFreeHashMap.NCPU;
+            this.stride = (stride < MIN_TRANSFER_STRIDE) ? MIN_TRANSFER_STRIDE : stride;
+            this.transferIndex = table.length;
+        }
+
+        @Override
+        boolean hasKey(long key) {
+            return false;
+        }
+
+        @Override
+        boolean sameKey(PrimitiveEntry e) {
+            return false;
+        }
+
+        @Override
+        boolean sameValue(PrimitiveEntry e) {
+            return false;
+        }
+
+        @Override
+        PrimitiveEntry copy(PrimitiveEntry next) {
+            throw new UnsupportedOperationException();
+        }
+
+        final boolean casTransferIndex(int oldIndex, int newIndex) {
+            return TRANSFER_INDEX.compareAndSet(this, oldIndex, newIndex);
+        }
+
+        final int addTransferred(int count) {
+            return (int) TRANSFERRED.getAndAdd(this, count) + count;
+        }
+
+        private static final VarHandle TRANSFER_INDEX;
+        private static final VarHandle TRANSFERRED;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                TRANSFER_INDEX = l.findVarHandle(ForwardingEntry.class, "transferIndex", int.class);
+                TRANSFERRED = l.findVarHandle(ForwardingEntry.class, "transferred", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    // VarHandle mechanics
+    private static final VarHandle RESIZE_LOCK;
+    private static final VarHandle DATA;
+    private static final VarHandle BUCKET;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            RESIZE_LOCK = l.findVarHandle(PrimitiveHashMap.class, "resizeLock", int.class);
+            DATA = l.findVarHandle(PrimitiveHashMap.class, "data", PrimitiveEntry[].class);
+            BUCKET = MethodHandles.arrayElementVarHandle(PrimitiveEntry[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
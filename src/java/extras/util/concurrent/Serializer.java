@@ -0,0 +1,51 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Converts keys and values of an {@link OffHeapHashMap} to bytes and back. Keys are compared and hashed in their serialized form, so equal keys must always be serialized to the same bytes.
+ * 
+ * Implementations must be thread-safe. Common serializers are provided by {@link Serializers}.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <T> serialized object
+ */
+public interface Serializer<T>
+{
+    /**
+     * Serializes an object
+     * 
+     * @param object to serialize, never null
+     * @return byte[] serialized form
+     */
+    byte[] serialize(T object);
+
+    /**
+     * Restores an object from its serialized form
+     * 
+     * @param data serialized form
+     * @return T object
+     */
+    T deserialize(byte[] data);
+}
@@ -0,0 +1,101 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.nio.charset.Charset;
+
+/**
+ * Serializers for common key and value types of an {@link OffHeapHashMap}
+ * 
+ * @author Simon Loesing
+ */
+public final class Serializers
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Serializes Long objects to 8 bytes */
+    public static final Serializer<Long> LONG = new Serializer<Long>() {
+        @Override
+        public byte[] serialize(Long object) {
+            long v = object.longValue();
+            byte[] data = new byte[8];
+            for (int i = 7; i >= 0; --i) {
+                data[i] = (byte) v;
+                v >>>= 8;
+            }
+            return data;
+        }
+
+        @Override
+        public Long deserialize(byte[] data) {
+            long v = 0;
+            for (int i = 0; i < 8; ++i) {
+                v = (v << 8) | (data[i] & 0xff);
+            }
+            return v;
+        }
+    };
+
+    /** Serializes Integer objects to 4 bytes */
+    public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
+        @Override
+        public byte[] serialize(Integer object) {
+            int v = object.intValue();
+            return new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v };
+        }
+
+        @Override
+        public Integer deserialize(byte[] data) {
+            return ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) | ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+        }
+    };
+
+    /** Serializes strings in UTF-8 */
+    public static final Serializer<String> STRING = new Serializer<String>() {
+        @Override
+        public byte[] serialize(String object) {
+            return object.getBytes(UTF8);
+        }
+
+        @Override
+        public String deserialize(byte[] data) {
+            return new String(data, UTF8);
+        }
+    };
+
+    /** Stores byte arrays as they are. Byte arrays used as keys are compared by content. */
+    public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+        @Override
+        public byte[] serialize(byte[] object) {
+            return object;
+        }
+
+        @Override
+        public byte[] deserialize(byte[] data) {
+            return data;
+        }
+    };
+
+    private Serializers() {
+    }
+}
@@ -0,0 +1,955 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A lock-free concurrent hash-map implementation based on split-ordered lists (Shalev and Shavit).
+ * 
+ * All entries are stored in a single lock-free linked list. The list is sorted by the bit-reversed hash of the keys, so the entries of a bucket always form a consecutive section of the list. Every bucket
+ * starts with a sentinel node, and a bucket index points to these sentinels. Growing the map only doubles the number of buckets: the sentinel of a new bucket is inserted into the list the first time
+ * the bucket is accessed, it splits the section of its parent bucket in two. Entries are never copied or moved, so a resize does not pause any thread and updates cannot get lost in a migration.
+ * 
+ * The bucket index is split in segments that are allocated when the number of buckets grows. The first segment holds the initial buckets, every further segment as many buckets as all previous
+ * segments together. Existing segments are never copied either.
+ * 
+ * Entries are removed in two steps. The value is set to null first, which logically deletes the entry. A marker node is then appended to the entry, which prevents inserts behind it, before the entry is
+ * unlinked from the list. Threads that encounter a deleted entry help unlinking it.
+ * 
+ * By default the hash-map is initialized with a capacity of 128 buckets and a resize factor of 0.65.
+ * 
+ * This object is thread-safe and can be accessed by multiple threads concurrently.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <K> Key object
+ * @param <V> Value object
+ */
+public class SplitOrderedHashMap<K, V> implements ConcurrentMap<K, V>
+{
+    static final int MINIMAL_CAPACITY = LockFreeHashMap.MINIMAL_CAPACITY;
+    static final float MINIMAL_LOAD_FACTOR = LockFreeHashMap.MINIMAL_LOAD_FACTOR;
+    static final int DEFAULT_INITIAL_CAPACITY = LockFreeHashMap.DEFAULT_INITIAL_CAPACITY;
+    static final float DEFAULT_LOAD_FACTOR = LockFreeHashMap.DEFAULT_LOAD_FACTOR;
+    /** Maximal number of buckets */
+    static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /** Value of sentinel nodes */
+    static final Object SENTINEL = new Object();
+
+    int initialCapacity;
+    float loadFactor;
+    boolean isResizable;
+    volatile Index index;
+    final StripedCounter counter = new StripedCounter();
+
+    private transient Set<K> keySet;
+    private transient Set<Entry<K, V>> entrySet;
+    private transient Collection<V> values;
+
+    /**
+     * Creates a new hash-map with default capacity and resize factor
+     */
+    public SplitOrderedHashMap() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, true);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param isResizable
+     */
+    public SplitOrderedHashMap(int initialCapacity, boolean isResizable) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR, isResizable);
+    }
+
+    /**
+     * Create a new hash-map with the specified constructor parameters
+     * 
+     * @param initialCapacity
+     * @param loadFactor resize factor - value between 0.5 and 1.0
+     * @param isResizable
+     */
+    public SplitOrderedHashMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        // Find next power-of-two of the initial capacity
+        this.initialCapacity = MINIMAL_CAPACITY;
+        while (this.initialCapacity < initialCapacity && this.initialCapacity < MAXIMUM_CAPACITY) {
+            this.initialCapacity <<= 1;
+        }
+        if (loadFactor >= MINIMAL_LOAD_FACTOR && loadFactor <= 1.0f) {
+            this.loadFactor = loadFactor;
+        } else {
+            this.loadFactor = MINIMAL_LOAD_FACTOR;
+        }
+        this.isResizable = isResizable;
+        this.index = new Index(this.initialCapacity);
+    }
+
+    /**
+     * Clears the entire map and resets the capacity to the initial value
+     */
+    @Override
+    public void clear() {
+        index = new Index(this.initialCapacity);
+        counter.add(-counter.sum());
+    }
+
+    /**
+     * Verifies if a key is already present in the map
+     * 
+     * @param k key
+     * @return true if key is contained in the map, otherwise false
+     */
+    @Override
+    public boolean containsKey(Object k) {
+        return get(k) != null;
+    }
+
+    /**
+     * Verifies if a value is already present in the map
+     * 
+     * @param v value
+     * @return true if the value is present, otherwise false
+     */
+    @Override
+    public boolean containsValue(Object v) {
+        Iterator<V> it = new ValueIterator();
+        while (it.hasNext()) {
+            V value = it.next();
+            if (value == v || v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the key-set of the map. The key set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all keys
+     */
+    @Override
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        return (ks != null) ? ks : (keySet = new KeySet());
+    }
+
+    /**
+     * Retrieves all the values of the map. The collection points to the current content of the map. Changes in the map are immediately visible. As well, all operations executed on the collection are directly applied to the map.
+     * 
+     * @return Collection with all values
+     */
+    @Override
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        return (vs != null) ? vs : (values = new Values());
+    }
+
+    /**
+     * Retrieves all key/value pairs of the map. The entry set points to the current content of the map. Changes in the map are immediately visible in the set. As well, all operations executed on the set are directly applied to the map.
+     * 
+     * @return Set with all entries
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return (es != null) ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * Retrieves a value from the map. The list is searched from the sentinel of the bucket until the split-order key of the list nodes exceeds the one of the key.
+     * 
+     * @param key
+     * @return V value if key exists, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public final V get(Object key) {
+        int hash = LockFreeHashMap.hash(key.hashCode());
+        int soKey = regularKey(hash);
+
+        for (Node n = bucketHead(index, hash).getNext(); n != null; n = n.getNext()) {
+            int c = compare(n.hash, soKey);
+            if (c > 0)
+                return null;
+            if (c == 0 && isKey(n, key)) {
+                Object v = n.getValue();
+                // A deleted node may be followed by a new node of the same key
+                if (v != null)
+                    return (V) v;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Verifies if the map is empty (does not contain any keys)
+     * 
+     * @return true if map is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Inserts a key/value pair in the map. If the key is already present, the value is overwritten
+     * 
+     * @param key
+     * @param value
+     * @return V old value if key was already present in the map, null otherwise
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return put(key, value, false, false, null);
+    }
+
+    /**
+     * Inserts a key/value pair in the map only if the key does not exist yet.
+     * 
+     * @param key
+     * @param value
+     * @return V current value if the key is already present, null otherwise
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return put(key, value, true, false, null);
+    }
+
+    /**
+     * Inserts all the entries of an existing map. This operation is not atomic. All entries are inserted sequentially
+     * 
+     * @param map to insert
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Private generic put method used for all insert operations. An existing key is updated by a CAS on the value of its node. A new node is inserted behind all nodes with the same split-order key.
+     * 
+     * @param key
+     * @param value
+     * @param onlyIfAbsent boolean
+     * @param onlyReplace boolean
+     * @param oldValue only used for replace
+     * @return V previous value, null if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    private final V put(K key, V value, boolean onlyIfAbsent, boolean onlyReplace, V oldValue) {
+        int hash = LockFreeHashMap.hash(key.hashCode());
+        int soKey = regularKey(hash);
+        Index idx = index;
+        Node head = bucketHead(idx, hash);
+
+        outer: while (true) {
+            Node pred = head;
+            Node n = pred.getNext();
+            while (true) {
+                if (n != null) {
+                    Node f = n.getNext();
+                    if (n != pred.getNext())
+                        continue outer;
+                    Object v = n.getValue();
+                    if (v == null) {
+                        n.helpDelete(pred, f);
+                        continue outer;
+                    }
+                    if (v == n || pred.getValue() == null)
+                        continue outer;
+                    int c = compare(n.hash, soKey);
+                    if (c < 0 || (c == 0 && !isKey(n, key))) {
+                        pred = n;
+                        n = f;
+                        continue;
+                    }
+                    if (c == 0) {
+                        if (onlyIfAbsent || (oldValue != null && !oldValue.equals(v)))
+                            return (V) v;
+                        if (n.casValue(v, value))
+                            return (V) v;
+                        continue;
+                    }
+                }
+                if (onlyReplace)
+                    return null;
+
+                Node z = new Node(soKey, key, value, n);
+                if (!pred.casNext(n, z))
+                    continue outer;
+                counter.add(1);
+                grow(idx);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes a key/value pair from the map
+     * 
+     * @param k key to remove
+     * @return V old value associated to the key, null if key is not in the map
+     */
+    @Override
+    public V remove(Object k) {
+        if (k == null)
+            return null;
+
+        return remove(k, LockFreeHashMap.hash(k.hashCode()), null);
+    }
+
+    /**
+     * Removes a key/value pair from the map if it matches the given parameters
+     * 
+     * @param k key
+     * @param v value
+     * @return true if the key/value pair was removed
+     */
+    @Override
+    public boolean remove(Object k, Object v) {
+        if (k == null || v == null)
+            return false;
+
+        return remove(k, LockFreeHashMap.hash(k.hashCode()), v) != null;
+    }
+
+    /**
+     * Private generic removes method used for all remove operations. The node is logically deleted by a CAS of its value to null, then marked and unlinked.
+     * 
+     * @param key to remove
+     * @param hash of the key
+     * @param value if not null only execute remove if exact key/value match is found
+     * @return V old value associated to the key
+     */
+    @SuppressWarnings("unchecked")
+    private final V remove(Object key, int hash, Object value) {
+        int soKey = regularKey(hash);
+        Node head = bucketHead(index, hash);
+
+        outer: while (true) {
+            Node pred = head;
+            Node n = pred.getNext();
+            while (true) {
+                if (n == null)
+                    return null;
+                Node f = n.getNext();
+                if (n != pred.getNext())
+                    continue outer;
+                Object v = n.getValue();
+                if (v == null) {
+                    n.helpDelete(pred, f);
+                    continue outer;
+                }
+                if (v == n || pred.getValue() == null)
+                    continue outer;
+                int c = compare(n.hash, soKey);
+                if (c > 0)
+                    return null;
+                if (c < 0 || !isKey(n, key)) {
+                    pred = n;
+                    n = f;
+                    continue;
+                }
+                if (value != null && value != v && !value.equals(v))
+                    return null;
+                if (!n.casValue(v, null))
+                    continue;
+                if (!n.appendMarker(f) || !pred.casNext(n, f))
+                    unlinkDeleted(head, soKey);
+                counter.add(-1);
+                return (V) v;
+            }
+        }
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present in the map
+     * 
+     * @param key
+     * @param value replacement
+     * @return V old value if key was already present, null otherwise
+     */
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            return null;
+
+        return put(key, value, false, true, null);
+    }
+
+    /**
+     * Replaces the value associated to a key in the map. The replace operation is only executed if the key is already present and the current value is equal to passed oldValue parameter.
+     * 
+     * @param key
+     * @param oldValue
+     * @param newValue
+     * @return true if the value was replaced
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            return false;
+
+        return oldValue.equals(put(key, newValue, false, true, oldValue));
+    }
+
+    /**
+     * Retrieves the size of the map
+     * 
+     * @return int current number of entries in the map, Integer.MAX_VALUE if the map contains more entries
+     */
+    @Override
+    public int size() {
+        long n = counter.sum();
+        return (n < 0L) ? 0 : (n > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) n;
+    }
+
+    /**
+     * Retrieves the number of mappings. Use this method instead of {@link #size()} as a map may contain more mappings than can be represented as an int. The value is an estimate, inserts and removes that run
+     * concurrently may or may not be reflected.
+     * 
+     * @return long number of entries in the map
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    /**
+     * Specifies the number of free spots before the map doubles its number of buckets
+     * 
+     * @return int number of insert left before the map resizes
+     */
+    public int nextResize() {
+        long res = (long) (index.length * loadFactor) - counter.sum();
+        return (res >= 0) ? (int) res : 0;
+    }
+
+    /**
+     * Internal method that doubles the number of buckets once the load factor is exceeded. The new buckets are initialized lazily.
+     */
+    private final void grow(Index idx) {
+        if (!isResizable)
+            return;
+        int length = idx.length;
+        if (length < MAXIMUM_CAPACITY && counter.sum() > (long) (length * loadFactor))
+            idx.casLength(length, length << 1);
+    }
+
+    /**
+     * Retrieves the sentinel of the bucket of a hash, initializes the bucket if needed
+     */
+    private static final Node bucketHead(Index idx, int hash) {
+        int bucket = hash & (idx.length - 1);
+        Node head = idx.bucket(bucket);
+        return (head != null) ? head : initializeBucket(idx, bucket);
+    }
+
+    /**
+     * Internal method to initialize a bucket. The sentinel of the bucket is inserted into the section of its parent bucket, the bucket with the highest bit cleared. The parent is initialized first if needed.
+     * 
+     * @return Node sentinel of the bucket
+     */
+    private static final Node initializeBucket(Index idx, int bucket) {
+        int parent = bucket & ~Integer.highestOneBit(bucket);
+        Node head = idx.bucket(parent);
+        if (head == null)
+            head = initializeBucket(idx, parent);
+        // A sentinel is inserted only once, concurrent initializations publish the same node
+        Node sentinel = insertSentinel(head, sentinelKey(bucket));
+        idx.casBucket(bucket, sentinel);
+        return sentinel;
+    }
+
+    /**
+     * Inserts a sentinel into the list, or retrieves the sentinel if it is already present
+     * 
+     * @param head sentinel of the parent bucket
+     * @param soKey split-order key of the sentinel
+     * @return Node sentinel
+     */
+    private static final Node insertSentinel(Node head, int soKey) {
+        outer: while (true) {
+            Node pred = head;
+            Node n = pred.getNext();
+            while (true) {
+                if (n != null) {
+                    Node f = n.getNext();
+                    if (n != pred.getNext())
+                        continue outer;
+                    Object v = n.getValue();
+                    if (v == null) {
+                        n.helpDelete(pred, f);
+                        continue outer;
+                    }
+                    if (v == n || pred.getValue() == null)
+                        continue outer;
+                    int c = compare(n.hash, soKey);
+                    if (c < 0) {
+                        pred = n;
+                        n = f;
+                        continue;
+                    }
+                    if (c == 0)
+                        return n;
+                }
+                Node z = new Node(soKey, null, SENTINEL, n);
+                if (pred.casNext(n, z))
+                    return z;
+                continue outer;
+            }
+        }
+    }
+
+    /**
+     * Walks the section of a bucket and helps to unlink all deleted nodes up to the split-order key
+     */
+    private static final void unlinkDeleted(Node head, int soKey) {
+        outer: while (true) {
+            Node pred = head;
+            Node n = pred.getNext();
+            while (n != null) {
+                Node f = n.getNext();
+                if (n != pred.getNext())
+                    continue outer;
+                Object v = n.getValue();
+                if (v == null) {
+                    n.helpDelete(pred, f);
+                    continue outer;
+                }
+                if (v == n || pred.getValue() == null)
+                    continue outer;
+                if (compare(n.hash, soKey) > 0)
+                    return;
+                pred = n;
+                n = f;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Split-order key of a regular node, the reversed hash with the lowest bit set
+     */
+    static final int regularKey(int hash) {
+        return Integer.reverse(hash) | 1;
+    }
+
+    /**
+     * Split-order key of a sentinel, the reversed bucket number. The lowest bit is never set
+     */
+    static final int sentinelKey(int bucket) {
+        return Integer.reverse(bucket);
+    }
+
+    /**
+     * Unsigned comparison of two split-order keys
+     */
+    static final int compare(int a, int b) {
+        a ^= Integer.MIN_VALUE;
+        b ^= Integer.MIN_VALUE;
+        return (a < b) ? -1 : (a == b) ? 0 : 1;
+    }
+
+    private static final boolean isKey(Node n, Object key) {
+        Object k = n.key;
+        return k == key || (k != null && key.equals(k));
+    }
+
+    /**
+     * Node of the split-ordered list. Regular nodes hold a mapping, sentinel nodes have no key and start a bucket. A marker node has no key and refers to itself as value, it is appended to deleted nodes.
+     * 
+     * @author Simon Loesing
+     */
+    static final class Node
+    {
+        /** Split-order key */
+        final int hash;
+        final Object key;
+        volatile Object value;
+        volatile Node next;
+
+        Node(int hash, Object key, Object value, Node next) {
+            this.hash = hash;
+            this.key = key;
+            // The node is published by a CAS, plain writes are sufficient
+            VALUE.set(this, value);
+            NEXT.set(this, next);
+        }
+
+        /**
+         * Creates a marker node
+         */
+        Node(int hash, Node next) {
+            this.hash = hash;
+            this.key = null;
+            VALUE.set(this, this);
+            NEXT.set(this, next);
+        }
+
+        final Node getNext() {
+            return (Node) NEXT.getVolatile(this);
+        }
+
+        final Object getValue() {
+            return VALUE.getVolatile(this);
+        }
+
+        final boolean casNext(Node oldNext, Node newNext) {
+            return NEXT.compareAndSet(this, oldNext, newNext);
+        }
+
+        final boolean casValue(Object oldValue, Object newValue) {
+            return VALUE.compareAndSet(this, oldValue, newValue);
+        }
+
+        final boolean appendMarker(Node f) {
+            return casNext(f, new Node(hash, f));
+        }
+
+        /**
+         * Helps to delete this node: appends a marker if it is missing, otherwise unlinks the node and its marker from the predecessor
+         * 
+         * @param pred predecessor
+         * @param f successor
+         */
+        final void helpDelete(Node pred, Node f) {
+            if (f == getNext() && this == pred.getNext()) {
+                if (f == null || f.getValue() != f)
+                    appendMarker(f);
+                else
+                    pred.casNext(this, f.getNext());
+            }
+        }
+
+        private static final VarHandle VALUE;
+        private static final VarHandle NEXT;
+        static {
+            try {
+                MethodHandles.Lookup l = MethodHandles.lookup();
+                VALUE = l.findVarHandle(Node.class, "value", Object.class);
+                NEXT = l.findVarHandle(Node.class, "next", Node.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Bucket index of the map. The first segment holds the initial buckets, segment i > 0 the buckets from initialCapacity * 2^(i-1) to initialCapacity * 2^i - 1. Segments are allocated when the first of
+     * their buckets is initialized.
+     * 
+     * @author Simon Loesing
+     */
+    static final class Index
+    {
+        /** Sentinel of bucket 0, the head of the list */
+        final Node head;
+        final int initialCapacity;
+        final int initialBits;
+        final Node[][] segments;
+        /** Current number of buckets */
+        volatile int length;
+
+        Index(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            this.initialBits = Integer.numberOfTrailingZeros(initialCapacity);
+            this.segments = new Node[31 - initialBits][];
+            this.segments[0] = new Node[initialCapacity];
+            this.head = new Node(0, null, SENTINEL, null);
+            this.segments[0][0] = head;
+            this.length = initialCapacity;
+        }
+
+        final int segment(int bucket) {
+            return (bucket < initialCapacity) ? 0 : 32 - Integer.numberOfLeadingZeros(bucket) - initialBits;
+        }
+
+        final Node bucket(int bucket) {
+            int s = segment(bucket);
+            Node[] seg = (Node[]) SEGMENT.getVolatile(segments, s);
+            if (seg == null)
+                return null;
+            int i = (s == 0) ? bucket : bucket - (initialCapacity << (s - 1));
+            return (Node) BUCKET.getVolatile(seg, i);
+        }
+
+        final void casBucket(int bucket, Node sentinel) {
+            int s = segment(bucket);
+            Node[] seg = (Node[]) SEGMENT.getVolatile(segments, s);
+            if (seg == null) {
+                SEGMENT.compareAndSet(segments, s, null, new Node[initialCapacity << (s - 1)]);
+                seg = (Node[]) SEGMENT.getVolatile(segments, s);
+            }
+            int i = (s == 0) ? bucket : bucket - (initialCapacity << (s - 1));
+            BUCKET.compareAndSet(seg, i, null, sentinel);
+        }
+
+        final boolean casLength(int oldLength, int newLength) {
+            return LENGTH.compareAndSet(this, oldLength, newLength);
+        }
+
+        private static final VarHandle LENGTH;
+        static {
+            try {
+                LENGTH = MethodHandles.lookup().findVarHandle(Index.class, "length", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Abstract object to iterate over the map. The iterator walks the list from the head, it returns every node that is not deleted when the iterator reaches it.
+     * 
+     * @author Simon Loesing
+     */
+    abstract class HashIterator
+    {
+        Node next;
+        Object nextValue;
+        Object lastReturned;
+
+        HashIterator() {
+            advance(index.head);
+        }
+
+        final void advance(Node from) {
+            for (Node n = from.getNext(); n != null; n = n.getNext()) {
+                Object v = n.getValue();
+                if (n.key != null && v != null) {
+                    next = n;
+                    nextValue = v;
+                    return;
+                }
+            }
+            next = null;
+            nextValue = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        final Entry<K, V> nextEntry() {
+            Node n = next;
+            if (n == null)
+                throw new NoSuchElementException();
+            Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<K, V>((K) n.key, (V) nextValue);
+            lastReturned = n.key;
+            advance(n);
+            return e;
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        public final boolean hasMoreElements() {
+            return next != null;
+        }
+
+        public final void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            SplitOrderedHashMap.this.remove(lastReturned);
+            lastReturned = null;
+        }
+    }
+
+    /**
+     * Iterator for keys
+     * 
+     * @author Simon Loesing
+     */
+    final class KeyIterator extends HashIterator implements Iterator<K>
+    {
+        public final K next() {
+            return super.nextEntry().getKey();
+        }
+    }
+
+    /**
+     * Iterator for values
+     * 
+     * @author Simon Loesing
+     */
+    final class ValueIterator extends HashIterator implements Iterator<V>
+    {
+        public final V next() {
+            return super.nextEntry().getValue();
+        }
+    }
+
+    /**
+     * Iterator for entry objects
+     * 
+     * @author Simon Loesing
+     */
+    final class EntryIterator extends HashIterator implements Iterator<Entry<K, V>>
+    {
+        public Entry<K, V> next() {
+            return super.nextEntry();
+        }
+    }
+
+    /**
+     * Set of all keys for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class KeySet extends AbstractSet<K>
+    {
+        @Override
+        public Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return SplitOrderedHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return SplitOrderedHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return SplitOrderedHashMap.this.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return SplitOrderedHashMap.this.remove(o) != null;
+        }
+
+        @Override
+        public void clear() {
+            SplitOrderedHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Collection of all values for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class Values extends AbstractCollection<V>
+    {
+        @Override
+        public Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        @Override
+        public int size() {
+            return SplitOrderedHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return SplitOrderedHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return SplitOrderedHashMap.this.containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            SplitOrderedHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Set of all entries for this map.
+     * 
+     * @author Simon Loesing
+     */
+    final class EntrySet extends AbstractSet<Entry<K, V>>
+    {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            V v = SplitOrderedHashMap.this.get(e.getKey());
+            return v != null && v.equals(e.getValue());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry))
+                return false;
+            Entry<K, V> e = (Entry<K, V>) o;
+            return SplitOrderedHashMap.this.remove(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public int size() {
+            return SplitOrderedHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return SplitOrderedHashMap.this.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            SplitOrderedHashMap.this.clear();
+        }
+    }
+
+    // VarHandle mechanics
+    private static final VarHandle SEGMENT = MethodHandles.arrayElementVarHandle(Node[][].class);
+    private static final VarHandle BUCKET = MethodHandles.arrayElementVarHandle(Node[].class);
+}
@@ -0,0 +1,247 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Striped counter that keeps the number of mappings of a map. Uncontended updates CAS the base count. Once the base count is contended, every thread updates a counter cell picked by its thread hash code, so
+ * concurrent writers do not compete for the same cache line.
+ * 
+ * @author Simon Loesing
+ */
+final class StripedCounter
+{
+
+    /** Increment of the per-thread hash codes used to pick a counter cell */
+    static final int SEED_INCREMENT = 0x61c88647;
+
+    // The base count is padded like the counter cells, uncontended updates would otherwise invalidate the cache line of the map fields that every lookup reads
+    volatile long p0, p1, p2, p3, p4, p5, p6;
+    volatile long baseCount;
+    volatile long q0, q1, q2, q3, q4, q5, q6;
+    volatile CounterCell[] counterCells;
+    volatile int cellsBusy;
+
+    /**
+     * Sums up the base count and all counter cells
+     * 
+     * @return long current count
+     */
+    final long sum() {
+        CounterCell[] cs = counterCells;
+        long sum = baseCount;
+        if (cs != null) {
+            for (CounterCell c : cs) {
+                if (c != null)
+                    sum += c.value;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Atomically changes the count
+     * 
+     * @param x number of inserted (positive) or removed (negative) elements
+     */
+    final void add(long x) {
+        CounterCell[] cs;
+        long b;
+        if ((cs = counterCells) != null || !casBase(b = baseCount, b + x))
+            addToCell(x, cs);
+    }
+
+    /**
+     * Tries a single CAS on the base count
+     * 
+     * @param expect current base count
+     * @param update new base count
+     * @return true if the base count was updated
+     */
+    final boolean casBase(long expect, long update) {
+        return BASECOUNT.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * Adds to the counter cell of the current thread, used once the base count is contended
+     * 
+     * @param x number of inserted or removed elements
+     * @param cs counter cells read by the caller, may be null
+     * @return true if the cell of the thread was updated at the first attempt, false if the update had to create cells or rehash the thread
+     */
+    final boolean addToCell(long x, CounterCell[] cs) {
+        CounterHashCode hc = threadCounterHashCode.get();
+        CounterCell c;
+        long v;
+        int m;
+        boolean uncontended = true;
+        if (hc == null || cs == null || (m = cs.length - 1) < 0 || (c = cs[hc.code & m]) == null
+                || !(uncontended = CELLVALUE.compareAndSet(c, v = c.value, v + x))) {
+            fullAddCount(x, hc, uncontended);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Updates a counter cell if the fast path fails. Creates the cell array, fills empty cells, rehashes the thread hash code on collisions and doubles the cell array up to the number of CPUs.
+     * 
+     * @param x number of inserted or removed elements
+     * @param hc hash code of the current thread, null if not yet initialized
+     * @param wasUncontended false if a CAS on the cell of the thread failed
+     */
+    private final void fullAddCount(long x, CounterHashCode hc, boolean wasUncontended) {
+        int h;
+        if (hc == null) {
+            hc = new CounterHashCode();
+            int s = counterHashCodeGenerator.addAndGet(SEED_INCREMENT);
+            h = hc.code = (s == 0) ? 1 : s; // Avoid zero
+            threadCounterHashCode.set(hc);
+        } else {
+            h = hc.code;
+        }
+        boolean collide = false; // True if last slot nonempty
+        while (true) {
+            CounterCell[] cs;
+            CounterCell c;
+            int n;
+            long v;
+            if ((cs = counterCells) != null && (n = cs.length) > 0) {
+                if ((c = cs[(n - 1) & h]) == null) {
+                    if (cellsBusy == 0) { // Try to attach new cell
+                        CounterCell r = new CounterCell(x); // Optimistic create
+                        if (cellsBusy == 0 && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                            boolean created = false;
+                            try { // Recheck under lock
+                                CounterCell[] rs;
+                                int m, j;
+                                if ((rs = counterCells) != null && (m = rs.length) > 0 && rs[j = (m - 1) & h] == null) {
+                                    rs[j] = r;
+                                    created = true;
+                                }
+                            } finally {
+                                cellsBusy = 0;
+                            }
+                            if (created)
+                                break;
+                            continue; // Slot is now non-empty
+                        }
+                    }
+                    collide = false;
+                } else if (!wasUncontended) { // CAS already known to fail
+                    wasUncontended = true; // Continue after rehash
+                } else if (CELLVALUE.weakCompareAndSet(c, v = c.value, v + x)) { // A spurious failure only rehashes the thread
+                    break;
+                } else if (counterCells != cs || n >= LockFreeHashMap.NCPU) {
+                    collide = false; // At max size or stale
+                } else if (!collide) {
+                    collide = true;
+                } else if (cellsBusy == 0 && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                    try {
+                        if (counterCells == cs) { // Expand table unless stale
+                            CounterCell[] rs = new CounterCell[n << 1];
+                            for (int i = 0; i < n; ++i)
+                                rs[i] = cs[i];
+                            counterCells = rs;
+                        }
+                    } finally {
+                        cellsBusy = 0;
+                    }
+                    collide = false;
+                    continue; // Retry with expanded table
+                }
+                // Rehash (xorshift)
+                h ^= h << 13;
+                h ^= h >>> 17;
+                h ^= h << 5;
+            } else if (cellsBusy == 0 && counterCells == cs && CELLSBUSY.compareAndSet(this, 0, 1)) {
+                boolean init = false;
+                try { // Initialize table
+                    if (counterCells == cs) {
+                        CounterCell[] rs = new CounterCell[2];
+                        rs[h & 1] = new CounterCell(x);
+                        counterCells = rs;
+                        init = true;
+                    }
+                } finally {
+                    cellsBusy = 0;
+                }
+                if (init)
+                    break;
+            } else if (BASECOUNT.weakCompareAndSet(this, v = baseCount, v + x)) {
+                break; // Fall back on using base
+            }
+        }
+        hc.code = h; // Record index for next time
+    }
+
+    /**
+     * Padded counter cell of the striped size counter. The padding keeps cells of different threads on separate cache lines.
+     * 
+     * @author Simon Loesing
+     */
+    static final class CounterCell
+    {
+        volatile long p0, p1, p2, p3, p4, p5, p6;
+        volatile long value;
+        volatile long q0, q1, q2, q3, q4, q5, q6;
+
+        CounterCell(long x) {
+            value = x;
+        }
+    }
+
+    /**
+     * Per-thread hash code used to pick a counter cell
+     */
+    static final class CounterHashCode
+    {
+        int code;
+    }
+
+    /** Generates the initial hash codes of threads */
+    static final AtomicInteger counterHashCodeGenerator = new AtomicInteger();
+
+    /** Hash code of the current thread, initialized on the first contended size update */
+    static final ThreadLocal<CounterHashCode> threadCounterHashCode = new ThreadLocal<CounterHashCode>();
+
+    // VarHandle mechanics
+    private static final VarHandle BASECOUNT;
+    private static final VarHandle CELLSBUSY;
+    private static final VarHandle CELLVALUE;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            BASECOUNT = l.findVarHandle(StripedCounter.class, "baseCount", long.class);
+            CELLSBUSY = l.findVarHandle(StripedCounter.class, "cellsBusy", int.class);
+            CELLVALUE = l.findVarHandle(CounterCell.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import extras.util.concurrent.LockFreeHashMap.ExpiringEntry;
+
+/**
+ * Hierarchical timer wheel that removes the expired entries of a {@link LockFreeHashMap}. Every level is a ring of buckets, a bucket of the first level spans about 67ms, a bucket of each further level spans a
+ * full revolution of the level below. An entry is scheduled in the finest level whose revolution covers its expiry time. When the wheel advances, the buckets it passes are emptied: expired entries are
+ * removed from the map, entries that are not due yet are scheduled again in a finer level, entries that are already deleted are dropped. Advancing the wheel therefore costs time in the number of expired and
+ * refreshed entries, not in the size of the map.
+ * 
+ * Buckets are lock-free stacks, writers schedule new entries concurrently. Only one thread advances the wheel at a time, threads that find it busy return immediately. The wheel time is set before the
+ * passed buckets are emptied, so entries scheduled during an advance go to later buckets. Only after the wheel stood still for a full revolution of a level does an advance empty every bucket of that level,
+ * an entry scheduled in that level meanwhile is then found one revolution late. Readers treat it as deleted once it expires, it only takes memory a little longer.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <K> key
+ * @param <V> value
+ */
+final class TimerWheel<K, V>
+{
+    /** Bucket span of each level as a power of two in nanoseconds: ~67ms, ~4.3s, ~4.6min, ~4.9h and ~13d */
+    static final int[] SHIFT = { 26, 32, 38, 44, 50 };
+    /** Number of buckets of each level. The last level keeps all entries that expire later than a revolution of the level before */
+    static final int[] BUCKETS = { 64, 64, 64, 64, 1 };
+    /** Index of the first bucket of each level */
+    static final int[] BASE = { 0, 64, 128, 192, 256 };
+    /** Span of the first level, an entry is never scheduled in a bucket that is being emptied */
+    static final long TICK = 1L << SHIFT[0];
+
+    final AtomicReferenceArray<Node<K, V>> buckets = new AtomicReferenceArray<Node<K, V>>(BASE[BASE.length - 1] + BUCKETS[BUCKETS.length - 1]);
+    final AtomicInteger advancing = new AtomicInteger();
+    volatile long nanos;
+
+    TimerWheel(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * Schedules an entry to be checked once it expires. An advance that starts after the time was read may empty the chosen bucket before the entry is pushed, the entry would then wait for the next
+     * revolution of its level. The entry is pushed again if the wheel moved to another bucket of the first level meanwhile, an advance within a bucket empties none. An entry that is scheduled twice costs
+     * a second check, the later one drops it as deleted.
+     * 
+     * @param e entry
+     */
+    final void schedule(ExpiringEntry<K, V> e) {
+        long now;
+        do {
+            now = nanos;
+            push(e, now);
+        } while ((nanos >>> SHIFT[0]) != (now >>> SHIFT[0]));
+    }
+
+    /**
+     * Internal method to push an entry to the bucket that covers its expiry time
+     * 
+     * @param e entry
+     * @param now time of the wheel
+     */
+    private final void push(ExpiringEntry<K, V> e, long now) {
+        long time = Math.max(e.expiresAt, now + TICK);
+        long duration = time - now;
+        int level = 0;
+        while (level < SHIFT.length - 1 && duration >= (1L << SHIFT[level + 1])) {
+            ++level;
+        }
+        int index = BASE[level] + (int) ((time >>> SHIFT[level]) & (BUCKETS[level] - 1));
+        Node<K, V> node = new Node<K, V>(e);
+        do {
+            node.next = buckets.get(index);
+        } while (!buckets.compareAndSet(index, node.next, node));
+    }
+
+    /**
+     * Advances the wheel if the current bucket of the first level has elapsed
+     * 
+     * @param map the entries belong to
+     * @return int number of expired entries that were removed
+     */
+    final int advanceIfDue(LockFreeHashMap<K, V> map) {
+        long now = System.nanoTime();
+        if ((now >>> SHIFT[0]) == (nanos >>> SHIFT[0]))
+            return 0;
+        return advance(map, now);
+    }
+
+    /**
+     * Advances the wheel to the given time and removes all entries that expired until then
+     * 
+     * @param map the entries belong to
+     * @param now current time of {@link System#nanoTime()}
+     * @return int number of expired entries that were removed, 0 if another thread is advancing the wheel
+     */
+    final int advance(LockFreeHashMap<K, V> map, long now) {
+        if (!advancing.compareAndSet(0, 1))
+            return 0;
+        try {
+            long previous = nanos;
+            nanos = now;
+            int count = 0;
+            // A level only moves on if the level below completed a revolution
+            for (int level = 0; level < SHIFT.length; ++level) {
+                long previousTicks = previous >>> SHIFT[level];
+                long currentTicks = now >>> SHIFT[level];
+                if (currentTicks - previousTicks <= 0L)
+                    break;
+                count += expire(map, level, previousTicks, currentTicks, now);
+            }
+            return count;
+        } finally {
+            advancing.set(0);
+        }
+    }
+
+    /**
+     * Internal method to empty the buckets of a level that the wheel passed
+     * 
+     * @return int number of expired entries that were removed
+     */
+    private final int expire(LockFreeHashMap<K, V> map, int level, long previousTicks, long currentTicks, long now) {
+        int mask = BUCKETS[level] - 1;
+        int steps = (int) Math.min(currentTicks - previousTicks + 1, BUCKETS[level]);
+        int start = (int) (previousTicks & mask);
+        int count = 0;
+        for (int i = start; i < start + steps; ++i) {
+            for (Node<K, V> node = buckets.getAndSet(BASE[level] + (i & mask), null); node != null; node = node.next) {
+                ExpiringEntry<K, V> e = node.entry;
+                if (e.isDeleted())
+                    continue;
+                if (e.expiresAt - now > 0L)
+                    schedule(e);
+                else if (map.expireEntry(e))
+                    ++count;
+                else if (e.expiresAt - now > 0L)
+                    schedule(e); // Refreshed concurrently
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops all scheduled entries
+     */
+    final void clear() {
+        for (int i = 0; i < buckets.length(); ++i) {
+            buckets.set(i, null);
+        }
+    }
+
+    /**
+     * Bucket node of the wheel
+     * 
+     * @author Simon Loesing
+     */
+    static final class Node<K, V>
+    {
+        final ExpiringEntry<K, V> entry;
+        Node<K, V> next;
+
+        Node(ExpiringEntry<K, V> entry) {
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package extras.util.concurrent;
+
+/**
+ * The MIT License (MIT)
+ * Copyright (c) 2013 Simon Loesing
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy 
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights 
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell 
+ * copies of the Software, and to permit persons to whom the Software is furnished 
+ * to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all 
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A 
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT 
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF
+ * CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE
+ * OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Computes the weight of an entry of a bounded {@link LockFreeHashMap}. A bounded map evicts entries once the weights of all its entries add up to more than its maximum weight, e.g. to keep a cache within
+ * a memory budget.
+ * 
+ * Implementations must be thread-safe and must always return the same weight for the same key and value, the weight of an entry is computed again when it is removed.
+ * 
+ * @author Simon Loesing
+ * 
+ * @param <K> key
+ * @param <V> value
+ */
+public interface Weigher<K, V>
+{
+    /**
+     * Computes the weight of an entry
+     * 
+     * @param key never null
+     * @param value never null
+     * @return int weight, must not be negative
+     */
+    int weigh(K key, V value);
+}
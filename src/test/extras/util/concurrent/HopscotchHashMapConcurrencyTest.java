@@ -0,0 +1,112 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import extras.util.concurrent.HopscotchHashMap;
+import extras.util.concurrent.MapEngine;
+
+/**
+ * Runs the concurrent test cases against the HopscotchHashMap object
+ * 
+ * @author Simon Loesing
+ */
+public class HopscotchHashMapConcurrencyTest extends LockFreeHashMapConcurrencyTest {
+
+    @Override
+    protected MapEngine engine() {
+        return MapEngine.HOPSCOTCH;
+    }
+
+    @Override
+    protected int nextResize(Map<?, ?> map) {
+        return ((HopscotchHashMap<?, ?>) map).nextResize();
+    }
+
+    @Override
+    protected long mappingCount(Map<?, ?> map) {
+        return ((HopscotchHashMap<?, ?>) map).mappingCount();
+    }
+
+    @Test
+    public void DisplacementGetTest() {
+        final int NUM_READERS = 2;
+        final int NUM_WRITERS = 2;
+        final int NUM_STABLE_KEYS = 900;
+        final int NUM_OPS_PER_THREAD = 200000;
+        final HopscotchHashMap<Integer, Integer> map = new HopscotchHashMap<Integer, Integer>(1024, 0.9f, false);
+
+        for (int key = 0; key < NUM_STABLE_KEYS; ++key) {
+            map.put(key, key * 10);
+        }
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_READERS + NUM_WRITERS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_READERS + NUM_WRITERS);
+        for (int i = 0; i < NUM_WRITERS; ++i) {
+            final int firstKey = (i + 1) * 1000000;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Inserts into a dense table displace the stable keys within their neighbourhood
+                    for (int i = 0; i < NUM_OPS_PER_THREAD; ++i) {
+                        int key = firstKey + i;
+                        if (map.put(key, key * 10) != null) {
+                            throw new Exception("Key " + key + " was already present");
+                        }
+                        Integer res = map.remove(key);
+                        if (res == null || res.intValue() != key * 10) {
+                            throw new Exception("Got value " + res + " for key " + key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+        for (int i = 0; i < NUM_READERS; ++i) {
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Stable keys must always be found, even while they are moved
+                    Random rand = new Random();
+                    for (int i = 0; i < NUM_OPS_PER_THREAD; ++i) {
+                        int key = rand.nextInt(NUM_STABLE_KEYS);
+                        Integer res = map.get(key);
+                        if (res == null || res.intValue() != key * 10) {
+                            throw new Exception("Got value " + res + " for key " + key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        assertEquals(NUM_STABLE_KEYS, map.size());
+        for (int key = 0; key < NUM_STABLE_KEYS; ++key) {
+            assertEquals(key * 10, map.get(key).intValue());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import extras.util.concurrent.HopscotchHashMap;
+import extras.util.concurrent.LockFreeHashMap;
+import extras.util.concurrent.MapEngine;
+
+/**
+ * Runs the simple test cases against the HopscotchHashMap object
+ * 
+ * @author Simon Loesing
+ */
+public class HopscotchHashMapTest extends LockFreeHashMapTest {
+
+    @Override
+    protected MapEngine engine() {
+        return MapEngine.HOPSCOTCH;
+    }
+    
+    @Override
+    protected long mappingCount(Map<?, ?> map) {
+        return ((HopscotchHashMap<?, ?>) map).mappingCount();
+    }
+    
+    @Override
+    @Test
+    public void testInit() {
+        //Test default capacity
+        HopscotchHashMap<Integer, Integer> map = new HopscotchHashMap<Integer, Integer>();
+        int threshold = (int)(HopscotchHashMap.DEFAULT_INITIAL_CAPACITY * HopscotchHashMap.DEFAULT_LOAD_FACTOR);
+        assertEquals(threshold, map.resizeThreshold);
+        assertEquals(HopscotchHashMap.DEFAULT_INITIAL_CAPACITY, map.data.length);
+        assertEquals(HopscotchHashMap.DEFAULT_INITIAL_CAPACITY + HopscotchHashMap.HOP_RANGE - 1, map.data.slots);
+        assertEquals(HopscotchHashMap.DEFAULT_INITIAL_CAPACITY / 32, map.data.segments);
+        assertEquals(0, map.size());
+        
+        //Test custom capacity and load factor
+        map = new HopscotchHashMap<Integer, Integer>(40, 0.8f, false);
+        assertEquals((int)(64 * 0.8f), map.resizeThreshold);
+        assertEquals(64, map.data.length);
+        assertEquals(0.8f, map.loadFactor, 0);
+        
+        //Test minimal capacity and load factor enforcement
+        map = new HopscotchHashMap<Integer, Integer>(5, 0.3f, false);
+        assertEquals(16, map.data.length);
+        assertEquals(1, map.data.segments);
+        assertEquals(HopscotchHashMap.MINIMAL_LOAD_FACTOR, map.loadFactor, 0);
+    }
+    
+    @Override
+    @Test
+    public void testResize() {
+        HopscotchHashMap<Integer, Integer> map = new HopscotchHashMap<Integer, Integer>(16, 0.8f, true);
+        
+        assertEquals(12, map.nextResize());
+        
+        int count = 1;
+        while(map.nextResize() > 0) {
+            map.put(count, count * 10);
+            ++count;
+        }
+        assertEquals(12, map.size());
+        
+        map.put(count, count * 10);
+        ++count;
+        
+        assertEquals(32, map.data.length);
+        assertEquals(25, map.resizeThreshold);
+        assertEquals(13, map.size());
+        assertEquals(13, map.mappingCount());
+        assertEquals(12, map.nextResize());
+        
+        for(int i = 1; i < count; ++i) {
+            assertEquals(i*10, map.get(i).intValue());
+        }
+    }
+    
+    @Test
+    public void testNeighbourhoodBound() {
+        HopscotchHashMap<Integer, Integer> map = new HopscotchHashMap<Integer, Integer>(1024, 0.8f, false);
+        
+        //Find keys that all hash into bucket 0
+        List<Integer> keys = new ArrayList<Integer>();
+        for(int k = 0; keys.size() < HopscotchHashMap.HOP_RANGE; ++k) {
+            if((LockFreeHashMap.hash(k) & 1023) == 0) {
+                keys.add(k);
+            }
+        }
+        
+        //Fill the following slots with other keys, inserts into bucket 0 need to displace them
+        int filled = 0;
+        for(int k = -1; filled < 600; --k) {
+            if((LockFreeHashMap.hash(k) & 1023) != 0) {
+                map.put(k, k * 10);
+                ++filled;
+            }
+        }
+        for(Integer k : keys) {
+            map.put(k, k * 10);
+        }
+        assertEquals(1024, map.data.length);
+        assertEquals(600 + HopscotchHashMap.HOP_RANGE, map.size());
+        assertEquals(-1, map.data.hopInfo(0));
+        assertNeighbourhoods(map);
+        for(Integer k : keys) {
+            assertEquals(k * 10, map.get(k).intValue());
+        }
+        
+        //The neighbourhood of bucket 0 is full, the next key forces a resize
+        int k = keys.get(keys.size() - 1) + 1;
+        while((LockFreeHashMap.hash(k) & 1023) != 0) {
+            ++k;
+        }
+        map.put(k, k * 10);
+        assertTrue(map.data.length >= 2048);
+        assertEquals(600 + HopscotchHashMap.HOP_RANGE + 1, map.size());
+        assertNeighbourhoods(map);
+        assertEquals(k * 10, map.get(k).intValue());
+        for(Integer key : keys) {
+            assertEquals(key * 10, map.get(key).intValue());
+        }
+    }
+    
+    /**
+     * Verifies that every key is stored in the neighbourhood of its bucket and that the hop bitmaps reference all keys
+     */
+    private void assertNeighbourhoods(HopscotchHashMap<?, ?> map) {
+        HopscotchHashMap.Table t = map.data;
+        int referenced = 0;
+        for(int bucket = 0; bucket < t.length; ++bucket) {
+            int hop = t.hopInfo(bucket);
+            referenced += Integer.bitCount(hop);
+            while(hop != 0) {
+                int idx = bucket + Integer.numberOfTrailingZeros(hop);
+                Object k = HopscotchHashMap.keyAt(t.kvs, idx);
+                assertEquals(bucket, LockFreeHashMap.hash(k.hashCode()) & (t.length - 1));
+                hop &= hop - 1;
+            }
+        }
+        assertEquals(map.size(), referenced);
+    }
+}
@@ -1,5 +1,6 @@
 package extras.util.concurrent;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
@@ -8,6 +9,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -17,6 +19,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 import extras.util.concurrent.LockFreeHashMap;
+import extras.util.concurrent.MapEngine;
 
 /**
  * Concurrent test cases for the LockFreeHashMap object
@@ -27,12 +30,35 @@ public class LockFreeHashMapConcurrencyTest {
 
     private Random rand = new Random();
 
+    /**
+     * Engine that creates the maps under test. Subclasses run the test cases against other map implementations
+     */
+    protected MapEngine engine() {
+        return MapEngine.CHAINED;
+    }
+
+    protected <K, V> ConcurrentMap<K, V> newMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        return engine().newMap(initialCapacity, loadFactor, isResizable);
+    }
+
+    protected <K, V> ConcurrentMap<K, V> newMap() {
+        return engine().newMap();
+    }
+
+    protected int nextResize(Map<?, ?> map) {
+        return ((LockFreeHashMap<?, ?>) map).nextResize();
+    }
+
+    protected long mappingCount(Map<?, ?> map) {
+        return ((LockFreeHashMap<?, ?>) map).mappingCount();
+    }
+
     @Test
     public void CreateUpdateDeleteTest() {
         final int NUM_THREADS = 20;
         final int NUM_OPS_TOTAL = 1000000;
         final int NUM_KEYS = 1024;
-        final Map<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(NUM_KEYS * 2, 0.8f, false);
+        final Map<Integer, Integer> map = newMap(NUM_KEYS * 2, 0.8f, false);
         final Set<Integer> insertedKeys = new ConcurrentSkipListSet<Integer>();
         final Set<Integer> inUseKeys = new ConcurrentSkipListSet<Integer>();
 
@@ -100,7 +126,7 @@ public class LockFreeHashMapConcurrencyTest {
         final int NUM_THREADS = 10;
         final int NUM_OPS_PER_THREAD = 100000;
         final AtomicInteger value = new AtomicInteger(1);
-        final Map<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>();
+        final Map<Integer, Integer> map = newMap();
 
         ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
         List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
@@ -140,10 +166,10 @@ public class LockFreeHashMapConcurrencyTest {
     public void ResizeGetTest() {
         final int NUM_THREADS = Runtime.getRuntime().availableProcessors() - 1;
         final int NUM_OPS_PER_THREAD = 100000;
-        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>();
+        final Map<Integer, Integer> map = newMap();
 
         int cnt = 1;
-        while (map.nextResize() > 0) {
+        while (nextResize(map) > 0) {
             map.put(cnt, cnt * 10);
             ++cnt;
         }
@@ -193,10 +219,10 @@ public class LockFreeHashMapConcurrencyTest {
     public void ResizeContainsTest() {
         final int NUM_THREADS = Runtime.getRuntime().availableProcessors() - 1;
         final int NUM_OPS_PER_THREAD = 100000;
-        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>();
+        final Map<Integer, Integer> map = newMap();
 
         int cnt = 1;
-        while (map.nextResize() > 0) {
+        while (nextResize(map) > 0) {
             map.put(cnt, cnt * 10);
             ++cnt;
         }
@@ -240,4 +266,100 @@ public class LockFreeHashMapConcurrencyTest {
             fail();
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void ResizeConcurrentPutTest() {
+        final int NUM_THREADS = 8;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        final Map<Integer, Integer> map = newMap(16, 0.65f, true);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Every put can end up migrating stripes of a running resize
+                    for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                        map.put(key, key * 10);
+                        int check = rand.nextInt(key - firstKey + 1) + firstKey;
+                        Integer res = map.get(check);
+                        if (res == null || res.intValue() != check * 10) {
+                            throw new Exception("Got value " + res + " for key " + check);
+                        }
+                        if (key % 3 == 0 && map.remove(key) == null) {
+                            throw new Exception("Could not remove key " + key);
+                        }
+                        if (key % 3 == 0 && map.putIfAbsent(key, key * 10) != null) {
+                            throw new Exception("Key " + key + " still present after remove");
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        assertEquals(NUM_THREADS * NUM_KEYS_PER_THREAD, map.size());
+        for (int key = 0; key < NUM_THREADS * NUM_KEYS_PER_THREAD; ++key) {
+            assertEquals(key * 10, map.get(key).intValue());
+        }
+        int cnt = 0;
+        for (Integer key : map.keySet()) {
+            assertEquals(key * 10, map.get(key).intValue());
+            ++cnt;
+        }
+        assertEquals(NUM_THREADS * NUM_KEYS_PER_THREAD, cnt);
+    }
+
+    @Test
+    public void SizeCounterTest() {
+        final int NUM_THREADS = 16;
+        final int NUM_KEYS_PER_THREAD = 20000;
+        final Map<Integer, Integer> map = newMap(NUM_THREADS * NUM_KEYS_PER_THREAD * 2, 0.8f, false);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                        map.put(key, key);
+                    }
+                    for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; key += 2) {
+                        map.remove(key);
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        assertEquals(NUM_THREADS * NUM_KEYS_PER_THREAD / 2, map.size());
+        assertEquals(NUM_THREADS * NUM_KEYS_PER_THREAD / 2, mappingCount(map));
+    }
+
+}
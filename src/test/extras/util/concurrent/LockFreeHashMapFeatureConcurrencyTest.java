@@ -0,0 +1,1021 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import extras.util.concurrent.LockFreeHashMap;
+
+/**
+ * Concurrency test cases for the features of the LockFreeHashMap object that the other map implementations do not have
+ */
+public class LockFreeHashMapFeatureConcurrencyTest {
+
+    private Random rand = new Random();
+    
+    @Test
+    public void LazyResizeTest() {
+        final int NUM_THREADS = 8;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        ExecutorService sweeper = Executors.newSingleThreadExecutor();
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, sweeper);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                        map.put(key, key);
+                        int check = rand.nextInt(key - firstKey + 1) + firstKey;
+                        Integer res = map.get(check);
+                        int expected = (check % 2 == 0 && check != key) ? check * 10 : check;
+                        if (res == null || res.intValue() != expected) {
+                            throw new Exception("Got value " + res + " for key " + check);
+                        }
+                        if (key % 2 == 0 && map.replace(key, key * 10) == null) {
+                            throw new Exception("Could not update key " + key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        sweeper.shutdown();
+
+        assertEquals(NUM_THREADS * NUM_KEYS_PER_THREAD, map.size());
+        for (int key = 0; key < NUM_THREADS * NUM_KEYS_PER_THREAD; ++key) {
+            assertEquals((key % 2 == 0) ? key * 10 : key, map.get(key).intValue());
+        }
+    }
+
+    @Test
+    public void UnlinkDeletedEntriesTest() {
+        // Fixed size map with long chains and a resizing map
+        unlinkDeletedEntries(new LockFreeHashMap<Integer, Integer>(16, 1.0f, false));
+        unlinkDeletedEntries(new LockFreeHashMap<Integer, Integer>(16, 0.65f, true));
+    }
+
+    @Test
+    public void UpdateInPlaceTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_COUNTERS = 64;
+        final int NUM_INCREMENTS = NUM_COUNTERS * 300;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, true);
+        for (int i = 0; i < NUM_COUNTERS; ++i) {
+            map.put(i, 0);
+        }
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = NUM_COUNTERS + i * NUM_INCREMENTS;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Increment shared counters by compare and set, while inserts keep resizing the map
+                    for (int n = 0; n < NUM_INCREMENTS; ++n) {
+                        int counter = n % NUM_COUNTERS;
+                        Integer v;
+                        do {
+                            v = map.get(counter);
+                        } while (!map.replace(counter, v, v + 1));
+                        map.put(firstKey + n, n);
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        for (int i = 0; i < NUM_COUNTERS; ++i) {
+            assertEquals(NUM_THREADS * NUM_INCREMENTS / NUM_COUNTERS, map.get(i).intValue());
+        }
+        assertEquals(NUM_COUNTERS + NUM_THREADS * NUM_INCREMENTS, map.size());
+    }
+
+    @Test
+    public void ReplaceRemoveTest() {
+        final int NUM_KEYS = 100000;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, false);
+        for (int key = 0; key < NUM_KEYS; ++key) {
+            map.put(key, 0);
+        }
+        final Integer[] replaced = new Integer[NUM_KEYS];
+        final boolean[] seen = new boolean[NUM_KEYS];
+        final AtomicInteger running = new AtomicInteger(2);
+
+        ExecutorService exec = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(3);
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                try {
+                    // Every other key is replaced conditionally
+                    for (int key = 0; key < NUM_KEYS; ++key) {
+                        replaced[key] = ((key & 1) == 0) ? map.replace(key, 1) : (map.replace(key, 0, 1) ? Integer.valueOf(0) : null);
+                    }
+                } finally {
+                    running.decrementAndGet();
+                }
+                return null;
+            }
+
+        }));
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                try {
+                    for (int key = 0; key < NUM_KEYS; ++key) {
+                        map.remove(key);
+                    }
+                } finally {
+                    running.decrementAndGet();
+                }
+                return null;
+            }
+
+        }));
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // Records every key the replacement value was read for
+                while (running.get() > 0) {
+                    for (int key = 0; key < NUM_KEYS; ++key) {
+                        Integer v = map.get(key);
+                        if (v != null && v.intValue() == 1)
+                            seen[key] = true;
+                    }
+                }
+                return null;
+            }
+
+        }));
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        // A replace that lost against the remove was never visible
+        for (int key = 0; key < NUM_KEYS; ++key) {
+            if (replaced[key] == null)
+                assertFalse("Replacement of key " + key + " was visible", seen[key]);
+            assertNull(map.get(key));
+        }
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void ShrinkTest() {
+        shrink(new LockFreeHashMap<Integer, Integer>(16, 0.65f, 0.15f, false));
+        shrink(new LockFreeHashMap<Integer, Integer>(16, 0.65f, 0.15f, true));
+    }
+
+    @Test
+    public void BulkOperationsDuringResizeTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        final int NUM_RESIDENT_KEYS = 10000;
+        final int firstResidentKey = NUM_THREADS * NUM_KEYS_PER_THREAD;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, 0.15f, false);
+        long residentSum = 0;
+        for (int key = firstResidentKey; key < firstResidentKey + NUM_RESIDENT_KEYS; ++key) {
+            map.put(key, key);
+            residentSum += key;
+        }
+        final long expectedSum = residentSum;
+        final AtomicInteger running = new AtomicInteger(NUM_THREADS);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS + 1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS + 1);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        // Grow the map and shrink it again
+                        for (int round = 0; round < 3; ++round) {
+                            for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                                map.put(key, key);
+                            }
+                            for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                                map.remove(key);
+                            }
+                        }
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return null;
+                }
+
+            }));
+        }
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // Pairs that are not modified are passed exactly once, while the traversal follows the resizes
+                int scans = 0;
+                while (running.get() > 0 || scans == 0) {
+                    long sum = map.reduceToLong(1, (k, v) -> (k >= firstResidentKey) ? v.longValue() : 0L, 0L, Long::sum);
+                    if (sum != expectedSum) {
+                        throw new Exception("Got sum " + sum + " instead of " + expectedSum);
+                    }
+                    Integer found = map.search(1, (k, v) -> (k == firstResidentKey + 1234) ? v : null);
+                    if (found == null || found.intValue() != firstResidentKey + 1234) {
+                        throw new Exception("Found " + found);
+                    }
+                    ++scans;
+                }
+                return scans;
+            }
+
+        }));
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        assertEquals(NUM_RESIDENT_KEYS, map.size());
+        assertEquals(expectedSum, map.reduceToLong(1, (k, v) -> v.longValue(), 0L, Long::sum));
+    }
+
+    @Test
+    public void ParallelStreamDuringResizeTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        final int NUM_RESIDENT_KEYS = 10000;
+        final int firstResidentKey = NUM_THREADS * NUM_KEYS_PER_THREAD;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, 0.15f, false);
+        for (int key = firstResidentKey; key < firstResidentKey + NUM_RESIDENT_KEYS; ++key) {
+            map.put(key, key);
+        }
+        final AtomicInteger running = new AtomicInteger(NUM_THREADS);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS + 1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS + 1);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        // Grow the map and shrink it again
+                        for (int round = 0; round < 3; ++round) {
+                            for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                                map.put(key, key);
+                            }
+                            for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                                map.remove(key);
+                            }
+                        }
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return null;
+                }
+
+            }));
+        }
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // Keys that are not modified are streamed exactly once
+                int scans = 0;
+                while (running.get() > 0 || scans == 0) {
+                    long count = map.values().parallelStream().filter(v -> v >= firstResidentKey).count();
+                    long distinct = map.keySet().parallelStream().filter(k -> k >= firstResidentKey).distinct().count();
+                    if (count != NUM_RESIDENT_KEYS || distinct != NUM_RESIDENT_KEYS) {
+                        throw new Exception("Got " + count + " values, " + distinct + " distinct keys");
+                    }
+                    ++scans;
+                }
+                return scans;
+            }
+
+        }));
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        assertEquals(NUM_RESIDENT_KEYS, map.values().parallelStream().count());
+    }
+
+    @Test
+    public void ComputeTest() {
+        // Remapping a value is only atomic under contention if it is updated in place, otherwise every thread merges into its own counters
+        compute(new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, false), false);
+        compute(new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, true), true);
+    }
+
+    @Test
+    public void MergeRemoveTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS = 4;
+        final int NUM_MERGES = 200000;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, false);
+        final AtomicInteger running = new AtomicInteger(NUM_THREADS);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS + 1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS + 1);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        // All threads count into the same keys
+                        for (int n = 0; n < NUM_MERGES; ++n) {
+                            map.merge(n % NUM_KEYS, 1, Integer::sum);
+                        }
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return null;
+                }
+
+            }));
+        }
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // Takes the counters out of the map while they are merged into
+                int removed = 0;
+                while (running.get() > 0) {
+                    for (int key = 0; key < NUM_KEYS; ++key) {
+                        Integer v = map.remove(key);
+                        if (v != null)
+                            removed += v.intValue();
+                    }
+                }
+                return removed;
+            }
+
+        }));
+
+        int removed = 0;
+        try {
+            for (Future<Integer> r : results) {
+                Integer v = r.get();
+                if (v != null)
+                    removed += v.intValue();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        // A merge that raced with a remove of its key is applied again, no increment gets lost or counted twice
+        for (int key = 0; key < NUM_KEYS; ++key) {
+            Integer v = map.get(key);
+            if (v != null)
+                removed += v.intValue();
+        }
+        assertEquals(NUM_THREADS * NUM_MERGES, removed);
+    }
+
+    @Test
+    public void BulkLoadTest() {
+        bulkLoad(new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, false));
+        bulkLoad(new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, true));
+    }
+
+    @Test
+    public void GetAllDuringResizeTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        final int NUM_RESIDENT_KEYS = 500;
+        final int firstResidentKey = NUM_THREADS * NUM_KEYS_PER_THREAD;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, 0.15f, false);
+        final Integer[] residentKeys = new Integer[NUM_RESIDENT_KEYS];
+        for (int i = 0; i < NUM_RESIDENT_KEYS; ++i) {
+            residentKeys[i] = firstResidentKey + i;
+            map.put(residentKeys[i], residentKeys[i]);
+        }
+        final AtomicInteger running = new AtomicInteger(NUM_THREADS);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS + 1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS + 1);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        // Grow the map in batches and shrink it again
+                        Integer[] keys = new Integer[NUM_KEYS_PER_THREAD];
+                        for (int n = 0; n < NUM_KEYS_PER_THREAD; ++n) {
+                            keys[n] = firstKey + n;
+                        }
+                        for (int round = 0; round < 3; ++round) {
+                            for (int n = 0; n < NUM_KEYS_PER_THREAD; n += 250) {
+                                map.putAll(Arrays.copyOfRange(keys, n, n + 250), Arrays.copyOfRange(keys, n, n + 250));
+                            }
+                            for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                                map.remove(key);
+                            }
+                        }
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return null;
+                }
+
+            }));
+        }
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // Batches of keys that are not modified are always found
+                Integer[] out = new Integer[NUM_RESIDENT_KEYS];
+                int batches = 0;
+                while (running.get() > 0 || batches == 0) {
+                    int found = map.getAll(residentKeys, out);
+                    if (found != NUM_RESIDENT_KEYS) {
+                        throw new Exception("Found " + found + " keys");
+                    }
+                    for (int i = 0; i < NUM_RESIDENT_KEYS; ++i) {
+                        if (!residentKeys[i].equals(out[i])) {
+                            throw new Exception("Got " + out[i] + " for key " + residentKeys[i]);
+                        }
+                    }
+                    ++batches;
+                }
+                return batches;
+            }
+
+        }));
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        assertEquals(NUM_RESIDENT_KEYS, map.size());
+    }
+
+    @Test
+    public void BoundedCacheTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_OPERATIONS = 100000;
+        final int NUM_KEYS = 20000;
+        final long MAXIMUM_WEIGHT = 10000;
+        final LockFreeHashMap<Integer, String> map = new LockFreeHashMap<Integer, String>(16, 0.65f, MAXIMUM_WEIGHT, (k, v) -> v.length());
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Random inserts, updates and removes with different weights on a key range that does not fit
+                    Random random = new Random();
+                    for (int n = 0; n < NUM_OPERATIONS; ++n) {
+                        int key = random.nextInt(NUM_KEYS);
+                        int op = random.nextInt(10);
+                        if (op < 6) {
+                            map.put(key, String.valueOf(key * 1000 + op));
+                        } else if (op < 8) {
+                            map.get(key);
+                        } else if (op < 9) {
+                            map.merge(key, "x", (a, b) -> a + b);
+                        } else {
+                            map.remove(key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        // The weight counter matches the entries, evictions kept the map close to its budget
+        long weight = 0;
+        int count = 0;
+        for (String v : map.values()) {
+            weight += v.length();
+            ++count;
+        }
+        assertEquals(weight, map.weightedSize());
+        assertEquals(count, map.size());
+        assertTrue(map.weightedSize() <= 2 * MAXIMUM_WEIGHT);
+        assertTrue(map.evictionCount() > 0);
+    }
+
+    @Test
+    public void ExpiryTest() throws InterruptedException {
+        final int NUM_THREADS = 4;
+        final int NUM_OPERATIONS = 100000;
+        final int NUM_KEYS = 20000;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, 50, TimeUnit.MILLISECONDS, true);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Random writes and reads while entries expire and the map is resized
+                    Random random = new Random();
+                    for (int n = 0; n < NUM_OPERATIONS; ++n) {
+                        int key = random.nextInt(NUM_KEYS);
+                        int op = random.nextInt(10);
+                        if (op < 5) {
+                            map.put(key, key);
+                        } else if (op < 8) {
+                            Integer v = map.get(key);
+                            assertTrue(v == null || v.intValue() == key);
+                        } else if (op < 9) {
+                            map.computeIfAbsent(key, k -> k);
+                        } else {
+                            map.remove(key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        // Once all entries expired the timer wheel removes them
+        Thread.sleep(200);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (map.size() > 0 && System.currentTimeMillis() < deadline) {
+            map.expire();
+            Thread.sleep(50);
+        }
+        assertEquals(0, map.size());
+        assertFalse(map.keySet().iterator().hasNext());
+    }
+
+    @Test
+    public void ScheduleWhileAdvancingTest() throws InterruptedException {
+        final int NUM_THREADS = 3;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        final LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, 10, TimeUnit.MILLISECONDS, false);
+        final AtomicInteger running = new AtomicInteger(NUM_THREADS);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS + 1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS + 1);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int offset = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Every insert schedules a new entry, slowly enough that the wheel advances in between
+                    for (int n = 0; n < NUM_KEYS_PER_THREAD; ++n) {
+                        map.put(offset + n, n);
+                        if ((n & 1023) == 0)
+                            Thread.sleep(1);
+                    }
+                    running.decrementAndGet();
+                    return null;
+                }
+
+            }));
+        }
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // Advances the wheel while the writers schedule entries
+                while (running.get() > 0) {
+                    map.expire();
+                }
+                return null;
+            }
+
+        }));
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        // All entries expire within two ticks of the wheel. An entry pushed to a bucket that was already emptied would only be found after a revolution of 4.3s
+        long deadline = System.currentTimeMillis() + 2000;
+        while (map.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            map.expire();
+        }
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void FingerprintTest() throws InterruptedException {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 5000;
+        final int NUM_ROUNDS = 10;
+        final LockFreeHashMap<Integer, Integer> fingerprinted = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, false, true);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int offset = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Every thread inserts and removes its own keys while the maps grow, so a key it inserted must always be found
+                    for (int round = 0; round < NUM_ROUNDS; ++round) {
+                        for (int k = offset; k < offset + NUM_KEYS_PER_THREAD; ++k) {
+                            fingerprinted.put(k, k);
+                            assertEquals(Integer.valueOf(k), fingerprinted.get(k));
+                            assertNull(fingerprinted.get(-k - 1));
+                        }
+                        for (int k = offset; k < offset + NUM_KEYS_PER_THREAD; ++k) {
+                            assertEquals(Integer.valueOf(k), fingerprinted.get(k));
+                            if (k % 3 == round % 3) {
+                                assertEquals(Integer.valueOf(k), fingerprinted.remove(k));
+                                assertNull(fingerprinted.get(k));
+                            }
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        for (int k = 0; k < NUM_THREADS * NUM_KEYS_PER_THREAD; ++k) {
+            assertEquals((k % 3 == (NUM_ROUNDS - 1) % 3) ? null : Integer.valueOf(k), fingerprinted.get(k));
+        }
+        assertSame(fingerprinted.data, fingerprinted.fingerprints.table);
+    }
+
+    private void unlinkDeletedEntries(final LockFreeHashMap<Integer, Integer> map) {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 64;
+        final int NUM_ROUNDS = 2000;
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Update-heavy keys, every round removes and inserts half of them again
+                    for (int round = 0; round < NUM_ROUNDS; ++round) {
+                        for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                            map.put(key, round);
+                            if ((key + round) % 2 == 0 && map.remove(key).intValue() != round) {
+                                throw new Exception("Could not remove key " + key);
+                            }
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        int lastRound = NUM_ROUNDS - 1;
+        for (int key = 0; key < NUM_THREADS * NUM_KEYS_PER_THREAD; ++key) {
+            assertEquals(((key + lastRound) % 2 == 0) ? null : Integer.valueOf(lastRound), map.get(key));
+        }
+        // Entries are unlinked by the operations that delete them, unless a resize froze their bucket
+        if (!map.isResizable)
+            assertEquals(0L, map.tombstones.sum());
+        map.sweep();
+        LockFreeHashMap.HashEntry<Integer, Integer>[] dataArr = map.data;
+        int linked = 0;
+        for (int i = 0; i < dataArr.length; ++i) {
+            LockFreeHashMap.HashEntry<Integer, Integer> e = LockFreeHashMap.entryAt(dataArr, LockFreeHashMap.bucketIndex(i, dataArr.length));
+            for (; e != null; e = e.getNext()) {
+                if (e.hash != LockFreeHashMap.MARKER_HASH) {
+                    assertFalse(e.isDeleted());
+                    ++linked;
+                }
+            }
+        }
+        assertEquals(map.size(), linked);
+    }
+
+    private void shrink(final LockFreeHashMap<Integer, Integer> map) {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 20000;
+        final int NUM_ROUNDS = 5;
+        final int NUM_RESIDENT_KEYS = 64;
+        final int firstResidentKey = NUM_THREADS * NUM_KEYS_PER_THREAD;
+        final AtomicInteger running = new AtomicInteger(NUM_THREADS);
+        for (int key = firstResidentKey; key < firstResidentKey + NUM_RESIDENT_KEYS; ++key) {
+            map.put(key, key);
+        }
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS + 1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS + 1);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        // Every round grows the map and shrinks it again
+                        for (int round = 0; round < NUM_ROUNDS; ++round) {
+                            for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                                map.put(key, key);
+                            }
+                            for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                                Integer res = map.remove(key);
+                                if (res == null || res.intValue() != key) {
+                                    throw new Exception("Got value " + res + " for key " + key);
+                                }
+                            }
+                        }
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    return null;
+                }
+
+            }));
+        }
+        results.add(exec.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                // Entries that are not modified are returned exactly once, while buckets are split and merged
+                while (running.get() > 0) {
+                    Set<Integer> keys = new HashSet<Integer>();
+                    for (Integer key : map.keySet()) {
+                        if (key >= firstResidentKey && !keys.add(key)) {
+                            throw new Exception("Got key " + key + " twice");
+                        }
+                    }
+                    if (keys.size() != NUM_RESIDENT_KEYS) {
+                        throw new Exception("Got " + keys.size() + " of " + NUM_RESIDENT_KEYS + " keys");
+                    }
+                }
+                return null;
+            }
+
+        }));
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        assertEquals(NUM_RESIDENT_KEYS, map.size());
+        map.trimToSize();
+        assertEquals(128, map.data.length);
+        for (int key = firstResidentKey; key < firstResidentKey + NUM_RESIDENT_KEYS; ++key) {
+            assertEquals(key, map.get(key).intValue());
+        }
+    }
+
+    private void compute(final LockFreeHashMap<Integer, Integer> map, final boolean sharedCounters) {
+        final int NUM_THREADS = 4;
+        final int NUM_COUNTERS = 64;
+        final int NUM_KEYS = NUM_COUNTERS * 300;
+        final AtomicInteger invocations = new AtomicInteger();
+        final int[][] computed = new int[NUM_THREADS][NUM_KEYS];
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int thread = i;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // All threads insert the same keys while the map keeps resizing, and count into the counters
+                    for (int n = 0; n < NUM_KEYS; ++n) {
+                        computed[thread][n] = map.computeIfAbsent(NUM_COUNTERS + n, k -> {
+                            invocations.incrementAndGet();
+                            return k * 10 + thread;
+                        });
+                        int counter = sharedCounters ? n % NUM_COUNTERS : thread * NUM_COUNTERS / NUM_THREADS + n % (NUM_COUNTERS / NUM_THREADS);
+                        map.merge(counter, 1, Integer::sum);
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        // Racing inserts of an absent key may all apply the mapping function, but every thread gets the value that won. No increment got lost.
+        assertTrue(invocations.get() >= NUM_KEYS && invocations.get() <= NUM_KEYS * NUM_THREADS);
+        for (int n = 0; n < NUM_KEYS; ++n) {
+            int v = map.get(NUM_COUNTERS + n).intValue();
+            for (int i = 0; i < NUM_THREADS; ++i) {
+                assertEquals(v, computed[i][n]);
+            }
+        }
+        for (int i = 0; i < NUM_COUNTERS; ++i) {
+            assertEquals(NUM_THREADS * NUM_KEYS / NUM_COUNTERS, map.get(i).intValue());
+        }
+        assertEquals(NUM_COUNTERS + NUM_KEYS, map.size());
+    }
+
+    private void bulkLoad(final LockFreeHashMap<Integer, Integer> map) {
+        final int NUM_THREADS = 3;
+        final int NUM_RESIDENT_KEYS = 1000;
+        final int NUM_LOADED_KEYS = 300000;
+        for (int key = 0; key < NUM_RESIDENT_KEYS; ++key) {
+            map.put(key, key);
+        }
+        final AtomicInteger running = new AtomicInteger(1);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int thread = i;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Resident keys are read and updated while the map grows and the partitions are loaded
+                    int rounds = 0;
+                    while (running.get() > 0 || rounds == 0) {
+                        for (int key = 0; key < NUM_RESIDENT_KEYS; ++key) {
+                            if (thread == 0) {
+                                map.put(key, key);
+                            } else {
+                                Integer v = map.get(key);
+                                if (v == null || v.intValue() != key) {
+                                    throw new Exception("Got " + v + " for key " + key);
+                                }
+                            }
+                        }
+                        ++rounds;
+                    }
+                    return rounds;
+                }
+
+            }));
+        }
+
+        List<Entry<Integer, Integer>> entries = new ArrayList<Entry<Integer, Integer>>(NUM_LOADED_KEYS);
+        for (int key = NUM_RESIDENT_KEYS; key < NUM_RESIDENT_KEYS + NUM_LOADED_KEYS; ++key) {
+            entries.add(new java.util.AbstractMap.SimpleEntry<Integer, Integer>(key, key * 10));
+        }
+        map.bulkLoad(entries, 4);
+        running.set(0);
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+        exec.shutdown();
+
+        assertEquals(NUM_RESIDENT_KEYS + NUM_LOADED_KEYS, map.size());
+        for (int key = NUM_RESIDENT_KEYS; key < NUM_RESIDENT_KEYS + NUM_LOADED_KEYS; ++key) {
+            assertEquals(key * 10, map.get(key).intValue());
+        }
+        int count = 0;
+        for (Integer key : map.keySet()) {
+            assertEquals((key < NUM_RESIDENT_KEYS) ? key : key * 10, map.get(key).intValue());
+            ++count;
+        }
+        assertEquals(NUM_RESIDENT_KEYS + NUM_LOADED_KEYS, count);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,841 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import extras.util.concurrent.LockFreeHashMap;
+import extras.util.concurrent.MapStats;
+
+/**
+ * Test cases for the features of the LockFreeHashMap object that the other map implementations do not have
+ */
+public class LockFreeHashMapFeatureTest {
+
+    //Array of values that will be put in the same bucket for map size 16
+    private int[] SAME_BUCKET_VALUES = {1,10,14,21,27};
+    
+    @Test
+    public void testResizeReusesEntries() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true);
+        
+        int count = 1;
+        while(map.nextResize() > 0) {
+            map.put(count, count * 10);
+            ++count;
+        }
+        Set<Object> entries = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<Object, Boolean>());
+        for(Entry<Integer, Integer> e : map.entrySet())
+            entries.add(e);
+        
+        //Resize, the last run of every chain is reused
+        map.put(count, count * 10);
+        assertEquals(32, map.data.length);
+        
+        int reused = 0;
+        for(Entry<Integer, Integer> e : map.entrySet()) {
+            if (entries.contains(e))
+                ++reused;
+            assertEquals(e.getKey() * 10, e.getValue().intValue());
+        }
+        assertTrue(reused >= entries.size() / 2);
+        for(int i = 1; i <= count; ++i) {
+            assertEquals(i*10, map.get(i).intValue());
+        }
+        
+        //Entries reused by the resize can be updated and removed
+        for(int i = 1; i <= count; ++i) {
+            assertEquals(i*10, map.put(i, i*20).intValue());
+        }
+        for(int i = 1; i <= count; i += 2) {
+            assertEquals(i*20, map.remove(i).intValue());
+            assertNull(map.get(i));
+        }
+        assertEquals(count / 2, map.size());
+    }
+    
+    @Test
+    public void testUnlinkDeletedEntries() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        
+        //Updates unlink the entries they replace
+        for(int i = 0; i < 100; ++i) {
+            for(int val : SAME_BUCKET_VALUES)
+                map.put(val, i);
+        }
+        assertEquals(SAME_BUCKET_VALUES.length, chainLength(map, SAME_BUCKET_VALUES[0]));
+        assertEquals(0.0, map.tombstoneRatio(), 0.0);
+        
+        //Removes unlink the removed entries
+        for(int i = 0; i < SAME_BUCKET_VALUES.length; ++i) {
+            assertEquals(99, map.remove(SAME_BUCKET_VALUES[i]).intValue());
+            assertEquals(SAME_BUCKET_VALUES.length - i - 1, chainLength(map, SAME_BUCKET_VALUES[0]));
+        }
+        assertTrue(map.isEmpty());
+        assertEquals(0.0, map.tombstoneRatio(), 0.0);
+        
+        //The bucket is usable after its last entry was unlinked
+        map.put(SAME_BUCKET_VALUES[0], 1);
+        map.put(SAME_BUCKET_VALUES[1], 2);
+        assertEquals(2, chainLength(map, SAME_BUCKET_VALUES[0]));
+        assertEquals(1, map.get(SAME_BUCKET_VALUES[0]).intValue());
+        assertEquals(2, map.get(SAME_BUCKET_VALUES[1]).intValue());
+    }
+    
+    @Test
+    public void testSweep() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        for(int val : SAME_BUCKET_VALUES)
+            map.put(val, val);
+        
+        //Delete entries without unlinking them, like a remove that found its bucket frozen
+        int deleted = 0;
+        for(Entry<Integer, Integer> e : map.entrySet()) {
+            if (e.getKey() != SAME_BUCKET_VALUES[2] && ((LockFreeHashMap.HashEntry<Integer, Integer>) e).casState(LockFreeHashMap.LIVE, LockFreeHashMap.DELETED)) {
+                map.tombstones.add(1);
+                ++deleted;
+            }
+        }
+        assertEquals(SAME_BUCKET_VALUES.length - 1, deleted);
+        assertEquals(deleted / (double) (deleted + SAME_BUCKET_VALUES.length), map.tombstoneRatio(), 0.0001);
+        
+        //Sweeps continue where the previous one stopped
+        int unlinked = 0;
+        for(int i = 0; i < 16; ++i)
+            unlinked += map.sweep(1);
+        assertEquals(deleted, unlinked);
+        assertEquals(0.0, map.tombstoneRatio(), 0.0);
+        assertEquals(1, chainLength(map, SAME_BUCKET_VALUES[0]));
+        assertEquals(SAME_BUCKET_VALUES[2], map.get(SAME_BUCKET_VALUES[2]).intValue());
+        assertEquals(0, map.sweep());
+    }
+    
+    @Test
+    public void testUpdateInPlace() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true, true);
+        for(int val : SAME_BUCKET_VALUES)
+            map.put(val, val);
+        Set<Object> entries = java.util.Collections.newSetFromMap(new java.util.IdentityHashMap<Object, Boolean>());
+        for(Entry<Integer, Integer> e : map.entrySet())
+            entries.add(e);
+        
+        //Updates swap the value of the existing entry
+        for(int i = 0; i < 100; ++i) {
+            for(int val : SAME_BUCKET_VALUES)
+                assertEquals(val + i, map.put(val, val + i + 1).intValue());
+        }
+        assertEquals(SAME_BUCKET_VALUES.length, chainLength(map, SAME_BUCKET_VALUES[0]));
+        for(Entry<Integer, Integer> e : map.entrySet()) {
+            assertTrue(entries.contains(e));
+            assertEquals(e.getKey() + 100, e.getValue().intValue());
+        }
+        
+        //Compare and set semantics
+        int key = SAME_BUCKET_VALUES[0];
+        assertFalse(map.replace(key, key, 0));
+        assertTrue(map.replace(key, key + 100, 0));
+        assertEquals(0, map.replace(key, 1).intValue());
+        assertEquals(1, map.putIfAbsent(key, 2).intValue());
+        assertFalse(map.remove(key, 2));
+        assertTrue(map.remove(key, 1));
+        assertNull(map.get(key));
+        assertNull(map.replace(key, 3));
+        assertNull(map.put(key, 4));
+        assertEquals(4, map.get(key).intValue());
+        assertEquals(SAME_BUCKET_VALUES.length, map.size());
+        
+        //Entries copied by a resize are updated in place as well
+        int count = 100;
+        while(map.nextResize() > 0) {
+            map.put(count, count);
+            ++count;
+        }
+        map.put(count, count);
+        assertEquals(32, map.data.length);
+        for(int i = 100; i <= count; ++i) {
+            assertEquals(i, map.put(i, i * 10).intValue());
+            assertEquals(i * 10, map.get(i).intValue());
+        }
+        assertTrue(map.containsValue(4));
+        assertEquals(4, map.remove(key).intValue());
+        assertFalse(map.containsValue(4));
+    }
+    
+    @Test
+    public void testShrink() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, 0.15f, false);
+        for(int i = 0; i < 1000; ++i)
+            map.put(i, i);
+        assertEquals(2048, map.data.length);
+        
+        //Removes halve the capacity once the size falls below the shrink threshold
+        for(int i = 0; i < 990; ++i)
+            assertEquals(i, map.remove(i).intValue());
+        assertEquals(64, map.data.length);
+        assertEquals(10, map.size());
+        for(int i = 990; i < 1000; ++i)
+            assertEquals(i, map.get(i).intValue());
+        for(int i = 990; i < 1000; ++i)
+            map.remove(i);
+        assertEquals(16, map.data.length);
+        assertTrue(map.isEmpty());
+        
+        //The shrink factor is capped at a quarter of the load factor
+        assertEquals(0.2f, new LockFreeHashMap<Integer, Integer>(16, 0.8f, 0.5f, false).shrinkFactor, 0.0f);
+        assertEquals(0.0f, new LockFreeHashMap<Integer, Integer>(16, 0.8f, true).shrinkFactor, 0.0f);
+    }
+    
+    @Test
+    public void testShrinkIterator() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, 0.15f, false);
+        for(int i = 0; i < 200; ++i)
+            map.put(i, i);
+        assertEquals(256, map.data.length);
+        
+        //Keep the shrinking resize running, only the buckets that are accessed are migrated
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        map.resizeExecutor = new java.util.concurrent.Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        int i = 0;
+        while(tasks.isEmpty())
+            map.remove(i++);
+        assertTrue(map.isResizing());
+        assertEquals(128, map.forwarding.nextTable.length);
+        for(int j = i; j < 200; j += 3)
+            assertEquals(j, map.put(j, j * 10).intValue());
+        
+        //Merged buckets are visited once
+        Set<Integer> keys = new HashSet<Integer>();
+        for(Entry<Integer, Integer> e : map.entrySet()) {
+            assertTrue(keys.add(e.getKey()));
+            assertEquals((e.getKey() - i) % 3 == 0 ? e.getKey() * 10 : e.getKey(), e.getValue().intValue());
+        }
+        assertEquals(200 - i, keys.size());
+        
+        tasks.get(0).run();
+        assertFalse(map.isResizing());
+        assertEquals(128, map.data.length);
+        assertEquals(200 - i, map.size());
+        for(int j = i; j < 200; ++j)
+            assertEquals((j - i) % 3 == 0 ? j * 10 : j, map.get(j).intValue());
+    }
+    
+    @Test
+    public void testIdleResizeExecutor() {
+        //The executor accepts the sweep tasks but never runs them
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, new java.util.concurrent.Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        int n = 0;
+        while(tasks.isEmpty())
+            map.put(n++, 0);
+        assertTrue(map.isResizing());
+        
+        //Writers migrate the remaining buckets once the task is overdue, later resizes are not blocked
+        for(; n < 10000; ++n)
+            map.put(n, n);
+        assertTrue(tasks.size() > 1);
+        assertTrue(map.data.length >= 8192);
+        assertEquals(10000, map.size());
+        for(int i = tasks.size() - 1; i >= 0; --i)
+            tasks.get(i).run();
+        assertFalse(map.isResizing());
+        for(int i = 0; i < 10000; ++i)
+            assertNotNull(map.get(i));
+    }
+    
+    @Test
+    public void testTrimToSize() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true);
+        for(int i = 0; i < 1000; ++i)
+            map.put(i, i);
+        for(int i = 0; i < 900; ++i)
+            map.remove(i);
+        assertEquals(2048, map.data.length);
+        
+        //Smallest capacity that holds 100 entries
+        map.trimToSize();
+        assertEquals(256, map.data.length);
+        assertEquals(100, map.size());
+        int count = 0;
+        for(Entry<Integer, Integer> e : map.entrySet()) {
+            assertEquals(e.getKey(), e.getValue());
+            ++count;
+        }
+        assertEquals(100, count);
+        
+        //Compact unlinks deleted entries and trims the capacity
+        for(int i = 900; i < 990; ++i)
+            map.remove(i);
+        map.compact();
+        assertEquals(16, map.data.length);
+        assertEquals(0.0, map.tombstoneRatio(), 0.0);
+        for(int i = 990; i < 1000; ++i)
+            assertEquals(i, map.get(i).intValue());
+        assertNull(map.put(1000, 1000));
+        assertEquals(11, map.size());
+        
+        //Fixed size maps are not trimmed
+        LockFreeHashMap<Integer, Integer> fixed = new LockFreeHashMap<Integer, Integer>(1024, 0.65f, false);
+        fixed.put(1, 1);
+        fixed.trimToSize();
+        assertEquals(1024, fixed.data.length);
+    }
+    
+    @Test
+    public void testBulkOperations() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true);
+        long expectedSum = 0;
+        for(int i = 0; i < 10000; ++i) {
+            map.put(i, i * 2);
+            expectedSum += i * 2;
+        }
+        
+        //Sequential and parallel traversals see the same pairs
+        for(long threshold : new long[] {Long.MAX_VALUE, 1}) {
+            final Set<Integer> keys = java.util.Collections.newSetFromMap(new java.util.concurrent.ConcurrentHashMap<Integer, Boolean>());
+            final java.util.concurrent.atomic.AtomicLong sum = new java.util.concurrent.atomic.AtomicLong();
+            map.forEach(threshold, (k, v) -> {
+                assertTrue(keys.add(k));
+                assertEquals(k * 2, v.intValue());
+            });
+            assertEquals(10000, keys.size());
+            map.forEachValue(threshold, v -> sum.addAndGet(v));
+            assertEquals(expectedSum, sum.get());
+            keys.clear();
+            map.forEachKey(threshold, k -> keys.add(k));
+            assertEquals(10000, keys.size());
+            
+            assertEquals(expectedSum, map.reduceToLong(threshold, (k, v) -> v, 0L, Long::sum));
+            assertEquals(expectedSum, map.reduceToDouble(threshold, (k, v) -> v, 0.0, Double::sum), 0.0);
+            assertEquals(9999, map.reduce(threshold, (k, v) -> k, Math::max).intValue());
+            assertNull(map.reduce(threshold, (k, v) -> (Integer) null, Math::max));
+            assertEquals(4321, map.search(threshold, (k, v) -> (v == 8642) ? k : null).intValue());
+            assertNull(map.search(threshold, (k, v) -> (v < 0) ? k : null));
+        }
+        
+        //Deleted pairs are skipped
+        for(int i = 0; i < 10000; i += 2)
+            map.remove(i);
+        assertEquals(5000L, map.reduceToLong(1, (k, v) -> 1L, 0L, Long::sum));
+    }
+    
+    @Test
+    public void testSpliterators() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true);
+        long expectedSum = 0;
+        for(int i = 0; i < 10000; ++i) {
+            map.put(i, i * 2);
+            expectedSum += i * 2;
+        }
+        
+        Spliterator<Integer> keys = map.keySet().spliterator();
+        assertEquals(Spliterator.DISTINCT | Spliterator.CONCURRENT | Spliterator.NONNULL, keys.characteristics());
+        assertEquals(Spliterator.CONCURRENT | Spliterator.NONNULL, map.values().spliterator().characteristics());
+        assertEquals(Spliterator.DISTINCT | Spliterator.CONCURRENT | Spliterator.NONNULL, map.entrySet().spliterator().characteristics());
+        assertEquals(10000L, keys.estimateSize());
+        
+        //Splits cover disjoint bucket ranges
+        Spliterator<Integer> split = keys.trySplit();
+        assertNotNull(split);
+        assertEquals(5000L, keys.estimateSize());
+        assertEquals(5000L, split.estimateSize());
+        final Set<Integer> seen = new HashSet<Integer>();
+        keys.forEachRemaining(k -> assertTrue(seen.add(k)));
+        while(split.tryAdvance(k -> assertTrue(seen.add(k)))) {
+        }
+        assertEquals(10000, seen.size());
+        
+        //Parallel streams
+        assertEquals(10000L, map.keySet().parallelStream().distinct().count());
+        assertEquals(expectedSum, map.values().parallelStream().mapToLong(Integer::longValue).sum());
+        assertEquals(expectedSum, map.entrySet().parallelStream().mapToLong(e -> e.getKey() * 2).sum());
+        assertEquals(0L, map.entrySet().parallelStream().filter(e -> e.getValue() != e.getKey() * 2).count());
+        
+        //Small ranges are not split
+        Spliterator<Entry<Integer, Integer>> entries = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true).entrySet().spliterator();
+        for(int i = 0; i < 4; ++i)
+            entries.trySplit();
+        assertNull(entries.trySplit());
+        assertFalse(entries.tryAdvance(e -> fail()));
+    }
+    
+    /**
+     * Number of entries linked in the bucket of a key, including deleted entries
+     */
+    private int chainLength(LockFreeHashMap<Integer, Integer> map, int key) {
+        int length = 0;
+        LockFreeHashMap.HashEntry<Integer, Integer>[] dataArr = map.data;
+        LockFreeHashMap.HashEntry<Integer, Integer> e = LockFreeHashMap.entryAt(dataArr, LockFreeHashMap.bucketIndex(LockFreeHashMap.hash(Integer.valueOf(key).hashCode()), dataArr.length));
+        for(; e != null; e = e.getNext()) {
+            if (e.hash != LockFreeHashMap.MARKER_HASH)
+                ++length;
+        }
+        return length;
+    }
+    
+    @Test
+    public void testComputeInPlace() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true, true);
+        for(int i = 0; i < 1000; ++i) {
+            map.merge(i % 100, 1, Integer::sum);
+        }
+        assertEquals(100, map.size());
+        for(int i = 0; i < 100; ++i) {
+            assertEquals(10, map.get(i).intValue());
+            assertEquals(10, map.computeIfAbsent(i, k -> 0).intValue());
+        }
+        for(int i = 0; i < 100; i += 2) {
+            assertNull(map.computeIfPresent(i, (k, v) -> null));
+        }
+        assertEquals(50, map.size());
+        assertEquals(50, map.mappingCount());
+        for(int i = 0; i < 100; ++i) {
+            assertEquals((i % 2 == 0) ? null : Integer.valueOf(10), map.get(i));
+        }
+    }
+    
+    @Test
+    public void testBulkLoad() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true);
+        for(int i = 0; i < 10; ++i) {
+            map.put(i, i);
+        }
+        
+        //A single resize grows the map by several doublings, the entries are spread over the new buckets
+        map.ensureCapacity(100000);
+        assertEquals(131072, map.data.length);
+        assertEquals(10, map.size());
+        int count = 0;
+        for(Entry<Integer, Integer> e : map.entrySet()) {
+            assertEquals(e.getKey(), e.getValue());
+            ++count;
+        }
+        assertEquals(10, count);
+        map.ensureCapacity(1000);
+        assertEquals(131072, map.data.length);
+        
+        //The last pair of a key wins, pairs with null values are skipped
+        List<Entry<Integer, Integer>> entries = new ArrayList<Entry<Integer, Integer>>();
+        for(int i = 0; i < 50000; ++i) {
+            entries.add(new AbstractMap.SimpleEntry<Integer, Integer>(i % 40000, i));
+        }
+        entries.add(new AbstractMap.SimpleEntry<Integer, Integer>(-1, null));
+        map.bulkLoad(entries, 4);
+        assertEquals(131072, map.data.length);
+        assertEquals(40000, map.size());
+        for(int i = 0; i < 40000; ++i) {
+            assertEquals((i < 10000) ? i + 40000 : i, map.get(i).intValue());
+        }
+        assertNull(map.get(-1));
+        
+        //Copies are presized
+        Map<Integer, Integer> source = new java.util.HashMap<Integer, Integer>();
+        for(int i = 0; i < 20000; ++i) {
+            source.put(i, i * 3);
+        }
+        LockFreeHashMap<Integer, Integer> copy = new LockFreeHashMap<Integer, Integer>(source);
+        assertEquals(32768, copy.data.length);
+        assertEquals(source, copy);
+        //Keys that are already present are counted as well, putAll presizes for the upper bound
+        copy.putAll(map);
+        assertEquals(131072, copy.data.length);
+        assertEquals(40000, copy.size());
+        assertEquals(40000, copy.get(0).intValue());
+    }
+    
+    @Test
+    public void testGetAll() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true);
+        
+        //Batched inserts, the last pair of a key wins and null values are skipped
+        Integer[] keys = new Integer[1000];
+        Integer[] values = new Integer[1000];
+        for(int i = 0; i < 1000; ++i) {
+            keys[i] = i % 800;
+            values[i] = (i == 999) ? null : i;
+        }
+        map.putAll(keys, values);
+        assertEquals(800, map.size());
+        assertEquals(199, map.get(199).intValue());
+        assertEquals(900, map.get(100).intValue());
+        assertEquals(300, map.get(300).intValue());
+        
+        //Batched lookups fill the values in the order of the keys
+        Integer[] lookup = {300, 5000, null, 100, 2000, 799};
+        Integer[] out = new Integer[lookup.length];
+        assertEquals(3, map.getAll(lookup, out));
+        assertEquals(300, out[0].intValue());
+        assertNull(out[1]);
+        assertNull(out[2]);
+        assertEquals(900, out[3].intValue());
+        assertNull(out[4]);
+        assertEquals(799, out[5].intValue());
+        
+        Map<Integer, Integer> result = map.getAll(java.util.Arrays.asList(1, 5000, 2, 3000));
+        assertEquals(2, result.size());
+        assertEquals(801, result.get(1).intValue());
+        assertEquals(802, result.get(2).intValue());
+        
+        try {
+            map.getAll(lookup, new Integer[2]);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    @Test
+    public void testBoundedCache() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, 100, null);
+        for(int i = 0; i < 100; ++i) {
+            map.put(i, i);
+        }
+        assertEquals(100, map.size());
+        assertEquals(0, map.evictionCount());
+        
+        //Entries that are read between writes are spared by the clock hand, the map stays within its budget
+        for(int i = 100; i < 1100; ++i) {
+            map.put(i, i);
+            for(int hot = 0; hot < 10; ++hot) {
+                assertEquals(hot, map.get(hot).intValue());
+            }
+            assertTrue(map.size() <= 101);
+        }
+        assertEquals(1100 - map.size(), map.evictionCount());
+        assertEquals(map.size(), map.weightedSize());
+        
+        //Weighted entries
+        LockFreeHashMap<Integer, String> cache = new LockFreeHashMap<Integer, String>(16, 0.8f, 1000, (k, v) -> v.length());
+        for(int i = 0; i < 50; ++i) {
+            cache.put(i, "0123456789");
+        }
+        assertEquals(500, cache.weightedSize());
+        cache.put(0, "01234567890123456789");
+        assertEquals(510, cache.weightedSize());
+        cache.remove(1);
+        assertEquals(500, cache.weightedSize());
+        assertEquals(20, cache.computeIfPresent(2, (k, v) -> v + v).length());
+        assertEquals(510, cache.weightedSize());
+        for(int i = 50; i < 500; ++i) {
+            cache.put(i, "0123456789");
+            assertTrue(cache.weightedSize() <= 1010);
+        }
+        long weight = 0;
+        for(String v : cache.values()) {
+            weight += v.length();
+        }
+        assertEquals(weight, cache.weightedSize());
+        assertTrue(cache.evictionCount() > 0);
+        cache.clear();
+        assertEquals(0, cache.weightedSize());
+        
+        try {
+            new LockFreeHashMap<Integer, Integer>(16, 0.8f, 0, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    @Test
+    public void testExpiry() throws InterruptedException {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, 200, TimeUnit.MILLISECONDS, false);
+        for(int i = 0; i < 100; ++i) {
+            map.put(i, i);
+        }
+        assertEquals(100, map.size());
+        assertEquals(5, map.get(5).intValue());
+        
+        //Expired entries are deleted for readers before the timer wheel removes them
+        Thread.sleep(300);
+        for(int i = 0; i < 100; ++i) {
+            assertNull(map.get(i));
+            assertFalse(map.containsKey(i));
+        }
+        assertFalse(map.entrySet().iterator().hasNext());
+        assertEquals(100, map.size());
+        Thread.sleep(200);
+        assertEquals(100, map.expire());
+        assertEquals(0, map.size());
+        assertEquals(0, map.expire());
+        
+        //Writes treat expired entries as absent
+        for(int i = 0; i < 10; ++i) {
+            map.put(i, i);
+        }
+        Thread.sleep(300);
+        assertNull(map.put(0, 1));
+        assertNull(map.putIfAbsent(1, 1));
+        assertEquals(1, map.get(1).intValue());
+        assertNull(map.replace(2, 1));
+        assertFalse(map.containsKey(2));
+        assertNull(map.remove(3));
+        assertFalse(map.remove(4, 4));
+        assertEquals(1, map.merge(5, 1, (a, b) -> a + b).intValue());
+        
+        //Reads restart the expiry time if entries are refreshed on access
+        LockFreeHashMap<Integer, Integer> sessions = new LockFreeHashMap<Integer, Integer>(16, 0.8f, 500, TimeUnit.MILLISECONDS, true);
+        sessions.put(0, 0);
+        sessions.put(1, 1);
+        for(int i = 0; i < 20; ++i) {
+            Thread.sleep(50);
+            assertEquals(0, sessions.get(0).intValue());
+        }
+        assertNull(sessions.get(1));
+        sessions.clear();
+        assertEquals(0, sessions.expire());
+        
+        try {
+            new LockFreeHashMap<Integer, Integer>(16, 0.8f, 0, TimeUnit.SECONDS, false);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    @Test
+    public void testMetrics() throws Exception {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true);
+        assertNull(map.metrics());
+        ObjectName name = map.enableMetrics("testMetrics");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(name));
+        try {
+            new LockFreeHashMap<Integer, Integer>().enableMetrics("testMetrics");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        
+        for(int i = 0; i < 100; ++i) {
+            map.put(i, i);
+        }
+        for(int i = 0; i < 200; ++i) {
+            map.get(i);
+        }
+        map.remove(0);
+        assertEquals(99L, server.getAttribute(name, "Size"));
+        assertEquals(101L, server.getAttribute(name, "Writes"));
+        assertEquals(200L, server.getAttribute(name, "Reads"));
+        assertEquals(3L, server.getAttribute(name, "ResizeCount"));
+        assertEquals(128, server.getAttribute(name, "Capacity"));
+        assertEquals(0L, server.getAttribute(name, "CasFailures"));
+        LockFreeHashMapMXBean metrics = map.metrics();
+        assertTrue(metrics.getResizeTimeNanos() >= metrics.getLastResizeTimeNanos());
+        assertTrue(metrics.getLastResizeTimeNanos() > 0);
+        assertTrue(metrics.getOperationsPerSecond() > 0.0);
+        //Reading the rate does not reset it
+        assertTrue(metrics.getOperationsPerSecond() > 0.0);
+        
+        //A resize that started before the metrics were enabled is not recorded
+        MapMetrics late = new MapMetrics(map);
+        late.resizeCompleted();
+        assertEquals(0L, late.getResizeCount());
+        assertEquals(0L, late.getResizeTimeNanos());
+        
+        map.disableMetrics();
+        assertFalse(server.isRegistered(name));
+        assertNull(map.metrics());
+        map.put(0, 0);
+        assertEquals(101L, metrics.getWrites());
+    }
+    
+    @Test
+    public void testStats() throws InterruptedException {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        for(int i = 0; i < 10; ++i) {
+            map.put(i, i);
+        }
+        MapStats stats = map.stats();
+        assertEquals(16, stats.getCapacity());
+        assertEquals(12, stats.getResizeThreshold());
+        assertEquals(0, stats.getNextCapacity());
+        assertEquals(10, stats.getSize());
+        assertEquals(10, stats.getLiveEntries());
+        assertEquals(0, stats.getDeletedEntries());
+        long[] histogram = stats.getChainLengthHistogram();
+        assertEquals(stats.getMaxChainLength() + 1, histogram.length);
+        assertEquals(stats.getEmptyBuckets(), histogram[0]);
+        long buckets = 0, entries = 0;
+        for(int i = 0; i < histogram.length; ++i) {
+            buckets += histogram[i];
+            entries += i * histogram[i];
+        }
+        assertEquals(16, buckets);
+        assertEquals(10, entries);
+        assertTrue(stats.getEstimatedBytes() >= 10 * 24 + 16 * 4);
+        
+        //Entries of a bounded map keep the access bit in the state word and take no extra space
+        LockFreeHashMap<Integer, Integer> bounded = new LockFreeHashMap<Integer, Integer>(16, 0.8f, 100, null);
+        for(int i = 0; i < 10; ++i) {
+            bounded.put(i, i);
+        }
+        assertEquals(stats.getEstimatedBytes(), bounded.stats().getEstimatedBytes());
+        
+        //Keys with the same hash code end up in one chain
+        LockFreeHashMap<String, Integer> colliding = new LockFreeHashMap<String, Integer>(16, 0.8f, false);
+        String[] parts = { "Aa", "BB" };
+        for(String a : parts) {
+            for(String b : parts) {
+                for(String c : parts) {
+                    colliding.put(a + b + c, 0);
+                }
+            }
+        }
+        stats = colliding.stats();
+        assertEquals(8, stats.getMaxChainLength());
+        assertEquals(15, stats.getEmptyBuckets());
+        assertEquals(8.0, stats.getAverageChainLength(), 0.0);
+        
+        //Expired entries are dead weight until the timer wheel removes them
+        LockFreeHashMap<Integer, Integer> expiring = new LockFreeHashMap<Integer, Integer>(16, 0.8f, 50, TimeUnit.MILLISECONDS, false);
+        for(int i = 0; i < 5; ++i) {
+            expiring.put(i, i);
+        }
+        Thread.sleep(100);
+        stats = expiring.stats();
+        assertEquals(0, stats.getLiveEntries());
+        assertEquals(5, stats.getDeletedEntries());
+        
+        //Markers of unlinked entries are no deleted entries, the scan agrees with the tombstone counter
+        LockFreeHashMap<Integer, Integer> removed = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true);
+        for(int i = 0; i < 1000; ++i) {
+            removed.put(i, i);
+        }
+        for(int i = 0; i < 1000; ++i) {
+            removed.remove(i);
+        }
+        stats = removed.stats();
+        assertEquals(0, removed.size());
+        assertEquals(0.0, removed.tombstoneRatio(), 0.0);
+        assertEquals(0, stats.getDeletedEntries());
+        assertEquals(0, stats.getLiveEntries());
+        assertTrue(stats.getMarkers() > 0);
+        LockFreeHashMap<Integer, Integer> pairs = new LockFreeHashMap<Integer, Integer>();
+        for(int i = 0; i < 100; ++i) {
+            pairs.put(i, i);
+            pairs.remove(i);
+        }
+        assertEquals(0.0, pairs.tombstoneRatio(), 0.0);
+        assertEquals(0, pairs.stats().getDeletedEntries());
+        
+        //While a resize is running every bucket is counted once, in the array that holds its entries
+        LockFreeHashMap<Integer, Integer> resizing = new LockFreeHashMap<Integer, Integer>(16, 0.8f, true);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        resizing.resizeExecutor = new java.util.concurrent.Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        int n = 0;
+        while(tasks.isEmpty()) {
+            resizing.put(n, n);
+            ++n;
+        }
+        for(int i = 0; i < 4; ++i) {
+            resizing.put(i, -i);
+        }
+        assertTrue(resizing.isResizing());
+        stats = resizing.stats();
+        assertEquals(32, stats.getNextCapacity());
+        assertEquals(n, stats.getLiveEntries());
+        long resizingBuckets = 0;
+        for(long b : stats.getChainLengthHistogram()) {
+            resizingBuckets += b;
+        }
+        assertTrue(resizingBuckets > 16 && resizingBuckets < 32);
+        tasks.get(0).run();
+        stats = resizing.stats();
+        assertEquals(n, stats.getLiveEntries());
+        resizingBuckets = 0;
+        for(long b : stats.getChainLengthHistogram()) {
+            resizingBuckets += b;
+        }
+        assertEquals(32, resizingBuckets);
+    }
+    
+    @Test
+    public void testFingerprints() {
+        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, false, true);
+        LockFreeHashMap<Integer, Integer> plain = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, false);
+        for(int i = 0; i < 1000; ++i) {
+            map.put(i, i);
+            plain.put(i, i);
+        }
+        assertEquals(map.data.length, map.fingerprints.tags.length);
+        assertSame(map.data, map.fingerprints.table);
+        for(int i = 0; i < 1000; ++i) {
+            assertEquals(Integer.valueOf(i), map.get(i));
+        }
+        
+        //Most absent keys are ruled out by the summary alone
+        int ruledOut = 0;
+        for(int i = 1000; i < 2000; ++i) {
+            assertNull(map.get(i));
+            int hash = LockFreeHashMap.hash(Integer.valueOf(i).hashCode());
+            if(!map.fingerprints.mayContain(LockFreeHashMap.bucketIndex(hash, map.data.length), hash))
+                ++ruledOut;
+        }
+        assertTrue(ruledOut > 500);
+        assertTrue(map.stats().getEstimatedBytes() > plain.stats().getEstimatedBytes());
+        
+        //Removed keys can be inserted again, shrinking and clearing rebuild the summary
+        for(int i = 0; i < 1000; i += 2) {
+            assertEquals(Integer.valueOf(i), map.remove(i));
+        }
+        for(int i = 0; i < 1000; ++i) {
+            assertEquals((i % 2 == 0) ? null : Integer.valueOf(i), map.get(i));
+        }
+        for(int i = 0; i < 1000; i += 2) {
+            assertNull(map.putIfAbsent(i, -i));
+            assertEquals(Integer.valueOf(-i), map.get(i));
+        }
+        map.trimToSize();
+        assertSame(map.data, map.fingerprints.table);
+        for(int i = 0; i < 1000; ++i) {
+            assertEquals(Integer.valueOf((i % 2 == 0) ? -i : i), map.get(i));
+        }
+        map.clear();
+        assertSame(map.data, map.fingerprints.table);
+        assertNull(map.get(1));
+        assertEquals(Integer.valueOf(2), map.computeIfAbsent(1, k -> 2));
+        assertEquals(Integer.valueOf(2), map.get(1));
+        
+        //Values updated in place keep their entry and fingerprint
+        LockFreeHashMap<Integer, Integer> inPlace = new LockFreeHashMap<Integer, Integer>(16, 0.65f, true, true, true);
+        for(int i = 0; i < 100; ++i) {
+            inPlace.put(i, i);
+            inPlace.put(i, i + 1);
+        }
+        for(int i = 0; i < 200; ++i) {
+            assertEquals((i < 100) ? Integer.valueOf(i + 1) : null, inPlace.get(i));
+        }
+        assertNull(plain.fingerprints);
+    }
+}
\ No newline at end of file
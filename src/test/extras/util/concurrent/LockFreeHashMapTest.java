@@ -5,19 +5,23 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import extras.util.concurrent.LockFreeHashMap;
+import extras.util.concurrent.MapEngine;
 
 /**
  * Simple test cases for the LockFreeHashMap object
@@ -29,6 +33,25 @@ public class LockFreeHashMapTest {
     //Array of values that will be put in the same bucket for map size 16
     private int[] SAME_BUCKET_VALUES = {1,10,14,21,27};
     
+    /**
+     * Engine that creates the maps under test. Subclasses run the test cases against other map implementations
+     */
+    protected MapEngine engine() {
+        return MapEngine.CHAINED;
+    }
+
+    protected <K, V> ConcurrentMap<K, V> newMap(int initialCapacity, float loadFactor, boolean isResizable) {
+        return engine().newMap(initialCapacity, loadFactor, isResizable);
+    }
+    
+    protected <K, V> ConcurrentMap<K, V> newMap() {
+        return engine().newMap();
+    }
+    
+    protected long mappingCount(Map<?, ?> map) {
+        return ((LockFreeHashMap<?, ?>) map).mappingCount();
+    }
+    
     @Test
     public void testInit() {
         //Test default capacity
@@ -37,7 +60,7 @@ public class LockFreeHashMapTest {
         assertEquals(threshold, map.resizeThreshold);
         assertEquals(LockFreeHashMap.DEFAULT_INITIAL_CAPACITY, map.data.length);
         assertEquals(LockFreeHashMap.DEFAULT_LOAD_FACTOR, map.loadFactor, 0);
-        assertEquals(0, map.size);
+        assertEquals(0, map.size());
         
         
         //Test custom capacity and load factor
@@ -45,7 +68,7 @@ public class LockFreeHashMapTest {
         assertEquals((int)(64 * 0.8f), map.resizeThreshold);
         assertEquals(64, map.data.length);
         assertEquals(0.8f, map.loadFactor, 0);
-        assertEquals(0, map.size);
+        assertEquals(0, map.size());
         
         //Test minimal capacity enforcement
         map = new LockFreeHashMap<Integer, Integer>(5, 0.5f, false);
@@ -60,25 +83,25 @@ public class LockFreeHashMapTest {
     
     @Test
     public void testTypes() {
-        LockFreeHashMap<Integer, Integer> map1 = new LockFreeHashMap<Integer, Integer>();
+        ConcurrentMap<Integer, Integer> map1 = newMap();
         for(int v : SAME_BUCKET_VALUES) {
             map1.put(v, v+1);
             assertEquals(v+1, map1.get(v).intValue());
         }
         
-        LockFreeHashMap<Long, String> map2 = new LockFreeHashMap<Long, String>();
+        ConcurrentMap<Long, String> map2 = newMap();
         for(int v : SAME_BUCKET_VALUES) {
             map2.put((long)v, Integer.toString(v));
             assertEquals(Integer.toString(v), map2.get((long)v));
         }
         
-        LockFreeHashMap<String, String> map3 = new LockFreeHashMap<String, String>();
+        ConcurrentMap<String, String> map3 = newMap();
         for(int v : SAME_BUCKET_VALUES) {
             map3.put(Integer.toString(v), Integer.toString(v+1));
             assertEquals(Integer.toString(v+1), map3.get(Integer.toString(v)));
         }
         
-        LockFreeHashMap<Integer, String[]> map4 = new LockFreeHashMap<Integer, String[]>();
+        ConcurrentMap<Integer, String[]> map4 = newMap();
         String[] strArr = new String[SAME_BUCKET_VALUES.length];
         for(int i=0; i<SAME_BUCKET_VALUES.length;++i) {
             strArr[i] = Integer.toString(SAME_BUCKET_VALUES[i]);
@@ -88,7 +111,7 @@ public class LockFreeHashMapTest {
             Assert.assertArrayEquals(strArr, map4.get(v));
         }
                 
-        LockFreeHashMap<Integer, TestObject> map5 = new LockFreeHashMap<Integer, TestObject>();
+        ConcurrentMap<Integer, TestObject> map5 = newMap();
         for(int v : SAME_BUCKET_VALUES) {
             map5.put(v, new TestObject(v+1,v+2));
             assertNotNull(map5.get(v));
@@ -99,7 +122,7 @@ public class LockFreeHashMapTest {
 
     @Test
     public void testPutGet() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         
         //Test null insert
         assertNull(map.put(null, null));
@@ -128,7 +151,7 @@ public class LockFreeHashMapTest {
     
     @Test
     public void testPutIfAbsent() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         
         assertNull(map.putIfAbsent(null, null));
         assertNull(map.putIfAbsent(0, null));
@@ -153,7 +176,7 @@ public class LockFreeHashMapTest {
 
     @Test
     public void testKeyDelete() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         
         //The remove of non existing value
         int test_key = 5;
@@ -197,7 +220,7 @@ public class LockFreeHashMapTest {
     
     @Test
     public void testKeyValueDelete() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         
         //The remove of non existing value
         int test_key = 5;
@@ -229,7 +252,7 @@ public class LockFreeHashMapTest {
     
     @Test
     public void testSize() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         
         assertEquals(0, map.size());
         assertTrue(map.isEmpty());
@@ -258,6 +281,7 @@ public class LockFreeHashMapTest {
             map.put(i, i * 10);
         }
         assertEquals(100, map.size());
+        assertEquals(100, mappingCount(map));
         
         for(int i = 0; i < 100; i = i+2) {
             map.remove(i);
@@ -271,7 +295,7 @@ public class LockFreeHashMapTest {
 
     @Test
     public void testContains() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         List<Integer> values = getValueList();
         for(int v : values)
             map.put(v, v*10);
@@ -289,7 +313,7 @@ public class LockFreeHashMapTest {
     
     @Test
     public void testReplace() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         
         assertNull(map.replace(null, null));
         assertNull(map.replace(0, null));
@@ -335,7 +359,7 @@ public class LockFreeHashMapTest {
     
     @Test
     public void testIteratorSets() {
-        LockFreeHashMap<Integer, Integer> map = new LockFreeHashMap<Integer, Integer>(16, 0.8f, false);
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, false);
         List<Integer> values = getValueList();
         for(int v : values)
             map.put(v, v*10);
@@ -464,6 +488,51 @@ public class LockFreeHashMapTest {
         return values;        
     }
     
+    @Test
+    public void testCompute() {
+        ConcurrentMap<Integer, Integer> map = newMap(16, 0.8f, true);
+        
+        //The mapping function is only applied to absent keys
+        final int[] calls = new int[1];
+        assertEquals(10, map.computeIfAbsent(1, k -> { ++calls[0]; return k * 10; }).intValue());
+        assertEquals(10, map.computeIfAbsent(1, k -> { ++calls[0]; return k * 20; }).intValue());
+        assertEquals(1, calls[0]);
+        assertNull(map.computeIfAbsent(2, k -> null));
+        assertFalse(map.containsKey(2));
+        
+        //Present keys are remapped, a null result removes the key
+        assertNull(map.computeIfPresent(2, (k, v) -> v + 1));
+        assertFalse(map.containsKey(2));
+        assertEquals(11, map.computeIfPresent(1, (k, v) -> v + 1).intValue());
+        assertNull(map.computeIfPresent(1, (k, v) -> null));
+        assertFalse(map.containsKey(1));
+        
+        //Compute handles absent and present keys
+        assertEquals(3, map.compute(3, (k, v) -> (v == null) ? k : v + k).intValue());
+        assertEquals(6, map.compute(3, (k, v) -> (v == null) ? k : v + k).intValue());
+        assertNull(map.compute(3, (k, v) -> null));
+        assertNull(map.compute(3, (k, v) -> null));
+        assertFalse(map.containsKey(3));
+        
+        //Merge counts occurrences across resizes
+        for(int i = 0; i < 1000; ++i) {
+            map.merge(i % 100, 1, Integer::sum);
+        }
+        assertEquals(100, map.size());
+        for(int i = 0; i < 100; ++i) {
+            assertEquals(10, map.get(i).intValue());
+        }
+        assertNull(map.merge(5, 1, (a, b) -> null));
+        assertFalse(map.containsKey(5));
+        assertEquals(99, map.size());
+        
+        try {
+            map.computeIfAbsent(null, k -> 1);
+            fail();
+        } catch (NullPointerException e) {
+        }
+    }
+    
     public class TestObject {
         int test1;
         int test2;
@@ -0,0 +1,91 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import extras.util.concurrent.LockFreeOpenHashMap;
+import extras.util.concurrent.MapEngine;
+
+/**
+ * Runs the concurrent test cases against the LockFreeOpenHashMap object
+ * 
+ * @author Simon Loesing
+ */
+public class LockFreeOpenHashMapConcurrencyTest extends LockFreeHashMapConcurrencyTest {
+
+    @Override
+    protected MapEngine engine() {
+        return MapEngine.OPEN_ADDRESSING;
+    }
+
+    @Override
+    protected int nextResize(Map<?, ?> map) {
+        return ((LockFreeOpenHashMap<?, ?>) map).nextResize();
+    }
+
+    @Override
+    protected long mappingCount(Map<?, ?> map) {
+        return ((LockFreeOpenHashMap<?, ?>) map).mappingCount();
+    }
+
+    @Test
+    public void RemovedSlotReclaimTest() {
+        final int NUM_THREADS = 8;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        final int LIVE_KEYS = 32;
+        final LockFreeOpenHashMap<Integer, Integer> map = new LockFreeOpenHashMap<Integer, Integer>(1024, 0.8f, false);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstKey = i * NUM_KEYS_PER_THREAD;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Every key is removed again, the slots are reclaimed by resizes at the same capacity
+                    for (int key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                        map.put(key, key * 10);
+                        if (key >= firstKey + LIVE_KEYS) {
+                            int old = key - LIVE_KEYS;
+                            Integer res = map.remove(old);
+                            if (res == null || res.intValue() != old * 10) {
+                                throw new Exception("Got value " + res + " for key " + old);
+                            }
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        assertEquals(1024, map.data.length);
+        assertEquals(NUM_THREADS * LIVE_KEYS, map.size());
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            int lastKey = (i + 1) * NUM_KEYS_PER_THREAD;
+            for (int key = lastKey - LIVE_KEYS; key < lastKey; ++key) {
+                assertEquals(key * 10, map.get(key).intValue());
+            }
+        }
+    }
+}
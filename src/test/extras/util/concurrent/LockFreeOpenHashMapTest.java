@@ -0,0 +1,117 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import extras.util.concurrent.LockFreeOpenHashMap;
+import extras.util.concurrent.MapEngine;
+
+/**
+ * Runs the simple test cases against the LockFreeOpenHashMap object
+ * 
+ * @author Simon Loesing
+ */
+public class LockFreeOpenHashMapTest extends LockFreeHashMapTest {
+
+    @Override
+    protected MapEngine engine() {
+        return MapEngine.OPEN_ADDRESSING;
+    }
+    
+    @Override
+    protected long mappingCount(Map<?, ?> map) {
+        return ((LockFreeOpenHashMap<?, ?>) map).mappingCount();
+    }
+    
+    @Override
+    @Test
+    public void testInit() {
+        //Test default capacity
+        LockFreeOpenHashMap<Integer, Integer> map = new LockFreeOpenHashMap<Integer, Integer>();
+        int threshold = (int)(LockFreeOpenHashMap.DEFAULT_INITIAL_CAPACITY * LockFreeOpenHashMap.DEFAULT_LOAD_FACTOR);
+        assertEquals(threshold, map.data.resizeThreshold);
+        assertEquals(LockFreeOpenHashMap.DEFAULT_INITIAL_CAPACITY, map.data.length);
+        assertEquals(LockFreeOpenHashMap.DEFAULT_INITIAL_CAPACITY * 2, map.data.kvs.length);
+        assertEquals(0, map.size());
+        
+        //Test custom capacity and load factor
+        map = new LockFreeOpenHashMap<Integer, Integer>(40, 0.8f, false);
+        assertEquals((int)(64 * 0.8f), map.data.resizeThreshold);
+        assertEquals(64, map.data.length);
+        assertEquals(0.8f, map.loadFactor, 0);
+        
+        //Test minimal capacity and load factor enforcement
+        map = new LockFreeOpenHashMap<Integer, Integer>(5, 0.3f, false);
+        assertEquals(16, map.data.length);
+        assertEquals(LockFreeOpenHashMap.MINIMAL_LOAD_FACTOR, map.loadFactor, 0);
+    }
+    
+    @Override
+    @Test
+    public void testResize() {
+        LockFreeOpenHashMap<Integer, Integer> map = new LockFreeOpenHashMap<Integer, Integer>(16, 0.8f, true);
+        
+        assertEquals(12, map.nextResize());
+        
+        int count = 1;
+        while(map.nextResize() > 0) {
+            map.put(count, count * 10);
+            ++count;
+        }
+        assertEquals(12, map.size());
+        
+        map.put(count, count * 10);
+        ++count;
+        
+        assertEquals(32, map.data.length);
+        assertEquals(25, map.data.resizeThreshold);
+        assertEquals(13, map.size());
+        assertEquals(13, map.mappingCount());
+        assertEquals(12, map.nextResize());
+        
+        for(int i = 1; i < count; ++i) {
+            assertEquals(i*10, map.get(i).intValue());
+        }
+    }
+    
+    @Test
+    public void testResizeDropsRemovedKeys() {
+        LockFreeOpenHashMap<Integer, Integer> map = new LockFreeOpenHashMap<Integer, Integer>(16, 0.8f, false);
+        
+        //Removed keys keep their slot until the next resize
+        for(int i = 0; i < 12; ++i) {
+            map.put(i, i * 10);
+        }
+        for(int i = 0; i < 10; ++i) {
+            assertEquals(i * 10, map.remove(i).intValue());
+        }
+        assertEquals(0, map.nextResize());
+        
+        //The resize only reclaims the slots, the map is not resizable
+        map.put(100, 1000);
+        assertEquals(16, map.data.length);
+        assertEquals(12 - 3, map.nextResize());
+        assertEquals(3, map.size());
+        for(int i = 0; i < 10; ++i) {
+            assertNull(map.get(i));
+        }
+        assertEquals(100, map.get(10).intValue());
+        assertEquals(110, map.get(11).intValue());
+        assertEquals(1000, map.get(100).intValue());
+        
+        //Once the mappings do not fit anymore, the map grows anyway
+        for(int i = 200; i < 300; ++i) {
+            map.put(i, i * 10);
+        }
+        assertTrue(map.data.length >= 128);
+        assertEquals(103, map.size());
+        for(int i = 200; i < 300; ++i) {
+            assertEquals(i * 10, map.get(i).intValue());
+        }
+    }
+}
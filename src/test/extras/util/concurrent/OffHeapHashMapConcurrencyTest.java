@@ -0,0 +1,146 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import extras.util.concurrent.OffHeapHashMap;
+import extras.util.concurrent.Serializers;
+
+/**
+ * Concurrent test cases for the off-heap map
+ * 
+ * @author Simon Loesing
+ */
+public class OffHeapHashMapConcurrencyTest {
+
+    @Test
+    public void PutRemoveTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 50000;
+        final OffHeapHashMap<Long, Long> map = new OffHeapHashMap<Long, Long>(1024, Serializers.LONG, Serializers.LONG);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final long firstKey = (long) i << 40;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Inserts, updates and removes in shared buckets
+                    for (long key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                        if (map.put(key, key) != null) {
+                            throw new Exception("Key " + key + " was already present");
+                        }
+                        if (!Long.valueOf(key).equals(map.put(key, key * 10))) {
+                            throw new Exception("Could not update key " + key);
+                        }
+                        if (key % 2 == 0 && !Long.valueOf(key * 10).equals(map.remove(key))) {
+                            throw new Exception("Could not remove key " + key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+            exec.shutdown();
+
+            assertEquals(NUM_THREADS * NUM_KEYS_PER_THREAD / 2, map.size());
+            for (int i = 0; i < NUM_THREADS; ++i) {
+                long firstKey = (long) i << 40;
+                for (long key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                    assertEquals((key % 2 == 0) ? null : Long.valueOf(key * 10), map.get(key));
+                }
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        } finally {
+            map.close();
+        }
+    }
+
+    @Test
+    public void GetDuringUpdateTest() {
+        final int NUM_WRITERS = 2;
+        final int NUM_READERS = 2;
+        final int NUM_KEYS = 1000;
+        final OffHeapHashMap<Long, String> map = new OffHeapHashMap<Long, String>(256, Serializers.LONG, Serializers.STRING);
+        for (long key = 0; key < NUM_KEYS; ++key) {
+            map.put(key, "v" + key);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_WRITERS + NUM_READERS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_WRITERS + NUM_READERS);
+        for (int i = 0; i < NUM_WRITERS; ++i) {
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Stable keys are only updated, their entries are recycled constantly
+                    Random rand = new Random();
+                    for (int n = 0; n < 200000; ++n) {
+                        long key = rand.nextInt(NUM_KEYS);
+                        map.put(key, "v" + key + "-" + n);
+                        long other = NUM_KEYS + rand.nextInt(NUM_KEYS);
+                        if (map.putIfAbsent(other, "x") != null)
+                            map.remove(other);
+                    }
+                    done.set(true);
+                    return null;
+                }
+
+            }));
+        }
+        for (int i = 0; i < NUM_READERS; ++i) {
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    Random rand = new Random();
+                    while (!done.get()) {
+                        long key = rand.nextInt(NUM_KEYS);
+                        String value = map.get(key);
+                        if (value == null || !(value.equals("v" + key) || value.startsWith("v" + key + "-"))) {
+                            throw new Exception("Key " + key + " has value " + value);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+            exec.shutdown();
+            assertTrue(map.size() >= NUM_KEYS);
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        } finally {
+            map.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import extras.util.concurrent.OffHeapHashMap;
+import extras.util.concurrent.Serializers;
+
+/**
+ * Simple test cases for the off-heap map
+ * 
+ * @author Simon Loesing
+ */
+public class OffHeapHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        OffHeapHashMap<Long, String> map = new OffHeapHashMap<Long, String>(16, Serializers.LONG, Serializers.STRING);
+        try {
+            assertNull(map.put(1L, "one"));
+            assertNull(map.put(2L, "two"));
+            assertEquals("one", map.put(1L, "uno"));
+            assertEquals("uno", map.get(1L));
+            assertEquals("two", map.get(2L));
+            assertNull(map.get(3L));
+            assertEquals(2, map.size());
+
+            //Put if absent and replace
+            assertEquals("uno", map.putIfAbsent(1L, "eins"));
+            assertNull(map.putIfAbsent(3L, "three"));
+            assertNull(map.replace(4L, "four"));
+            assertFalse(map.containsKey(4L));
+            assertEquals("three", map.replace(3L, "drei"));
+            assertFalse(map.replace(3L, "three", "tres"));
+            assertTrue(map.replace(3L, "drei", "tres"));
+            assertEquals("tres", map.get(3L));
+            assertTrue(map.containsValue("tres"));
+
+            //Remove
+            assertFalse(map.remove(3L, "drei"));
+            assertTrue(map.remove(3L, "tres"));
+            assertEquals("two", map.remove(2L));
+            assertNull(map.remove(2L));
+            assertEquals(1, map.size());
+
+            map.clear();
+            assertTrue(map.isEmpty());
+            assertNull(map.get(1L));
+        } finally {
+            map.close();
+        }
+    }
+
+    @Test
+    public void testIterators() {
+        OffHeapHashMap<Integer, byte[]> map = new OffHeapHashMap<Integer, byte[]>(16, Serializers.INTEGER, Serializers.BYTES);
+        try {
+            Map<Integer, byte[]> expected = new HashMap<Integer, byte[]>();
+            for (int i = 0; i < 1000; ++i) {
+                // Values of different sizes, up to a large block
+                byte[] value = new byte[i * 7];
+                if (value.length > 0)
+                    value[value.length - 1] = (byte) i;
+                map.put(i, value);
+                expected.put(i, value);
+            }
+            assertEquals(1000, map.size());
+
+            int count = 0;
+            for (Entry<Integer, byte[]> e : map.entrySet()) {
+                assertArrayEquals(expected.get(e.getKey()), e.getValue());
+                ++count;
+            }
+            assertEquals(1000, count);
+
+            // Remove all odd keys by iterator
+            for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext();) {
+                if (it.next() % 2 == 1)
+                    it.remove();
+            }
+            assertEquals(500, map.size());
+            assertEquals(500, map.values().size());
+            assertFalse(map.containsKey(1));
+            assertArrayEquals(expected.get(998), map.get(998));
+        } finally {
+            map.close();
+        }
+    }
+
+    @Test
+    public void testMemoryReuse() {
+        OffHeapHashMap<Long, String> map = new OffHeapHashMap<Long, String>(1024, Serializers.LONG, Serializers.STRING);
+        try {
+            for (long key = 0; key < 1000; ++key) {
+                map.put(key, "value" + key);
+            }
+            long allocated = map.nativeMemory();
+
+            // Removed and replaced entries are recycled, the map does not allocate new slabs
+            for (int round = 0; round < 100; ++round) {
+                for (long key = 0; key < 1000; ++key) {
+                    map.put(key, "value" + (key + round));
+                    if (key % 3 == 0)
+                        map.remove(key);
+                }
+            }
+            assertEquals(allocated, map.nativeMemory());
+        } finally {
+            map.close();
+        }
+    }
+
+    @Test
+    public void testClose() {
+        OffHeapHashMap<Long, Long> map = new OffHeapHashMap<Long, Long>(Serializers.LONG, Serializers.LONG);
+        map.put(1L, 1L);
+        map.close();
+        assertTrue(map.isClosed());
+        // A second close is ignored
+        map.close();
+
+        try {
+            map.get(1L);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            map.put(2L, 2L);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
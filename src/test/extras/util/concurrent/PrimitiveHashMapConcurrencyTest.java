@@ -0,0 +1,168 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import extras.util.concurrent.LockFreeIntIntMap;
+import extras.util.concurrent.LockFreeLongLongMap;
+import extras.util.concurrent.LockFreeLongObjectMap;
+
+/**
+ * Concurrent test cases for the maps with primitive keys
+ * 
+ * @author Simon Loesing
+ */
+public class PrimitiveHashMapConcurrencyTest {
+
+    @Test
+    public void LongLongResizeTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS_PER_THREAD = 100000;
+        final LockFreeLongLongMap map = new LockFreeLongLongMap(16, 0.65f, true);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final long firstKey = (long) i << 40;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Inserts, updates and removes run while the map keeps resizing
+                    for (long key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                        if (map.put(key, key) != LockFreeLongLongMap.NO_VALUE && key != 0) {
+                            throw new Exception("Key " + key + " was already present");
+                        }
+                        if (map.put(key, key * 10) != key) {
+                            throw new Exception("Could not update key " + key);
+                        }
+                        if (key % 2 == 0 && map.remove(key) != key * 10) {
+                            throw new Exception("Could not remove key " + key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        assertEquals(NUM_THREADS * NUM_KEYS_PER_THREAD / 2, map.size());
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            long firstKey = (long) i << 40;
+            for (long key = firstKey; key < firstKey + NUM_KEYS_PER_THREAD; ++key) {
+                assertEquals((key % 2 == 0) ? -1L : key * 10, map.getOrDefault(key, -1L));
+            }
+        }
+    }
+
+    @Test
+    public void IntIntCounterTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS = 1000;
+        final int NUM_INCREMENTS = 100;
+        final LockFreeIntIntMap map = new LockFreeIntIntMap(16, 0.65f, true);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Increments must not get lost, also while the map resizes
+                    for (int n = 0; n < NUM_INCREMENTS; ++n) {
+                        for (int key = 0; key < NUM_KEYS; ++key) {
+                            while (true) {
+                                if (!map.containsKey(key)) {
+                                    if (map.putIfAbsent(key, 1) == LockFreeIntIntMap.NO_VALUE && map.get(key) >= 1) {
+                                        break;
+                                    }
+                                    continue;
+                                }
+                                int old = map.get(key);
+                                if (map.replace(key, old, old + 1)) {
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        assertEquals(NUM_KEYS, map.size());
+        for (int key = 0; key < NUM_KEYS; ++key) {
+            assertEquals(NUM_THREADS * NUM_INCREMENTS, map.get(key));
+        }
+    }
+
+    @Test
+    public void LongObjectGetTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS = 50000;
+        final LockFreeLongObjectMap<String> map = new LockFreeLongObjectMap<String>(16, 0.65f, true);
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int thread = i;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Every thread inserts every key, only one insert succeeds
+                    for (long key = 0; key < NUM_KEYS; ++key) {
+                        String value = "v" + thread;
+                        String res = map.putIfAbsent(key, value);
+                        String current = map.get(key);
+                        if (current == null || (res != null && !res.equals(current))) {
+                            throw new Exception("Got value " + current + " for key " + key);
+                        }
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        assertEquals(NUM_KEYS, map.size());
+    }
+}
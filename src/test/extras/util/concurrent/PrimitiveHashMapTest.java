@@ -0,0 +1,141 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import extras.util.concurrent.LockFreeIntIntMap;
+import extras.util.concurrent.LockFreeLongLongMap;
+import extras.util.concurrent.LockFreeLongObjectMap;
+
+/**
+ * Simple test cases for the maps with primitive keys
+ * 
+ * @author Simon Loesing
+ */
+public class PrimitiveHashMapTest {
+
+    @Test
+    public void testLongLongMap() {
+        LockFreeLongLongMap map = new LockFreeLongLongMap(16, 0.8f, false);
+        
+        assertEquals(LockFreeLongLongMap.NO_VALUE, map.put(1L, 10L));
+        assertEquals(LockFreeLongLongMap.NO_VALUE, map.put(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(10L, map.put(1L, 11L));
+        assertEquals(11L, map.get(1L));
+        assertEquals(Long.MAX_VALUE, map.get(Long.MIN_VALUE));
+        assertEquals(LockFreeLongLongMap.NO_VALUE, map.get(2L));
+        assertEquals(-1L, map.getOrDefault(2L, -1L));
+        assertEquals(2, map.size());
+        
+        //Put if absent and replace
+        assertEquals(11L, map.putIfAbsent(1L, 12L));
+        assertEquals(LockFreeLongLongMap.NO_VALUE, map.putIfAbsent(2L, 0L));
+        assertTrue(map.containsKey(2L));
+        assertEquals(0L, map.getOrDefault(2L, -1L));
+        assertEquals(LockFreeLongLongMap.NO_VALUE, map.replace(3L, 30L));
+        assertFalse(map.containsKey(3L));
+        assertEquals(11L, map.replace(1L, 12L));
+        assertFalse(map.replace(1L, 11L, 13L));
+        assertTrue(map.replace(1L, 12L, 13L));
+        assertEquals(13L, map.get(1L));
+        
+        //Remove
+        assertFalse(map.remove(1L, 12L));
+        assertTrue(map.remove(1L, 13L));
+        assertFalse(map.containsKey(1L));
+        assertEquals(Long.MAX_VALUE, map.remove(Long.MIN_VALUE));
+        assertEquals(LockFreeLongLongMap.NO_VALUE, map.remove(Long.MIN_VALUE));
+        assertEquals(1, map.size());
+        
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(2L));
+    }
+    
+    @Test
+    public void testIntIntMap() {
+        LockFreeIntIntMap map = new LockFreeIntIntMap(16, 0.8f, false);
+        
+        assertEquals(LockFreeIntIntMap.NO_VALUE, map.put(1, 10));
+        assertEquals(LockFreeIntIntMap.NO_VALUE, map.put(-1, -10));
+        assertEquals(10, map.put(1, 11));
+        assertEquals(11, map.get(1));
+        assertEquals(-10, map.get(-1));
+        assertEquals(-1, map.getOrDefault(2, -1));
+        assertEquals(2, map.size());
+        
+        assertEquals(11, map.putIfAbsent(1, 12));
+        assertTrue(map.replace(1, 11, 12));
+        assertFalse(map.replace(1, 11, 13));
+        assertEquals(12, map.get(1));
+        
+        assertFalse(map.remove(1, 11));
+        assertEquals(12, map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertTrue(map.remove(-1, -10));
+        assertTrue(map.isEmpty());
+    }
+    
+    @Test
+    public void testLongObjectMap() {
+        LockFreeLongObjectMap<String> map = new LockFreeLongObjectMap<String>(16, 0.8f, false);
+        
+        assertNull(map.put(1L, "a"));
+        assertNull(map.put(2L, null));
+        assertFalse(map.containsKey(2L));
+        assertEquals("a", map.put(1L, "b"));
+        assertEquals("b", map.get(1L));
+        assertNull(map.get(2L));
+        
+        assertEquals("b", map.putIfAbsent(1L, "c"));
+        assertNull(map.replace(2L, "c"));
+        assertFalse(map.replace(1L, "a", "c"));
+        assertTrue(map.replace(1L, "b", "c"));
+        assertEquals("c", map.get(1L));
+        
+        assertFalse(map.remove(1L, "b"));
+        assertTrue(map.remove(1L, "c"));
+        assertNull(map.remove(1L));
+        assertEquals(0, map.size());
+    }
+    
+    @Test
+    public void testResize() {
+        LockFreeLongLongMap map = new LockFreeLongLongMap(16, 0.8f, true);
+        
+        assertEquals(12, map.nextResize());
+        
+        long count = 1;
+        while(map.nextResize() > 0) {
+            map.put(count, count * 10);
+            ++count;
+        }
+        assertEquals(12, map.size());
+        
+        map.put(count, count * 10);
+        ++count;
+        
+        assertEquals(32, map.data.length);
+        assertEquals(25, map.resizeThreshold);
+        assertEquals(13, map.size());
+        assertEquals(13, map.mappingCount());
+        assertEquals(12, map.nextResize());
+        
+        for(long i = 1; i < count; ++i) {
+            assertEquals(i * 10, map.get(i));
+        }
+        
+        //Keys that only differ in the upper bits
+        for(long i = 1; i <= 1000; ++i) {
+            map.put(i << 32, i);
+        }
+        assertEquals(1013, map.size());
+        for(long i = 1; i <= 1000; ++i) {
+            assertEquals(i, map.get(i << 32));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import extras.util.concurrent.MapEngine;
+import extras.util.concurrent.SplitOrderedHashMap;
+
+/**
+ * Runs the concurrent test cases against the SplitOrderedHashMap object
+ * 
+ * @author Simon Loesing
+ */
+public class SplitOrderedHashMapConcurrencyTest extends LockFreeHashMapConcurrencyTest {
+
+    @Override
+    protected MapEngine engine() {
+        return MapEngine.SPLIT_ORDERED;
+    }
+
+    @Override
+    protected int nextResize(Map<?, ?> map) {
+        return ((SplitOrderedHashMap<?, ?>) map).nextResize();
+    }
+
+    @Override
+    protected long mappingCount(Map<?, ?> map) {
+        return ((SplitOrderedHashMap<?, ?>) map).mappingCount();
+    }
+
+    @Test
+    public void GrowUpdateTest() {
+        final int NUM_THREADS = 4;
+        final int NUM_KEYS = 20000;
+        final SplitOrderedHashMap<Integer, Integer> map = new SplitOrderedHashMap<Integer, Integer>(16, 0.5f, true);
+
+        for (int key = 0; key < NUM_KEYS; ++key) {
+            map.put(key, 0);
+        }
+
+        ExecutorService exec = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
+            final int firstNewKey = (i + 1) * 1000000;
+            results.add(exec.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    // Increments must not get lost while new keys keep the map growing
+                    for (int i = 0; i < NUM_KEYS; ++i) {
+                        while (true) {
+                            Integer old = map.get(i);
+                            if (map.replace(i, old, old + 1)) {
+                                break;
+                            }
+                        }
+                        map.put(firstNewKey + i, i);
+                    }
+                    return null;
+                }
+
+            }));
+        }
+
+        try {
+            for (Future<Integer> r : results) {
+                r.get();
+            }
+        } catch (Exception e) {
+            System.out.println(e);
+            fail();
+        }
+
+        for (int key = 0; key < NUM_KEYS; ++key) {
+            assertEquals(NUM_THREADS, map.get(key).intValue());
+        }
+        assertEquals(NUM_KEYS * (NUM_THREADS + 1), map.size());
+    }
+}
@@ -0,0 +1,121 @@
+package extras.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import extras.util.concurrent.MapEngine;
+import extras.util.concurrent.SplitOrderedHashMap;
+
+/**
+ * Runs the simple test cases against the SplitOrderedHashMap object
+ * 
+ * @author Simon Loesing
+ */
+public class SplitOrderedHashMapTest extends LockFreeHashMapTest {
+
+    @Override
+    protected MapEngine engine() {
+        return MapEngine.SPLIT_ORDERED;
+    }
+    
+    @Override
+    protected long mappingCount(Map<?, ?> map) {
+        return ((SplitOrderedHashMap<?, ?>) map).mappingCount();
+    }
+    
+    @Override
+    @Test
+    public void testInit() {
+        //Test default capacity
+        SplitOrderedHashMap<Integer, Integer> map = new SplitOrderedHashMap<Integer, Integer>();
+        assertEquals(SplitOrderedHashMap.DEFAULT_INITIAL_CAPACITY, map.index.length);
+        assertEquals(SplitOrderedHashMap.DEFAULT_INITIAL_CAPACITY, map.index.segments[0].length);
+        assertEquals(31 - 7, map.index.segments.length);
+        assertEquals(0, map.size());
+        
+        //Test custom capacity and load factor
+        map = new SplitOrderedHashMap<Integer, Integer>(40, 0.8f, false);
+        assertEquals(64, map.index.length);
+        assertEquals(0.8f, map.loadFactor, 0);
+        assertEquals((int)(64 * 0.8f), map.nextResize());
+        
+        //Test minimal capacity and load factor enforcement
+        map = new SplitOrderedHashMap<Integer, Integer>(5, 0.3f, false);
+        assertEquals(16, map.index.length);
+        assertEquals(SplitOrderedHashMap.MINIMAL_LOAD_FACTOR, map.loadFactor, 0);
+    }
+    
+    @Override
+    @Test
+    public void testResize() {
+        SplitOrderedHashMap<Integer, Integer> map = new SplitOrderedHashMap<Integer, Integer>(16, 0.8f, true);
+        
+        assertEquals(12, map.nextResize());
+        
+        int count = 1;
+        while(map.nextResize() > 0) {
+            map.put(count, count * 10);
+            ++count;
+        }
+        assertEquals(12, map.size());
+        
+        map.put(count, count * 10);
+        ++count;
+        
+        assertEquals(32, map.index.length);
+        assertEquals(13, map.size());
+        assertEquals(13, map.mappingCount());
+        assertEquals(12, map.nextResize());
+        
+        //New buckets are only allocated and initialized once they are accessed
+        assertNull(map.index.segments[1]);
+        for(int i = 1; i < count; ++i) {
+            assertEquals(i*10, map.get(i).intValue());
+        }
+        assertNotNull(map.index.segments[1]);
+    }
+    
+    @Test
+    public void testResizeKeepsNodes() {
+        SplitOrderedHashMap<Integer, Integer> map = new SplitOrderedHashMap<Integer, Integer>(16, 0.5f, true);
+        
+        for(int i = 0; i < 1000; ++i) {
+            map.put(i, i * 10);
+        }
+        assertTrue(map.index.length >= 2048);
+        
+        //The list stays sorted by split-order key and holds one sentinel per initialized bucket
+        int nodes = 0;
+        int sentinels = 0;
+        SplitOrderedHashMap.Node prev = map.index.head;
+        for(SplitOrderedHashMap.Node n = prev.getNext(); n != null; n = n.getNext()) {
+            assertTrue(SplitOrderedHashMap.compare(prev.hash, n.hash) <= 0);
+            if(n.key == null) {
+                ++sentinels;
+            } else {
+                ++nodes;
+            }
+            prev = n;
+        }
+        assertEquals(1000, nodes);
+        assertTrue(sentinels < map.index.length);
+        
+        for(int i = 0; i < 1000; i += 2) {
+            assertEquals(i * 10, map.remove(i).intValue());
+        }
+        for(int i = 0; i < 1000; ++i) {
+            if(i % 2 == 0) {
+                assertNull(map.get(i));
+            } else {
+                assertEquals(i * 10, map.get(i).intValue());
+            }
+        }
+        assertEquals(500, map.size());
+    }
+}